@@ -106,6 +106,8 @@ class PathImplTests extends Spec {
 
     def getProperty(key: String, defaultValue: AnyRef): AnyRef = null
 
+    def getProperties(keys: String*): Array[AnyRef] = null
+
     def setProperty(key: String, value: AnyRef) {}
 
     def removeProperty(key: String): AnyRef = null
@@ -144,6 +146,14 @@ class PathImplTests extends Spec {
 
     def getSingleRelationship(`type` : RelationshipType, dir: Direction): Relationship = null
 
+    def getDegree: Int = 0
+
+    def getDegree(`type` : RelationshipType): Int = 0
+
+    def getDegree(direction: Direction): Int = 0
+
+    def getDegree(`type` : RelationshipType, direction: Direction): Int = 0
+
     def createRelationshipTo(otherNode: Node, `type` : RelationshipType): Relationship = null
 
     def traverse(traversalOrder: Order, stopEvaluator: StopEvaluator, returnableEvaluator: ReturnableEvaluator, relationshipType: RelationshipType, direction: Direction): Traverser = null
@@ -160,6 +170,14 @@ class PathImplTests extends Spec {
 
     def getProperty(key: String, defaultValue: AnyRef): AnyRef = null
 
+    def getProperties(keys: String*): Array[AnyRef] = null
+
+    def getLongProperty(key: String, defaultValue: Long): Long = defaultValue
+
+    def getDoubleProperty(key: String, defaultValue: Double): Double = defaultValue
+
+    def getBooleanProperty(key: String, defaultValue: Boolean): Boolean = defaultValue
+
     def setProperty(key: String, value: AnyRef) {}
 
     def removeProperty(key: String): AnyRef = null
@@ -20,7 +20,7 @@
 package org.neo4j.jmx;
 
 @ManagementInterface( name = Primitives.NAME )
-@Description( "Estimates of the numbers of different kinds of Neo4j primitives" )
+@Description( "Estimates and counts of the numbers of different kinds of Neo4j primitives" )
 public interface Primitives
 {
     final String NAME = "Primitive count";
@@ -36,4 +36,10 @@ public interface Primitives
 
     @Description( "An estimation of the number of properties used in this Neo4j instance" )
     long getNumberOfPropertyIdsInUse();
+
+    @Description( "The number of nodes in this Neo4j instance" )
+    long getNodeCount();
+
+    @Description( "The number of relationships in this Neo4j instance" )
+    long getRelationshipCount();
 }
@@ -72,5 +72,15 @@ public final class PrimitivesBean extends ManagementBeanProvider
         {
             return nodeManager.getNumberOfIdsInUse( RelationshipType.class );
         }
+
+        public long getNodeCount()
+        {
+            return nodeManager.getNodeCount();
+        }
+
+        public long getRelationshipCount()
+        {
+            return nodeManager.getRelationshipCount();
+        }
     }
 }
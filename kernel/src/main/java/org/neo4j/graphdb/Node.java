@@ -258,6 +258,104 @@ public interface Node extends PropertyContainer
     public Relationship getSingleRelationship( RelationshipType type,
             Direction dir );
 
+    /**
+     * Returns the number of relationships attached to this node. A loop, a
+     * relationship that starts and ends at this node, is counted once.
+     * <p>
+     * The relationships are counted without being loaded, which makes this
+     * a lot cheaper than iterating over {@link #getRelationships()} for nodes
+     * with many relationships. The degree is kept as a count, and found
+     * without reading the relationships at all, only for nodes that have
+     * their relationships grouped by type and direction, see the
+     * <code>dense_node_threshold</code> setting. For any other node the
+     * relationship records are still read one by one, so the time it takes
+     * grows with the number of relationships. The same goes for the other
+     * <code>getDegree</code> methods.
+     *
+     * @return the number of relationships attached to this node
+     */
+    public int getDegree();
+
+    /**
+     * Returns the number of relationships of type <code>type</code> attached
+     * to this node, regardless of direction.
+     *
+     * @param type the given relationship type
+     * @return the number of relationships of the given type attached to this
+     *         node
+     */
+    public int getDegree( RelationshipType type );
+
+    /**
+     * Returns the number of relationships attached to this node that have the
+     * given <code>direction</code>. A loop is counted for both
+     * {@link Direction#OUTGOING} and {@link Direction#INCOMING}.
+     *
+     * @param direction the given direction, where <code>Direction.OUTGOING</code>
+     *            means that this node is the start node and
+     *            <code>Direction.INCOMING</code> means that this node is the
+     *            end node
+     * @return the number of relationships with the given direction attached
+     *         to this node
+     */
+    public int getDegree( Direction direction );
+
+    /**
+     * Returns the number of relationships of type <code>type</code> attached
+     * to this node that have the given <code>direction</code>.
+     *
+     * @param type the given relationship type
+     * @param direction the given direction
+     * @return the number of relationships of the given type and direction
+     *         attached to this node
+     */
+    public int getDegree( RelationshipType type, Direction direction );
+
+    /**
+     * Returns the value of a <code>byte</code>, <code>short</code>,
+     * <code>int</code> or <code>long</code> property as a <code>long</code>,
+     * or a default value if there's no property with the given key.
+     * <p>
+     * Unlike {@link #getProperty(String, Object)} the value isn't boxed.
+     * Looking up the node by its id still boxes the id for the cache lookup
+     * though, so a read may create one small object per call unless the id
+     * is small enough for {@link Long#valueOf(long)} to reuse it.
+     *
+     * @param key the property key
+     * @param defaultValue the value returned if there's no property with the
+     *            given key
+     * @return the property value associated with the given key
+     * @throws ClassCastException if the property value isn't an integral
+     *             number
+     */
+    public long getLongProperty( String key, long defaultValue );
+
+    /**
+     * Returns the value of a number property as a <code>double</code>, or a
+     * default value if there's no property with the given key. The value is
+     * read without being boxed, see {@link #getLongProperty(String, long)}.
+     *
+     * @param key the property key
+     * @param defaultValue the value returned if there's no property with the
+     *            given key
+     * @return the property value associated with the given key
+     * @throws ClassCastException if the property value isn't a number
+     */
+    public double getDoubleProperty( String key, double defaultValue );
+
+    /**
+     * Returns the value of a <code>boolean</code> property, or a default
+     * value if there's no property with the given key. The value is read
+     * without being boxed, see {@link #getLongProperty(String, long)}.
+     *
+     * @param key the property key
+     * @param defaultValue the value returned if there's no property with the
+     *            given key
+     * @return the property value associated with the given key
+     * @throws ClassCastException if the property value isn't a boolean
+     */
+    public boolean getBooleanProperty( String key, boolean defaultValue );
+
     /**
      * Creates a relationship between this node and another node. The
      * relationship is of type <code>type</code>. It starts at this node and
@@ -84,6 +84,21 @@ public interface PropertyContainer
      */
     public Object getProperty( String key, Object defaultValue );
 
+    /**
+     * Returns the property values associated with the given keys. The values
+     * are returned in an array in the same order as the keys, with
+     * <code>null</code> for keys that have no property associated with them.
+     * <p>
+     * Getting several properties this way is cheaper than calling
+     * {@link #getProperty(String, Object)} once for each key, since the
+     * properties are looked up in a single pass and only the values of the
+     * given keys are loaded.
+     *
+     * @param keys the property keys
+     * @return the property values associated with the given keys
+     */
+    public Object[] getProperties( String... keys );
+
     /**
      * Sets the property value for the given key to <code>value</code>. The
      * property value must be one of the valid property types, i.e:
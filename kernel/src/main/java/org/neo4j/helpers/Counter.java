@@ -19,6 +19,7 @@
  */
 package org.neo4j.helpers;
 
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 public abstract class Counter
@@ -32,6 +33,16 @@ public abstract class Counter
         return new AtomicCounter();
     }
 
+    /**
+     * A counter for many threads incrementing it at once. Threads increment
+     * different cells, so they don't contend on the same cache line, at the
+     * cost of {@link #count()} having to sum all cells.
+     */
+    public static Counter striped()
+    {
+        return new StripedCounter();
+    }
+
     private static class AtomicCounter extends Counter
     {
         private volatile long count;
@@ -50,4 +61,36 @@ public abstract class Counter
             return count;
         }
     }
+
+    private static class StripedCounter extends Counter
+    {
+        // cells are this many longs apart, to keep them on separate cache lines
+        private static final int PADDING = 8;
+        private final int mask;
+        private final AtomicLongArray cells;
+
+        StripedCounter()
+        {
+            int stripes = Integer.highestOneBit( Runtime.getRuntime().availableProcessors() * 2 - 1 ) << 1;
+            this.mask = stripes - 1;
+            this.cells = new AtomicLongArray( stripes * PADDING );
+        }
+
+        @Override
+        public void inc()
+        {
+            cells.incrementAndGet( (int) ( Thread.currentThread().getId() & mask ) * PADDING );
+        }
+
+        @Override
+        public long count()
+        {
+            long count = 0;
+            for ( int i = 0; i < cells.length(); i += PADDING )
+            {
+                count += cells.get( i );
+            }
+            return count;
+        }
+    }
 }
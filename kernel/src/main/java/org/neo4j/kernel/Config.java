@@ -92,10 +92,24 @@ public class Config
     /**
      * Use a quick approach for rebuilding the ID generators. This give quicker
      * recovery time, but will limit the ability to reuse the space of deleted
-     * entities.
+     * entities. Defaults to <CODE>true</CODE>, set it to <CODE>false</CODE>
+     * to rebuild the id generators from a full, parallel scan of the store
+     * files.
      */
     @Documented
     public static final String REBUILD_IDGENERATORS_FAST = "rebuild_idgenerators_fast";
+
+    /**
+     * The most threads that scan a store file in parallel when its id
+     * generator or the counts are rebuilt, for example after a crash. The id
+     * generators are only rebuilt by a full scan if
+     * {@link #REBUILD_IDGENERATORS_FAST} is <CODE>false</CODE>. The threads
+     * are shared by all stores, so stores rebuilt at the same time together
+     * don't use more threads than there are processors. Defaults to the
+     * number of processors.
+     */
+    @Documented
+    public static final String REBUILD_IDGENERATORS_THREADS = "rebuild_idgenerators_threads";
     /** The size to allocate for memory mapping the node store */
     @Documented
     public static final String NODE_STORE_MMAP_SIZE = "neostore.nodestore.db.mapped_memory";
@@ -123,6 +137,73 @@ public class Config
     /** The size to allocate for memory mapping the relationship store */
     @Documented
     public static final String RELATIONSHIP_STORE_MMAP_SIZE = "neostore.relationshipstore.db.mapped_memory";
+    /**
+     * The total size to allocate for a page cache shared by all stores. When
+     * set this replaces the per store memory mapping sizes above.
+     */
+    @Documented
+    public static final String PAGE_CACHE_MEMORY = "neostore.page_cache.mapped_memory";
+    /** The size of each page in the shared page cache */
+    @Documented
+    public static final String PAGE_CACHE_PAGE_SIZE = "neostore.page_cache.page_size";
+    /**
+     * The number of bytes per second (such as "10M") that dirty store pages
+     * may be written back with in the background. Write behind is turned off
+     * unless this is set.
+     */
+    @Documented
+    public static final String WRITE_BEHIND_BYTES_PER_SECOND = "neostore.write_behind.bytes_per_second";
+    /**
+     * The amount of data (such as "1M") to read ahead of threads that scan a
+     * store in record order. Read ahead is turned off unless this is set.
+     */
+    @Documented
+    public static final String READ_AHEAD_SIZE = "neostore.read_ahead_size";
+    /**
+     * How often, in seconds, the stores save which of their regions are hot
+     * so that those regions can be mapped again, in the background, when
+     * the database is restarted. Turned off unless this is set.
+     */
+    @Documented
+    public static final String HEAT_MAP_SAVE_INTERVAL = "neostore.heat_map.save_interval";
+    /**
+     * The number of relationships a node can have before its relationships
+     * are split up into one chain per relationship type and direction, so
+     * that asking for relationships of a certain type and direction only
+     * reads those. Nodes keep a single chain unless this is set. Grouped
+     * nodes also keep counts of their relationships, which is what makes
+     * {@link org.neo4j.graphdb.Node#getDegree()} constant time, for any other
+     * node it walks the relationship chain.
+     */
+    @Documented
+    public static final String DENSE_NODE_THRESHOLD = "dense_node_threshold";
+    /**
+     * The number of node, relationship and property ids each thread creating
+     * those is given at a time, so that threads creating them concurrently
+     * don't contend for the id generators. Every id is taken from the id
+     * generators one by one unless this is set.
+     */
+    @Documented
+    public static final String THREAD_ID_RANGE_SIZE = "neostore.thread_id_range_size";
+    /**
+     * The amount of space (such as "4M") to add to a store file at a time
+     * when records are written past its end. The space is filled with empty
+     * records up front so that the file doesn't grow, and its memory mapped
+     * windows don't change, with every record written during heavy inserts.
+     * The file is cut back to its last record when the store is closed.
+     * Store files grow one record at a time unless this is set.
+     */
+    @Documented
+    public static final String STORE_GROWTH_CHUNK_SIZE = "neostore.growth_chunk_size";
+    /**
+     * The size in bytes above which string and array property values that
+     * don't fit in the property record are compressed before they are
+     * written to the dynamic stores. A value is only kept compressed if it
+     * then takes fewer blocks. Values are stored as they are unless this is
+     * set.
+     */
+    @Documented
+    public static final String COMPRESS_PROPERTY_VALUES_OVER = "compress_property_values_over";
     /** Relative path for where the Neo4j logical log is located */
     @Documented
     public static final String LOGICAL_LOG = "logical_log";
@@ -131,10 +212,33 @@ public class Config
     public static final String NEO_STORE = "neo_store";
     /**
      * The type of cache to use for nodes and relationships, one of [weak, soft,
-     * none]
+     * none, strong, clock, size]. The clock cache is bounded by
+     * max_node_cache_size and max_relationship_cache_size, the size cache by
+     * {@link #NODE_CACHE_SIZE} and {@link #RELATIONSHIP_CACHE_SIZE}
      */
     @Documented
     public static final String CACHE_TYPE = "cache_type";
+    /**
+     * The estimated amount of heap (such as "500M") the node cache may take up
+     * when the cache type is size. Defaults to an eighth of the max heap
+     */
+    @Documented
+    public static final String NODE_CACHE_SIZE = "node_cache_size";
+    /**
+     * The estimated amount of heap (such as "500M") the relationship cache may
+     * take up when the cache type is size. Defaults to an eighth of the max
+     * heap
+     */
+    @Documented
+    public static final String RELATIONSHIP_CACHE_SIZE = "relationship_cache_size";
+    /**
+     * The amount of memory outside of the heap (such as "1G") to keep nodes
+     * and relationships evicted from the node and relationship caches in, so
+     * that they don't have to be loaded from the store again. Only used when
+     * the cache type is clock or size. Defaults to 0, no such cache
+     */
+    @Documented
+    public static final String OFFHEAP_CACHE_SIZE = "offheap_cache_size";
     /**
      * The name of the Transaction Manager service to use as defined in the TM
      * service provider constructor, defaults to native.
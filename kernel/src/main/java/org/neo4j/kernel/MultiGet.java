@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.kernel.impl.core.NodeManager;
+
+/**
+ * Gets many nodes or relationships by id at once, for example all hits of
+ * an index query. Calling {@link GraphDatabaseService#getNodeById(long)}
+ * for each id reads the records that aren't cached in the order the ids
+ * come in, which is random I/O. A multi-get sorts the ids that aren't
+ * cached first, so that their records are read in the order they are
+ * stored, and adds them to the cache in batches.
+ * <p>
+ * The result has one entity for each id, in the same order as the ids.
+ * Like {@link GraphDatabaseService#getNodeById(long)} a
+ * {@link NotFoundException} is thrown if any of the ids is not in use.
+ */
+public class MultiGet
+{
+    private final NodeManager nodeManager;
+
+    public MultiGet( AbstractGraphDatabase graphDb )
+    {
+        this.nodeManager = graphDb.getConfig().getGraphDbModule().getNodeManager();
+    }
+
+    public Node[] nodes( long... ids )
+    {
+        return nodeManager.getNodesById( ids );
+    }
+
+    public Relationship[] relationships( long... ids )
+    {
+        return nodeManager.getRelationshipsById( ids );
+    }
+}
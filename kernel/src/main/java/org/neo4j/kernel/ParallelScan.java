@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.kernel.impl.core.NodeManager;
+
+/**
+ * Scans all nodes or all relationships of a graph database using several
+ * threads. The id space of the store is split into ranges which the worker
+ * threads take one at a time. The calling thread is one of them, the others
+ * are shared with the other scans of the stores in this JVM, so a scan uses
+ * fewer threads than asked for while those are busy. The records are read
+ * directly from the store and a proxy is only created for an id that is in
+ * use, so unlike {@link GraphDatabaseService#getAllNodes()} the scan neither
+ * goes through nor fills the node and relationship caches.
+ * <p>
+ * The {@link Visitor} is called concurrently from the worker threads and
+ * must be thread safe. The scan sees the committed state of the graph on
+ * all threads, changes made in a transaction of the calling thread aren't
+ * visible to it, not even in the ranges the calling thread scans itself.
+ * If the visitor throws an exception the scan is stopped and the exception
+ * is rethrown from the scanning method.
+ */
+public class ParallelScan
+{
+    /**
+     * Called once for each node or relationship found by a scan.
+     */
+    public interface Visitor<T>
+    {
+        void visit( T entity );
+    }
+
+    private final NodeManager nodeManager;
+    private final int threads;
+
+    /**
+     * Creates a scan which uses one thread per available processor.
+     */
+    public ParallelScan( AbstractGraphDatabase graphDb )
+    {
+        this( graphDb, Runtime.getRuntime().availableProcessors() );
+    }
+
+    public ParallelScan( AbstractGraphDatabase graphDb, int threads )
+    {
+        if ( threads < 1 )
+        {
+            throw new IllegalArgumentException( "Need at least one thread, not " + threads );
+        }
+        this.nodeManager = graphDb.getConfig().getGraphDbModule().getNodeManager();
+        this.threads = threads;
+    }
+
+    /**
+     * Visits every node in the graph, in no particular order. Returns when
+     * all nodes have been visited.
+     */
+    public void nodes( Visitor<? super Node> visitor )
+    {
+        nodeManager.scanAllNodes( threads, visitor );
+    }
+
+    /**
+     * Visits every relationship in the graph, in no particular order.
+     * Returns when all relationships have been visited.
+     */
+    public void relationships( Visitor<? super Relationship> visitor )
+    {
+        nodeManager.scanAllRelationships( threads, visitor );
+    }
+}
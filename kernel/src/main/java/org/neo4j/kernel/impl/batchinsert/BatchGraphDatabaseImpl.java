@@ -308,6 +308,39 @@ class BatchGraphDatabaseImpl implements GraphDatabaseService
             return newRelIterator( dir, new RelationshipType[] { type } ).hasNext();
         }
 
+        public int getDegree()
+        {
+            return count( newRelIterator( Direction.BOTH, null ) );
+        }
+
+        public int getDegree( RelationshipType type )
+        {
+            return count( newRelIterator( Direction.BOTH,
+                new RelationshipType[] { type } ) );
+        }
+
+        public int getDegree( Direction direction )
+        {
+            return count( newRelIterator( direction, null ) );
+        }
+
+        public int getDegree( RelationshipType type, Direction direction )
+        {
+            return count( newRelIterator( direction,
+                new RelationshipType[] { type } ) );
+        }
+
+        private static int count( Iterator<Relationship> relItr )
+        {
+            int count = 0;
+            while ( relItr.hasNext() )
+            {
+                relItr.next();
+                count++;
+            }
+            return count;
+        }
+
         /* Tentative expansion API
         public Expansion<Relationship> expandAll()
         {
@@ -383,6 +416,52 @@ class BatchGraphDatabaseImpl implements GraphDatabaseService
             return val;
         }
 
+        public Object[] getProperties( String... keys )
+        {
+            Object[] values = new Object[keys.length];
+            for ( int i = 0; i < keys.length; i++ )
+            {
+                values[i] = properties.get( keys[i] );
+            }
+            return values;
+        }
+
+        public long getLongProperty( String key, long defaultValue )
+        {
+            Object val = properties.get( key );
+            if ( val == null )
+            {
+                return defaultValue;
+            }
+            if ( val instanceof Long || val instanceof Integer ||
+                 val instanceof Short || val instanceof Byte )
+            {
+                return ((Number) val).longValue();
+            }
+            throw new ClassCastException( val.getClass().getSimpleName() +
+                " property value can't be read as a long" );
+        }
+
+        public double getDoubleProperty( String key, double defaultValue )
+        {
+            Object val = properties.get( key );
+            if ( val == null )
+            {
+                return defaultValue;
+            }
+            return ((Number) val).doubleValue();
+        }
+
+        public boolean getBooleanProperty( String key, boolean defaultValue )
+        {
+            Object val = properties.get( key );
+            if ( val == null )
+            {
+                return defaultValue;
+            }
+            return (Boolean) val;
+        }
+
         public Iterable<String> getPropertyKeys()
         {
             return properties.keySet();
@@ -525,6 +604,16 @@ class BatchGraphDatabaseImpl implements GraphDatabaseService
             return val;
         }
 
+        public Object[] getProperties( String... keys )
+        {
+            Object[] values = new Object[keys.length];
+            for ( int i = 0; i < keys.length; i++ )
+            {
+                values[i] = properties.get( keys[i] );
+            }
+            return values;
+        }
+
         public Iterable<String> getPropertyKeys()
         {
             return properties.keySet();
@@ -45,7 +45,6 @@ import org.neo4j.kernel.impl.index.IndexStore;
 import org.neo4j.kernel.impl.nioneo.store.DynamicRecord;
 import org.neo4j.kernel.impl.nioneo.store.FileSystemAbstraction;
 import org.neo4j.kernel.impl.nioneo.store.IdGeneratorImpl;
-import org.neo4j.kernel.impl.nioneo.store.InvalidRecordException;
 import org.neo4j.kernel.impl.nioneo.store.NeoStore;
 import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
 import org.neo4j.kernel.impl.nioneo.store.NodeStore;
@@ -58,6 +57,8 @@ import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyType;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipChains;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeData;
@@ -65,6 +66,7 @@ import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeStore;
 import org.neo4j.kernel.impl.nioneo.store.UnderlyingStorageException;
 import org.neo4j.kernel.impl.util.FileUtils;
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
 import org.neo4j.kernel.impl.util.StringLogger;
 
 public class BatchInserterImpl implements BatchInserter
@@ -146,6 +148,7 @@ public class BatchInserterImpl implements BatchInserter
         nodeRecord.setCreated();
         nodeRecord.setNextProp( createPropertyChain( properties ) );
         getNodeStore().updateRecord( nodeRecord );
+        neoStore.getCountsStore().addToNodeCount( 1 );
         return nodeId;
     }
 
@@ -175,13 +178,14 @@ public class BatchInserterImpl implements BatchInserter
         nodeRecord.setCreated();
         nodeRecord.setNextProp( createPropertyChain( properties ) );
         getNodeStore().updateRecord( nodeRecord );
+        neoStore.getCountsStore().addToNodeCount( 1 );
     }
 
     public long createRelationship( long node1, long node2, RelationshipType
         type, Map<String,Object> properties )
     {
         NodeRecord firstNode = getNodeRecord( node1 );
-        NodeRecord secondNode = getNodeRecord( node2 );
+        NodeRecord secondNode = node2 == node1 ? firstNode : getNodeRecord( node2 );
         int typeId = typeHolder.getTypeId( type.name() );
         if ( typeId == -1 )
         {
@@ -193,9 +197,13 @@ public class BatchInserterImpl implements BatchInserter
         record.setCreated();
         connectRelationship( firstNode, secondNode, record );
         getNodeStore().updateRecord( firstNode );
-        getNodeStore().updateRecord( secondNode );
+        if ( secondNode != firstNode )
+        {
+            getNodeStore().updateRecord( secondNode );
+        }
         record.setNextProp( createPropertyChain( properties ) );
         getRelationshipStore().updateRecord( record );
+        neoStore.getCountsStore().addToRelationshipCount( typeId, 1 );
         return id;
     }
 
@@ -204,36 +212,92 @@ public class BatchInserterImpl implements BatchInserter
     {
         assert firstNode.getNextRel() != rel.getId();
         assert secondNode.getNextRel() != rel.getId();
-        rel.setFirstNextRel( firstNode.getNextRel() );
-        rel.setSecondNextRel( secondNode.getNextRel() );
         connect( firstNode, rel );
-        connect( secondNode, rel );
-        firstNode.setNextRel( rel.getId() );
-        secondNode.setNextRel( rel.getId() );
+        if ( secondNode.getId() != firstNode.getId() )
+        {
+            connect( secondNode, rel );
+        }
     }
 
     private void connect( NodeRecord node, RelationshipRecord rel )
     {
-        if ( node.getNextRel() != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        // nodes that have had their relationships grouped by type and
+        // direction stay that way, new nodes get a single chain
+        RelationshipGroupRecord group = null;
+        DirectionWrapper direction = null;
+        long next = node.getNextRel();
+        if ( getRelationshipStore().isGroup( next ) )
         {
-            RelationshipRecord nextRel = getRelationshipStore().getRecord( node.getNextRel() );
-            boolean changed = false;
-            if ( nextRel.getFirstNode() == node.getId() )
-            {
-                nextRel.setFirstPrevRel( rel.getId() );
-                changed = true;
-            }
-            if ( nextRel.getSecondNode() == node.getId() )
+            group = getGroup( node, rel.getType() );
+            direction = RelationshipChains.direction( rel, node.getId() );
+            next = group.getFirst( direction );
+        }
+        RelationshipChains.setNext( rel, node.getId(), next );
+        if ( next != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            RelationshipRecord nextRel = getRelationshipStore().getRecord( next );
+            RelationshipChains.setPrev( nextRel, node.getId(), rel.getId() );
+            getRelationshipStore().updateRecord( nextRel );
+        }
+        if ( group != null )
+        {
+            group.setFirst( direction, rel.getId() );
+            group.addToCount( direction, 1 );
+            getRelationshipStore().updateRecord( group );
+        }
+        else
+        {
+            node.setNextRel( rel.getId() );
+        }
+    }
+
+    private RelationshipGroupRecord getGroup( NodeRecord node, int type )
+    {
+        long groupId = node.getNextRel();
+        while ( groupId != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            RelationshipGroupRecord group =
+                getRelationshipStore().getGroupRecord( groupId );
+            if ( group.getType() == type )
             {
-                nextRel.setSecondPrevRel( rel.getId() );
-                changed = true;
+                return group;
             }
-            if ( !changed )
+            groupId = group.getNext();
+        }
+        RelationshipGroupRecord group = new RelationshipGroupRecord(
+            getRelationshipStore().nextId(), type, node.getId() );
+        group.setInUse( true );
+        group.setCreated();
+        group.setNext( node.getNextRel() );
+        node.setNextRel( group.getId() );
+        return group;
+    }
+
+    /*
+     * The first relationship of every chain of the node, that is one chain or
+     * one per relationship type and direction for a node with grouped
+     * relationships.
+     */
+    private List<Long> getChainHeads( NodeRecord node )
+    {
+        List<Long> heads = new ArrayList<Long>();
+        long nextRel = node.getNextRel();
+        if ( !getRelationshipStore().isGroup( nextRel ) )
+        {
+            heads.add( nextRel );
+            return heads;
+        }
+        while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            RelationshipGroupRecord group =
+                getRelationshipStore().getGroupRecord( nextRel );
+            for ( DirectionWrapper direction : DirectionWrapper.values() )
             {
-                throw new InvalidRecordException( node + " dont match " + nextRel );
+                heads.add( group.getFirst( direction ) );
             }
-            getRelationshipStore().updateRecord( nextRel );
+            nextRel = group.getNext();
         }
+        return heads;
     }
 
     public void setNodeProperties( long node, Map<String,Object> properties )
@@ -294,27 +358,14 @@ public class BatchInserterImpl implements BatchInserter
     public Iterable<Long> getRelationshipIds( long nodeId )
     {
         NodeRecord nodeRecord = getNodeRecord( nodeId );
-        long nextRel = nodeRecord.getNextRel();
         List<Long> ids = new ArrayList<Long>();
-        while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        for ( long nextRel : getChainHeads( nodeRecord ) )
         {
-            RelationshipRecord relRecord = getRelationshipRecord( nextRel );
-            ids.add( relRecord.getId() );
-            long firstNode = relRecord.getFirstNode();
-            long secondNode = relRecord.getSecondNode();
-            if ( firstNode == nodeId )
+            while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
             {
-                nextRel = relRecord.getFirstNextRel();
-            }
-            else if ( secondNode == nodeId )
-            {
-                nextRel = relRecord.getSecondNextRel();
-            }
-            else
-            {
-                throw new InvalidRecordException( "Node[" + nodeId +
-                    "] not part of firstNode[" + firstNode +
-                    "] or secondNode[" + secondNode + "]" );
+                RelationshipRecord relRecord = getRelationshipRecord( nextRel );
+                ids.add( relRecord.getId() );
+                nextRel = RelationshipChains.getNext( relRecord, nodeId );
             }
         }
         return ids;
@@ -323,30 +374,17 @@ public class BatchInserterImpl implements BatchInserter
     public Iterable<SimpleRelationship> getRelationships( long nodeId )
     {
         NodeRecord nodeRecord = getNodeRecord( nodeId );
-        long nextRel = nodeRecord.getNextRel();
         List<SimpleRelationship> rels = new ArrayList<SimpleRelationship>();
-        while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        for ( long nextRel : getChainHeads( nodeRecord ) )
         {
-            RelationshipRecord relRecord = getRelationshipRecord( nextRel );
-            RelationshipType type = new RelationshipTypeImpl(
-                typeHolder.getName( relRecord.getType() ) );
-            rels.add( new SimpleRelationship( relRecord.getId(),
-                relRecord.getFirstNode(), relRecord.getSecondNode(), type ) );
-            long firstNode = relRecord.getFirstNode();
-            long secondNode = relRecord.getSecondNode();
-            if ( firstNode == nodeId )
-            {
-                nextRel = relRecord.getFirstNextRel();
-            }
-            else if ( secondNode == nodeId )
-            {
-                nextRel = relRecord.getSecondNextRel();
-            }
-            else
+            while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
             {
-                throw new InvalidRecordException( "Node[" + nodeId +
-                    "] not part of firstNode[" + firstNode +
-                    "] or secondNode[" + secondNode + "]" );
+                RelationshipRecord relRecord = getRelationshipRecord( nextRel );
+                RelationshipType type = new RelationshipTypeImpl(
+                    typeHolder.getName( relRecord.getType() ) );
+                rels.add( new SimpleRelationship( relRecord.getId(),
+                    relRecord.getFirstNode(), relRecord.getSecondNode(), type ) );
+                nextRel = RelationshipChains.getNext( relRecord, nodeId );
             }
         }
         return rels;
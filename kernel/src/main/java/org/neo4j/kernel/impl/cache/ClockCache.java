@@ -0,0 +1,879 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.neo4j.helpers.Counter;
+
+/**
+ * A cache with a hard upper bound on its size, made for many threads reading
+ * from it at once. Lookups go to a {@link ConcurrentHashMap} without taking
+ * any lock, and a hit only marks the entry as referenced, which is a write
+ * only the first time after the entry was last swept.
+ * <p>
+ * The keys are spread over a fixed number of segments, each with its own lock
+ * and its own share of the maximum size. Adding an entry to a full segment
+ * evicts entries of that segment with the CLOCK algorithm: a hand sweeps
+ * over the entries of the segment, clearing the referenced marks it passes,
+ * and evicts the first entry that hasn't been referenced since the hand last
+ * passed it. This approximates LRU eviction without the reads having to
+ * reorder anything.
+ * <p>
+ * The size is the sum of the {@link #weigh(Object) weights} of the entries,
+ * which is one per entry unless a subclass says otherwise. An entry that
+ * doesn't fit in its segment's share, f.ex. a node with very many
+ * relationships, borrows capacity from the other segments, evicting their
+ * entries if they have no room to spare. The other segments get the
+ * capacity back once the entries that borrowed it have left the segment.
+ * <p>
+ * An evicted entry stays in the map, where lookups still find it, until the
+ * {@link EvictionListener} has been told about it. Removing or replacing the
+ * entry meanwhile waits for the listener, or keeps it from being called.
+ */
+public class ClockCache<K,V> implements Cache<K,V>
+{
+    private static final int MAX_SEGMENTS = 64;
+
+    private final String name;
+    private final ConcurrentHashMap<K,Entry<K,V>> cache;
+    private final Segment<K,V>[] segments;
+    private final HitCounter counter = new HitCounter( Counter.striped(), Counter.striped() );
+    private volatile long maxWeight;
+    private volatile EvictionListener<V> evictionListener;
+
+    /**
+     * Creates a CLOCK cache. If <CODE>maxSize < 1</CODE> an
+     * IllegalArgumentException is thrown.
+     *
+     * @param name name of cache
+     * @param maxSize maximum number of elements in the cache
+     */
+    public ClockCache( String name, int maxSize )
+    {
+        this( name, maxSize, Runtime.getRuntime().availableProcessors() * 4 );
+    }
+
+    ClockCache( String name, long maxWeight, int concurrency )
+    {
+        if ( name == null || maxWeight < 1 )
+        {
+            throw new IllegalArgumentException( "maxSize=" + maxWeight
+                + ", name=" + name );
+        }
+        this.name = name;
+        int segmentCount = 1;
+        while ( segmentCount < concurrency && segmentCount < MAX_SEGMENTS )
+        {
+            segmentCount <<= 1;
+        }
+        this.cache = new ConcurrentHashMap<K,Entry<K,V>>( 1024, 0.75f, segmentCount );
+        this.segments = newSegments( segmentCount );
+        for ( int i = 0; i < segmentCount; i++ )
+        {
+            segments[i] = new Segment<K,V>();
+        }
+        setMaxWeight( maxWeight );
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private static <K,V> Segment<K,V>[] newSegments( int count )
+    {
+        return (Segment<K,V>[]) new Segment<?,?>[count];
+    }
+
+    /**
+     * @return how much the given value counts towards the size of the cache
+     */
+    protected int weigh( V value )
+    {
+        return 1;
+    }
+
+    public String getName()
+    {
+        return this.name;
+    }
+
+    public V get( K key )
+    {
+        if ( key == null )
+        {
+            throw new IllegalArgumentException( "Null parameter" );
+        }
+        Entry<K,V> entry = cache.get( key );
+        if ( entry == null )
+        {
+            return counter.count( (V) null );
+        }
+        if ( !entry.referenced )
+        {
+            entry.referenced = true;
+        }
+        return counter.count( entry.value );
+    }
+
+    public void put( K key, V value )
+    {
+        if ( key == null || value == null )
+        {
+            throw new IllegalArgumentException( "key=" + key + ", value="
+                + value );
+        }
+        int weight = weigh( value );
+        Segment<K,V> segment = segmentFor( key );
+        List<Entry<K,V>> evicted = null;
+        boolean borrow = false;
+        Entry<K,V> pending;
+        do
+        {
+            segment.lock();
+            try
+            {
+                // The entries of a key are only added and removed under the
+                // lock of its segment, so the map can't change for this key
+                // meanwhile
+                Entry<K,V> entry = cache.get( key );
+                pending = pending( entry );
+                if ( pending != null )
+                {
+                    continue;
+                }
+                entry = live( entry );
+                if ( !segment.fits( weight, entry ) )
+                {
+                    borrow = true;
+                }
+                else if ( entry != null )
+                {
+                    entry.value = value;
+                    segment.reweigh( entry, weight );
+                }
+                else
+                {
+                    evicted = evict( segment, weight, evicted );
+                    entry = new Entry<K,V>( key, value );
+                    segment.add( entry, weight );
+                    cache.put( key, entry );
+                }
+                if ( !borrow )
+                {
+                    evicted = evict( segment, 0, evicted );
+                    giveBack( segment );
+                }
+            }
+            finally
+            {
+                segment.unlock();
+            }
+        }
+        while ( drop( pending ) );
+        if ( borrow )
+        {
+            putBorrowing( key, value, segment, false );
+            return;
+        }
+        cleaned( evicted );
+    }
+
+    /**
+     * Weighs the value of the given key again, for values that have grown or
+     * shrunk since they were put in the cache. Evicts entries if the cache
+     * has grown too big, possibly the given one. Does nothing if the key isn't
+     * in the cache, or is being evicted.
+     */
+    public void updateSize( K key )
+    {
+        Segment<K,V> segment = segmentFor( key );
+        List<Entry<K,V>> evicted = null;
+        V value = null;
+        segment.lock();
+        try
+        {
+            Entry<K,V> entry = live( cache.get( key ) );
+            if ( entry == null )
+            {
+                return;
+            }
+            int weight = weigh( entry.value );
+            if ( !segment.fits( weight, entry ) )
+            {
+                value = entry.value;
+            }
+            else
+            {
+                segment.reweigh( entry, weight );
+                evicted = evict( segment, 0, evicted );
+                giveBack( segment );
+            }
+        }
+        finally
+        {
+            segment.unlock();
+        }
+        if ( value != null )
+        {
+            putBorrowing( key, value, segment, true );
+            return;
+        }
+        cleaned( evicted );
+    }
+
+    /*
+     * Puts an entry that doesn't fit in the capacity of its segment, with all
+     * segments locked so that capacity can be moved between them. If
+     * onlyIfCached the entry is only weighed again, if the key still maps to
+     * the given value.
+     */
+    private void putBorrowing( K key, V value, Segment<K,V> segment, boolean onlyIfCached )
+    {
+        List<Entry<K,V>> evicted = new ArrayList<Entry<K,V>>( 2 );
+        Entry<K,V> pending;
+        do
+        {
+            lockAll();
+            try
+            {
+                Entry<K,V> entry = cache.get( key );
+                pending = onlyIfCached ? null : pending( entry );
+                entry = live( entry );
+                if ( pending == null &&
+                    (!onlyIfCached || (entry != null && entry.value == value)) )
+                {
+                    putBorrowing( key, value, segment, entry, evicted );
+                }
+            }
+            finally
+            {
+                unlockAll();
+            }
+        }
+        while ( drop( pending ) );
+        cleaned( evicted );
+    }
+
+    private void putBorrowing( K key, V value, Segment<K,V> segment, Entry<K,V> entry,
+        List<Entry<K,V>> evicted )
+    {
+        int weight = weigh( value );
+        if ( segment.fits( weight, entry ) )
+        {
+            // capacity was given back meanwhile
+            if ( entry != null )
+            {
+                entry.value = value;
+                segment.reweigh( entry, weight );
+            }
+            else
+            {
+                evict( segment, weight, evicted );
+                entry = new Entry<K,V>( key, value );
+                segment.add( entry, weight );
+                cache.put( key, entry );
+            }
+            evict( segment, 0, evicted );
+            return;
+        }
+        if ( entry != null )
+        {
+            cache.remove( key, entry );
+            segment.remove( entry );
+        }
+        if ( weight > maxWeight || !borrow( segment, weight, evicted ) )
+        {
+            // too big to be cached at all
+            return;
+        }
+        segment.borrowing += weight;
+        evict( segment, weight, evicted );
+        entry = new Entry<K,V>( key, value );
+        entry.borrowed = true;
+        segment.add( entry, weight );
+        cache.put( key, entry );
+    }
+
+    /*
+     * Moves capacity from the other segments to the given one until an entry
+     * of the given weight fits, taking their unused capacity first and
+     * evicting their entries only if that isn't enough. Called with all
+     * segments locked.
+     */
+    private boolean borrow( Segment<K,V> segment, int weight, List<Entry<K,V>> evicted )
+    {
+        long wanted = Math.min( weight + segment.weight, segment.share +
+            segment.borrowing + weight ) - segment.capacity.get();
+        for ( int i = 0; i < segments.length && wanted > 0; i++ )
+        {
+            Segment<K,V> other = segments[i];
+            long unused = other.capacity.get() - other.weight;
+            if ( other != segment && unused > 0 )
+            {
+                long taken = Math.min( wanted, unused );
+                other.capacity.addAndGet( -taken );
+                segment.capacity.addAndGet( taken );
+                wanted -= taken;
+            }
+        }
+        long missing = weight - segment.capacity.get();
+        for ( int i = 0; i < segments.length && missing > 0; i++ )
+        {
+            Segment<K,V> other = segments[i];
+            if ( other != segment )
+            {
+                long taken = Math.min( missing, other.capacity.get() );
+                other.capacity.addAndGet( -taken );
+                segment.capacity.addAndGet( taken );
+                missing -= taken;
+                evict( other, 0, evicted );
+            }
+        }
+        return missing <= 0;
+    }
+
+    /*
+     * Gives the capacity the segment has borrowed, but no longer needs, back
+     * to the segments that have lent theirs. Called with the lock of the
+     * segment held, the capacity of the others is only ever increased
+     * without their lock.
+     */
+    private void giveBack( Segment<K,V> segment )
+    {
+        long excess = segment.capacity.get() - (segment.share + segment.borrowing);
+        if ( excess <= 0 )
+        {
+            return;
+        }
+        segment.capacity.addAndGet( -excess );
+        for ( int i = 0; i < segments.length && excess > 0; i++ )
+        {
+            Segment<K,V> other = segments[i];
+            long lent = other.share - other.capacity.get();
+            if ( lent > 0 )
+            {
+                long given = Math.min( excess, lent );
+                other.capacity.addAndGet( given );
+                excess -= given;
+            }
+        }
+        // only if another segment gave some back at the same time
+        segment.capacity.addAndGet( excess );
+    }
+
+    private void lockAll()
+    {
+        // always in the same order, the only place more than one is locked
+        for ( Segment<K,V> segment : segments )
+        {
+            segment.lock();
+        }
+    }
+
+    private void unlockAll()
+    {
+        for ( Segment<K,V> segment : segments )
+        {
+            segment.unlock();
+        }
+    }
+
+    /*
+     * Evicts entries of the segment until there's room for the given weight.
+     * The evicted entries are left in the map, for cleaned to remove once
+     * the listener is done with them. Called with the lock of the segment
+     * held.
+     */
+    private List<Entry<K,V>> evict( Segment<K,V> segment, int room, List<Entry<K,V>> evicted )
+    {
+        while ( segment.size > 0 && segment.weight + room > segment.limit() )
+        {
+            Entry<K,V> entry = segment.evict();
+            entry.evicting = true;
+            if ( evicted == null )
+            {
+                evicted = new ArrayList<Entry<K,V>>( 2 );
+            }
+            evicted.add( entry );
+        }
+        return evicted;
+    }
+
+    /*
+     * Tells about the evicted entries and then removes them from the map, so
+     * that a value is found in the cache until the listener has it. Called
+     * without any lock held. The first exception thrown is rethrown once all
+     * entries are removed.
+     */
+    private void cleaned( List<Entry<K,V>> evicted )
+    {
+        if ( evicted == null )
+        {
+            return;
+        }
+        EvictionListener<V> listener = evictionListener;
+        RuntimeException failure = null;
+        for ( Entry<K,V> entry : evicted )
+        {
+            try
+            {
+                elementCleaned( entry.value );
+                if ( listener != null )
+                {
+                    synchronized ( entry )
+                    {
+                        if ( !entry.dropped )
+                        {
+                            listener.evicted( entry.value );
+                        }
+                    }
+                }
+            }
+            catch ( RuntimeException e )
+            {
+                failure = failure == null ? e : failure;
+            }
+            finally
+            {
+                Segment<K,V> segment = segmentFor( entry.key );
+                segment.lock();
+                try
+                {
+                    cache.remove( entry.key, entry );
+                }
+                finally
+                {
+                    segment.unlock();
+                }
+            }
+        }
+        if ( failure != null )
+        {
+            throw failure;
+        }
+    }
+
+    /*
+     * @return the entry, unless it's being evicted
+     */
+    private static <K,V> Entry<K,V> live( Entry<K,V> entry )
+    {
+        return entry != null && entry.evicting ? null : entry;
+    }
+
+    /*
+     * @return the entry, if it's being evicted and the listener may still
+     * be called for it. Called with the lock of the entry's segment held.
+     */
+    private static <K,V> Entry<K,V> pending( Entry<K,V> entry )
+    {
+        return entry != null && entry.evicting && !entry.dropped ? entry : null;
+    }
+
+    /*
+     * Keeps the listener from being called for an entry being evicted,
+     * waiting for it if it's being called right now. Called without any lock
+     * of this cache held, since the listener may take other locks.
+     *
+     * @return whether there was such an entry
+     */
+    private static <K,V> boolean drop( Entry<K,V> pending )
+    {
+        if ( pending == null )
+        {
+            return false;
+        }
+        synchronized ( pending )
+        {
+            pending.dropped = true;
+        }
+        return true;
+    }
+
+    /**
+     * Sets the listener to tell about the values evicted from this cache to
+     * make room for others. Values removed or cleared aren't evicted. The
+     * listener is called without any lock of this cache held, but while the
+     * evicted value can still be looked up. Removing or putting the key of
+     * the value meanwhile waits until the listener is done, and if it's done
+     * first the listener isn't called at all.
+     */
+    public void setEvictionListener( EvictionListener<V> listener )
+    {
+        this.evictionListener = listener;
+    }
+
+    public void putAll( Map<K,V> map )
+    {
+        for ( Map.Entry<K,V> entry : map.entrySet() )
+        {
+            put( entry.getKey(), entry.getValue() );
+        }
+    }
+
+    public V remove( K key )
+    {
+        if ( key == null )
+        {
+            throw new IllegalArgumentException( "Null parameter" );
+        }
+        Segment<K,V> segment = segmentFor( key );
+        while ( true )
+        {
+            Entry<K,V> pending;
+            segment.lock();
+            try
+            {
+                Entry<K,V> entry = cache.get( key );
+                pending = pending( entry );
+                if ( pending == null )
+                {
+                    if ( entry == null )
+                    {
+                        return null;
+                    }
+                    cache.remove( key, entry );
+                    // an entry being evicted is out of the segment already
+                    if ( !entry.evicting )
+                    {
+                        segment.remove( entry );
+                        giveBack( segment );
+                    }
+                    return entry.value;
+                }
+            }
+            finally
+            {
+                segment.unlock();
+            }
+            drop( pending );
+        }
+    }
+
+    public void clear()
+    {
+        for ( Segment<K,V> segment : segments )
+        {
+            segment.lock();
+            try
+            {
+                for ( int i = 0; i < segment.size; i++ )
+                {
+                    cache.remove( segment.ring[i].key, segment.ring[i] );
+                }
+                segment.clear();
+                giveBack( segment );
+            }
+            finally
+            {
+                segment.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return the number of entries, not counting those being evicted, and
+     * without locking so it may be a little off while the cache is being
+     * changed
+     */
+    public int size()
+    {
+        int size = 0;
+        for ( Segment<K,V> segment : segments )
+        {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    public int maxSize()
+    {
+        return (int) Math.min( maxWeight, Integer.MAX_VALUE );
+    }
+
+    /**
+     * @return the sum of the weights of all entries, without locking so it
+     * may be a little off while the cache is being changed
+     */
+    protected long weight()
+    {
+        long weight = 0;
+        for ( Segment<K,V> segment : segments )
+        {
+            weight += segment.weight;
+        }
+        return weight;
+    }
+
+    protected long maxWeight()
+    {
+        return maxWeight;
+    }
+
+    /**
+     * Changes the max size of the cache. If <CODE>newMaxSize</CODE> is less
+     * than the current size the cache will evict entries with the CLOCK
+     * algorithm until it fits. The maximum size is divided evenly among the
+     * segments again, so entries that borrowed capacity from other segments
+     * may be evicted.
+     *
+     * @param newMaxSize the new maximum size of the cache
+     */
+    public void resize( int newMaxSize )
+    {
+        setMaxWeight( newMaxSize );
+    }
+
+    protected void setMaxWeight( long newMaxWeight )
+    {
+        if ( newMaxWeight < 1 )
+        {
+            throw new IllegalArgumentException( "newMaxSize=" + newMaxWeight );
+        }
+        List<Entry<K,V>> evicted = null;
+        lockAll();
+        try
+        {
+            maxWeight = newMaxWeight;
+            for ( int i = 0; i < segments.length; i++ )
+            {
+                Segment<K,V> segment = segments[i];
+                segment.share = newMaxWeight / segments.length
+                    + (i < newMaxWeight % segments.length ? 1 : 0);
+                segment.capacity.set( segment.share );
+                evicted = evict( segment, 0, evicted );
+            }
+        }
+        finally
+        {
+            unlockAll();
+        }
+        cleaned( evicted );
+    }
+
+    public void elementCleaned( V value )
+    {
+        // to be overridden as required
+    }
+
+    public boolean isAdaptive()
+    {
+        return false;
+    }
+
+    public void setAdaptiveStatus( boolean status )
+    {
+        // the size is bounded by resize only
+    }
+
+    public long hitCount()
+    {
+        return counter.getHitsCount();
+    }
+
+    public long missCount()
+    {
+        return counter.getMissCount();
+    }
+
+    private Segment<K,V> segmentFor( K key )
+    {
+        int hash = key.hashCode();
+        // spread the bits, the same way HashMap does, since the segment is
+        // picked by the low bits only
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return segments[hash & (segments.length - 1)];
+    }
+
+    public interface EvictionListener<V>
+    {
+        void evicted( V value );
+    }
+
+    private static final class Entry<K,V>
+    {
+        final K key;
+        volatile V value;
+        volatile boolean referenced;
+        // guarded by the segment lock
+        int slot;
+        int weight;
+        // whether put with capacity borrowed from other segments
+        boolean borrowed;
+        // whether evicted, but still in the map for the listener
+        boolean evicting;
+        // set under the monitor of the entry, once the listener mustn't be
+        // called for it any more
+        volatile boolean dropped;
+
+        Entry( K key, V value )
+        {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * The entries of one segment, kept densely in a ring that the clock hand
+     * sweeps over. All access is guarded by the segment itself, except reading
+     * the size and weight for {@link ClockCache#size()} and
+     * {@link ClockCache#weight()}.
+     */
+    @SuppressWarnings( "serial" )
+    private static final class Segment<K,V> extends ReentrantLock
+    {
+        @SuppressWarnings( "unchecked" )
+        private Entry<K,V>[] ring = (Entry<K,V>[]) new Entry<?,?>[8];
+        private volatile int size;
+        private int hand;
+        private volatile long weight;
+        // the even share of the maximum weight, changed with all segments
+        // locked
+        private long share;
+        // the share plus what has been borrowed from, or minus what has
+        // been lent to, other segments
+        private final AtomicLong capacity = new AtomicLong();
+        // the weight of the entries that borrowed capacity
+        private long borrowing;
+
+        /**
+         * @return the weight the entries of the segment may have, the
+         *         segment's share and what its entries have borrowed, but no
+         *         more than its capacity
+         */
+        long limit()
+        {
+            return Math.min( capacity.get(), share + borrowing );
+        }
+
+        /**
+         * @return whether an entry of the given weight fits in this segment
+         *         without borrowing, replacing <CODE>replaced</CODE> if
+         *         it's not <CODE>null</CODE>
+         */
+        boolean fits( int entryWeight, Entry<K,V> replaced )
+        {
+            long borrowed = borrowing;
+            if ( replaced != null && replaced.borrowed )
+            {
+                borrowed += entryWeight - replaced.weight;
+            }
+            return entryWeight <= Math.min( capacity.get(), share + borrowed );
+        }
+
+        /**
+         * Puts the new entry right behind the hand, so that the hand gets to
+         * it last. It takes the slot under the hand, the entry there moves
+         * to the end of the ring, and the hand moves past the new entry.
+         * Appending the new entry instead would leave it right under the
+         * hand after an eviction, to be evicted next.
+         */
+        void add( Entry<K,V> entry, int entryWeight )
+        {
+            if ( size == ring.length )
+            {
+                ring = Arrays.copyOf( ring, size * 2 );
+            }
+            Entry<K,V> displaced = ring[hand];
+            if ( displaced != null )
+            {
+                displaced.slot = size;
+                ring[size] = displaced;
+            }
+            entry.slot = hand;
+            entry.weight = entryWeight;
+            ring[hand] = entry;
+            size++;
+            hand = (hand + 1) % size;
+            weight += entryWeight;
+        }
+
+        void reweigh( Entry<K,V> entry, int entryWeight )
+        {
+            weight += entryWeight - entry.weight;
+            if ( entry.borrowed )
+            {
+                borrowing += entryWeight - entry.weight;
+            }
+            entry.weight = entryWeight;
+        }
+
+        /**
+         * Moves the last entry into the slot of the removed one, to keep the
+         * ring dense.
+         */
+        void remove( Entry<K,V> entry )
+        {
+            Entry<K,V> last = ring[--size];
+            ring[size] = null;
+            if ( last != entry )
+            {
+                last.slot = entry.slot;
+                ring[entry.slot] = last;
+            }
+            if ( hand >= size )
+            {
+                hand = 0;
+            }
+            weight -= entry.weight;
+            if ( entry.borrowed )
+            {
+                borrowing -= entry.weight;
+            }
+        }
+
+        /**
+         * Picks the entry to evict and removes it from the ring. Terminates
+         * within two sweeps, since the first sweep clears all referenced
+         * marks.
+         */
+        Entry<K,V> evict()
+        {
+            while ( true )
+            {
+                Entry<K,V> candidate = ring[hand];
+                if ( candidate.referenced )
+                {
+                    candidate.referenced = false;
+                    hand = (hand + 1) % size;
+                }
+                else
+                {
+                    remove( candidate );
+                    return candidate;
+                }
+            }
+        }
+
+        void clear()
+        {
+            Arrays.fill( ring, null );
+            size = 0;
+            hand = 0;
+            weight = 0;
+            borrowing = 0;
+        }
+    }
+}
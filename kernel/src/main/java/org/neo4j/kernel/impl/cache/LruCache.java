@@ -231,7 +231,7 @@ public class LruCache<K,E> implements Cache<K,E>
         this.adaptive = status;
     }
 
-    public void putAll( Map<K, E> map )
+    public synchronized void putAll( Map<K, E> map )
     {
         cache.putAll( map );
     }
@@ -0,0 +1,266 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.neo4j.helpers.Counter;
+
+/**
+ * A cache of byte arrays in direct memory, outside of the Java heap, so that
+ * it can be much larger than the heap without adding to garbage collection
+ * pauses. The values are keyed by a long.
+ * <p>
+ * The memory is split into segments that are filled one after the other, and
+ * when the last one is full the first one is emptied and reused, evicting
+ * everything in it. This is FIFO rather than LRU eviction, but needs no
+ * bookkeeping on reads and leaves no fragmentation. Replacing or removing a
+ * value leaves its old bytes in place until their segment is reused.
+ * <p>
+ * Lookups go to a {@link ConcurrentHashMap} from key to address, and the
+ * bytes are copied out under the read lock of their segment, which is only
+ * write locked while the segment is being reused. Each segment counts how
+ * many times it has been reused, and that generation is part of the address,
+ * so an address from before a reuse is never read. Writes are serialized.
+ * <p>
+ * Segments are allocated the first time they are written to. The JVM must be
+ * allowed that much direct memory, see -XX:MaxDirectMemorySize.
+ */
+public class OffHeapCache
+{
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    // key and length
+    private static final int HEADER_SIZE = 8 + 4;
+    private static final int MAX_SEGMENTS = 0xFFFF;
+
+    private final String name;
+    private final int segmentSize;
+    private final ByteBuffer[] segments;
+    private final ReentrantReadWriteLock[] locks;
+    // guarded by the segment locks
+    private final int[] generations;
+    // guarded by this
+    private final int[] positions;
+    private int current;
+    private final ConcurrentHashMap<Long,Long> index = new ConcurrentHashMap<Long,Long>();
+    private final HitCounter counter = new HitCounter( Counter.striped(), Counter.striped() );
+
+    /**
+     * @param name name of cache
+     * @param maxBytes the amount of direct memory to use, rounded down to a
+     * whole number of segments but at least two segments
+     * @param segmentSize the size of each segment, which is also the limit
+     * for how big values can be
+     */
+    public OffHeapCache( String name, long maxBytes, int segmentSize )
+    {
+        if ( name == null || segmentSize <= HEADER_SIZE || maxBytes < 1 )
+        {
+            throw new IllegalArgumentException( "name=" + name + ", maxBytes="
+                + maxBytes + ", segmentSize=" + segmentSize );
+        }
+        this.name = name;
+        this.segmentSize = segmentSize;
+        int segmentCount = (int) Math.min( MAX_SEGMENTS, Math.max( 2, maxBytes / segmentSize ) );
+        this.segments = new ByteBuffer[segmentCount];
+        this.locks = new ReentrantReadWriteLock[segmentCount];
+        for ( int i = 0; i < segmentCount; i++ )
+        {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+        this.generations = new int[segmentCount];
+        this.positions = new int[segmentCount];
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Stores the remaining bytes of the given buffer, without changing its
+     * position. Values that don't fit in a segment aren't stored, and any
+     * previous value of the key is removed.
+     *
+     * @return whether or not the value was stored
+     */
+    public boolean put( long key, ByteBuffer value )
+    {
+        int length = value.remaining();
+        int recordSize = HEADER_SIZE + length;
+        if ( recordSize > segmentSize )
+        {
+            index.remove( key );
+            return false;
+        }
+        synchronized ( this )
+        {
+            if ( segments[current] == null )
+            {
+                segments[current] = ByteBuffer.allocateDirect( segmentSize );
+            }
+            else if ( positions[current] + recordSize > segmentSize )
+            {
+                current = (current + 1) % segments.length;
+                reuse( current );
+            }
+            int offset = positions[current];
+            ByteBuffer target = segments[current].duplicate();
+            target.position( offset );
+            target.putLong( key ).putInt( length ).put( value.duplicate() );
+            positions[current] = offset + recordSize;
+            index.put( key, address( generations[current], current, offset ) );
+        }
+        return true;
+    }
+
+    /*
+     * Empties the segment, allocating it if it hasn't been used before.
+     * Called while synchronized on this.
+     */
+    private void reuse( int segment )
+    {
+        if ( segments[segment] == null )
+        {
+            segments[segment] = ByteBuffer.allocateDirect( segmentSize );
+            return;
+        }
+        locks[segment].writeLock().lock();
+        try
+        {
+            ByteBuffer buffer = segments[segment].duplicate();
+            int generation = generations[segment];
+            int offset = 0;
+            while ( offset < positions[segment] )
+            {
+                long key = buffer.getLong( offset );
+                index.remove( key, address( generation, segment, offset ) );
+                offset += HEADER_SIZE + buffer.getInt( offset + 8 );
+            }
+            generations[segment] = (generation + 1) & 0xFFFF;
+            positions[segment] = 0;
+        }
+        finally
+        {
+            locks[segment].writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return a copy of the bytes stored for the key, or <CODE>null</CODE>
+     * if there are none
+     */
+    public ByteBuffer get( long key )
+    {
+        Long address = index.get( key );
+        if ( address == null )
+        {
+            return counter.count( (ByteBuffer) null );
+        }
+        int segment = (int) ((address >>> 32) & 0xFFFF);
+        int offset = (int) address.longValue();
+        locks[segment].readLock().lock();
+        try
+        {
+            if ( generations[segment] != (int) (address >>> 48) )
+            {
+                return counter.count( (ByteBuffer) null );
+            }
+            ByteBuffer source = segments[segment].duplicate();
+            source.position( offset );
+            if ( source.getLong() != key )
+            {
+                return counter.count( (ByteBuffer) null );
+            }
+            byte[] bytes = new byte[source.getInt()];
+            source.get( bytes );
+            return counter.count( ByteBuffer.wrap( bytes ) );
+        }
+        finally
+        {
+            locks[segment].readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the value of the key. Its bytes stay where they are until
+     * their segment is reused.
+     */
+    public void remove( long key )
+    {
+        index.remove( key );
+    }
+
+    /**
+     * Removes all values. The memory stays allocated.
+     */
+    public synchronized void clear()
+    {
+        index.clear();
+        for ( int i = 0; i < segments.length; i++ )
+        {
+            locks[i].writeLock().lock();
+            try
+            {
+                generations[i] = (generations[i] + 1) & 0xFFFF;
+                positions[i] = 0;
+            }
+            finally
+            {
+                locks[i].writeLock().unlock();
+            }
+        }
+        current = 0;
+    }
+
+    /**
+     * @return the number of values in the cache
+     */
+    public int size()
+    {
+        return index.size();
+    }
+
+    /**
+     * @return the amount of direct memory the cache may use
+     */
+    public long maxSizeInBytes()
+    {
+        return (long) segments.length * segmentSize;
+    }
+
+    public long hitCount()
+    {
+        return counter.getHitsCount();
+    }
+
+    public long missCount()
+    {
+        return counter.getMissCount();
+    }
+
+    private static long address( int generation, int segment, int offset )
+    {
+        return ((long) generation << 48) | ((long) segment << 32) | (offset & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+/**
+ * A {@link ClockCache} bounded by the estimated number of bytes its values
+ * take up on the heap, instead of by the number of values. A node with many
+ * relationships or big properties thereby takes up more of the cache than a
+ * small one does.
+ * <p>
+ * Values that grow or shrink while in the cache must be weighed again with
+ * {@link #updateSize(Object)} for the bound to hold.
+ */
+public class SizeBoundedCache<K,V extends EntityWithSize> extends ClockCache<K,V>
+{
+    /**
+     * @param name name of cache
+     * @param maxBytes the estimated number of bytes the values of the cache
+     * may take up
+     */
+    public SizeBoundedCache( String name, long maxBytes )
+    {
+        super( name, maxBytes, Runtime.getRuntime().availableProcessors() * 4 );
+    }
+
+    SizeBoundedCache( String name, long maxBytes, int concurrency )
+    {
+        super( name, maxBytes, concurrency );
+    }
+
+    @Override
+    protected int weigh( V value )
+    {
+        return value.size();
+    }
+
+    /**
+     * Changes the maximum size of the cache, in bytes.
+     */
+    public void resizeInBytes( long maxBytes )
+    {
+        setMaxWeight( maxBytes );
+    }
+
+    /**
+     * @return the estimated number of bytes the values of the cache take up
+     */
+    public long sizeInBytes()
+    {
+        return weight();
+    }
+
+    public long maxSizeInBytes()
+    {
+        return maxWeight();
+    }
+}
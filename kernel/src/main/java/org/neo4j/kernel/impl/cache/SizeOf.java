@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import java.lang.reflect.Array;
+
+/**
+ * Estimates of how many bytes objects take up on the heap, assuming a 64 bit
+ * JVM without compressed references. The estimates are meant for bounding
+ * caches, not for exact accounting.
+ */
+public final class SizeOf
+{
+    public static final int OBJECT_OVERHEAD = 16;
+    public static final int ARRAY_OVERHEAD = 24;
+    public static final int REFERENCE = 8;
+
+    private SizeOf()
+    {
+    }
+
+    /**
+     * @param fieldBytes the number of bytes the fields of an object take up
+     * @return the size of an object with the given fields
+     */
+    public static int withObjectOverhead( int fieldBytes )
+    {
+        return align( OBJECT_OVERHEAD + fieldBytes );
+    }
+
+    /**
+     * @param elementBytes the number of bytes the elements of an array take up
+     * @return the size of an array with the given elements
+     */
+    public static int withArrayOverhead( int elementBytes )
+    {
+        return align( ARRAY_OVERHEAD + elementBytes );
+    }
+
+    public static int sizeOf( String value )
+    {
+        // the value, offset, count and hash fields
+        return withObjectOverhead( REFERENCE + 12 ) + withArrayOverhead( value.length() * 2 );
+    }
+
+    /**
+     * @param value a property value, i.e. a boxed primitive, a String or an
+     * array of either
+     * @return the size of the value, 0 for <CODE>null</CODE>
+     */
+    public static int sizeOfValue( Object value )
+    {
+        if ( value == null )
+        {
+            return 0;
+        }
+        if ( value instanceof String )
+        {
+            return sizeOf( (String) value );
+        }
+        if ( value instanceof String[] )
+        {
+            String[] strings = (String[]) value;
+            int size = withArrayOverhead( strings.length * REFERENCE );
+            for ( String string : strings )
+            {
+                size += sizeOf( string );
+            }
+            return size;
+        }
+        Class<?> component = value.getClass().getComponentType();
+        if ( component == null )
+        {
+            // a boxed primitive
+            return withObjectOverhead( 8 );
+        }
+        return withArrayOverhead( Array.getLength( value ) * sizeOfPrimitive( component ) );
+    }
+
+    private static int sizeOfPrimitive( Class<?> type )
+    {
+        if ( type == long.class || type == double.class )
+        {
+            return 8;
+        }
+        if ( type == int.class || type == float.class )
+        {
+            return 4;
+        }
+        if ( type == short.class || type == char.class )
+        {
+            return 2;
+        }
+        if ( type == byte.class || type == boolean.class )
+        {
+            return 1;
+        }
+        return REFERENCE;
+    }
+
+    private static int align( int size )
+    {
+        return (size + 7) & ~7;
+    }
+}
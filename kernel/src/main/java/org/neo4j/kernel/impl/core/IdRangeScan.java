@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.neo4j.kernel.impl.util.SharedWorkers;
+
+/**
+ * Calls {@link #scan(long)} for every id from 0 up to and including a high
+ * id. The ids are split into ranges that the calling thread and up to a
+ * number of {@link SharedWorkers} take from a shared counter until there
+ * are no more, so that a thread which is done with a sparse range goes on
+ * with the next one instead of waiting for the others.
+ */
+abstract class IdRangeScan
+{
+    // ids scanned by a worker before it takes the next range
+    static final int RANGE_SIZE = 10000;
+
+    private final int threads;
+    private final long highId;
+    private final AtomicLong nextRange = new AtomicLong();
+    private volatile boolean failed;
+
+    IdRangeScan( int threads, long highId )
+    {
+        this.threads = threads;
+        this.highId = highId;
+    }
+
+    abstract void scan( long id );
+
+    void run()
+    {
+        if ( threads <= 1 || highId < RANGE_SIZE )
+        {
+            scanRanges();
+            return;
+        }
+
+        SharedWorkers.instance().run( new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    scanRanges();
+                }
+                catch ( RuntimeException e )
+                {
+                    failed = true;
+                    throw e;
+                }
+                catch ( Error e )
+                {
+                    failed = true;
+                    throw e;
+                }
+            }
+        }, threads );
+    }
+
+    private void scanRanges()
+    {
+        for ( long from = nextRange.getAndAdd( RANGE_SIZE ); from <= highId && !failed;
+                from = nextRange.getAndAdd( RANGE_SIZE ) )
+        {
+            long to = Math.min( highId, from + RANGE_SIZE - 1 );
+            for ( long id = from; id <= to; id++ )
+            {
+                scan( id );
+            }
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.neo4j.kernel.impl.cache.Cache;
+
+/**
+ * Loads nodes or relationships that aren't cached into their cache. A
+ * thread that loads an id registers the load for that id only, so loads of
+ * different ids never wait for each other. A thread that misses an id which
+ * is already being loaded waits for that load and gets its result, so an id
+ * is loaded once no matter how many threads miss it at the same time.
+ * <p>
+ * That only holds for entities that are found. A load reads through the
+ * transaction of the loading thread, so an entity it doesn't find, f.ex.
+ * because that transaction deleted it, may well exist for the waiting
+ * threads. They load it again themselves.
+ * <p>
+ * A thread never waits for another load while it has loads of its own
+ * registered, which is what keeps {@link #getAll(long[], Loader)} from
+ * dead locking with other bulk loads.
+ */
+class InFlightLoads<T>
+{
+    /**
+     * Reads one entity from the store.
+     */
+    interface Loader<T>
+    {
+        /**
+         * @return the entity, or <code>null</code> if it doesn't exist.
+         */
+        T load( long id );
+    }
+
+    private final Cache<Long,T> cache;
+    private final ConcurrentMap<Long,Load<T>> loads =
+        new ConcurrentHashMap<Long,Load<T>>();
+
+    InFlightLoads( Cache<Long,T> cache )
+    {
+        this.cache = cache;
+    }
+
+    /**
+     * Returns the entity with the given id from the cache, loading it if it
+     * isn't cached.
+     *
+     * @return the entity, or <code>null</code> if it doesn't exist.
+     */
+    T get( long id, Loader<T> loader )
+    {
+        while ( true )
+        {
+            T entity = cache.get( id );
+            if ( entity != null )
+            {
+                return entity;
+            }
+            Load<T> load = new Load<T>();
+            Load<T> inFlight = loads.putIfAbsent( id, load );
+            if ( inFlight == null )
+            {
+                try
+                {
+                    entity = loadAndCache( id, loader );
+                    load.done( entity );
+                    return entity;
+                }
+                finally
+                {
+                    load.failIfNotDone();
+                    loads.remove( id, load );
+                }
+            }
+            if ( inFlight.await() && inFlight.entity != null )
+            {
+                return inFlight.entity;
+            }
+            // The load failed, try again to get the exception in this
+            // thread, or found nothing in the view of the loading thread,
+            // try again to look in the view of this one
+            loads.remove( id, inFlight );
+        }
+    }
+
+    /**
+     * Gets the entities with the given ids, loading the ones that aren't
+     * cached in the order of <code>ids</code>. The loaded entities are added
+     * to the cache together. Ids that are being loaded by other threads are
+     * waited for when the rest are loaded.
+     *
+     * @return the entities that exist, by id.
+     */
+    Map<Long,T> getAll( long[] ids, Loader<T> loader )
+    {
+        Map<Long,T> found = new HashMap<Long,T>();
+        List<Long> inFlightIds = new ArrayList<Long>();
+        Map<Long,Load<T>> ownLoads = new HashMap<Long,Load<T>>();
+        try
+        {
+            Map<Long,T> loaded = new HashMap<Long,T>();
+            for ( long id : ids )
+            {
+                if ( found.containsKey( id ) || ownLoads.containsKey( id ) )
+                {
+                    continue;
+                }
+                T entity = cache.get( id );
+                if ( entity != null )
+                {
+                    found.put( id, entity );
+                    continue;
+                }
+                Load<T> load = new Load<T>();
+                if ( loads.putIfAbsent( id, load ) != null )
+                {
+                    inFlightIds.add( id );
+                    continue;
+                }
+                ownLoads.put( id, load );
+                entity = cache.get( id );
+                if ( entity == null )
+                {
+                    entity = loader.load( id );
+                    if ( entity != null )
+                    {
+                        loaded.put( id, entity );
+                    }
+                }
+                if ( entity != null )
+                {
+                    found.put( id, entity );
+                }
+                load.done( entity );
+            }
+            cache.putAll( loaded );
+        }
+        finally
+        {
+            for ( Map.Entry<Long,Load<T>> own : ownLoads.entrySet() )
+            {
+                own.getValue().failIfNotDone();
+                loads.remove( own.getKey(), own.getValue() );
+            }
+        }
+        for ( long id : inFlightIds )
+        {
+            T entity = get( id, loader );
+            if ( entity != null )
+            {
+                found.put( id, entity );
+            }
+        }
+        return found;
+    }
+
+    private T loadAndCache( long id, Loader<T> loader )
+    {
+        // It may have been loaded between the cache miss and registering
+        T entity = cache.get( id );
+        if ( entity == null )
+        {
+            entity = loader.load( id );
+            if ( entity != null )
+            {
+                cache.put( id, entity );
+            }
+        }
+        return entity;
+    }
+
+    private static class Load<T>
+    {
+        private final CountDownLatch latch = new CountDownLatch( 1 );
+        private volatile boolean succeeded;
+        private volatile T entity;
+
+        void done( T entity )
+        {
+            this.entity = entity;
+            this.succeeded = true;
+            latch.countDown();
+        }
+
+        void failIfNotDone()
+        {
+            latch.countDown();
+        }
+
+        /**
+         * @return whether the load succeeded, its entity is then set.
+         */
+        boolean await()
+        {
+            boolean interrupted = false;
+            while ( true )
+            {
+                try
+                {
+                    latch.await();
+                    break;
+                }
+                catch ( InterruptedException e )
+                {
+                    interrupted = true;
+                }
+            }
+            if ( interrupted )
+            {
+                Thread.currentThread().interrupt();
+            }
+            return succeeded;
+        }
+    }
+}
@@ -27,7 +27,6 @@ import java.util.Map;
 
 import org.neo4j.graphdb.NotFoundException;
 import org.neo4j.graphdb.Relationship;
-import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.helpers.collection.PrefetchingIterator;
 import org.neo4j.kernel.impl.util.RelIdArray;
 import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
@@ -40,24 +39,25 @@ class IntArrayIterator extends PrefetchingIterator<Relationship> implements Iter
     private final NodeImpl fromNode;
     private final DirectionWrapper direction;
     private final NodeManager nodeManager;
-    private final RelationshipType types[];
+    // ids of the types, null for all types, so that only the relationship
+    // chains of those types are loaded for dense nodes
+    private final int[] typeIds;
     private final List<RelIdIterator> rels;
     
     // This is just for optimization
     private boolean isFullyLoaded;
 
     IntArrayIterator( List<RelIdIterator> rels, NodeImpl fromNode,
-        DirectionWrapper direction, NodeManager nodeManager, RelationshipType[] types,
-        boolean isFullyLoaded )
+        DirectionWrapper direction, NodeManager nodeManager, int[] typeIds )
     {
         this.rels = rels;
-        this.isFullyLoaded = isFullyLoaded;
+        this.typeIds = typeIds;
+        this.isFullyLoaded = !fromNode.hasMoreRelationshipsToLoad( direction, typeIds );
         this.typeIterator = rels.iterator();
         this.currentTypeIterator = typeIterator.hasNext() ? typeIterator.next() : RelIdArray.EMPTY.iterator( direction );
         this.fromNode = fromNode;
         this.direction = direction;
         this.nodeManager = nodeManager;
-        this.types = types;
     }
 
     public Iterator<Relationship> iterator()
@@ -88,7 +88,7 @@ class IntArrayIterator extends PrefetchingIterator<Relationship> implements Iter
                 {
                     currentTypeIterator = typeIterator.next();
                 }
-                else if ( fromNode.getMoreRelationships( nodeManager ) ||
+                else if ( fromNode.getMoreRelationships( nodeManager, direction, typeIds ) ||
                         // This is here to guard for that someone else might have loaded
                         // stuff in this relationship chain (and exhausted it) while I
                         // iterated over my batch of relationships. It will only happen
@@ -96,10 +96,10 @@ class IntArrayIterator extends PrefetchingIterator<Relationship> implements Iter
                         // isn't fully loaded when starting iterating.
                         !isFullyLoaded )
                 {
-                    Map<String,RelIdIterator> newRels = new HashMap<String,RelIdIterator>();
+                    Map<Integer,RelIdIterator> newRels = new HashMap<Integer,RelIdIterator>();
                     for ( RelIdIterator itr : rels )
                     {
-                        String type = itr.getType();
+                        int type = itr.getType();
                         RelIdArray newSrc = fromNode.getRelationshipIds( type );
                         if ( newSrc != null )
                         {
@@ -112,11 +112,11 @@ class IntArrayIterator extends PrefetchingIterator<Relationship> implements Iter
                     // If we wanted relationships of any type check if there are
                     // any new relationship types loaded for this node and if so
                     // initiate iterators for them
-                    if ( types.length == 0 )
+                    if ( typeIds == null )
                     {
                         for ( RelIdArray ids : fromNode.getRelationshipIds() )
                         {
-                            String type = ids.getType();
+                            int type = ids.getType();
                             RelIdIterator itr = newRels.get( type );
                             if ( itr == null )
                             {
@@ -138,7 +138,7 @@ class IntArrayIterator extends PrefetchingIterator<Relationship> implements Iter
                     
                     typeIterator = rels.iterator();
                     currentTypeIterator = typeIterator.hasNext() ? typeIterator.next() : RelIdArray.EMPTY.iterator( direction );
-                    isFullyLoaded = !fromNode.hasMoreRelationshipsToLoad();
+                    isFullyLoaded = !fromNode.hasMoreRelationshipsToLoad( direction, typeIds );
                 }
                 else
                 {
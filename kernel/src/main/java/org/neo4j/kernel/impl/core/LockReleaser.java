@@ -86,8 +86,8 @@ public class LockReleaser
 
         boolean deleted = false;
 
-        ArrayMap<String,RelIdArray> relationshipAddMap = null;
-        ArrayMap<String,Collection<Long>> relationshipRemoveMap = null;
+        ArrayMap<Integer,RelIdArray> relationshipAddMap = null;
+        ArrayMap<Integer,Collection<Long>> relationshipRemoveMap = null;
         ArrayMap<Integer,PropertyData> propertyAddMap = null;
         ArrayMap<Integer,PropertyData> propertyRemoveMap = null;
     }
@@ -201,7 +201,7 @@ public class LockReleaser
         }
     }
 
-    public Collection<Long> getCowRelationshipRemoveMap( NodeImpl node, String type )
+    public Collection<Long> getCowRelationshipRemoveMap( NodeImpl node, int type )
     {
         PrimitiveElement primitiveElement = cowMap.get( getTransaction() );
         if ( primitiveElement != null )
@@ -217,7 +217,7 @@ public class LockReleaser
         return null;
     }
 
-    public Collection<Long> getCowRelationshipRemoveMap( NodeImpl node, String type,
+    public Collection<Long> getCowRelationshipRemoveMap( NodeImpl node, int type,
         boolean create )
     {
         if ( !create )
@@ -235,7 +235,7 @@ public class LockReleaser
         }
         if ( element.relationshipRemoveMap == null )
         {
-            element.relationshipRemoveMap = new ArrayMap<String,Collection<Long>>();
+            element.relationshipRemoveMap = new ArrayMap<Integer,Collection<Long>>();
         }
         Collection<Long> set = element.relationshipRemoveMap.get( type );
         if ( set == null )
@@ -246,7 +246,23 @@ public class LockReleaser
         return set;
     }
 
-    public ArrayMap<String,RelIdArray> getCowRelationshipAddMap( NodeImpl node )
+    public ArrayMap<Integer,Collection<Long>> getCowRelationshipRemoveMap( NodeImpl node )
+    {
+        PrimitiveElement primitiveElement = cowMap.get( getTransaction() );
+        if ( primitiveElement != null )
+        {
+            ArrayMap<Long,CowNodeElement> cowElements =
+                primitiveElement.nodes;
+            CowNodeElement element = cowElements.get( node.getId() );
+            if ( element != null )
+            {
+                return element.relationshipRemoveMap;
+            }
+        }
+        return null;
+    }
+
+    public ArrayMap<Integer,RelIdArray> getCowRelationshipAddMap( NodeImpl node )
     {
         PrimitiveElement primitiveElement = cowMap.get( getTransaction() );
         if ( primitiveElement != null )
@@ -262,7 +278,7 @@ public class LockReleaser
         return null;
     }
 
-    public RelIdArray getCowRelationshipAddMap( NodeImpl node, String type )
+    public RelIdArray getCowRelationshipAddMap( NodeImpl node, int type )
     {
         PrimitiveElement primitiveElement = cowMap.get( getTransaction() );
         if ( primitiveElement != null )
@@ -278,7 +294,7 @@ public class LockReleaser
         return null;
     }
 
-    public RelIdArray getCowRelationshipAddMap( NodeImpl node, String type,
+    public RelIdArray getCowRelationshipAddMap( NodeImpl node, int type,
         boolean create )
     {
         PrimitiveElement primitiveElement = getAndSetupPrimitiveElement();
@@ -292,7 +308,7 @@ public class LockReleaser
         }
         if ( element.relationshipAddMap == null )
         {
-            element.relationshipAddMap = new ArrayMap<String,RelIdArray>();
+            element.relationshipAddMap = new ArrayMap<Integer,RelIdArray>();
         }
         RelIdArray set = element.relationshipAddMap.get( type );
         if ( set == null )
@@ -377,10 +393,20 @@ public class LockReleaser
                 CowNodeElement nodeElement = entry.getValue();
                 if ( param == Status.STATUS_COMMITTED )
                 {
-                    node.commitRelationshipMaps( nodeElement.relationshipAddMap,
-                        nodeElement.relationshipRemoveMap );
-                    node.commitPropertyMaps( nodeElement.propertyAddMap,
-                        nodeElement.propertyRemoveMap );
+                    // synchronized with the node being moved to the second
+                    // level cache, so that it doesn't get stale there. An
+                    // evicted node is still found in the node cache until
+                    // it has been moved, so a node that isn't found can't
+                    // be on its way there
+                    synchronized ( node )
+                    {
+                        node.commitRelationshipMaps( nodeElement.relationshipAddMap,
+                            nodeElement.relationshipRemoveMap );
+                        node.commitPropertyMaps( nodeElement.propertyAddMap,
+                            nodeElement.propertyRemoveMap );
+                        nodeManager.removeNodeFromSecondLevelCache( entry.getKey() );
+                    }
+                    nodeManager.updateCacheSize( node );
                 }
                 else if ( param != Status.STATUS_ROLLEDBACK )
                 {
@@ -388,6 +414,10 @@ public class LockReleaser
                         "Unknown transaction status: " + param );
                 }
             }
+            else if ( param == Status.STATUS_COMMITTED )
+            {
+                nodeManager.removeNodeFromSecondLevelCache( entry.getKey() );
+            }
         }
         ArrayMap<Long,CowRelElement> cowRelElements = element.relationships;
         Set<Entry<Long,CowRelElement>> relEntrySet =
@@ -400,8 +430,13 @@ public class LockReleaser
                 CowRelElement relElement = entry.getValue();
                 if ( param == Status.STATUS_COMMITTED )
                 {
-                    rel.commitPropertyMaps( relElement.propertyAddMap,
-                        relElement.propertyRemoveMap );
+                    synchronized ( rel )
+                    {
+                        rel.commitPropertyMaps( relElement.propertyAddMap,
+                            relElement.propertyRemoveMap );
+                        nodeManager.removeRelationshipFromSecondLevelCache( entry.getKey() );
+                    }
+                    nodeManager.updateCacheSize( rel );
                 }
                 else if ( param != Status.STATUS_ROLLEDBACK )
                 {
@@ -409,6 +444,10 @@ public class LockReleaser
                         "Unknown transaction status: " + param );
                 }
             }
+            else if ( param == Status.STATUS_COMMITTED )
+            {
+                nodeManager.removeRelationshipFromSecondLevelCache( entry.getKey() );
+            }
         }
         cowMap.remove( cowTxId );
     }
@@ -819,7 +858,7 @@ public class LockReleaser
             }
             if ( nodeElement.relationshipAddMap != null && !nodeElement.deleted )
             {
-                for ( String type : nodeElement.relationshipAddMap.keySet() )
+                for ( int type : nodeElement.relationshipAddMap.keySet() )
                 {
                     RelIdArray createdRels = nodeElement.relationshipAddMap.get( type );
                     populateNodeRelEvent( element, result, nodeId, createdRels );
@@ -827,7 +866,7 @@ public class LockReleaser
             }
             if ( nodeElement.relationshipRemoveMap != null )
             {
-                for ( String type : nodeElement.relationshipRemoveMap.keySet() )
+                for ( int type : nodeElement.relationshipRemoveMap.keySet() )
                 {
                     Collection<Long> deletedRels = nodeElement.relationshipRemoveMap.get( type );
                     for ( long relId : deletedRels )
@@ -22,6 +22,7 @@ package org.neo4j.kernel.impl.core;
 import static org.neo4j.kernel.impl.util.RelIdArray.empty;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -36,9 +37,10 @@ import org.neo4j.graphdb.ReturnableEvaluator;
 import org.neo4j.graphdb.StopEvaluator;
 import org.neo4j.graphdb.Traverser;
 import org.neo4j.graphdb.Traverser.Order;
-import org.neo4j.helpers.Triplet;
+import org.neo4j.helpers.Pair;
+import org.neo4j.kernel.impl.cache.SizeOf;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
-import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipLoadingPosition;
 import org.neo4j.kernel.impl.transaction.LockType;
 import org.neo4j.kernel.impl.traversal.OldTraverserWrapper;
 import org.neo4j.kernel.impl.util.ArrayMap;
@@ -52,7 +54,8 @@ class NodeImpl extends Primitive
     private static final RelIdArray[] NO_RELATIONSHIPS = new RelIdArray[0];
 
     private volatile RelIdArray[] relationships;
-    private long relChainPosition = Record.NO_NEXT_RELATIONSHIP.intValue();
+    // null until the relationships are loaded and for new nodes
+    private RelationshipLoadingPosition relChainPosition;
     private long id;
 
     NodeImpl( long id )
@@ -116,12 +119,34 @@ class NodeImpl extends Primitive
         return nodeManager.loadProperties( this, light );
     }
 
+    @Override
+    protected void updateSize( NodeManager nodeManager )
+    {
+        nodeManager.updateCacheSize( this );
+    }
+
+    public int size()
+    {
+        // the id and the properties, relationships and position references
+        int size = SizeOf.withObjectOverhead( 8 + 3 * SizeOf.REFERENCE ) + sizeOfProperties();
+        RelIdArray[] relationships = this.relationships;
+        if ( relationships != null )
+        {
+            size += SizeOf.withArrayOverhead( relationships.length * SizeOf.REFERENCE );
+            for ( RelIdArray array : relationships )
+            {
+                size += array.size();
+            }
+        }
+        return size;
+    }
+
     List<RelIdIterator> getAllRelationships( NodeManager nodeManager, DirectionWrapper direction )
     {
-        ensureRelationshipMapNotNull( nodeManager );
+        ensureRelationshipMapNotNull( nodeManager, direction, null );
         List<RelIdIterator> relTypeList = new LinkedList<RelIdIterator>();
         boolean hasModifications = nodeManager.getLockReleaser().hasRelationshipModifications( this );
-        ArrayMap<String,RelIdArray> addMap = null;
+        ArrayMap<Integer,RelIdArray> addMap = null;
         if ( hasModifications )
         {
             addMap = nodeManager.getCowRelationshipAddMap( this );
@@ -129,7 +154,7 @@ class NodeImpl extends Primitive
 
         for ( RelIdArray src : relationships )
         {
-            String type = src.getType();
+            int type = src.getType();
             Collection<Long> remove = null;
             RelIdArray add = null;
             RelIdIterator iterator = null;
@@ -150,7 +175,7 @@ class NodeImpl extends Primitive
         }
         if ( addMap != null )
         {
-            for ( String type : addMap.keySet() )
+            for ( int type : addMap.keySet() )
             {
                 if ( getRelIdArray( type ) == null )
                 {
@@ -163,28 +188,31 @@ class NodeImpl extends Primitive
         return relTypeList;
     }
 
+    /**
+     * @param types the ids of the relationship types, see
+     *            {@link NodeManager#getRelationshipTypeIds(RelationshipType[])}
+     */
     List<RelIdIterator> getAllRelationshipsOfType( NodeManager nodeManager,
-        DirectionWrapper direction, RelationshipType... types)
+        DirectionWrapper direction, int[] types )
     {
-        ensureRelationshipMapNotNull( nodeManager );
+        ensureRelationshipMapNotNull( nodeManager, direction, types );
         List<RelIdIterator> relTypeList = new LinkedList<RelIdIterator>();
         boolean hasModifications = nodeManager.getLockReleaser().hasRelationshipModifications( this );
-        for ( RelationshipType type : types )
+        for ( int type : types )
         {
-            String typeName = type.name();
-            RelIdArray src = getRelIdArray( typeName );
+            RelIdArray src = getRelIdArray( type );
             Collection<Long> remove = null;
             RelIdArray add = null;
             RelIdIterator iterator = null;
             if ( hasModifications )
             {
-                remove = nodeManager.getCowRelationshipRemoveMap( this, typeName );
-                add = nodeManager.getCowRelationshipAddMap( this, typeName );
-                iterator = new CombinedRelIdIterator( typeName, direction, src, add, remove );
+                remove = nodeManager.getCowRelationshipRemoveMap( this, type );
+                add = nodeManager.getCowRelationshipAddMap( this, type );
+                iterator = new CombinedRelIdIterator( type, direction, src, add, remove );
             }
             else
             {
-                iterator = src != null ? src.iterator( direction ) : empty( typeName ).iterator( direction );
+                iterator = src != null ? src.iterator( direction ) : empty( type ).iterator( direction );
             }
             relTypeList.add( iterator );
         }
@@ -194,45 +222,51 @@ class NodeImpl extends Primitive
     public Iterable<Relationship> getRelationships( NodeManager nodeManager )
     {
         return new IntArrayIterator( getAllRelationships( nodeManager, DirectionWrapper.BOTH ), this,
-            DirectionWrapper.BOTH, nodeManager, new RelationshipType[0], !hasMoreRelationshipsToLoad() );
+            DirectionWrapper.BOTH, nodeManager, null );
     }
 
     public Iterable<Relationship> getRelationships( NodeManager nodeManager, Direction dir )
     {
         DirectionWrapper direction = RelIdArray.wrap( dir );
         return new IntArrayIterator( getAllRelationships( nodeManager, direction ), this, direction,
-            nodeManager, new RelationshipType[0], !hasMoreRelationshipsToLoad() );
+            nodeManager, null );
     }
 
     public Iterable<Relationship> getRelationships( NodeManager nodeManager, RelationshipType type )
     {
-        RelationshipType types[] = new RelationshipType[] { type };
-        return new IntArrayIterator( getAllRelationshipsOfType( nodeManager, DirectionWrapper.BOTH, types ),
-            this, DirectionWrapper.BOTH, nodeManager, types, !hasMoreRelationshipsToLoad() );
+        return getRelationships( nodeManager, DirectionWrapper.BOTH, type );
     }
 
     public Iterable<Relationship> getRelationships( NodeManager nodeManager,
             RelationshipType... types )
     {
-        return new IntArrayIterator( getAllRelationshipsOfType( nodeManager, DirectionWrapper.BOTH, types ),
-            this, DirectionWrapper.BOTH, nodeManager, types, !hasMoreRelationshipsToLoad() );
+        return getRelationships( nodeManager, DirectionWrapper.BOTH, types );
     }
 
     public Iterable<Relationship> getRelationships( NodeManager nodeManager,
             Direction direction, RelationshipType... types )
     {
-        DirectionWrapper dir = RelIdArray.wrap( direction );
-        return new IntArrayIterator( getAllRelationshipsOfType( nodeManager, dir, types ),
-            this, dir, nodeManager, types, !hasMoreRelationshipsToLoad() );
+        return getRelationships( nodeManager, RelIdArray.wrap( direction ), types );
+    }
+
+    private Iterable<Relationship> getRelationships( NodeManager nodeManager,
+            DirectionWrapper direction, RelationshipType... types )
+    {
+        if ( types.length == 0 )
+        {
+            return Collections.emptyList();
+        }
+        // the only place the types are looked up, the rest goes by their ids
+        int[] typeIds = nodeManager.getRelationshipTypeIds( types );
+        return new IntArrayIterator( getAllRelationshipsOfType( nodeManager, direction, typeIds ),
+            this, direction, nodeManager, typeIds );
     }
 
     public Relationship getSingleRelationship( NodeManager nodeManager, RelationshipType type,
         Direction dir )
     {
-        DirectionWrapper direction = RelIdArray.wrap( dir );
-        RelationshipType types[] = new RelationshipType[] { type };
-        Iterator<Relationship> rels = new IntArrayIterator( getAllRelationshipsOfType( nodeManager,
-                direction, types ), this, direction, nodeManager, types, !hasMoreRelationshipsToLoad() );
+        Iterator<Relationship> rels = getRelationships( nodeManager, RelIdArray.wrap( dir ),
+                type ).iterator();
         if ( !rels.hasNext() )
         {
             return null;
@@ -246,13 +280,134 @@ class NodeImpl extends Primitive
         return rel;
     }
 
+    /**
+     * Counts the relationships of this node, including the changes made in
+     * the current transaction. Once all relationships have been loaded they
+     * are counted in the cache, before that the store is asked for how many
+     * there are so that counting doesn't load them.
+     *
+     * @param type the type to count, <CODE>null</CODE> for all types
+     */
+    public int getDegree( NodeManager nodeManager, RelationshipType type, Direction dir )
+    {
+        DirectionWrapper direction = RelIdArray.wrap( dir );
+        int[] typeIds = type == null ? null :
+            nodeManager.getRelationshipTypeIds( new RelationshipType[] { type } );
+        if ( relationships != null && !hasMoreRelationshipsToLoad() )
+        {
+            List<RelIdIterator> ids = typeIds == null ?
+                getAllRelationships( nodeManager, direction ) :
+                getAllRelationshipsOfType( nodeManager, direction, typeIds );
+            int degree = 0;
+            for ( RelIdIterator iterator : ids )
+            {
+                while ( iterator.hasNext() )
+                {
+                    iterator.next();
+                    degree++;
+                }
+            }
+            return degree;
+        }
+        long degree = nodeManager.getDegree( this, direction, typeIds );
+        if ( nodeManager.getLockReleaser().hasRelationshipModifications( this ) )
+        {
+            degree += getDegreeChange( nodeManager, typeIds, direction );
+        }
+        return (int) degree;
+    }
+
+    /*
+     * The number of relationships added minus the number of relationships
+     * removed in the current transaction, of the given types or of all types
+     * if null.
+     */
+    private long getDegreeChange( NodeManager nodeManager, int[] types,
+        DirectionWrapper direction )
+    {
+        ArrayMap<Integer,RelIdArray> addMap = nodeManager.getCowRelationshipAddMap( this );
+        ArrayMap<Integer,Collection<Long>> removeMap =
+            nodeManager.getCowRelationshipRemoveMap( this );
+        long change = 0;
+        if ( addMap != null )
+        {
+            for ( int addType : addMap.keySet() )
+            {
+                if ( types != null && !contains( types, addType ) )
+                {
+                    continue;
+                }
+                Collection<Long> remove = removeMap != null ? removeMap.get( addType ) : null;
+                RelIdIterator ids = addMap.get( addType ).iterator( direction );
+                while ( ids.hasNext() )
+                {
+                    long relId = ids.next();
+                    if ( remove == null || !remove.contains( relId ) )
+                    {
+                        change++;
+                    }
+                }
+            }
+        }
+        if ( removeMap != null )
+        {
+            for ( int removeType : removeMap.keySet() )
+            {
+                if ( types != null && !contains( types, removeType ) )
+                {
+                    continue;
+                }
+                RelIdArray add = addMap != null ? addMap.get( removeType ) : null;
+                for ( long relId : removeMap.get( removeType ) )
+                {
+                    if ( add != null && contains( add, relId ) )
+                    {
+                        // added in this transaction too, not in the store
+                        continue;
+                    }
+                    RelationshipImpl rel = nodeManager.getRelForProxy( relId );
+                    if ( rel.getStartNodeId() == rel.getEndNodeId() ||
+                        direction == DirectionWrapper.BOTH ||
+                        (direction == DirectionWrapper.OUTGOING) ==
+                            (rel.getStartNodeId() == id) )
+                    {
+                        change--;
+                    }
+                }
+            }
+        }
+        return change;
+    }
+
+    private static boolean contains( int[] types, int type )
+    {
+        for ( int candidate : types )
+        {
+            if ( candidate == type )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean contains( RelIdArray ids, long relId )
+    {
+        RelIdIterator iterator = ids.iterator( DirectionWrapper.BOTH );
+        while ( iterator.hasNext() )
+        {
+            if ( iterator.next() == relId )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public Iterable<Relationship> getRelationships( NodeManager nodeManager, RelationshipType type,
         Direction dir )
     {
-        RelationshipType types[] = new RelationshipType[] { type };
-        DirectionWrapper direction = RelIdArray.wrap( dir );
-        return new IntArrayIterator( getAllRelationshipsOfType( nodeManager, direction, types ),
-            this, direction, nodeManager, types, !hasMoreRelationshipsToLoad() );
+        return getRelationships( nodeManager, RelIdArray.wrap( dir ), type );
     }
 
     public void delete( NodeManager nodeManager )
@@ -298,56 +453,59 @@ class NodeImpl extends Primitive
     // caller is responsible for acquiring lock
     // this method is only called when a relationship is created or
     // a relationship delete is undone or when the full node is loaded
-    void addRelationship( NodeManager nodeManager, RelationshipType type, long relId,
+    void addRelationship( NodeManager nodeManager, int type, long relId,
             DirectionWrapper dir )
     {
         RelIdArray relationshipSet = nodeManager.getCowRelationshipAddMap(
-            this, type.name(), true );
+            this, type, true );
         relationshipSet.add( relId, dir );
     }
 
     // caller is responsible for acquiring lock
     // this method is only called when a undo create relationship or
     // a relationship delete is invoked.
-    void removeRelationship( NodeManager nodeManager, RelationshipType type, long relId )
+    void removeRelationship( NodeManager nodeManager, int type, long relId )
     {
         Collection<Long> relationshipSet = nodeManager.getCowRelationshipRemoveMap(
-            this, type.name(), true );
+            this, type, true );
         relationshipSet.add( relId );
     }
 
-    private void ensureRelationshipMapNotNull( NodeManager nodeManager )
+    private void ensureRelationshipMapNotNull( NodeManager nodeManager,
+        DirectionWrapper direction, int[] types )
     {
         if ( relationships == null )
         {
-            loadInitialRelationships( nodeManager );
+            loadInitialRelationships( nodeManager, direction, types );
         }
     }
 
-    private void loadInitialRelationships( NodeManager nodeManager )
+    private void loadInitialRelationships( NodeManager nodeManager,
+        DirectionWrapper direction, int[] types )
     {
-        Triplet<ArrayMap<String, RelIdArray>, Map<Long, RelationshipImpl>, Long> rels = null;
+        Pair<ArrayMap<Integer,RelIdArray>, Map<Long, RelationshipImpl>> rels = null;
         synchronized ( this )
         {
             if ( relationships == null )
             {
                 this.relChainPosition = nodeManager.getRelationshipChainPosition( this );
-                ArrayMap<String,RelIdArray> tmpRelMap = new ArrayMap<String,RelIdArray>();
-                rels = getMoreRelationships( nodeManager, tmpRelMap );
+                ArrayMap<Integer,RelIdArray> tmpRelMap = new ArrayMap<Integer,RelIdArray>();
+                rels = getMoreRelationships( nodeManager, tmpRelMap, direction, types );
                 this.relationships = toRelIdArray( tmpRelMap );
                 if ( rels != null )
                 {
-                    setRelChainPosition( rels.third() );
+                    shrinkIfFullyLoaded();
                 }
             }
         }
         if ( rels != null )
         {
-            nodeManager.putAllInRelCache( rels.second() );
+            nodeManager.putAllInRelCache( rels.other() );
         }
+        updateSize( nodeManager );
     }
 
-    private RelIdArray[] toRelIdArray( ArrayMap<String, RelIdArray> tmpRelMap )
+    private RelIdArray[] toRelIdArray( ArrayMap<Integer,RelIdArray> tmpRelMap )
     {
         if ( tmpRelMap == null || tmpRelMap.size() == 0 )
         {
@@ -363,21 +521,22 @@ class NodeImpl extends Primitive
         return result;
     }
 
-    private Triplet<ArrayMap<String,RelIdArray>,Map<Long,RelationshipImpl>,Long> getMoreRelationships(
-            NodeManager nodeManager, ArrayMap<String,RelIdArray> tmpRelMap )
+    private Pair<ArrayMap<Integer,RelIdArray>,Map<Long,RelationshipImpl>> getMoreRelationships(
+            NodeManager nodeManager, ArrayMap<Integer,RelIdArray> tmpRelMap,
+            DirectionWrapper direction, int[] types )
     {
-        if ( !hasMoreRelationshipsToLoad() )
+        if ( !hasMoreRelationshipsToLoad( direction, types ) )
         {
             return null;
         }
-        Triplet<ArrayMap<String,RelIdArray>,Map<Long,RelationshipImpl>,Long> rels =
-            nodeManager.getMoreRelationships( this );
-        ArrayMap<String,RelIdArray> addMap = rels.first();
+        Pair<ArrayMap<Integer,RelIdArray>,Map<Long,RelationshipImpl>> rels =
+            nodeManager.getMoreRelationships( this, direction, types );
+        ArrayMap<Integer,RelIdArray> addMap = rels.first();
         if ( addMap.size() == 0 )
         {
             return null;
         }
-        for ( String type : addMap.keySet() )
+        for ( int type : addMap.keySet() )
         {
             RelIdArray addRels = addMap.get( type );
             RelIdArray srcRels = tmpRelMap.get( type );
@@ -401,30 +560,42 @@ class NodeImpl extends Primitive
 
     boolean hasMoreRelationshipsToLoad()
     {
-        return relChainPosition != Record.NO_NEXT_RELATIONSHIP.intValue();
+        return hasMoreRelationshipsToLoad( DirectionWrapper.BOTH, null );
     }
 
-    boolean getMoreRelationships( NodeManager nodeManager )
+    /**
+     * @param types
+     *            ids of the relationship types, <CODE>null</CODE> for all
+     *            types
+     */
+    boolean hasMoreRelationshipsToLoad( DirectionWrapper direction, int[] types )
     {
-        Triplet<ArrayMap<String,RelIdArray>,Map<Long,RelationshipImpl>,Long> rels;
-        if ( !hasMoreRelationshipsToLoad() )
+        RelationshipLoadingPosition position = relChainPosition;
+        return position != null && position.hasMore( direction, types );
+    }
+
+    boolean getMoreRelationships( NodeManager nodeManager, DirectionWrapper direction,
+        int[] types )
+    {
+        Pair<ArrayMap<Integer,RelIdArray>,Map<Long,RelationshipImpl>> rels;
+        if ( !hasMoreRelationshipsToLoad( direction, types ) )
         {
             return false;
         }
         synchronized ( this )
         {
-            if ( !hasMoreRelationshipsToLoad() )
+            if ( !hasMoreRelationshipsToLoad( direction, types ) )
             {
                 return false;
             }
 
-            rels = nodeManager.getMoreRelationships( this );
-            ArrayMap<String,RelIdArray> addMap = rels.first();
+            rels = nodeManager.getMoreRelationships( this, direction, types );
+            ArrayMap<Integer,RelIdArray> addMap = rels.first();
             if ( addMap.size() == 0 )
             {
                 return false;
             }
-            for ( String type : addMap.keySet() )
+            for ( int type : addMap.keySet() )
             {
                 RelIdArray addRels = addMap.get( type );
                 // IntArray srcRels = tmpRelMap.get( type );
@@ -444,20 +615,21 @@ class NodeImpl extends Primitive
                 }
             }
 
-            setRelChainPosition( rels.third() );
+            shrinkIfFullyLoaded();
         }
-        nodeManager.putAllInRelCache( rels.second() );
+        nodeManager.putAllInRelCache( rels.other() );
+        updateSize( nodeManager );
         return true;
     }
 
-    private RelIdArray getRelIdArray( String type )
+    private RelIdArray getRelIdArray( int type )
     {
         // Concurrency-wise it's ok even if the relationships variable
         // gets rebound to something else (in putRelIdArray) since for-each
         // stashes the reference away and uses that
         for ( RelIdArray array : relationships )
         {
-            if ( array.getType().equals( type ) )
+            if ( array.getType() == type )
             {
                 return array;
             }
@@ -473,10 +645,10 @@ class NodeImpl extends Primitive
         // a safe reference is kept to it. If the real array has changed when
         // we're about to set it then redo the loop. A kind of lock-free synchronization
 
-        String expectedType = addRels.getType();
+        int expectedType = addRels.getType();
         for ( int i = 0; i < relationships.length; i++ )
         {
-            if ( relationships[i].getType().equals( expectedType ) )
+            if ( relationships[i].getType() == expectedType )
             {
                 relationships[i] = addRels;
                 return;
@@ -580,8 +752,8 @@ class NodeImpl extends Primitive
     }
 
     protected void commitRelationshipMaps(
-        ArrayMap<String,RelIdArray> cowRelationshipAddMap,
-        ArrayMap<String,Collection<Long>> cowRelationshipRemoveMap )
+        ArrayMap<Integer,RelIdArray> cowRelationshipAddMap,
+        ArrayMap<Integer,Collection<Long>> cowRelationshipRemoveMap )
     {
         if ( relationships == null )
         {
@@ -593,7 +765,7 @@ class NodeImpl extends Primitive
         {
             if ( cowRelationshipAddMap != null )
             {
-                for ( String type : cowRelationshipAddMap.keySet() )
+                for ( int type : cowRelationshipAddMap.keySet() )
                 {
                     RelIdArray add = cowRelationshipAddMap.get( type );
                     Collection<Long> remove = null;
@@ -607,7 +779,7 @@ class NodeImpl extends Primitive
             }
             if ( cowRelationshipRemoveMap != null )
             {
-                for ( String type : cowRelationshipRemoveMap.keySet() )
+                for ( int type : cowRelationshipRemoveMap.keySet() )
                 {
                     if ( cowRelationshipAddMap != null &&
                         cowRelationshipAddMap.get( type ) != null )
@@ -625,14 +797,13 @@ class NodeImpl extends Primitive
         }
     }
 
-    long getRelChainPosition()
+    RelationshipLoadingPosition getRelChainPosition()
     {
         return relChainPosition;
     }
 
-    void setRelChainPosition( long position )
+    private void shrinkIfFullyLoaded()
     {
-        this.relChainPosition = position;
         if ( !hasMoreRelationshipsToLoad() )
         {
             // Shrink arrays
@@ -643,7 +814,7 @@ class NodeImpl extends Primitive
         }
     }
 
-    RelIdArray getRelationshipIds( String type )
+    RelIdArray getRelationshipIds( int type )
     {
         return getRelIdArray( type );
     }
@@ -652,4 +823,35 @@ class NodeImpl extends Primitive
     {
         return relationships;
     }
+
+    /**
+     * @return the id of one of the relationships of this node that have
+     *         already been loaded, or <CODE>-1</CODE> if none have. Nothing
+     *         is loaded from the store.
+     */
+    long getLoadedRelationshipId()
+    {
+        RelIdArray[] relationships = this.relationships;
+        if ( relationships != null )
+        {
+            for ( RelIdArray array : relationships )
+            {
+                RelIdIterator ids = array.iterator( DirectionWrapper.BOTH );
+                if ( ids.hasNext() )
+                {
+                    return ids.next();
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Sets all relationships of a node restored from the second level cache,
+     * before it's visible to other threads.
+     */
+    void setCachedRelationships( RelIdArray[] relationships )
+    {
+        this.relationships = relationships;
+    }
 }
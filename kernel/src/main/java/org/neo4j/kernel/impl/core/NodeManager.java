@@ -25,7 +25,6 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -39,17 +38,23 @@ import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.graphdb.event.TransactionData;
 import org.neo4j.helpers.Pair;
-import org.neo4j.helpers.Triplet;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.ParallelScan;
 import org.neo4j.kernel.PropertyTracker;
 import org.neo4j.kernel.impl.cache.AdaptiveCacheManager;
 import org.neo4j.kernel.impl.cache.Cache;
+import org.neo4j.kernel.impl.cache.ClockCache;
 import org.neo4j.kernel.impl.cache.LruCache;
 import org.neo4j.kernel.impl.cache.NoCache;
+import org.neo4j.kernel.impl.cache.OffHeapCache;
+import org.neo4j.kernel.impl.cache.SizeBoundedCache;
 import org.neo4j.kernel.impl.cache.SoftLruCache;
 import org.neo4j.kernel.impl.cache.StrongReferenceCache;
 import org.neo4j.kernel.impl.cache.WeakLruCache;
+import org.neo4j.kernel.impl.nioneo.store.CommonAbstractStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexData;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipLoadingPosition;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeData;
 import org.neo4j.kernel.impl.persistence.EntityIdGenerator;
@@ -90,10 +95,13 @@ public class NodeManager
     private int minRelCacheSize = 0;
     private int maxNodeCacheSize = 1500;
     private int maxRelCacheSize = 3500;
+    private long nodeCacheBytes = CacheType.DEFAULT_CACHE_BYTES;
+    private long relCacheBytes = CacheType.DEFAULT_CACHE_BYTES;
+    private long offHeapCacheBytes = 0;
+    private volatile SecondLevelCache secondLevelCache;
 
-    private static final int LOCK_STRIPE_COUNT = 32;
-    private final ReentrantLock loadLocks[] =
-        new ReentrantLock[LOCK_STRIPE_COUNT];
+    private final InFlightLoads<NodeImpl> nodeLoads;
+    private final InFlightLoads<RelationshipImpl> relLoads;
 
     NodeManager( GraphDatabaseService graphDb,
             AdaptiveCacheManager cacheManager, LockManager lockManager,
@@ -118,10 +126,8 @@ public class NodeManager
         this.cacheType = cacheType;
         this.nodeCache = cacheType.node( cacheManager );
         this.relCache = cacheType.relationship( cacheManager );
-        for ( int i = 0; i < loadLocks.length; i++ )
-        {
-            loadLocks[i] = new ReentrantLock();
-        }
+        this.nodeLoads = new InFlightLoads<NodeImpl>( nodeCache );
+        this.relLoads = new InFlightLoads<RelationshipImpl>( relCache );
         nodePropertyTrackers = new LinkedList<PropertyTracker<Node>>();
         relationshipPropertyTrackers = new LinkedList<PropertyTracker<Relationship>>();
     }
@@ -225,13 +231,50 @@ public class NodeManager
                     + value );
             }
         }
+        if ( params.containsKey( Config.NODE_CACHE_SIZE ) )
+        {
+            long bytes = CommonAbstractStore.parseMemorySize(
+                    (String) params.get( Config.NODE_CACHE_SIZE ), Config.NODE_CACHE_SIZE );
+            if ( bytes > 0 )
+            {
+                nodeCacheBytes = bytes;
+            }
+        }
+        if ( params.containsKey( Config.RELATIONSHIP_CACHE_SIZE ) )
+        {
+            long bytes = CommonAbstractStore.parseMemorySize(
+                    (String) params.get( Config.RELATIONSHIP_CACHE_SIZE ),
+                    Config.RELATIONSHIP_CACHE_SIZE );
+            if ( bytes > 0 )
+            {
+                relCacheBytes = bytes;
+            }
+        }
+        if ( params.containsKey( Config.OFFHEAP_CACHE_SIZE ) )
+        {
+            offHeapCacheBytes = CommonAbstractStore.parseMemorySize(
+                    (String) params.get( Config.OFFHEAP_CACHE_SIZE ),
+                    Config.OFFHEAP_CACHE_SIZE );
+        }
     }
 
     public void start( Map<Object,Object> params )
     {
         parseParams( params );
-        nodeCache.resize( maxNodeCacheSize );
-        relCache.resize( maxRelCacheSize );
+        if ( nodeCache instanceof SizeBoundedCache<?,?> )
+        {
+            ((SizeBoundedCache<?,?>) nodeCache).resizeInBytes( nodeCacheBytes );
+            ((SizeBoundedCache<?,?>) relCache).resizeInBytes( relCacheBytes );
+        }
+        else
+        {
+            nodeCache.resize( maxNodeCacheSize );
+            relCache.resize( maxRelCacheSize );
+        }
+        if ( offHeapCacheBytes > 0 && secondLevelCache == null )
+        {
+            startSecondLevelCache();
+        }
         if ( useAdaptiveCache && cacheType.needsCacheManagerRegistration )
         {
             cacheManager.registerCache( nodeCache, adaptiveCacheHeapRatio,
@@ -242,6 +285,52 @@ public class NodeManager
         }
     }
 
+    /**
+     * Keeps the nodes and relationships evicted from the node and relationship
+     * caches in a {@link SecondLevelCache}, for the cache types that tell
+     * about their evictions.
+     */
+    @SuppressWarnings( "unchecked" )
+    private void startSecondLevelCache()
+    {
+        if ( !(nodeCache instanceof ClockCache<?,?>) )
+        {
+            log.warning( Config.OFFHEAP_CACHE_SIZE + " ignored, only used with cache type "
+                + CacheType.clock.name() + " or " + CacheType.size.name() );
+            return;
+        }
+        // at least two segments, and smaller ones for small caches
+        int segmentSize = (int) Math.min( OffHeapCache.DEFAULT_SEGMENT_SIZE, offHeapCacheBytes / 2 );
+        final SecondLevelCache cache = new SecondLevelCache( new OffHeapCache(
+                "SecondLevelCache", offHeapCacheBytes, segmentSize ), this );
+        ((ClockCache<Long,NodeImpl>) nodeCache).setEvictionListener(
+                new ClockCache.EvictionListener<NodeImpl>()
+        {
+            public void evicted( NodeImpl node )
+            {
+                // committing changes to the node removes it from the cache
+                // under the same monitor, see LockReleaser. The node cache
+                // still has the node meanwhile, for the commit to find it
+                synchronized ( node )
+                {
+                    cache.putNode( node );
+                }
+            }
+        } );
+        ((ClockCache<Long,RelationshipImpl>) relCache).setEvictionListener(
+                new ClockCache.EvictionListener<RelationshipImpl>()
+        {
+            public void evicted( RelationshipImpl rel )
+            {
+                synchronized ( rel )
+                {
+                    cache.putRelationship( rel );
+                }
+            }
+        } );
+        secondLevelCache = cache;
+    }
+
     public void stop()
     {
         if ( useAdaptiveCache && cacheType.needsCacheManagerRegistration )
@@ -305,7 +394,14 @@ public class NodeManager
             throw new NotFoundException( "Second node[" + endNode.getId()
                 + "] deleted" );
         }
-        long id = idGenerator.nextId( Relationship.class );
+        // store the relationship close to the start node's, or else the end
+        // node's, other relationships
+        long near = relationshipNear( firstNode );
+        if ( near == -1 && endNodeId != startNodeId )
+        {
+            near = relationshipNear( secondNode );
+        }
+        long id = idGenerator.nextId( Relationship.class, near );
         int typeId = getRelationshipTypeIdFor( type );
         RelationshipImpl rel = newRelationshipImpl( id, startNodeId, endNodeId, type, typeId, true );
         boolean firstNodeTaken = false;
@@ -322,12 +418,12 @@ public class NodeManager
                 endNodeId );
             if ( startNodeId == endNodeId )
             {
-                firstNode.addRelationship( this, type, id, DirectionWrapper.BOTH );
+                firstNode.addRelationship( this, typeId, id, DirectionWrapper.BOTH );
             }
             else
             {
-                firstNode.addRelationship( this, type, id, DirectionWrapper.OUTGOING );
-                secondNode.addRelationship( this, type, id, DirectionWrapper.INCOMING );
+                firstNode.addRelationship( this, typeId, id, DirectionWrapper.OUTGOING );
+                secondNode.addRelationship( this, typeId, id, DirectionWrapper.INCOMING );
             }
             relCache.put( rel.getId(), rel );
             success = true;
@@ -374,7 +470,21 @@ public class NodeManager
         }
     }
 
-    private RelationshipImpl newRelationshipImpl( long id, long startNodeId, long endNodeId,
+    private RelationshipImpl newRelationshipImpl( RelationshipRecord data )
+    {
+        int typeId = data.getType();
+        RelationshipType type = getRelationshipTypeById( typeId );
+        if ( type == null )
+        {
+            throw new NotFoundException( "Relationship[" + data.getId()
+                + "] exist but relationship type[" + typeId
+                + "] not found." );
+        }
+        return newRelationshipImpl( data.getId(), data.getFirstNode(),
+                data.getSecondNode(), type, typeId, false );
+    }
+
+    RelationshipImpl newRelationshipImpl( long id, long startNodeId, long endNodeId,
             RelationshipType type, int typeId, boolean newRel )
     {
 //        int rest = (int)(((startNodeId|endNodeId)&0xFFFFC0000000L)>>30);
@@ -388,103 +498,125 @@ public class NodeManager
         return new LowRelationshipImpl( id, startNodeId, endNodeId, typeId, newRel );
     }
 
-    private ReentrantLock lockId( long id )
+    private final InFlightLoads.Loader<NodeImpl> nodeLoader =
+        new InFlightLoads.Loader<NodeImpl>()
     {
-        // TODO: Change stripe mod for new 4B+
-        int stripe = (int) (id / 32768) % LOCK_STRIPE_COUNT;
-        if ( stripe < 0 )
+        public NodeImpl load( long id )
         {
-            stripe *= -1;
+            SecondLevelCache cache = secondLevelCache;
+            NodeImpl node = cache != null ? cache.getNode( id ) : null;
+            if ( node != null )
+            {
+                return node;
+            }
+            return persistenceManager.loadLightNode( id ) ? new NodeImpl( id ) : null;
         }
-        ReentrantLock lock = loadLocks[stripe];
-        lock.lock();
-        return lock;
-    }
+    };
 
-    public Node getNodeById( long nodeId ) throws NotFoundException
+    private final InFlightLoads.Loader<RelationshipImpl> relLoader =
+        new InFlightLoads.Loader<RelationshipImpl>()
     {
-        NodeImpl node = nodeCache.get( nodeId );
-        if ( node != null )
+        public RelationshipImpl load( long id )
         {
-            return new NodeProxy( nodeId, this );
-        }
-        ReentrantLock loadLock = lockId( nodeId );
-        try
-        {
-            if ( nodeCache.get( nodeId ) != null )
+            SecondLevelCache cache = secondLevelCache;
+            RelationshipImpl rel = cache != null ? cache.getRelationship( id ) : null;
+            if ( rel != null )
             {
-                return new NodeProxy( nodeId, this );
+                return rel;
             }
-            if ( !persistenceManager.loadLightNode( nodeId ) )
+            RelationshipRecord data = persistenceManager.loadLightRelationship( id );
+            return data != null ? newRelationshipImpl( data ) : null;
+        }
+    };
+
+    /**
+     * Returns the nodes with the given ids, in the same order as the ids.
+     * The nodes that aren't cached are loaded in store order, see
+     * {@link org.neo4j.kernel.MultiGet}.
+     *
+     * @throws NotFoundException if any of the nodes doesn't exist.
+     */
+    public Node[] getNodesById( long[] ids )
+    {
+        Map<Long,NodeImpl> found = nodeLoads.getAll( inStoreOrder( ids ), nodeLoader );
+        Node[] nodes = new Node[ids.length];
+        for ( int i = 0; i < ids.length; i++ )
+        {
+            if ( !found.containsKey( ids[i] ) )
             {
-                throw new NotFoundException( "Node[" + nodeId + "]" );
+                throw new NotFoundException( "Node[" + ids[i] + "]" );
             }
-            node = new NodeImpl( nodeId );
-            nodeCache.put( nodeId, node );
-            return new NodeProxy( nodeId, this );
-        }
-        finally
-        {
-            loadLock.unlock();
+            nodes[i] = new NodeProxy( ids[i], this );
         }
+        return nodes;
     }
 
-    NodeImpl getLightNode( long nodeId )
+    /**
+     * Returns the relationships with the given ids, in the same order as the
+     * ids. The relationships that aren't cached are loaded in store order,
+     * see {@link org.neo4j.kernel.MultiGet}.
+     *
+     * @throws NotFoundException if any of the relationships doesn't exist.
+     */
+    public Relationship[] getRelationshipsById( long[] ids )
     {
-        NodeImpl node = nodeCache.get( nodeId );
-        if ( node != null )
+        Map<Long,RelationshipImpl> found = relLoads.getAll( inStoreOrder( ids ), relLoader );
+        Relationship[] relationships = new Relationship[ids.length];
+        for ( int i = 0; i < ids.length; i++ )
         {
-            return node;
-        }
-        ReentrantLock loadLock = lockId( nodeId );
-        try
-        {
-            node = nodeCache.get( nodeId );
-            if ( node != null )
-            {
-                return node;
-            }
-            if ( !persistenceManager.loadLightNode( nodeId ) )
+            if ( !found.containsKey( ids[i] ) )
             {
-                return null;
+                throw new NotFoundException( "Relationship[" + ids[i] + "]" );
             }
-            node = new NodeImpl( nodeId );
-            nodeCache.put( nodeId, node );
-            return node;
+            relationships[i] = new RelationshipProxy( ids[i], this );
         }
-        finally
+        return relationships;
+    }
+
+    /**
+     * Sorted ids load records in the order they are stored, which turns
+     * random reads into mostly sequential ones.
+     */
+    private static long[] inStoreOrder( long[] ids )
+    {
+        long[] sorted = ids.clone();
+        Arrays.sort( sorted );
+        return sorted;
+    }
+
+    /**
+     * @return a relationship of <CODE>node</CODE> known without reading the
+     *         store, from the node record of the current transaction or
+     *         from the loaded relationships of the node, or <CODE>-1</CODE>
+     */
+    private long relationshipNear( NodeImpl node )
+    {
+        long near = persistenceManager.getRelationshipChainHead( node.getId() );
+        return near != -1 ? near : node.getLoadedRelationshipId();
+    }
+
+    public Node getNodeById( long nodeId ) throws NotFoundException
+    {
+        if ( nodeLoads.get( nodeId, nodeLoader ) == null )
         {
-            loadLock.unlock();
+            throw new NotFoundException( "Node[" + nodeId + "]" );
         }
+        return new NodeProxy( nodeId, this );
+    }
+
+    NodeImpl getLightNode( long nodeId )
+    {
+        return nodeLoads.get( nodeId, nodeLoader );
     }
 
     NodeImpl getNodeForProxy( long nodeId )
     {
-        NodeImpl node = nodeCache.get( nodeId );
-        if ( node != null )
+        NodeImpl node = nodeLoads.get( nodeId, nodeLoader );
+        if ( node == null )
         {
-            return node;
-        }
-        ReentrantLock loadLock = lockId( nodeId );
-        try
-        {
-            node = nodeCache.get( nodeId );
-            if ( node != null )
-            {
-                return node;
-            }
-            if ( !persistenceManager.loadLightNode( nodeId ) )
-            {
-                throw new NotFoundException( "Node[" + nodeId + "] not found." );
-            }
-            node = new NodeImpl( nodeId );
-            nodeCache.put( nodeId, node );
-            return node;
-        }
-        finally
-        {
-            loadLock.unlock();
+            throw new NotFoundException( "Node[" + nodeId + "] not found." );
         }
+        return node;
     }
 
     public Node getReferenceNode() throws NotFoundException
@@ -504,42 +636,11 @@ public class NodeManager
     public Relationship getRelationshipById( long relId )
         throws NotFoundException
     {
-        RelationshipImpl relationship = relCache.get( relId );
-        if ( relationship != null )
-        {
-            return new RelationshipProxy( relId, this );
-        }
-        ReentrantLock loadLock = lockId( relId );
-        try
-        {
-            relationship = relCache.get( relId );
-            if ( relationship != null )
-            {
-                return new RelationshipProxy( relId, this );
-            }
-            RelationshipRecord data = persistenceManager.loadLightRelationship( relId );
-            if ( data == null )
-            {
-                throw new NotFoundException( "Relationship[" + relId + "]" );
-            }
-            int typeId = data.getType();
-            RelationshipType type = getRelationshipTypeById( typeId );
-            if ( type == null )
-            {
-                throw new NotFoundException( "Relationship[" + data.getId()
-                    + "] exist but relationship type[" + typeId
-                    + "] not found." );
-            }
-            final long startNodeId = data.getFirstNode();
-            final long endNodeId = data.getSecondNode();
-            relationship = newRelationshipImpl( relId, startNodeId, endNodeId, type, typeId, false );
-            relCache.put( relId, relationship );
-            return new RelationshipProxy( relId, this );
-        }
-        finally
+        if ( relLoads.get( relId, relLoader ) == null )
         {
-            loadLock.unlock();
+            throw new NotFoundException( "Relationship[" + relId + "]" );
         }
+        return new RelationshipProxy( relId, this );
     }
 
     RelationshipType getRelationshipTypeById( int id )
@@ -549,52 +650,43 @@ public class NodeManager
 
     RelationshipImpl getRelForProxy( long relId )
     {
-        RelationshipImpl relationship = relCache.get( relId );
-        if ( relationship != null )
+        RelationshipImpl relationship = relLoads.get( relId, relLoader );
+        if ( relationship == null )
         {
-            return relationship;
-        }
-        ReentrantLock loadLock = lockId( relId );
-        try
-        {
-            relationship = relCache.get( relId );
-            if ( relationship != null )
-            {
-                return relationship;
-            }
-            RelationshipRecord data = persistenceManager.loadLightRelationship( relId );
-            if ( data == null )
-            {
-                throw new NotFoundException( "Relationship[" + relId
-                    + "] not found." );
-            }
-            int typeId = data.getType();
-            RelationshipType type = getRelationshipTypeById( typeId );
-            if ( type == null )
-            {
-                throw new NotFoundException( "Relationship[" + data.getId()
-                    + "] exist but relationship type[" + typeId
-                    + "] not found." );
-            }
-            relationship = newRelationshipImpl( relId, data.getFirstNode(), data.getSecondNode(),
-                    type, typeId, false );
-            relCache.put( relId, relationship );
-            return relationship;
-        }
-        finally
-        {
-            loadLock.unlock();
+            throw new NotFoundException( "Relationship[" + relId
+                + "] not found." );
         }
+        return relationship;
     }
 
     public void removeNodeFromCache( long nodeId )
     {
         nodeCache.remove( nodeId );
+        removeNodeFromSecondLevelCache( nodeId );
     }
 
     public void removeRelationshipFromCache( long id )
     {
         relCache.remove( id );
+        removeRelationshipFromSecondLevelCache( id );
+    }
+
+    void removeNodeFromSecondLevelCache( long nodeId )
+    {
+        SecondLevelCache cache = secondLevelCache;
+        if ( cache != null )
+        {
+            cache.removeNode( nodeId );
+        }
+    }
+
+    void removeRelationshipFromSecondLevelCache( long id )
+    {
+        SecondLevelCache cache = secondLevelCache;
+        if ( cache != null )
+        {
+            cache.removeRelationship( id );
+        }
     }
 
     Object loadPropertyValue( PropertyData property )
@@ -602,63 +694,93 @@ public class NodeManager
         return persistenceManager.loadPropertyValue( property );
     }
 
-    long getRelationshipChainPosition( NodeImpl node )
+    Object[] loadPropertyValues( PropertyData[] properties )
+    {
+        return persistenceManager.loadPropertyValues( properties );
+    }
+
+    RelationshipLoadingPosition getRelationshipChainPosition( NodeImpl node )
     {
         return persistenceManager.getRelationshipChainPosition( node.getId() );
     }
 
-    Triplet<ArrayMap<String,RelIdArray>,Map<Long,RelationshipImpl>,Long> getMoreRelationships( NodeImpl node )
+    long getDegree( NodeImpl node, DirectionWrapper direction, int[] types )
+    {
+        return persistenceManager.getDegree( node.getId(), direction, types );
+    }
+
+    Pair<ArrayMap<Integer,RelIdArray>,Map<Long,RelationshipImpl>> getMoreRelationships( NodeImpl node,
+            DirectionWrapper direction, int[] types )
     {
         long nodeId = node.getId();
-        long position = node.getRelChainPosition();
-        Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> rels =
-            persistenceManager.getMoreRelationships( nodeId, position );
-        ArrayMap<String,RelIdArray> newRelationshipMap =
-            new ArrayMap<String,RelIdArray>();
+        RelationshipLoadingPosition position = node.getRelChainPosition();
+        Map<DirectionWrapper, Iterable<RelationshipRecord>> rels =
+            persistenceManager.getMoreRelationships( nodeId, position, direction, types );
+        ArrayMap<Integer,RelIdArray> newRelationshipMap =
+            new ArrayMap<Integer,RelIdArray>();
         Map<Long,RelationshipImpl> relsMap = new HashMap<Long,RelationshipImpl>( 150 );
 
-        Iterable<RelationshipRecord> loops = rels.first().get( DirectionWrapper.BOTH );
+        Iterable<RelationshipRecord> loops = rels.get( DirectionWrapper.BOTH );
         boolean hasLoops = loops != null;
         if ( hasLoops )
         {
             receiveRelationships( loops, newRelationshipMap, relsMap, DirectionWrapper.BOTH, true );
         }
-        receiveRelationships( rels.first().get( DirectionWrapper.OUTGOING ), newRelationshipMap,
+        receiveRelationships( rels.get( DirectionWrapper.OUTGOING ), newRelationshipMap,
                 relsMap, DirectionWrapper.OUTGOING, hasLoops );
-        receiveRelationships( rels.first().get( DirectionWrapper.INCOMING ), newRelationshipMap,
+        receiveRelationships( rels.get( DirectionWrapper.INCOMING ), newRelationshipMap,
                 relsMap, DirectionWrapper.INCOMING, hasLoops );
 
         // relCache.putAll( relsMap );
-        return Triplet.of( newRelationshipMap, relsMap, rels.other() );
+        return Pair.of( newRelationshipMap, relsMap );
+    }
+
+    /**
+     * @return the ids of <CODE>types</CODE> as used when loading
+     *         relationships, <CODE>null</CODE> meaning all types if
+     *         <CODE>types</CODE> is empty. Types not yet created are left out.
+     */
+    int[] getRelationshipTypeIds( RelationshipType[] types )
+    {
+        if ( types.length == 0 )
+        {
+            return null;
+        }
+        int[] ids = new int[types.length];
+        int count = 0;
+        for ( RelationshipType type : types )
+        {
+            Integer id = relTypeHolder.getIdFor( type.name() );
+            if ( id != null )
+            {
+                ids[count++] = id;
+            }
+        }
+        return count == ids.length ? ids : Arrays.copyOf( ids, count );
     }
 
     private void receiveRelationships(
-            Iterable<RelationshipRecord> rels, ArrayMap<String, RelIdArray> newRelationshipMap,
+            Iterable<RelationshipRecord> rels, ArrayMap<Integer,RelIdArray> newRelationshipMap,
             Map<Long, RelationshipImpl> relsMap, DirectionWrapper dir, boolean hasLoops )
     {
         for ( RelationshipRecord rel : rels )
         {
             long relId = rel.getId();
-            RelationshipImpl relImpl = relCache.get( relId );
-            RelationshipType type = null;
-            if ( relImpl == null )
+            int typeId = rel.getType();
+            if ( relCache.get( relId ) == null )
             {
-                type = getRelationshipTypeById( rel.getType() );
+                RelationshipType type = getRelationshipTypeById( typeId );
                 assert type != null;
-                relImpl = newRelationshipImpl( relId, rel.getFirstNode(), rel.getSecondNode(), type,
-                        rel.getType(), false );
+                RelationshipImpl relImpl = newRelationshipImpl( relId, rel.getFirstNode(),
+                        rel.getSecondNode(), type, typeId, false );
                 relsMap.put( relId, relImpl );
                 // relCache.put( relId, relImpl );
             }
-            else
-            {
-                type = relImpl.getType( this );
-            }
-            RelIdArray relationshipSet = newRelationshipMap.get( type.name() );
+            RelIdArray relationshipSet = newRelationshipMap.get( typeId );
             if ( relationshipSet == null )
             {
-                relationshipSet = hasLoops ? new RelIdArrayWithLoops( type.name() ) : new RelIdArray( type.name() );
-                newRelationshipMap.put( type.name(), relationshipSet );
+                relationshipSet = hasLoops ? new RelIdArrayWithLoops( typeId ) : new RelIdArray( typeId );
+                newRelationshipMap.put( typeId, relationshipSet );
             }
             relationshipSet.add( relId, dir );
         }
@@ -685,6 +807,21 @@ public class NodeManager
     {
         nodeCache.clear();
         relCache.clear();
+        SecondLevelCache cache = secondLevelCache;
+        if ( cache != null )
+        {
+            cache.clear();
+        }
+    }
+
+    /**
+     * @return the cache of the nodes and relationships evicted from the node
+     * and relationship caches, or <CODE>null</CODE> if there is none
+     */
+    OffHeapCache getSecondLevelCache()
+    {
+        SecondLevelCache cache = secondLevelCache;
+        return cache != null ? cache.getOffHeapCache() : null;
     }
 
     @SuppressWarnings( "unchecked" )
@@ -772,6 +909,47 @@ public class NodeManager
         }
     }
 
+    /**
+     * Visits all nodes in the store on <CODE>threads</CODE> threads, see
+     * {@link ParallelScan}. Only the in use flag of each record is read and
+     * the node cache is left as it is.
+     */
+    public void scanAllNodes( int threads, final ParallelScan.Visitor<? super Node> visitor )
+    {
+        new IdRangeScan( threads, getHighestPossibleIdInUse( Node.class ) )
+        {
+            @Override
+            void scan( long id )
+            {
+                if ( persistenceManager.loadCommittedLightNode( id ) )
+                {
+                    visitor.visit( new NodeProxy( id, NodeManager.this ) );
+                }
+            }
+        }.run();
+    }
+
+    /**
+     * Visits all relationships in the store on <CODE>threads</CODE>
+     * threads, see {@link ParallelScan}. Relationship group records are
+     * skipped and the relationship cache is left as it is.
+     */
+    public void scanAllRelationships( int threads,
+            final ParallelScan.Visitor<? super Relationship> visitor )
+    {
+        new IdRangeScan( threads, getHighestPossibleIdInUse( Relationship.class ) )
+        {
+            @Override
+            void scan( long id )
+            {
+                if ( persistenceManager.loadCommittedLightRelationship( id ) != null )
+                {
+                    visitor.visit( new RelationshipProxy( id, NodeManager.this ) );
+                }
+            }
+        }.run();
+    }
+
     public long getHighestPossibleIdInUse( Class<?> clazz )
     {
         return idGenerator.getHighestPossibleIdInUse( clazz );
@@ -782,6 +960,36 @@ public class NodeManager
         return idGenerator.getNumberOfIdsInUse( clazz );
     }
 
+    /**
+     * Returns the number of nodes as of the last committed transaction,
+     * exact unlike {@link #getNumberOfIdsInUse(Class)}.
+     */
+    public long getNodeCount()
+    {
+        return persistenceManager.getNodeCount();
+    }
+
+    /**
+     * Returns the number of relationships, of all types, as of the last
+     * committed transaction.
+     */
+    public long getRelationshipCount()
+    {
+        return persistenceManager.getRelationshipCount( -1 );
+    }
+
+    /**
+     * Returns the number of relationships of <CODE>type</CODE> as of the
+     * last committed transaction. Every relationship has exactly one start
+     * and one end node so this is also the number of relationships of
+     * <CODE>type</CODE> in either direction.
+     */
+    public long getRelationshipCount( RelationshipType type )
+    {
+        Integer id = relTypeHolder.getIdFor( type.name() );
+        return id == null ? 0 : persistenceManager.getRelationshipCount( id );
+    }
+
     public void removeRelationshipTypeFromCache( int id )
     {
         relTypeHolder.removeRelType( id );
@@ -807,7 +1015,7 @@ public class NodeManager
         return propertyIndexManager.getIndexFor( keyId );
     }
 
-    Iterable<PropertyIndex> index( String key )
+    List<PropertyIndex> index( String key )
     {
         return propertyIndexManager.index( key );
     }
@@ -948,31 +1156,36 @@ public class NodeManager
         persistenceManager.relRemoveProperty( rel.getId(), property );
     }
 
-    public Collection<Long> getCowRelationshipRemoveMap( NodeImpl node, String type )
+    public Collection<Long> getCowRelationshipRemoveMap( NodeImpl node, int type )
     {
         return lockReleaser.getCowRelationshipRemoveMap( node, type );
     }
 
-    public Collection<Long> getCowRelationshipRemoveMap( NodeImpl node, String type,
+    public Collection<Long> getCowRelationshipRemoveMap( NodeImpl node, int type,
         boolean create )
     {
         return lockReleaser.getCowRelationshipRemoveMap( node, type, create );
     }
 
-    public ArrayMap<String,RelIdArray> getCowRelationshipAddMap( NodeImpl node )
+    public ArrayMap<Integer,Collection<Long>> getCowRelationshipRemoveMap( NodeImpl node )
+    {
+        return lockReleaser.getCowRelationshipRemoveMap( node );
+    }
+
+    public ArrayMap<Integer,RelIdArray> getCowRelationshipAddMap( NodeImpl node )
     {
         return lockReleaser.getCowRelationshipAddMap( node );
     }
 
-    public RelIdArray getCowRelationshipAddMap( NodeImpl node, String string )
+    public RelIdArray getCowRelationshipAddMap( NodeImpl node, int type )
     {
-        return lockReleaser.getCowRelationshipAddMap( node, string );
+        return lockReleaser.getCowRelationshipAddMap( node, type );
     }
 
-    public RelIdArray getCowRelationshipAddMap( NodeImpl node, String string,
+    public RelIdArray getCowRelationshipAddMap( NodeImpl node, int type,
         boolean create )
     {
-        return lockReleaser.getCowRelationshipAddMap( node, string, create );
+        return lockReleaser.getCowRelationshipAddMap( node, type, create );
     }
 
     public NodeImpl getNodeIfCached( long nodeId )
@@ -1060,6 +1273,28 @@ public class NodeManager
         return this.relTypeHolder;
     }
 
+    /**
+     * Weighs the node again in a cache bounded by size, after more of its
+     * relationships or properties have been loaded or committed.
+     */
+    @SuppressWarnings( "unchecked" )
+    void updateCacheSize( NodeImpl node )
+    {
+        if ( nodeCache instanceof SizeBoundedCache<?,?> )
+        {
+            ((SizeBoundedCache<Long,NodeImpl>) nodeCache).updateSize( node.getId() );
+        }
+    }
+
+    @SuppressWarnings( "unchecked" )
+    void updateCacheSize( RelationshipImpl rel )
+    {
+        if ( relCache instanceof SizeBoundedCache<?,?> )
+        {
+            ((SizeBoundedCache<Long,RelationshipImpl>) relCache).updateSize( rel.getId() );
+        }
+    }
+
     public static enum CacheType
     {
         weak( false, "weak reference cache" )
@@ -1132,8 +1367,40 @@ public class NodeManager
             {
                 return new StrongReferenceCache<Long,RelationshipImpl>( RELATIONSHIP_CACHE_NAME );
             }
+        },
+        clock( false, "concurrent clock cache" )
+        {
+            @Override
+            Cache<Long, NodeImpl> node( AdaptiveCacheManager cacheManager )
+            {
+                return new ClockCache<Long,NodeImpl>( NODE_CACHE_NAME, 1500 );
+            }
+
+            @Override
+            Cache<Long, RelationshipImpl> relationship( AdaptiveCacheManager cacheManager )
+            {
+                return new ClockCache<Long,RelationshipImpl>( RELATIONSHIP_CACHE_NAME, 3500 );
+            }
+        },
+        size( false, "clock cache bounded by heap size" )
+        {
+            @Override
+            Cache<Long, NodeImpl> node( AdaptiveCacheManager cacheManager )
+            {
+                return new SizeBoundedCache<Long,NodeImpl>( NODE_CACHE_NAME, DEFAULT_CACHE_BYTES );
+            }
+
+            @Override
+            Cache<Long, RelationshipImpl> relationship( AdaptiveCacheManager cacheManager )
+            {
+                return new SizeBoundedCache<Long,RelationshipImpl>(
+                        RELATIONSHIP_CACHE_NAME, DEFAULT_CACHE_BYTES );
+            }
         };
 
+        // an eighth of the heap for each of the node and relationship caches
+        static final long DEFAULT_CACHE_BYTES = Runtime.getRuntime().maxMemory() / 8;
+
         private static final String NODE_CACHE_NAME = "NodeCache";
         private static final String RELATIONSHIP_CACHE_NAME = "RelationshipCache";
 
@@ -115,6 +115,26 @@ class NodeProxy implements Node
         return nm.getNodeForProxy( nodeId ).getSingleRelationship( nm, type, dir );
     }
 
+    public int getDegree()
+    {
+        return nm.getNodeForProxy( nodeId ).getDegree( nm, null, Direction.BOTH );
+    }
+
+    public int getDegree( RelationshipType type )
+    {
+        return nm.getNodeForProxy( nodeId ).getDegree( nm, type, Direction.BOTH );
+    }
+
+    public int getDegree( Direction direction )
+    {
+        return nm.getNodeForProxy( nodeId ).getDegree( nm, null, direction );
+    }
+
+    public int getDegree( RelationshipType type, Direction direction )
+    {
+        return nm.getNodeForProxy( nodeId ).getDegree( nm, type, direction );
+    }
+
     public void setProperty( String key, Object value )
     {
         nm.getNodeForProxy( nodeId ).setProperty( nm, key, value );
@@ -130,6 +150,26 @@ class NodeProxy implements Node
         return nm.getNodeForProxy( nodeId ).getProperty( nm, key, defaultValue );
     }
 
+    public Object[] getProperties( String... keys )
+    {
+        return nm.getNodeForProxy( nodeId ).getProperties( nm, keys );
+    }
+
+    public long getLongProperty( String key, long defaultValue )
+    {
+        return nm.getNodeForProxy( nodeId ).getLongProperty( nm, key, defaultValue );
+    }
+
+    public double getDoubleProperty( String key, double defaultValue )
+    {
+        return nm.getNodeForProxy( nodeId ).getDoubleProperty( nm, key, defaultValue );
+    }
+
+    public boolean getBooleanProperty( String key, boolean defaultValue )
+    {
+        return nm.getNodeForProxy( nodeId ).getBooleanProperty( nm, key, defaultValue );
+    }
+
     public Iterable<Object> getPropertyValues()
     {
         return nm.getNodeForProxy( nodeId ).getPropertyValues( nm );
@@ -20,14 +20,17 @@
 package org.neo4j.kernel.impl.core;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.kernel.impl.cache.EntityWithSize;
+import org.neo4j.kernel.impl.cache.SizeOf;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
 import org.neo4j.kernel.impl.transaction.LockType;
 import org.neo4j.kernel.impl.util.ArrayMap;
 
-abstract class Primitive
+abstract class Primitive implements EntityWithSize
 {
     // Used for marking that properties have been loaded but there just wasn't any.
     // Saves an extra trip down to the store layer.
@@ -45,6 +48,12 @@ abstract class Primitive
     protected abstract ArrayMap<Integer, PropertyData> loadProperties(
             NodeManager nodeManager, boolean light );
 
+    /**
+     * Called when this primitive has grown, by loading properties or values,
+     * so that a cache bounded by size can weigh it again.
+     */
+    protected abstract void updateSize( NodeManager nodeManager );
+
     Primitive( boolean newPrimitive )
     {
         if ( newPrimitive )
@@ -129,6 +138,43 @@ abstract class Primitive
     }
 
     public Object getProperty( NodeManager nodeManager, String key ) throws NotFoundException
+    {
+        PropertyData property = findProperty( nodeManager, key );
+        if ( property != null )
+        {
+            return getPropertyValue( nodeManager, property );
+        }
+        throw newPropertyNotFoundException( key );
+    }
+
+    public long getLongProperty( NodeManager nodeManager, String key, long defaultValue )
+    {
+        PropertyData property = findProperty( nodeManager, key );
+        return property != null ? property.getLongValue() : defaultValue;
+    }
+
+    public double getDoubleProperty( NodeManager nodeManager, String key, double defaultValue )
+    {
+        PropertyData property = findProperty( nodeManager, key );
+        return property != null ? property.getDoubleValue() : defaultValue;
+    }
+
+    public boolean getBooleanProperty( NodeManager nodeManager, String key, boolean defaultValue )
+    {
+        PropertyData property = findProperty( nodeManager, key );
+        return property != null ? property.getBooleanValue() : defaultValue;
+    }
+
+    /**
+     * Looks up the property with the given key, as seen by the current
+     * transaction. Nothing is allocated when the properties are cached and
+     * the transaction hasn't changed this primitive, which is what lets the
+     * primitive getters read values without creating garbage.
+     *
+     * @return the property, or <code>null</code> if there's no property with
+     * the given key.
+     */
+    private PropertyData findProperty( NodeManager nodeManager, String key )
     {
         if ( key == null )
         {
@@ -140,32 +186,98 @@ abstract class Primitive
             nodeManager.getCowPropertyAddMap( this );
 
         ensureFullProperties( nodeManager );
-        for ( PropertyIndex index : nodeManager.index( key ) )
+        return findProperty( nodeManager, key, skipMap, addMap );
+    }
+
+    private PropertyData findProperty( NodeManager nodeManager, String key,
+            ArrayMap<Integer,PropertyData> skipMap,
+            ArrayMap<Integer,PropertyData> addMap )
+    {
+        List<PropertyIndex> indexes = nodeManager.index( key );
+        for ( int i = 0; i < indexes.size(); i++ )
         {
+            PropertyIndex index = indexes.get( i );
             if ( skipMap != null && skipMap.get( index.getKeyId() ) != null )
             {
-                throw newPropertyNotFoundException( key );
+                return null;
             }
             if ( addMap != null )
             {
                 PropertyData property = addMap.get( index.getKeyId() );
                 if ( property != null )
                 {
-                    return getPropertyValue( nodeManager, property );
+                    return property;
                 }
             }
             PropertyData property = getPropertyForIndex( index.getKeyId() );
             if ( property != null )
             {
-                return getPropertyValue( nodeManager, property );
+                return property;
             }
         }
-        PropertyData property = getSlowProperty( nodeManager, addMap, skipMap, key );
-        if ( property != null )
+        return getSlowProperty( nodeManager, addMap, skipMap, key );
+    }
+
+    /**
+     * Returns the values of the properties with the given keys, as seen by
+     * the current transaction. The transaction state is looked up and the
+     * properties are loaded only once for all keys. String and array values
+     * that aren't cached yet are loaded together, reading each property
+     * record once.
+     *
+     * @return the values in the same order as the keys, with
+     * <code>null</code> for keys that have no property.
+     */
+    public Object[] getProperties( NodeManager nodeManager, String... keys )
+    {
+        for ( String key : keys )
         {
-            return getPropertyValue( nodeManager, property );
+            if ( key == null )
+            {
+                throw new IllegalArgumentException( "null key" );
+            }
         }
-        throw newPropertyNotFoundException( key );
+        ArrayMap<Integer,PropertyData> skipMap =
+            nodeManager.getCowPropertyRemoveMap( this );
+        ArrayMap<Integer,PropertyData> addMap =
+            nodeManager.getCowPropertyAddMap( this );
+
+        ensureFullProperties( nodeManager );
+        Object[] values = new Object[keys.length];
+        PropertyData[] toLoad = null;
+        int[] toLoadPositions = null;
+        int toLoadCount = 0;
+        for ( int i = 0; i < keys.length; i++ )
+        {
+            PropertyData property = findProperty( nodeManager, keys[i], skipMap, addMap );
+            if ( property == null )
+            {
+                continue;
+            }
+            values[i] = property.getValue();
+            if ( values[i] == null )
+            {
+                if ( toLoad == null )
+                {
+                    toLoad = new PropertyData[keys.length];
+                    toLoadPositions = new int[keys.length];
+                }
+                toLoad[toLoadCount] = property;
+                toLoadPositions[toLoadCount++] = i;
+            }
+        }
+        if ( toLoadCount > 0 )
+        {
+            Object[] loaded = nodeManager.loadPropertyValues(
+                    Arrays.copyOf( toLoad, toLoadCount ) );
+            for ( int i = 0; i < toLoadCount; i++ )
+            {
+                toLoad[i].setNewValue( loaded[i] );
+                values[toLoadPositions[i]] = loaded[i];
+            }
+            updateSize( nodeManager );
+        }
+        return values;
     }
 
     private NotFoundException newPropertyNotFoundException( String key )
@@ -230,38 +342,7 @@ abstract class Primitive
 
     public Object getProperty( NodeManager nodeManager, String key, Object defaultValue )
     {
-        if ( key == null )
-        {
-            throw new IllegalArgumentException( "null key" );
-        }
-
-        ArrayMap<Integer,PropertyData> skipMap =
-            nodeManager.getCowPropertyRemoveMap( this );
-        ArrayMap<Integer,PropertyData> addMap =
-            nodeManager.getCowPropertyAddMap( this );
-
-        ensureFullProperties( nodeManager );
-        for ( PropertyIndex index : nodeManager.index( key ) )
-        {
-            if ( skipMap != null && skipMap.get( index.getKeyId() ) != null )
-            {
-                return defaultValue;
-            }
-            if ( addMap != null )
-            {
-                PropertyData property = addMap.get( index.getKeyId() );
-                if ( property != null )
-                {
-                    return getPropertyValue( nodeManager, property );
-                }
-            }
-            PropertyData property = getPropertyForIndex( index.getKeyId() );
-            if ( property != null )
-            {
-                return getPropertyValue( nodeManager, property );
-            }
-        }
-        PropertyData property = getSlowProperty( nodeManager, addMap, skipMap, key );
+        PropertyData property = findProperty( nodeManager, key );
         if ( property != null )
         {
             return getPropertyValue( nodeManager, property );
@@ -546,6 +627,7 @@ abstract class Primitive
              */
             value = nodeManager.loadPropertyValue( property );
             property.setNewValue( value );
+            updateSize( nodeManager );
         }
         return value;
     }
@@ -644,12 +726,49 @@ abstract class Primitive
         return null;
     }
 
+    /**
+     * @return the properties as they are cached, <CODE>null</CODE> if they
+     * haven't been loaded
+     */
+    PropertyData[] getCachedProperties()
+    {
+        return properties;
+    }
+
+    /**
+     * Sets the properties of a primitive restored from the second level
+     * cache, before it's visible to other threads.
+     */
+    void setCachedProperties( PropertyData[] properties )
+    {
+        this.properties = properties;
+    }
+
+    /**
+     * @return the estimated size of the cached properties and their values
+     */
+    int sizeOfProperties()
+    {
+        PropertyData[] properties = this.properties;
+        if ( properties == null )
+        {
+            return 0;
+        }
+        int size = SizeOf.withArrayOverhead( properties.length * SizeOf.REFERENCE );
+        for ( PropertyData property : properties )
+        {
+            size += property.size();
+        }
+        return size;
+    }
+
     private boolean ensureFullProperties( NodeManager nodeManager )
     {
         if ( properties == null )
         {
             this.properties = toPropertyArray( loadProperties( nodeManager,
                     false ) );
+            updateSize( nodeManager );
             return true;
         }
         return false;
@@ -677,6 +796,7 @@ abstract class Primitive
         {
             this.properties = toPropertyArray( loadProperties( nodeManager,
                     true ) );
+            updateSize( nodeManager );
             return true;
         }
         return false;
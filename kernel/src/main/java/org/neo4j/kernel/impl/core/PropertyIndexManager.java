@@ -68,7 +68,7 @@ public class PropertyIndexManager
         txCommitHooks.clear();
     }
 
-    public Iterable<PropertyIndex> index( String key )
+    public List<PropertyIndex> index( String key )
     {
         List<PropertyIndex> list = indexMap.get( key );
         TxCommitHook hook = txCommitHooks.get( getTransaction() );
@@ -22,6 +22,7 @@ package org.neo4j.kernel.impl.core;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.NotFoundException;
 import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.kernel.impl.cache.SizeOf;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
 import org.neo4j.kernel.impl.transaction.LockException;
 import org.neo4j.kernel.impl.transaction.LockType;
@@ -77,6 +78,18 @@ abstract class RelationshipImpl extends Primitive
         return nodeManager.loadProperties( this, light );
     }
 
+    @Override
+    protected void updateSize( NodeManager nodeManager )
+    {
+        nodeManager.updateCacheSize( this );
+    }
+
+    public int size()
+    {
+        // the id, start and end nodes and the properties reference
+        return SizeOf.withObjectOverhead( 8 + 4 + 4 + SizeOf.REFERENCE ) + sizeOfProperties();
+    }
+
     public Node[] getNodes( NodeManager nodeManager )
     {
         return new Node[] { new NodeProxy( getStartNodeId(), nodeManager ),
@@ -111,6 +124,8 @@ abstract class RelationshipImpl extends Primitive
 
     abstract long getEndNodeId();
 
+    abstract int getTypeId();
+
     public abstract RelationshipType getType( NodeManager nodeManager );
 
     public boolean isType( NodeManager nodeManager, RelationshipType otherType )
@@ -158,7 +173,7 @@ abstract class RelationshipImpl extends Primitive
                 }
             }
             success = true;
-            RelationshipType type = getType( nodeManager );
+            int type = getTypeId();
             long id = getId();
             if ( startNode != null )
             {
@@ -95,6 +95,11 @@ class RelationshipProxy implements Relationship
         return nm.getRelForProxy( relId ).getProperty( nm, key, defaultValue );
     }
 
+    public Object[] getProperties( String... keys )
+    {
+        return nm.getRelForProxy( relId ).getProperties( nm, keys );
+    }
+
     public boolean hasProperty( String key )
     {
         return nm.getRelForProxy( relId ).hasProperty( nm, key );
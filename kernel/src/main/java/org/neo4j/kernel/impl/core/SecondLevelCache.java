@@ -0,0 +1,526 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.kernel.impl.cache.OffHeapCache;
+import org.neo4j.kernel.impl.nioneo.store.PropertyData;
+import org.neo4j.kernel.impl.nioneo.store.PropertyDatas;
+import org.neo4j.kernel.impl.util.RelIdArray;
+
+/**
+ * Keeps nodes and relationships evicted from the node and relationship caches
+ * in an {@link OffHeapCache}, in a compact binary form, so that they can be
+ * restored without going to the store files.
+ * <p>
+ * A node is stored with its properties, if loaded, and its relationship ids,
+ * if all of them are loaded. A relationship is stored with its start and end
+ * nodes, type and properties, if loaded. Property values that haven't been
+ * loaded are stored as such and loaded from the store when asked for.
+ * <p>
+ * Entities are moved between the caches: restoring an entity removes it from
+ * this cache. Committing changes to an entity removes it as well, see
+ * {@link LockReleaser}.
+ */
+class SecondLevelCache
+{
+    private static final byte HAS_PROPERTIES = 1;
+    private static final byte HAS_RELATIONSHIPS = 2;
+
+    // property value types
+    private static final byte NOT_LOADED = 0;
+    private static final byte BOOLEAN = 1;
+    private static final byte BYTE = 2;
+    private static final byte SHORT = 3;
+    private static final byte CHAR = 4;
+    private static final byte INT = 5;
+    private static final byte LONG = 6;
+    private static final byte FLOAT = 7;
+    private static final byte DOUBLE = 8;
+    private static final byte STRING = 9;
+    private static final byte ARRAY = 10;
+
+    private final OffHeapCache cache;
+    private final NodeManager nodeManager;
+
+    SecondLevelCache( OffHeapCache cache, NodeManager nodeManager )
+    {
+        this.cache = cache;
+        this.nodeManager = nodeManager;
+    }
+
+    OffHeapCache getOffHeapCache()
+    {
+        return cache;
+    }
+
+    /**
+     * Called with the node evicted from the node cache. The caller must hold
+     * the monitor of the node, so that no changes are committed to it
+     * meanwhile.
+     */
+    void putNode( NodeImpl node )
+    {
+        int capacity = node.size();
+        while ( true )
+        {
+            ByteBuffer buffer = ByteBuffer.allocate( capacity );
+            try
+            {
+                writeNode( node, buffer );
+                buffer.flip();
+                cache.put( nodeKey( node.getId() ), buffer );
+                return;
+            }
+            catch ( BufferOverflowException e )
+            {
+                capacity *= 2;
+            }
+        }
+    }
+
+    private void writeNode( NodeImpl node, ByteBuffer buffer )
+    {
+        PropertyData[] properties = node.getCachedProperties();
+        RelIdArray[] relationships = node.getRelationshipIds();
+        if ( node.hasMoreRelationshipsToLoad() )
+        {
+            relationships = null;
+        }
+        buffer.put( (byte) ((properties != null ? HAS_PROPERTIES : 0) |
+                (relationships != null ? HAS_RELATIONSHIPS : 0)) );
+        if ( properties != null )
+        {
+            writeProperties( properties, buffer );
+        }
+        if ( relationships != null )
+        {
+            buffer.putInt( relationships.length );
+            for ( RelIdArray ids : relationships )
+            {
+                buffer.putInt( ids.getType() );
+                ids.writeTo( buffer );
+            }
+        }
+    }
+
+    /**
+     * @return the node restored from this cache, or <CODE>null</CODE> if it
+     * wasn't here
+     */
+    NodeImpl getNode( long id )
+    {
+        ByteBuffer buffer = cache.get( nodeKey( id ) );
+        if ( buffer == null )
+        {
+            return null;
+        }
+        cache.remove( nodeKey( id ) );
+        NodeImpl node = new NodeImpl( id );
+        byte flags = buffer.get();
+        if ( (flags & HAS_PROPERTIES) != 0 )
+        {
+            node.setCachedProperties( readProperties( buffer ) );
+        }
+        if ( (flags & HAS_RELATIONSHIPS) != 0 )
+        {
+            RelIdArray[] relationships = new RelIdArray[buffer.getInt()];
+            for ( int i = 0; i < relationships.length; i++ )
+            {
+                relationships[i] = RelIdArray.readFrom( buffer.getInt(), buffer );
+            }
+            node.setCachedRelationships( relationships );
+        }
+        return node;
+    }
+
+    void removeNode( long id )
+    {
+        cache.remove( nodeKey( id ) );
+    }
+
+    /**
+     * Called with the relationship evicted from the relationship cache. The
+     * caller must hold the monitor of the relationship.
+     */
+    void putRelationship( RelationshipImpl rel )
+    {
+        int capacity = rel.size();
+        while ( true )
+        {
+            ByteBuffer buffer = ByteBuffer.allocate( capacity );
+            try
+            {
+                PropertyData[] properties = rel.getCachedProperties();
+                buffer.putLong( rel.getStartNodeId() );
+                buffer.putLong( rel.getEndNodeId() );
+                buffer.putInt( rel.getTypeId() );
+                buffer.put( properties != null ? HAS_PROPERTIES : 0 );
+                if ( properties != null )
+                {
+                    writeProperties( properties, buffer );
+                }
+                buffer.flip();
+                cache.put( relationshipKey( rel.getId() ), buffer );
+                return;
+            }
+            catch ( BufferOverflowException e )
+            {
+                capacity *= 2;
+            }
+        }
+    }
+
+    /**
+     * @return the relationship restored from this cache, or
+     * <CODE>null</CODE> if it wasn't here
+     */
+    RelationshipImpl getRelationship( long id )
+    {
+        ByteBuffer buffer = cache.get( relationshipKey( id ) );
+        if ( buffer == null )
+        {
+            return null;
+        }
+        cache.remove( relationshipKey( id ) );
+        long startNodeId = buffer.getLong();
+        long endNodeId = buffer.getLong();
+        int typeId = buffer.getInt();
+        RelationshipType type = nodeManager.getRelationshipTypeById( typeId );
+        RelationshipImpl rel = nodeManager.newRelationshipImpl( id, startNodeId, endNodeId,
+                type, typeId, false );
+        if ( (buffer.get() & HAS_PROPERTIES) != 0 )
+        {
+            rel.setCachedProperties( readProperties( buffer ) );
+        }
+        return rel;
+    }
+
+    void removeRelationship( long id )
+    {
+        cache.remove( relationshipKey( id ) );
+    }
+
+    void clear()
+    {
+        cache.clear();
+    }
+
+    private static long nodeKey( long id )
+    {
+        return id << 1;
+    }
+
+    private static long relationshipKey( long id )
+    {
+        return (id << 1) | 1;
+    }
+
+    private static void writeProperties( PropertyData[] properties, ByteBuffer buffer )
+    {
+        buffer.putInt( properties.length );
+        for ( PropertyData property : properties )
+        {
+            buffer.putInt( property.getIndex() );
+            buffer.putLong( property.getId() );
+            writeValue( property.getValue(), buffer );
+        }
+    }
+
+    private static PropertyData[] readProperties( ByteBuffer buffer )
+    {
+        PropertyData[] properties = new PropertyData[buffer.getInt()];
+        for ( int i = 0; i < properties.length; i++ )
+        {
+            int index = buffer.getInt();
+            long id = buffer.getLong();
+            byte type = buffer.get();
+            switch ( type )
+            {
+            case NOT_LOADED:
+                properties[i] = PropertyDatas.forStringOrArray( index, id, null );
+                break;
+            case BOOLEAN:
+                properties[i] = PropertyDatas.forBoolean( index, id, buffer.get() != 0 );
+                break;
+            case BYTE:
+                properties[i] = PropertyDatas.forByte( index, id, buffer.get() );
+                break;
+            case SHORT:
+                properties[i] = PropertyDatas.forShort( index, id, buffer.getShort() );
+                break;
+            case CHAR:
+                properties[i] = PropertyDatas.forChar( index, id, buffer.getChar() );
+                break;
+            case INT:
+                properties[i] = PropertyDatas.forInt( index, id, buffer.getInt() );
+                break;
+            case LONG:
+                properties[i] = PropertyDatas.forLong( index, id, buffer.getLong() );
+                break;
+            case FLOAT:
+                properties[i] = PropertyDatas.forFloat( index, id, buffer.getFloat() );
+                break;
+            case DOUBLE:
+                properties[i] = PropertyDatas.forDouble( index, id, buffer.getDouble() );
+                break;
+            default:
+                properties[i] = PropertyDatas.forStringOrArray( index, id,
+                        readValue( type, buffer ) );
+            }
+        }
+        return properties;
+    }
+
+    private static void writeValue( Object value, ByteBuffer buffer )
+    {
+        if ( value == null )
+        {
+            buffer.put( NOT_LOADED );
+        }
+        else if ( value instanceof String )
+        {
+            buffer.put( STRING );
+            writeString( (String) value, buffer );
+        }
+        else if ( value.getClass().isArray() )
+        {
+            buffer.put( ARRAY );
+            writeArray( value, buffer );
+        }
+        else
+        {
+            writePrimitive( value, buffer );
+        }
+    }
+
+    private static void writePrimitive( Object value, ByteBuffer buffer )
+    {
+        if ( value instanceof Integer )
+        {
+            buffer.put( INT ).putInt( (Integer) value );
+        }
+        else if ( value instanceof Long )
+        {
+            buffer.put( LONG ).putLong( (Long) value );
+        }
+        else if ( value instanceof Boolean )
+        {
+            buffer.put( BOOLEAN ).put( (byte) ((Boolean) value ? 1 : 0) );
+        }
+        else if ( value instanceof Double )
+        {
+            buffer.put( DOUBLE ).putDouble( (Double) value );
+        }
+        else if ( value instanceof Float )
+        {
+            buffer.put( FLOAT ).putFloat( (Float) value );
+        }
+        else if ( value instanceof Byte )
+        {
+            buffer.put( BYTE ).put( (Byte) value );
+        }
+        else if ( value instanceof Short )
+        {
+            buffer.put( SHORT ).putShort( (Short) value );
+        }
+        else if ( value instanceof Character )
+        {
+            buffer.put( CHAR ).putChar( (Character) value );
+        }
+        else
+        {
+            throw new IllegalArgumentException( "Unknown property type on: "
+                + value + ", " + value.getClass() );
+        }
+    }
+
+    private static void writeString( String value, ByteBuffer buffer )
+    {
+        buffer.putInt( value.length() );
+        for ( int i = 0; i < value.length(); i++ )
+        {
+            buffer.putChar( value.charAt( i ) );
+        }
+    }
+
+    private static String readString( ByteBuffer buffer )
+    {
+        char[] chars = new char[buffer.getInt()];
+        for ( int i = 0; i < chars.length; i++ )
+        {
+            chars[i] = buffer.getChar();
+        }
+        return new String( chars );
+    }
+
+    private static void writeArray( Object array, ByteBuffer buffer )
+    {
+        if ( array instanceof int[] )
+        {
+            int[] values = (int[]) array;
+            buffer.put( INT ).putInt( values.length );
+            for ( int value : values )
+            {
+                buffer.putInt( value );
+            }
+        }
+        else if ( array instanceof long[] )
+        {
+            long[] values = (long[]) array;
+            buffer.put( LONG ).putInt( values.length );
+            for ( long value : values )
+            {
+                buffer.putLong( value );
+            }
+        }
+        else if ( array instanceof String[] )
+        {
+            String[] values = (String[]) array;
+            buffer.put( STRING ).putInt( values.length );
+            for ( String value : values )
+            {
+                writeString( value, buffer );
+            }
+        }
+        else if ( array instanceof byte[] )
+        {
+            byte[] values = (byte[]) array;
+            buffer.put( BYTE ).putInt( values.length );
+            buffer.put( values );
+        }
+        else if ( array instanceof boolean[] )
+        {
+            boolean[] values = (boolean[]) array;
+            buffer.put( BOOLEAN ).putInt( values.length );
+            for ( boolean value : values )
+            {
+                buffer.put( (byte) (value ? 1 : 0) );
+            }
+        }
+        else if ( array instanceof double[] )
+        {
+            double[] values = (double[]) array;
+            buffer.put( DOUBLE ).putInt( values.length );
+            for ( double value : values )
+            {
+                buffer.putDouble( value );
+            }
+        }
+        else if ( array instanceof float[] )
+        {
+            float[] values = (float[]) array;
+            buffer.put( FLOAT ).putInt( values.length );
+            for ( float value : values )
+            {
+                buffer.putFloat( value );
+            }
+        }
+        else if ( array instanceof short[] )
+        {
+            short[] values = (short[]) array;
+            buffer.put( SHORT ).putInt( values.length );
+            for ( short value : values )
+            {
+                buffer.putShort( value );
+            }
+        }
+        else if ( array instanceof char[] )
+        {
+            char[] values = (char[]) array;
+            buffer.put( CHAR ).putInt( values.length );
+            for ( char value : values )
+            {
+                buffer.putChar( value );
+            }
+        }
+        else
+        {
+            throw new IllegalArgumentException( "Unknown property type on: "
+                + array + ", " + array.getClass() );
+        }
+    }
+
+    private static Object readValue( byte type, ByteBuffer buffer )
+    {
+        if ( type == STRING )
+        {
+            return readString( buffer );
+        }
+        byte componentType = buffer.get();
+        int length = buffer.getInt();
+        switch ( componentType )
+        {
+        case INT:
+            int[] ints = new int[length];
+            buffer.asIntBuffer().get( ints );
+            buffer.position( buffer.position() + length * 4 );
+            return ints;
+        case LONG:
+            long[] longs = new long[length];
+            buffer.asLongBuffer().get( longs );
+            buffer.position( buffer.position() + length * 8 );
+            return longs;
+        case STRING:
+            String[] strings = new String[length];
+            for ( int i = 0; i < length; i++ )
+            {
+                strings[i] = readString( buffer );
+            }
+            return strings;
+        case BYTE:
+            byte[] bytes = new byte[length];
+            buffer.get( bytes );
+            return bytes;
+        case BOOLEAN:
+            boolean[] booleans = new boolean[length];
+            for ( int i = 0; i < length; i++ )
+            {
+                booleans[i] = buffer.get() != 0;
+            }
+            return booleans;
+        case DOUBLE:
+            double[] doubles = new double[length];
+            buffer.asDoubleBuffer().get( doubles );
+            buffer.position( buffer.position() + length * 8 );
+            return doubles;
+        case FLOAT:
+            float[] floats = new float[length];
+            buffer.asFloatBuffer().get( floats );
+            buffer.position( buffer.position() + length * 4 );
+            return floats;
+        case SHORT:
+            short[] shorts = new short[length];
+            buffer.asShortBuffer().get( shorts );
+            buffer.position( buffer.position() + length * 2 );
+            return shorts;
+        case CHAR:
+            char[] chars = new char[length];
+            buffer.asCharBuffer().get( chars );
+            buffer.position( buffer.position() + length * 2 );
+            return chars;
+        default:
+            throw new IllegalStateException( "Unknown property type " + componentType );
+        }
+    }
+}
@@ -362,6 +362,7 @@ public abstract class AbstractDynamicStore extends CommonAbstractStore implement
         }
     }
 
+    @Override
     protected boolean isRecordInUse( ByteBuffer buffer )
     {
         return ( ( buffer.get() & (byte) 0xF0 ) >> 4 ) == Record.IN_USE.byteValue();
@@ -462,7 +463,8 @@ public abstract class AbstractDynamicStore extends CommonAbstractStore implement
 
     /**
      * Rebuilds the internal id generator keeping track of what blocks are free
-     * or taken.
+     * or taken. The store file is scanned in parallel ranges, see
+     * {@link InUseRecords}.
      *
      * @throws IOException
      *             If unable to rebuild the id generator
@@ -488,12 +490,10 @@ public abstract class AbstractDynamicStore extends CommonAbstractStore implement
         openIdGenerator();
 //        nextBlockId(); // reserved first block containing blockSize
         setHighId( 1 );
-        FileChannel fileChannel = getFileChannel();
         long highId = 0;
         long defraggedCount = 0;
         try
         {
-            long fileSize = fileChannel.size();
             boolean fullRebuild = true;
             if ( getConfig() != null )
             {
@@ -505,30 +505,22 @@ public abstract class AbstractDynamicStore extends CommonAbstractStore implement
                     highId = findHighIdBackwards();
                 }
             }
-            ByteBuffer byteBuffer = ByteBuffer.wrap( new byte[1] );
-            LinkedList<Long> freeIdList = new LinkedList<Long>();
             if ( fullRebuild )
             {
-                for ( long i = 1; i * getBlockSize() < fileSize; i++ )
+                InUseRecords inUse = InUseRecords.scan( this, getBlockSize(),
+                    getRebuildThreads() );
+                // the first block holds the block size
+                if ( inUse.highestInUse() > 0 )
                 {
-                    fileChannel.position( i * getBlockSize() );
-                    fileChannel.read( byteBuffer );
-                    byteBuffer.flip();
-                    byte inUse = byteBuffer.get();
-                    byteBuffer.flip();
-                    nextBlockId();
-                    if ( inUse == Record.NOT_IN_USE.byteValue() )
-                    {
-                        freeIdList.add( i );
-                    }
-                    else
+                    highId = inUse.highestInUse();
+                }
+                setHighId( highId + 1 );
+                for ( long i = 1; i < inUse.highestInUse(); i++ )
+                {
+                    if ( !inUse.inUse( i ) )
                     {
-                        highId = i;
-                        while ( !freeIdList.isEmpty() )
-                        {
-                            freeBlockId( freeIdList.removeFirst() );
-                            defraggedCount++;
-                        }
+                        freeBlockId( i );
+                        defraggedCount++;
                     }
                 }
             }
@@ -24,7 +24,6 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -181,6 +180,7 @@ public abstract class AbstractStore extends CommonAbstractStore
         return 0;
     }
 
+    @Override
     protected boolean isRecordInUse(ByteBuffer buffer)
     {
         byte inUse = buffer.get();
@@ -189,7 +189,8 @@ public abstract class AbstractStore extends CommonAbstractStore
 
     /**
      * Rebuilds the {@link IdGenerator} by looping through all records and
-     * checking if record in use or not.
+     * checking if record in use or not. The store file is scanned in parallel
+     * ranges, see {@link InUseRecords}.
      *
      * @throws IOException
      *             if unable to rebuild the id generator
@@ -213,12 +214,10 @@ public abstract class AbstractStore extends CommonAbstractStore
         }
         createIdGenerator( getStorageFileName() + ".id" );
         openIdGenerator();
-        FileChannel fileChannel = getFileChannel();
         long highId = 1;
         long defraggedCount = 0;
         try
         {
-            long fileSize = fileChannel.size();
             int recordSize = getRecordSize();
             boolean fullRebuild = true;
             if ( getConfig() != null )
@@ -231,32 +230,21 @@ public abstract class AbstractStore extends CommonAbstractStore
                     highId = findHighIdBackwards();
                 }
             }
-            ByteBuffer byteBuffer = ByteBuffer.wrap( new byte[1] );
-            // Duplicated code block
-            LinkedList<Long> freeIdList = new LinkedList<Long>();
-            if ( fullRebuild )
+            if ( fullRebuild && recordSize > 0 )
             {
-                for ( long i = 0; i * recordSize < fileSize && recordSize > 0;
-                    i++ )
+                InUseRecords inUse = InUseRecords.scan( this, recordSize,
+                    getRebuildThreads() );
+                if ( inUse.highestInUse() != -1 )
                 {
-                    fileChannel.position( i * recordSize );
-                    fileChannel.read( byteBuffer );
-                    byteBuffer.flip();
-                    byte inUse = byteBuffer.get();
-                    byteBuffer.flip();
-                    nextId();
-                    if ( (inUse & 0x1) == Record.NOT_IN_USE.byteValue() )
-                    {
-                        freeIdList.add( i );
-                    }
-                    else
+                    highId = inUse.highestInUse();
+                }
+                setHighId( highId + 1 );
+                for ( long i = 0; i < inUse.highestInUse(); i++ )
+                {
+                    if ( !inUse.inUse( i ) )
                     {
-                        highId = i;
-                        while ( !freeIdList.isEmpty() )
-                        {
-                            freeId( freeIdList.removeFirst() );
-                            defraggedCount++;
-                        }
+                        freeId( i );
+                        defraggedCount++;
                     }
                 }
             }
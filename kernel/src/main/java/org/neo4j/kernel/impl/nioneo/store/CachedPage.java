@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A page of a store file loaded into one of the off-heap frames of a
+ * {@link PageCache}. A page is pinned and unpinned without holding any lock,
+ * by compare and swap of its pin count, and an unpinned page is evicted by
+ * swapping its pin count to {@link #EVICTED}, after which it can't be pinned
+ * again. The reference bit and hit count are only hints for eviction and
+ * the heat map, so they are updated without synchronization, while
+ * <CODE>loaded</CODE> is guarded by the window lock.
+ */
+class CachedPage extends AbstractPersistenceWindow
+{
+    private static final int EVICTED = -1;
+    private static final AtomicIntegerFieldUpdater<CachedPage> PIN_COUNT =
+        AtomicIntegerFieldUpdater.newUpdater( CachedPage.class, "pinCount" );
+
+    private final PagedWindowPool pool;
+    private final long pageId;
+    private final int frame;
+
+    private volatile int pinCount = 0;
+    volatile boolean referenced = true;
+    // number of times the page has been pinned for use since it was loaded,
+    // concurrent pins may miss an increment
+    volatile int hits = 0;
+    boolean loaded = false;
+
+    CachedPage( PagedWindowPool pool, long pageId, int frame,
+        int recordSize, int recordsPerPage, FileChannel channel,
+        ByteBuffer frameBuffer )
+    {
+        super( pageId * recordsPerPage, recordSize,
+            recordSize * recordsPerPage, channel, frameBuffer );
+        this.pool = pool;
+        this.pageId = pageId;
+        this.frame = frame;
+    }
+
+    PagedWindowPool getPool()
+    {
+        return pool;
+    }
+
+    long getPageId()
+    {
+        return pageId;
+    }
+
+    int getFrame()
+    {
+        return frame;
+    }
+
+    /**
+     * @return <CODE>false</CODE> if the page has been evicted and must not
+     *         be used
+     */
+    boolean pin()
+    {
+        while ( true )
+        {
+            int count = pinCount;
+            if ( count == EVICTED )
+            {
+                return false;
+            }
+            if ( PIN_COUNT.compareAndSet( this, count, count + 1 ) )
+            {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return <CODE>true</CODE> if this was the last pin of the page
+     */
+    boolean unpin()
+    {
+        return PIN_COUNT.decrementAndGet( this ) == 0;
+    }
+
+    boolean isPinned()
+    {
+        return pinCount != 0;
+    }
+
+    /**
+     * Evicts the page if it isn't pinned. Once evicted it can't be pinned
+     * again unless the eviction is cancelled.
+     *
+     * @return <CODE>true</CODE> if the page was evicted
+     */
+    boolean evictIfUnpinned()
+    {
+        return PIN_COUNT.compareAndSet( this, 0, EVICTED );
+    }
+
+    void cancelEviction()
+    {
+        pinCount = 0;
+    }
+
+    @Override
+    public void force()
+    {
+        // writes are done by the page cache on flush and eviction
+    }
+
+    @Override
+    public void close()
+    {
+        // the frame buffer is owned by the page cache and reused
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CachedPage[" + pool.getStoreName() + ",page=" + pageId
+            + ",frame=" + frame + ",pins=" + pinCount + "]";
+    }
+}
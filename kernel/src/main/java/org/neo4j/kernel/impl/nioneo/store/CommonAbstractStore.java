@@ -25,6 +25,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.OverlappingFileLockException;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,6 +34,7 @@ import org.neo4j.kernel.Config;
 import org.neo4j.kernel.IdGeneratorFactory;
 import org.neo4j.kernel.IdType;
 import org.neo4j.kernel.impl.core.ReadOnlyDbException;
+import org.neo4j.kernel.impl.util.SharedWorkers;
 import org.neo4j.kernel.impl.util.StringLogger;
 
 /**
@@ -41,18 +43,29 @@ import org.neo4j.kernel.impl.util.StringLogger;
  */
 public abstract class CommonAbstractStore
 {
-    public static final String ALL_STORES_VERSION = "v0.A.0";
+    // v0.A.1 added relationship group records and v0.A.2 compressed string
+    // and array property values, stores of the previous versions are
+    // upgraded in place, see UpgradableDatabase
+    public static final String ALL_STORES_VERSION = "v0.A.2";
     public static final String UNKNOWN_VERSION = "Uknown";
 
     protected static final Logger logger = Logger
         .getLogger( CommonAbstractStore.class.getName() );
 
+    // the size of the pages that records are read in, unless the store is
+    // cached by a page cache, see nextId(long)
+    private static final int LOCALITY_PAGE_SIZE = 4096;
+
     protected final String storageFileName;
     private final IdType idType;
     private IdGeneratorFactory idGeneratorFactory = null;
     private IdGenerator idGenerator = null;
     private FileChannel fileChannel = null;
-    private PersistenceWindowPool windowPool;
+    private WindowPool windowPool;
+    private WriteBehindFlusher writeBehindFlusher;
+    private ReadAheadWorker readAheadWorker;
+    private SequentialScanDetector scanDetector;
+    private HeatMapKeeper heatMapKeeper;
     private boolean storeOk = true;
     private Throwable causeOfStoreNotOk;
     private FileLock fileLock;
@@ -63,6 +76,11 @@ public abstract class CommonAbstractStore
     private boolean readOnly = false;
     private boolean backupSlave = false;
     private long highestUpdateRecordId = -1;
+    private int idsPerPage = 1;
+    // records added to the file at a time, 0 if it grows record by record
+    private long growthChunkRecords = 0;
+    private volatile long allocatedRecords = 0;
+    private final Object growthLock = new Object();
 
     /**
      * Opens and validates the store contained in <CODE>fileName</CODE>
@@ -222,9 +240,67 @@ public abstract class CommonAbstractStore
         }
         loadIdGenerator();
 
-        setWindowPool( new PersistenceWindowPool( getStorageFileName(),
-            getEffectiveRecordSize(), getFileChannel(), calculateMappedMemory( getConfig(), storageFileName ),
-            getIfMemoryMapped(), isReadOnly() && !isBackupSlave() ) );
+        PageCache pageCache = getConfig() != null ?
+                (PageCache) getConfig().get( PageCache.class ) : null;
+        int pageSize = LOCALITY_PAGE_SIZE;
+        if ( pageCache != null && pageCache.canCache( getEffectiveRecordSize() ) )
+        {
+            pageSize = pageCache.getPageSize();
+            setWindowPool( pageCache.newWindowPool( getStorageFileName(),
+                getEffectiveRecordSize(), getFileChannel(), isReadOnly() && !isBackupSlave() ) );
+        }
+        else
+        {
+            setWindowPool( new PersistenceWindowPool( getStorageFileName(),
+                getEffectiveRecordSize(), getFileChannel(), calculateMappedMemory( getConfig(), storageFileName ),
+                getIfMemoryMapped(), isReadOnly() && !isBackupSlave() ) );
+        }
+        writeBehindFlusher = getConfig() != null ?
+                (WriteBehindFlusher) getConfig().get( WriteBehindFlusher.class ) : null;
+        if ( writeBehindFlusher != null && !isReadOnly() )
+        {
+            writeBehindFlusher.register( windowPool );
+        }
+        else
+        {
+            writeBehindFlusher = null;
+        }
+        heatMapKeeper = getConfig() != null ?
+                (HeatMapKeeper) getConfig().get( HeatMapKeeper.class ) : null;
+        if ( heatMapKeeper != null )
+        {
+            heatMapKeeper.register( windowPool, getStorageFileName(),
+                    isReadOnly() && !isBackupSlave() );
+        }
+        readAheadWorker = getConfig() != null ?
+                (ReadAheadWorker) getConfig().get( ReadAheadWorker.class ) : null;
+        int recordSize = getEffectiveRecordSize();
+        idsPerPage = recordSize > 0 ? Math.max( 1, pageSize / recordSize ) : 1;
+        long growthChunk = getConfig() != null ? parseMemorySize( (String)
+                getConfig().get( Config.STORE_GROWTH_CHUNK_SIZE ), storageFileName ) : 0;
+        if ( growthChunk > 0 && recordSize > 0 && !isReadOnly() )
+        {
+            growthChunkRecords = Math.max( 1, growthChunk / recordSize );
+            try
+            {
+                allocatedRecords = getFileChannel().size() / recordSize;
+            }
+            catch ( IOException e )
+            {
+                throw new UnderlyingStorageException( "Unable to get file size for "
+                    + getStorageFileName(), e );
+            }
+        }
+        if ( readAheadWorker != null && recordSize > 0 &&
+                readAheadWorker.getReadAheadSize() / recordSize > 0 )
+        {
+            scanDetector = new SequentialScanDetector(
+                    readAheadWorker.getReadAheadSize() / recordSize );
+        }
+        else
+        {
+            readAheadWorker = null;
+        }
     }
 
     protected abstract int getEffectiveRecordSize();
@@ -301,6 +377,12 @@ public abstract class CommonAbstractStore
      */
     protected abstract void rebuildIdGenerator();
 
+    /**
+     * @param buffer Holds a record, from its current position.
+     * @return <CODE>true</CODE> if the record in <CODE>buffer</CODE> is in use
+     */
+    protected abstract boolean isRecordInUse( ByteBuffer buffer );
+
     /**
      * Called from the constructor after the end header has been checked. The
      * store implementation can setup it's
@@ -366,7 +448,7 @@ public abstract class CommonAbstractStore
     }
 
     /**
-     * Sets the {@link PersistenceWindowPool} for this store to use. Normally
+     * Sets the {@link WindowPool} for this store to use. Normally
      * this is set in the {@link #loadStorage()} method. This method must be
      * invoked with a valid "pool" before any of the
      * {@link #acquireWindow(long, OperationType)}
@@ -378,7 +460,7 @@ public abstract class CommonAbstractStore
      * @param pool
      *            The window pool this store should use
      */
-    protected void setWindowPool( PersistenceWindowPool pool )
+    protected void setWindowPool( WindowPool pool )
     {
         this.windowPool = pool;
     }
@@ -393,6 +475,30 @@ public abstract class CommonAbstractStore
         return idGenerator.nextId();
     }
 
+    /**
+     * Returns the next id for this store's {@link IdGenerator}, preferring
+     * one whose record is in the same page of the store file as the record
+     * of <CODE>near</CODE> so that records read together are stored
+     * together.
+     *
+     * @param near
+     *            The id of a record close to which the new record should be,
+     *            <CODE>-1</CODE> if there's no preference
+     * @return The next free id
+     */
+    public long nextId( long near )
+    {
+        if ( near >= 0 && idsPerPage > 1 )
+        {
+            long id = idGenerator.nextIdNear( near, idsPerPage );
+            if ( id != -1 )
+            {
+                return id;
+            }
+        }
+        return idGenerator.nextId();
+    }
+
     /**
      * Frees an id for this store's {@link IdGenerator}.
      *
@@ -459,34 +565,50 @@ public abstract class CommonAbstractStore
             String realName = convertSlash.substring( convertSlash
                 .lastIndexOf( '/' ) + 1 );
             String mem = (String) config.get( realName + ".mapped_memory" );
-            if ( mem != null )
-            {
-                long multiplier = 1;
-                if ( mem.endsWith( "M" ) )
-                {
-                    multiplier = 1024 * 1024;
-                    mem = mem.substring( 0, mem.length() - 1 );
-                }
-                else if ( mem.endsWith( "k" ) )
-                {
-                    multiplier = 1024;
-                    mem = mem.substring( 0, mem.length() - 1 );
-                }
-                else if ( mem.endsWith( "G" ) )
-                {
-                    multiplier = 1024*1024*1024;
-                    mem = mem.substring( 0, mem.length() - 1 );
-                }
-                try
-                {
-                    return Integer.parseInt( mem ) * multiplier;
-                }
-                catch ( NumberFormatException e )
-                {
-                    logger.info( "Unable to parse mapped memory[" + mem
-                        + "] string for " + storageFileName );
-                }
-            }
+            return parseMemorySize( mem, storageFileName );
+        }
+        return 0;
+    }
+
+    /**
+     * Parses a memory size such as <CODE>"500k"</CODE>, <CODE>"90M"</CODE>
+     * or <CODE>"2G"</CODE> into a number of bytes.
+     *
+     * @param mem the memory size string, may be <CODE>null</CODE>
+     * @param what what the memory size is for, used when logging bad values
+     * @return the number of bytes or 0 if <CODE>mem</CODE> was
+     *         <CODE>null</CODE> or could not be parsed
+     */
+    public static long parseMemorySize( String mem, String what )
+    {
+        if ( mem == null )
+        {
+            return 0;
+        }
+        long multiplier = 1;
+        if ( mem.endsWith( "M" ) )
+        {
+            multiplier = 1024 * 1024;
+            mem = mem.substring( 0, mem.length() - 1 );
+        }
+        else if ( mem.endsWith( "k" ) )
+        {
+            multiplier = 1024;
+            mem = mem.substring( 0, mem.length() - 1 );
+        }
+        else if ( mem.endsWith( "G" ) )
+        {
+            multiplier = 1024*1024*1024;
+            mem = mem.substring( 0, mem.length() - 1 );
+        }
+        try
+        {
+            return Integer.parseInt( mem ) * multiplier;
+        }
+        catch ( NumberFormatException e )
+        {
+            logger.info( "Unable to parse mapped memory[" + mem
+                + "] string for " + what );
         }
         return 0;
     }
@@ -556,9 +678,66 @@ public abstract class CommonAbstractStore
                 + "] requested for operation is high id["
                 + getHighId() + "], store is ok[" + storeOk + "]", causeOfStoreNotOk );
         }
+        if ( scanDetector != null && type == OperationType.READ )
+        {
+            long readAheadFrom = scanDetector.read( position );
+            if ( readAheadFrom != -1 )
+            {
+                long records = Math.min( scanDetector.getReadAheadRecords(),
+                        getHighId() - readAheadFrom );
+                readAheadWorker.submit( windowPool, readAheadFrom, (int) records );
+            }
+        }
+        if ( type == OperationType.WRITE && growthChunkRecords > 0
+            && position >= allocatedRecords )
+        {
+            allocateRecords( position );
+        }
         return windowPool.acquire( position, type );
     }
 
+    /**
+     * Grows the file by as many chunks as needed to hold the record at
+     * <CODE>position</CODE>, filling the new part with empty records.
+     * The high id is still kept by the id generator and the file is cut back
+     * to it when the store is closed.
+     */
+    private void allocateRecords( long position )
+    {
+        synchronized ( growthLock )
+        {
+            if ( position < allocatedRecords )
+            {
+                return;
+            }
+            int recordSize = getEffectiveRecordSize();
+            long records = (position / growthChunkRecords + 1) * growthChunkRecords;
+            try
+            {
+                // a window mapped past the end of the file has already grown
+                // it and may have been written to, so only the part after it
+                // is filled
+                long from = Math.max( fileChannel.size(), allocatedRecords * recordSize );
+                records = Math.max( records, from / recordSize );
+                long to = records * recordSize;
+                ByteBuffer zeros = ByteBuffer.allocate( 64 * 1024 );
+                while ( from < to )
+                {
+                    zeros.clear();
+                    zeros.limit( (int) Math.min( zeros.capacity(), to - from ) );
+                    from += fileChannel.write( zeros, from );
+                }
+            }
+            catch ( IOException e )
+            {
+                throw new UnderlyingStorageException( "Unable to grow "
+                    + getStorageFileName() + " to " + records + " records", e );
+            }
+            allocatedRecords = records;
+            windowPool.fileGrown( records * recordSize );
+        }
+    }
+
     /**
      * Releases the window and writes the data (async) if the
      * <CODE>window</CODE> was a {@link PersistenceRow}.
@@ -614,15 +793,106 @@ public abstract class CommonAbstractStore
 
     protected IdGenerator openIdGenerator( String fileName, int grabSize )
     {
-        return idGeneratorFactory.open( fileName, grabSize, getIdType(),
-                figureOutHighestIdInUse() );
+        long highestIdInUse = figureOutHighestIdInUse();
+        IdGenerator generator;
+        // stores may be rebuilt concurrently and share the factory
+        synchronized ( idGeneratorFactory )
+        {
+            generator = idGeneratorFactory.open( fileName, grabSize,
+                    getIdType(), highestIdInUse );
+        }
+        int rangeSize = getThreadIdRangeSize();
+        if ( rangeSize > 1 )
+        {
+            generator = new ThreadLocalIdGenerator( generator, rangeSize );
+        }
+        return generator;
+    }
+
+    /**
+     * @return the number of ids to give each thread at a time, 0 if ids
+     *         should be taken from the id generator one by one
+     */
+    private int getThreadIdRangeSize()
+    {
+        switch ( getIdType() )
+        {
+        case NODE:
+        case RELATIONSHIP:
+        case PROPERTY:
+        case STRING_BLOCK:
+        case ARRAY_BLOCK:
+            break;
+        default:
+            return 0;
+        }
+        String size = getConfig() != null ?
+            (String) getConfig().get( Config.THREAD_ID_RANGE_SIZE ) : null;
+        if ( size == null )
+        {
+            return 0;
+        }
+        int value = Integer.parseInt( size.trim() );
+        if ( value < 0 )
+        {
+            throw new IllegalArgumentException( Config.THREAD_ID_RANGE_SIZE +
+                " must not be negative, was " + value );
+        }
+        return value;
+    }
+
+    /**
+     * @return the number of threads to scan the store file with when
+     *         rebuilding the id generator
+     */
+    protected int getRebuildThreads()
+    {
+        String threads = getConfig() != null ?
+            (String) getConfig().get( Config.REBUILD_IDGENERATORS_THREADS ) : null;
+        if ( threads == null )
+        {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        int value = Integer.parseInt( threads.trim() );
+        if ( value < 1 )
+        {
+            throw new IllegalArgumentException( Config.REBUILD_IDGENERATORS_THREADS +
+                " must be positive, was " + value );
+        }
+        return value;
+    }
+
+    /**
+     * Runs the tasks, f.ex. the rebuilding of the id generators of different
+     * stores, concurrently and returns once all of them are done. The tasks
+     * share the bounded helper threads of {@link SharedWorkers} with the
+     * scans they start, tasks without a free thread are run by the calling
+     * thread. The first exception thrown by a task is rethrown.
+     */
+    protected static void inParallel( final Runnable... tasks )
+    {
+        final AtomicInteger nextTask = new AtomicInteger();
+        SharedWorkers.instance().run( new Runnable()
+        {
+            public void run()
+            {
+                for ( int i = nextTask.getAndIncrement(); i < tasks.length;
+                        i = nextTask.getAndIncrement() )
+                {
+                    tasks[i].run();
+                }
+            }
+        }, tasks.length );
     }
 
     protected abstract long figureOutHighestIdInUse();
 
     protected void createIdGenerator( String fileName )
     {
-        idGeneratorFactory.create( fileName );
+        synchronized ( idGeneratorFactory )
+        {
+            idGeneratorFactory.create( fileName );
+        }
     }
 
     protected void openReadOnlyIdGenerator( int recordSize )
@@ -665,6 +935,18 @@ public abstract class CommonAbstractStore
             return;
         }
         closeStorage();
+        if ( writeBehindFlusher != null )
+        {
+            writeBehindFlusher.unregister( windowPool );
+        }
+        if ( readAheadWorker != null )
+        {
+            readAheadWorker.cancel( windowPool );
+        }
+        if ( heatMapKeeper != null )
+        {
+            heatMapKeeper.unregister( windowPool );
+        }
         if ( windowPool != null )
         {
             windowPool.close();
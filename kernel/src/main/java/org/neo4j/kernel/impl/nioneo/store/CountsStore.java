@@ -0,0 +1,371 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the number of nodes in the graph and the number of relationships of
+ * each relationship type. The counts are held in memory, kept up to date by
+ * the transactions as they commit and saved to a file next to the neo store
+ * when it is closed.
+ * <p>
+ * The file is removed once it has been read so a store that isn't closed
+ * cleanly is left without one. In that case, or if the saved counts are for
+ * another transaction than the last committed one, the counts are rebuilt
+ * from the node and relationship stores once recovery is complete, see
+ * {@link #makeOk(long, NodeStore, RelationshipStore)}. Until then changes to
+ * the counts are ignored.
+ */
+public class CountsStore
+{
+    private static final Logger log = Logger.getLogger(
+        CountsStore.class.getName() );
+
+    private static final int VERSION = 1;
+
+    private final File file;
+    private final boolean writable;
+    // the transaction the counts read from the file are for, -1 if none
+    private long savedTx = -1;
+    private boolean valid = false;
+    private long nodeCount = 0;
+    // relationship counts, indexed by type
+    private long[] relCounts = new long[0];
+
+    /**
+     * Reads the counts saved in <CODE>fileName</CODE>, if any, removing the
+     * file if the store is writable.
+     *
+     * @param fileName
+     *            The name of the counts file
+     * @param writable
+     *            Whether the counts should be saved on close
+     */
+    public CountsStore( String fileName, boolean writable )
+    {
+        this.file = new File( fileName );
+        this.writable = writable;
+        try
+        {
+            read();
+        }
+        catch ( IOException e )
+        {
+            log.log( Level.WARNING, "Unable to read counts " + file, e );
+            savedTx = -1;
+        }
+        if ( writable && file.exists() && !file.delete() )
+        {
+            throw new UnderlyingStorageException( "Unable to delete " + file );
+        }
+    }
+
+    private void read() throws IOException
+    {
+        if ( !file.exists() )
+        {
+            return;
+        }
+        DataInputStream in = new DataInputStream( new BufferedInputStream(
+            new FileInputStream( file ) ) );
+        try
+        {
+            if ( file.length() < 24 || in.readInt() != VERSION )
+            {
+                return;
+            }
+            long tx = in.readLong();
+            nodeCount = in.readLong();
+            int typeCount = in.readInt();
+            if ( typeCount < 0 || file.length() != 24 + typeCount * 8L )
+            {
+                return;
+            }
+            relCounts = new long[typeCount];
+            for ( int i = 0; i < typeCount; i++ )
+            {
+                relCounts[i] = in.readLong();
+            }
+            savedTx = tx;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private void write( long lastCommittedTx ) throws IOException
+    {
+        File tmpFile = new File( file.getPath() + ".tmp" );
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream(
+            new FileOutputStream( tmpFile ) ) );
+        try
+        {
+            out.writeInt( VERSION );
+            out.writeLong( lastCommittedTx );
+            out.writeLong( nodeCount );
+            out.writeInt( relCounts.length );
+            for ( long count : relCounts )
+            {
+                out.writeLong( count );
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        if ( !tmpFile.renameTo( file ) )
+        {
+            file.delete();
+            if ( !tmpFile.renameTo( file ) )
+            {
+                throw new IOException( "Unable to rename " + tmpFile + " to "
+                    + file );
+            }
+        }
+    }
+
+    /**
+     * Makes the counts usable, called when the store has been recovered.
+     * The saved counts are used if they are for <CODE>lastCommittedTx</CODE>,
+     * otherwise the counts are rebuilt by scanning the stores.
+     *
+     * @param lastCommittedTx
+     *            The last transaction committed to the store
+     */
+    public synchronized void makeOk( long lastCommittedTx, NodeStore nodeStore,
+        RelationshipStore relStore )
+    {
+        if ( valid )
+        {
+            return;
+        }
+        if ( savedTx == -1 || savedTx != lastCommittedTx )
+        {
+            rebuild( nodeStore, relStore );
+        }
+        valid = true;
+    }
+
+    /**
+     * Counts the nodes and relationships in use, scanning the store files in
+     * parallel ranges like the id generators are rebuilt, see
+     * {@link InUseRecords}.
+     */
+    private void rebuild( final NodeStore nodeStore, final RelationshipStore relStore )
+    {
+        log.fine( "Rebuilding counts " + file );
+        nodeCount = 0;
+        relCounts = new long[0];
+        int threads = nodeStore.getRebuildThreads();
+        try
+        {
+            for ( NodeCounter range : InUseRecords.scan( nodeStore,
+                nodeStore.getRecordSize(), threads,
+                new InUseRecords.RangeVisitorFactory<NodeCounter>()
+                {
+                    public NodeCounter newVisitor()
+                    {
+                        return new NodeCounter( nodeStore );
+                    }
+                } ) )
+            {
+                nodeCount += range.count;
+            }
+            for ( RelationshipCounter range : InUseRecords.scan( relStore,
+                relStore.getRecordSize(), threads,
+                new InUseRecords.RangeVisitorFactory<RelationshipCounter>()
+                {
+                    public RelationshipCounter newVisitor()
+                    {
+                        return new RelationshipCounter( relStore );
+                    }
+                } ) )
+            {
+                for ( int type = 0; type < range.counts.length; type++ )
+                {
+                    if ( range.counts[type] != 0 )
+                    {
+                        add( type, range.counts[type] );
+                    }
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException( "Unable to rebuild counts "
+                + file, e );
+        }
+    }
+
+    private static class NodeCounter implements InUseRecords.RangeVisitor
+    {
+        private final NodeStore nodeStore;
+        private long count = 0;
+
+        NodeCounter( NodeStore nodeStore )
+        {
+            this.nodeStore = nodeStore;
+        }
+
+        public void visit( long id, ByteBuffer record )
+        {
+            if ( nodeStore.isRecordInUse( record ) )
+            {
+                count++;
+            }
+        }
+    }
+
+    private static class RelationshipCounter implements InUseRecords.RangeVisitor
+    {
+        private final RelationshipStore relStore;
+        private long[] counts = new long[0];
+
+        RelationshipCounter( RelationshipStore relStore )
+        {
+            this.relStore = relStore;
+        }
+
+        public void visit( long id, ByteBuffer record )
+        {
+            // -1 for relationship groups too
+            int type = relStore.getRelationshipType( record );
+            if ( type == -1 )
+            {
+                return;
+            }
+            if ( type >= counts.length )
+            {
+                counts = Arrays.copyOf( counts, Math.max( type + 1,
+                    counts.length * 2 ) );
+            }
+            counts[type]++;
+        }
+    }
+
+    /**
+     * Saves the counts, if they are usable and the store is writable.
+     *
+     * @param lastCommittedTx
+     *            The last transaction committed to the store, the saved
+     *            counts are only used again for this transaction
+     */
+    public synchronized void close( long lastCommittedTx )
+    {
+        if ( !valid || !writable )
+        {
+            return;
+        }
+        valid = false;
+        try
+        {
+            write( lastCommittedTx );
+        }
+        catch ( IOException e )
+        {
+            // the counts will be rebuilt next time
+            log.log( Level.WARNING, "Unable to save counts " + file, e );
+            file.delete();
+        }
+    }
+
+    /**
+     * @return <CODE>true</CODE> if the counts are in use, they aren't during
+     *         recovery
+     */
+    public synchronized boolean isValid()
+    {
+        return valid;
+    }
+
+    public synchronized void addToNodeCount( long delta )
+    {
+        if ( valid )
+        {
+            nodeCount += delta;
+        }
+    }
+
+    public synchronized void addToRelationshipCount( int type, long delta )
+    {
+        if ( valid )
+        {
+            add( type, delta );
+        }
+    }
+
+    private void add( int type, long delta )
+    {
+        if ( type >= relCounts.length )
+        {
+            relCounts = Arrays.copyOf( relCounts, Math.max( type + 1,
+                relCounts.length * 2 ) );
+        }
+        relCounts[type] += delta;
+    }
+
+    public synchronized long getNodeCount()
+    {
+        checkValid();
+        return nodeCount;
+    }
+
+    /**
+     * @return the number of relationships, of all types
+     */
+    public synchronized long getRelationshipCount()
+    {
+        checkValid();
+        long count = 0;
+        for ( long typeCount : relCounts )
+        {
+            count += typeCount;
+        }
+        return count;
+    }
+
+    public synchronized long getRelationshipCount( int type )
+    {
+        checkValid();
+        return type < relCounts.length ? relCounts[type] : 0;
+    }
+
+    private void checkValid()
+    {
+        if ( !valid )
+        {
+            throw new IllegalStateException( "Counts " + file +
+                " not available until the store has been recovered" );
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
+
+/**
+ * The loading position of a dense node, one position for each of the
+ * outgoing, incoming and loop chains of every relationship type the node has.
+ * Loops are loaded whatever direction is asked for.
+ */
+public class DenseNodeChainPosition implements RelationshipLoadingPosition
+{
+    private static final int[] OUTGOING_CHAINS = new int[] {
+        DirectionWrapper.OUTGOING.ordinal(), DirectionWrapper.BOTH.ordinal() };
+    private static final int[] INCOMING_CHAINS = new int[] {
+        DirectionWrapper.INCOMING.ordinal(), DirectionWrapper.BOTH.ordinal() };
+    private static final int[] ALL_CHAINS = new int[] {
+        DirectionWrapper.OUTGOING.ordinal(), DirectionWrapper.INCOMING.ordinal(),
+        DirectionWrapper.BOTH.ordinal() };
+
+    // type -> positions indexed by direction ordinal
+    private final Map<Integer,long[]> positions = new LinkedHashMap<Integer,long[]>();
+    private long[] currentChains;
+    private int currentChain;
+
+    public DenseNodeChainPosition( Iterable<RelationshipGroupRecord> groups )
+    {
+        for ( RelationshipGroupRecord group : groups )
+        {
+            long[] chains = new long[3];
+            for ( DirectionWrapper direction : DirectionWrapper.values() )
+            {
+                chains[direction.ordinal()] = group.getFirst( direction );
+            }
+            positions.put( group.getType(), chains );
+        }
+    }
+
+    public long position( DirectionWrapper direction, int[] types )
+    {
+        if ( types == null )
+        {
+            for ( long[] chains : positions.values() )
+            {
+                long position = firstInChains( chains, direction );
+                if ( position != Record.NO_NEXT_RELATIONSHIP.intValue() )
+                {
+                    return position;
+                }
+            }
+        }
+        else
+        {
+            for ( int type : types )
+            {
+                long[] chains = positions.get( type );
+                if ( chains != null )
+                {
+                    long position = firstInChains( chains, direction );
+                    if ( position != Record.NO_NEXT_RELATIONSHIP.intValue() )
+                    {
+                        return position;
+                    }
+                }
+            }
+        }
+        currentChains = null;
+        return Record.NO_NEXT_RELATIONSHIP.intValue();
+    }
+
+    private long firstInChains( long[] chains, DirectionWrapper direction )
+    {
+        for ( int chain : chainsFor( direction ) )
+        {
+            if ( chains[chain] != Record.NO_NEXT_RELATIONSHIP.intValue() )
+            {
+                currentChains = chains;
+                currentChain = chain;
+                return chains[chain];
+            }
+        }
+        return Record.NO_NEXT_RELATIONSHIP.intValue();
+    }
+
+    public long nextPosition( long position, DirectionWrapper direction, int[] types )
+    {
+        if ( currentChains == null )
+        {
+            throw new IllegalStateException( "No chain is being loaded" );
+        }
+        currentChains[currentChain] = position;
+        if ( position != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            return position;
+        }
+        return position( direction, types );
+    }
+
+    public boolean hasMore( DirectionWrapper direction, int[] types )
+    {
+        if ( types == null )
+        {
+            for ( long[] chains : positions.values() )
+            {
+                if ( hasMore( chains, direction ) )
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+        for ( int type : types )
+        {
+            long[] chains = positions.get( type );
+            if ( chains != null && hasMore( chains, direction ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasMore( long[] chains, DirectionWrapper direction )
+    {
+        for ( int chain : chainsFor( direction ) )
+        {
+            if ( chains[chain] != Record.NO_NEXT_RELATIONSHIP.intValue() )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int[] chainsFor( DirectionWrapper direction )
+    {
+        switch ( direction )
+        {
+        case OUTGOING:
+            return OUTGOING_CHAINS;
+        case INCOMING:
+            return INCOMING_CHAINS;
+        default:
+            return ALL_CHAINS;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuffer buf = new StringBuffer( "DenseNodeChainPosition[" );
+        for ( Map.Entry<Integer,long[]> entry : positions.entrySet() )
+        {
+            long[] chains = entry.getValue();
+            buf.append( entry.getKey() ).append( ":" ).append( chains[0] ).append(
+                "," ).append( chains[1] ).append( "," ).append( chains[2] ).append( ";" );
+        }
+        return buf.append( "]" ).toString();
+    }
+}
@@ -36,7 +36,8 @@ import org.neo4j.kernel.impl.util.Bits;
 public class DynamicArrayStore extends AbstractDynamicStore
 {
     // store version, each store ends with this string (byte encoded)
-    static final String VERSION = "ArrayPropertyStore v0.A.0";
+    static final String VERSION = "ArrayPropertyStore " +
+        CommonAbstractStore.ALL_STORES_VERSION;
     public static final String TYPE_DESCRIPTOR = "ArrayPropertyStore";
 
     public DynamicArrayStore( String fileName, Map<?,?> config, IdType idType )
@@ -56,7 +57,7 @@ public class DynamicArrayStore extends AbstractDynamicStore
         createEmptyStore( fileName, blockSize, VERSION, idGeneratorFactory, IdType.ARRAY_BLOCK );
     }
 
-    private Collection<DynamicRecord> allocateFromNumbers( long startBlock, Object array )
+    private byte[] encodeFromNumbers( Object array )
     {
         ShortArray type = ShortArray.typeOf( array );
         if (type == null)
@@ -80,11 +81,10 @@ public class DynamicArrayStore extends AbstractDynamicStore
         {
             type.put( Array.get( array, i ), bits, requiredBits );
         }
-        return allocateRecords( startBlock, bits.asBytes() );
+        return bits.asBytes();
     }
 
-    private Collection<DynamicRecord> allocateFromString( long startBlock,
-        String[] array )
+    private byte[] encodeFromString( String[] array )
     {
         List<byte[]> stringsAsBytes = new ArrayList<byte[]>();
         int totalBytesRequired = 1+4; // 1b type + 3b array length
@@ -103,10 +103,19 @@ public class DynamicArrayStore extends AbstractDynamicStore
             buf.putInt( stringAsBytes.length );
             buf.put( stringAsBytes );
         }
-        return allocateRecords( startBlock, buf.array() );
+        return buf.array();
     }
 
     public Collection<DynamicRecord> allocateRecords( long startBlock, Object array )
+    {
+        return allocateRecords( startBlock, encodeArray( array ) );
+    }
+
+    /**
+     * @return the bytes <CODE>array</CODE> is stored as, which
+     *         {@link #getRightArray(byte[])} turns back into the array
+     */
+    public byte[] encodeArray( Object array )
     {
         if ( !array.getClass().isArray() )
         {
@@ -116,11 +125,11 @@ public class DynamicArrayStore extends AbstractDynamicStore
         Class<?> type = array.getClass().getComponentType();
         if ( type.equals( String.class ) )
         {
-            return allocateFromString( startBlock, (String[]) array );
+            return encodeFromString( (String[]) array );
         }
         else
         {
-            return allocateFromNumbers( startBlock, array );
+            return encodeFromNumbers( array );
         }
     }
 
@@ -30,7 +30,8 @@ import org.neo4j.kernel.IdType;
 public class DynamicStringStore extends AbstractDynamicStore
 {
     // store version, each store ends with this string (byte encoded)
-    static final String VERSION = "StringPropertyStore v0.A.0";
+    static final String VERSION = "StringPropertyStore " +
+        CommonAbstractStore.ALL_STORES_VERSION;
     public static final String TYPE_DESCRIPTOR = "StringPropertyStore";
 
     public DynamicStringStore( String fileName, Map<?,?> config, IdType idType )
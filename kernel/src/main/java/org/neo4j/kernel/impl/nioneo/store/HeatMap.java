@@ -0,0 +1,185 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * How hot the regions of a store file are, as seen by its {@link WindowPool}.
+ * The store file is divided into regions of {@link #getRegionSize()} bytes
+ * each and every region has a heat, the higher the heat the more often the
+ * region has been accessed lately.
+ * <p>
+ * A heat map can be saved to and read back from a small file next to the
+ * store file, which is how a pool remembers what was hot across restarts.
+ */
+public class HeatMap
+{
+    private static final int VERSION = 1;
+
+    private final long regionSize;
+    private final int[] heat;
+
+    /**
+     * @param regionSize
+     *            The size, in bytes, of each region
+     * @param heat
+     *            The heat of each region, starting with the region at the
+     *            beginning of the file
+     */
+    public HeatMap( long regionSize, int[] heat )
+    {
+        if ( regionSize <= 0 )
+        {
+            throw new IllegalArgumentException( "Illegal region size "
+                + regionSize );
+        }
+        this.regionSize = regionSize;
+        this.heat = heat;
+    }
+
+    public long getRegionSize()
+    {
+        return regionSize;
+    }
+
+    public int getRegionCount()
+    {
+        return heat.length;
+    }
+
+    public int getHeat( int region )
+    {
+        return heat[region];
+    }
+
+    /**
+     * Returns the heat of this map spread over regions of another size, so
+     * that a heat map saved by a pool with a different layout, because the
+     * store file has grown or the memory given to it has changed, can still
+     * be used. The heat of every region goes to the region that holds its
+     * first byte.
+     *
+     * @param newRegionSize
+     *            The size, in bytes, of the regions to return the heat for
+     * @param regionCount
+     *            The number of regions to return the heat for
+     * @return the heat of each of the <CODE>regionCount</CODE> regions
+     */
+    public int[] toRegions( long newRegionSize, int regionCount )
+    {
+        int[] result = new int[regionCount];
+        for ( int i = 0; i < heat.length; i++ )
+        {
+            long region = i * regionSize / newRegionSize;
+            if ( region >= regionCount )
+            {
+                break;
+            }
+            long sum = (long) result[(int) region] + heat[i];
+            result[(int) region] = (int) Math.min( Integer.MAX_VALUE, sum );
+        }
+        return result;
+    }
+
+    /**
+     * Writes this heat map to <CODE>file</CODE>, replacing it only once the
+     * whole map has been written so that a crash never leaves a half
+     * written heat map behind.
+     */
+    public void write( File file ) throws IOException
+    {
+        File tmpFile = new File( file.getPath() + ".tmp" );
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream(
+            new FileOutputStream( tmpFile ) ) );
+        try
+        {
+            out.writeInt( VERSION );
+            out.writeLong( regionSize );
+            out.writeInt( heat.length );
+            for ( int regionHeat : heat )
+            {
+                out.writeInt( regionHeat );
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        if ( !tmpFile.renameTo( file ) )
+        {
+            // not atomic on all platforms, but then a bad heat map is only
+            // ignored when read
+            file.delete();
+            if ( !tmpFile.renameTo( file ) )
+            {
+                throw new IOException( "Unable to rename " + tmpFile + " to "
+                    + file );
+            }
+        }
+    }
+
+    /**
+     * Reads a heat map written by {@link #write(File)}.
+     *
+     * @return the heat map or <CODE>null</CODE> if <CODE>file</CODE> doesn't
+     *         exist or doesn't hold a heat map
+     */
+    public static HeatMap read( File file ) throws IOException
+    {
+        if ( !file.exists() )
+        {
+            return null;
+        }
+        DataInputStream in = new DataInputStream( new BufferedInputStream(
+            new FileInputStream( file ) ) );
+        try
+        {
+            if ( file.length() < 16 || in.readInt() != VERSION )
+            {
+                return null;
+            }
+            long regionSize = in.readLong();
+            int regionCount = in.readInt();
+            if ( regionSize <= 0 || regionCount < 0 ||
+                file.length() != 16 + regionCount * 4L )
+            {
+                return null;
+            }
+            int[] heat = new int[regionCount];
+            for ( int i = 0; i < regionCount; i++ )
+            {
+                heat[i] = in.readInt();
+            }
+            return new HeatMap( regionSize, heat );
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+}
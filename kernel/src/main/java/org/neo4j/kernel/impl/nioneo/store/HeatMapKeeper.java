@@ -0,0 +1,387 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.neo4j.kernel.Config;
+
+/**
+ * Keeps the {@link HeatMap heat maps} of the stores so that a restarted
+ * database doesn't have to start out with cold stores. The heat map of every
+ * registered {@link WindowPool} is saved next to its store file (with the
+ * {@link #HEAT_MAP_SUFFIX} suffix) periodically and when the store is closed.
+ * When a store is opened again its pool is warmed up according to the saved
+ * heat map in the background, the stores in parallel.
+ * <p>
+ * Enabled by setting {@link Config#HEAT_MAP_SAVE_INTERVAL}, the keeper is
+ * passed to the stores in the configuration map (keyed by this class).
+ */
+public class HeatMapKeeper
+{
+    private static final Logger log = Logger.getLogger(
+        HeatMapKeeper.class.getName() );
+
+    public static final String HEAT_MAP_SUFFIX = ".heat";
+
+    private static final int MAX_WARM_UP_THREADS = 4;
+
+    private final long saveIntervalMillis;
+    private final int maxWarmUpThreads;
+    // guarded by this, the files to save the heat maps to, null for the
+    // pools that are only warmed up
+    private final Map<WindowPool,File> pools = new HashMap<WindowPool,File>();
+    private final LinkedList<WarmUp> warmUps = new LinkedList<WarmUp>();
+    private final Set<WindowPool> warming = new HashSet<WindowPool>();
+    private int warmUpThreads = 0;
+    private int warmedUpCount = 0;
+    // held while heat maps are being saved
+    private final Object saving = new Object();
+    private SaverThread saverThread;
+
+    private static class WarmUp
+    {
+        private final WindowPool pool;
+        private final HeatMap heatMap;
+
+        WarmUp( WindowPool pool, HeatMap heatMap )
+        {
+            this.pool = pool;
+            this.heatMap = heatMap;
+        }
+    }
+
+    /**
+     * @param saveIntervalMillis
+     *            How often to save the heat maps
+     */
+    public HeatMapKeeper( long saveIntervalMillis )
+    {
+        if ( saveIntervalMillis <= 0 )
+        {
+            throw new IllegalArgumentException( "Illegal save interval "
+                + saveIntervalMillis );
+        }
+        this.saveIntervalMillis = saveIntervalMillis;
+        this.maxWarmUpThreads = Math.min( MAX_WARM_UP_THREADS,
+            Runtime.getRuntime().availableProcessors() );
+    }
+
+    /**
+     * Creates the keeper described by <CODE>config</CODE>.
+     *
+     * @param config
+     *            Map of configuration parameters
+     * @return a new, not yet started, keeper or <CODE>null</CODE> if saving
+     *         heat maps hasn't been configured
+     */
+    public static HeatMapKeeper fromConfig( Map<?,?> config )
+    {
+        String interval = (String) config.get( Config.HEAT_MAP_SAVE_INTERVAL );
+        if ( interval == null )
+        {
+            return null;
+        }
+        int seconds;
+        try
+        {
+            seconds = Integer.parseInt( interval.trim() );
+        }
+        catch ( NumberFormatException e )
+        {
+            throw new IllegalArgumentException( "Illegal "
+                + Config.HEAT_MAP_SAVE_INTERVAL + " '" + interval + "'", e );
+        }
+        if ( seconds <= 0 )
+        {
+            return null;
+        }
+        return new HeatMapKeeper( seconds * 1000L );
+    }
+
+    /**
+     * Registers the pool of a store that has just been opened, warming it up
+     * in the background if there's a saved heat map for the store.
+     *
+     * @param pool
+     *            The window pool of the store
+     * @param storeFileName
+     *            The file name of the store
+     * @param readOnly
+     *            Whether the store is read only, if so only the saved heat
+     *            map is used and no new one is saved
+     */
+    public void register( WindowPool pool, String storeFileName,
+        boolean readOnly )
+    {
+        File file = new File( storeFileName + HEAT_MAP_SUFFIX );
+        HeatMap heatMap = null;
+        try
+        {
+            heatMap = HeatMap.read( file );
+        }
+        catch ( IOException e )
+        {
+            log.log( Level.WARNING, "Unable to read heat map " + file, e );
+        }
+        synchronized ( this )
+        {
+            pools.put( pool, readOnly ? null : file );
+            if ( heatMap != null )
+            {
+                warmUps.add( new WarmUp( pool, heatMap ) );
+                if ( warmUpThreads < maxWarmUpThreads )
+                {
+                    warmUpThreads++;
+                    new WarmUpThread().start();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes <CODE>pool</CODE> from this keeper, saving its heat map a last
+     * time. Waits for an ongoing warm up of the pool to complete and must be
+     * called before the pool is closed.
+     */
+    public void unregister( WindowPool pool )
+    {
+        File file;
+        synchronized ( this )
+        {
+            Iterator<WarmUp> itr = warmUps.iterator();
+            while ( itr.hasNext() )
+            {
+                if ( itr.next().pool == pool )
+                {
+                    itr.remove();
+                }
+            }
+            while ( warming.contains( pool ) )
+            {
+                try
+                {
+                    wait();
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.interrupted();
+                }
+            }
+            file = pools.remove( pool );
+        }
+        if ( file != null )
+        {
+            synchronized ( saving )
+            {
+                save( pool, file );
+            }
+        }
+    }
+
+    public void start()
+    {
+        saverThread = new SaverThread();
+        saverThread.start();
+    }
+
+    public void stop()
+    {
+        if ( saverThread != null )
+        {
+            saverThread.markDone();
+            saverThread = null;
+        }
+    }
+
+    /**
+     * Saves the heat maps of all registered pools.
+     */
+    void saveAll()
+    {
+        synchronized ( saving )
+        {
+            List<WindowPool> toSave;
+            synchronized ( this )
+            {
+                toSave = new ArrayList<WindowPool>( pools.keySet() );
+            }
+            for ( WindowPool pool : toSave )
+            {
+                File file;
+                synchronized ( this )
+                {
+                    // may have been unregistered, and saved, since
+                    file = pools.get( pool );
+                }
+                if ( file != null )
+                {
+                    save( pool, file );
+                }
+            }
+        }
+    }
+
+    private void save( WindowPool pool, File file )
+    {
+        HeatMap heatMap = pool.getHeatMap();
+        if ( heatMap == null )
+        {
+            return;
+        }
+        try
+        {
+            heatMap.write( file );
+        }
+        catch ( IOException e )
+        {
+            log.log( Level.WARNING, "Unable to save heat map " + file, e );
+        }
+    }
+
+    /**
+     * Takes the next pool waiting to be warmed up, the calling warm up
+     * thread ends if there is none.
+     */
+    private synchronized WarmUp nextWarmUp()
+    {
+        WarmUp warmUp = warmUps.poll();
+        if ( warmUp == null )
+        {
+            warmUpThreads--;
+        }
+        else
+        {
+            warming.add( warmUp.pool );
+        }
+        return warmUp;
+    }
+
+    private void warmUp( WarmUp warmUp )
+    {
+        try
+        {
+            warmUp.pool.warmUp( warmUp.heatMap );
+        }
+        catch ( RuntimeException e )
+        {
+            log.log( Level.WARNING, "Unable to warm up window pool", e );
+        }
+        finally
+        {
+            synchronized ( this )
+            {
+                warming.remove( warmUp.pool );
+                warmedUpCount++;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return the number of pools that have been warmed up
+     */
+    public synchronized int getWarmedUpCount()
+    {
+        return warmedUpCount;
+    }
+
+    private class WarmUpThread extends Thread
+    {
+        WarmUpThread()
+        {
+            super( "HeatMapWarmUp" );
+            setDaemon( true );
+        }
+
+        @Override
+        public void run()
+        {
+            boolean ended = false;
+            try
+            {
+                WarmUp warmUp;
+                while ( (warmUp = nextWarmUp()) != null )
+                {
+                    warmUp( warmUp );
+                }
+                ended = true;
+            }
+            finally
+            {
+                if ( !ended )
+                {
+                    synchronized ( HeatMapKeeper.this )
+                    {
+                        warmUpThreads--;
+                    }
+                }
+            }
+        }
+    }
+
+    private class SaverThread extends Thread
+    {
+        private boolean done = false;
+
+        SaverThread()
+        {
+            super( "HeatMapSaver" );
+            setDaemon( true );
+        }
+
+        @Override
+        public synchronized void run()
+        {
+            while ( !done )
+            {
+                try
+                {
+                    this.wait( saveIntervalMillis );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.interrupted();
+                }
+                if ( !done )
+                {
+                    saveAll();
+                }
+            }
+        }
+
+        synchronized void markDone()
+        {
+            done = true;
+            notify();
+        }
+    }
+}
@@ -22,6 +22,7 @@ package org.neo4j.kernel.impl.nioneo.store;
 public interface IdGenerator
 {
     long nextId();
+    long nextIdNear( long near, int idsPerPage );
     IdRange nextIdBatch( int size );
     void setHighId( long id );
     long getHighId();
@@ -27,6 +27,7 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -163,6 +164,69 @@ public class IdGeneratorImpl implements IdGenerator
         return id;
     }
 
+    /**
+     * Returns a free id in the same page, of <CODE>idsPerPage</CODE> ids, as
+     * <CODE>near</CODE>. Either one of the defragged (or, with aggressive
+     * reuse, released) ids in memory or, if the page is the last one in use
+     * and there are no free ids to reuse, the next new id.
+     *
+     * @return A free id in the page of <CODE>near</CODE> or <CODE>-1</CODE>
+     *         if there is none
+     * @throws IllegalStateException if this id generator has been closed
+     */
+    public synchronized long nextIdNear( long near, int idsPerPage )
+    {
+        assertStillOpen();
+        long pageStart = near - near % idsPerPage;
+        long pageEnd = pageStart + idsPerPage;
+        if ( aggressiveReuse )
+        {
+            Iterator<Long> itr = releasedIdList.iterator();
+            while ( itr.hasNext() )
+            {
+                long releasedId = itr.next();
+                if ( releasedId >= pageStart && releasedId < pageEnd )
+                {
+                    itr.remove();
+                    defraggedIdCount--;
+                    return releasedId;
+                }
+            }
+        }
+        Iterator<Long> itr = defragedIdList.iterator();
+        while ( itr.hasNext() )
+        {
+            long defragId = itr.next();
+            if ( defragId >= pageStart && defragId < pageEnd )
+            {
+                itr.remove();
+                if ( haveMore && defragedIdList.size() == 0 )
+                {
+                    readIdBatch();
+                }
+                defraggedIdCount--;
+                return defragId;
+            }
+        }
+        if ( (aggressiveReuse && !releasedIdList.isEmpty()) ||
+            !defragedIdList.isEmpty() || haveMore )
+        {
+            // free ids elsewhere are reused before the file grows
+            return -1;
+        }
+        long id = nextFreeId.get();
+        if ( id == INTEGER_MINUS_ONE )
+        {
+            id++;
+        }
+        if ( id >= pageStart && id < pageEnd && id <= max )
+        {
+            nextFreeId.set( id + 1 );
+            return id;
+        }
+        return -1;
+    }
+
     private void assertIdWithinCapacity( long id )
     {
         if ( id > max || id < 0  )
@@ -504,7 +568,7 @@ public class IdGeneratorImpl implements IdGenerator
             readBuffer.flip();
             assert (bytesRead % 8) == 0;
             int idsRead = bytesRead / 8;
-            defraggedIdCount -= idsRead;
+            // the ids read are still free, counted when handed out
             for ( int i = 0; i < idsRead; i++ )
             {
                 long id = readBuffer.getLong();
@@ -512,6 +576,10 @@ public class IdGeneratorImpl implements IdGenerator
                 {
                     defragedIdList.add( id );
                 }
+                else
+                {
+                    defraggedIdCount--;
+                }
             }
         }
         catch ( IOException e )
@@ -0,0 +1,217 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.neo4j.kernel.impl.util.SharedWorkers;
+
+/**
+ * The records in use in a store file, one bit per record. The file is split
+ * into ranges of records that are scanned in parallel through memory mapped
+ * buffers by the threads of {@link SharedWorkers}, so that rebuilding the
+ * id generator of a big store doesn't have to read it one record at a time
+ * on a single thread. Other full scans of a store file, see
+ * {@link CountsStore}, use the same ranges through
+ * {@link #scan(CommonAbstractStore, int, int, RangeVisitorFactory)}.
+ */
+class InUseRecords
+{
+    /**
+     * Visits the records of the ranges of a store file. A visitor is only
+     * used by the thread scanning its range.
+     */
+    interface RangeVisitor
+    {
+        /**
+         * @param record Holds the record with id <CODE>id</CODE>, from its
+         *            current position.
+         */
+        void visit( long id, ByteBuffer record );
+    }
+
+    interface RangeVisitorFactory<T extends RangeVisitor>
+    {
+        T newVisitor();
+    }
+
+    // bytes mapped and scanned by one task
+    private static final int RANGE_SIZE = 16 * 1024 * 1024;
+
+    private final long[] bits;
+    private final long highestInUse;
+
+    private InUseRecords( long[] bits )
+    {
+        this.bits = bits;
+        long highest = -1;
+        for ( int i = bits.length - 1; i >= 0; i-- )
+        {
+            if ( bits[i] != 0 )
+            {
+                highest = i * 64L + 63 - Long.numberOfLeadingZeros( bits[i] );
+                break;
+            }
+        }
+        this.highestInUse = highest;
+    }
+
+    /**
+     * Scans the whole file of <CODE>store</CODE>, a trailing partial record
+     * is ignored.
+     *
+     * @param threads The number of threads to scan with, ranges are scanned
+     *            by the calling thread if it is 1.
+     */
+    static InUseRecords scan( final CommonAbstractStore store, int recordSize, int threads )
+        throws IOException
+    {
+        long records = store.getFileChannel().size() / recordSize;
+        if ( (records + 63) / 64 > Integer.MAX_VALUE )
+        {
+            throw new UnderlyingStorageException( "Too many records in " +
+                store.getStorageFileName() + " to scan: " + records );
+        }
+        // ranges are a multiple of 64 records, no two share a word of bits
+        final long[] bits = new long[(int) ((records + 63) / 64)];
+        scan( store, recordSize, threads, new RangeVisitorFactory<RangeVisitor>()
+        {
+            public RangeVisitor newVisitor()
+            {
+                return new RangeVisitor()
+                {
+                    public void visit( long id, ByteBuffer record )
+                    {
+                        if ( store.isRecordInUse( record ) )
+                        {
+                            bits[(int) (id >>> 6)] |= 1L << (id & 63);
+                        }
+                    }
+                };
+            }
+        } );
+        return new InUseRecords( bits );
+    }
+
+    /**
+     * Scans the whole file of <CODE>store</CODE> in ranges, a trailing
+     * partial record is ignored.
+     *
+     * @param threads The most threads to scan with, fewer if the shared
+     *            threads are busy with other scans. Ranges are scanned by
+     *            the calling thread if it is 1.
+     * @return the visitors of the ranges, once all ranges have been scanned
+     */
+    static <T extends RangeVisitor> List<T> scan( final CommonAbstractStore store,
+        final int recordSize, int threads, RangeVisitorFactory<T> visitors )
+        throws IOException
+    {
+        final FileChannel fileChannel = store.getFileChannel();
+        final long records = fileChannel.size() / recordSize;
+        long recordsPerRange = Math.max( 64, RANGE_SIZE / recordSize / 64 * 64 );
+        List<T> result = new ArrayList<T>();
+        if ( threads <= 1 || records <= recordsPerRange )
+        {
+            for ( long from = 0; from < records; from += recordsPerRange )
+            {
+                T visitor = visitors.newVisitor();
+                scanRange( fileChannel, recordSize, visitor, from,
+                    Math.min( records, from + recordsPerRange ) );
+                result.add( visitor );
+            }
+            return result;
+        }
+
+        final int ranges = (int) ((records + recordsPerRange - 1) / recordsPerRange);
+        for ( int i = 0; i < ranges; i++ )
+        {
+            result.add( visitors.newVisitor() );
+        }
+        final long rangeSize = recordsPerRange;
+        final List<T> rangeVisitors = result;
+        final AtomicInteger nextRange = new AtomicInteger();
+        try
+        {
+            SharedWorkers.instance().run( new Runnable()
+            {
+                public void run()
+                {
+                    for ( int range = nextRange.getAndIncrement(); range < ranges;
+                            range = nextRange.getAndIncrement() )
+                    {
+                        long from = range * rangeSize;
+                        try
+                        {
+                            scanRange( fileChannel, recordSize, rangeVisitors.get( range ),
+                                from, Math.min( records, from + rangeSize ) );
+                        }
+                        catch ( IOException e )
+                        {
+                            throw new UnderlyingStorageException( "Unable to scan " +
+                                store.getStorageFileName(), e );
+                        }
+                    }
+                }
+            }, Math.min( threads, ranges ) );
+        }
+        catch ( UnderlyingStorageException e )
+        {
+            if ( e.getCause() instanceof IOException )
+            {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+        return result;
+    }
+
+    private static void scanRange( FileChannel fileChannel, int recordSize,
+        RangeVisitor visitor, long from, long to ) throws IOException
+    {
+        ByteBuffer buffer = fileChannel.map( FileChannel.MapMode.READ_ONLY,
+            from * recordSize, (to - from) * recordSize );
+        for ( long id = from; id < to; id++ )
+        {
+            int offset = (int) (id - from) * recordSize;
+            buffer.clear();
+            buffer.position( offset );
+            buffer.limit( offset + recordSize );
+            visitor.visit( id, buffer );
+        }
+    }
+
+    boolean inUse( long id )
+    {
+        return (bits[(int) (id >>> 6)] & (1L << (id & 63))) != 0;
+    }
+
+    /**
+     * @return the highest id in use or <CODE>-1</CODE> if there are none
+     */
+    long highestInUse()
+    {
+        return highestInUse;
+    }
+}
@@ -49,6 +49,8 @@ abstract class LockableWindow implements PersistenceWindow
         new LinkedList<LockElement>();
     private int lockCount = 0;
     private int marked = 0;
+    private boolean evicted = false;
+    private volatile boolean dirty = false;
 
     LockableWindow( FileChannel fileChannel )
     {
@@ -80,11 +82,64 @@ abstract class LockableWindow implements PersistenceWindow
         this.marked++;
     }
 
+    /**
+     * Flags this window as holding changes that haven't been written to the
+     * underlying file yet.
+     */
+    void setDirty()
+    {
+        this.dirty = true;
+    }
+
+    void setClean()
+    {
+        this.dirty = false;
+    }
+
+    boolean isDirty()
+    {
+        return dirty;
+    }
+
     synchronized boolean isMarked()
     {
         return marked > 0;
     }
 
+    /**
+     * Marks this window unless it has been evicted, used when the window is
+     * looked up without holding the lock of the pool it belongs to.
+     *
+     * @return <CODE>false</CODE> if this window has been evicted and must
+     *         not be used
+     */
+    synchronized boolean markIfNotEvicted()
+    {
+        if ( evicted )
+        {
+            return false;
+        }
+        this.marked++;
+        return true;
+    }
+
+    /**
+     * Evicts this window if no thread is using it, waiting for it or about to
+     * use it. Once evicted {@link #markIfNotEvicted()} will fail so a window
+     * can be handed out without holding the lock of the pool.
+     *
+     * @return <CODE>true</CODE> if the window was evicted
+     */
+    synchronized boolean evictIfUnused()
+    {
+        if ( marked > 0 || lockCount > 0 || !waitingThreadList.isEmpty() )
+        {
+            return false;
+        }
+        evicted = true;
+        return true;
+    }
+
     private static class LockElement
     {
         private final Thread thread;
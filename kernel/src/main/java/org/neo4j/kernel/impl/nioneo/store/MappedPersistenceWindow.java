@@ -98,6 +98,14 @@ class MappedPersistenceWindow extends LockableWindow
         return position() == ((MappedPersistenceWindow) o).position();
     }
 
+    /**
+     * Loads the content of this window into physical memory.
+     */
+    void load()
+    {
+        ((java.nio.MappedByteBuffer) buffer.getBuffer()).load();
+    }
+
     void unmap()
     {
         if ( buffer != null )
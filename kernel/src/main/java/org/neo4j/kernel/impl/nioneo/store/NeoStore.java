@@ -30,6 +30,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 
+import org.neo4j.kernel.Config;
 import org.neo4j.kernel.IdGeneratorFactory;
 import org.neo4j.kernel.IdType;
 import org.neo4j.kernel.impl.core.LastCommittedTxIdSetter;
@@ -57,6 +58,9 @@ public class NeoStore extends AbstractStore
      */
     private static final int RECORD_SIZE = 9;
     private static final int DEFAULT_REL_GRAB_SIZE = 100;
+    // non zero once the store has been used with a dense node threshold,
+    // stores created before have no such record
+    private static final int RELATIONSHIP_GROUPS_RECORD = 5;
 
     public static final String DEFAULT_NAME = "neostore";
 
@@ -64,12 +68,15 @@ public class NeoStore extends AbstractStore
     private PropertyStore propStore;
     private RelationshipStore relStore;
     private RelationshipTypeStore relTypeStore;
+    private CountsStore countsStore;
     private final LastCommittedTxIdSetter lastCommittedTxIdSetter;
     private final IdGeneratorFactory idGeneratorFactory;
     private boolean isStarted;
     private long lastCommittedTx = -1;
 
     private final int REL_GRAB_SIZE;
+    private final int denseNodeThreshold;
+    private volatile boolean relationshipGroups;
 
     public NeoStore( Map<?,?> config )
     {
@@ -84,6 +91,13 @@ public class NeoStore extends AbstractStore
             }
         }
         REL_GRAB_SIZE = relGrabSize;
+        denseNodeThreshold = getDenseNodeThreshold( getConfig() );
+        relationshipGroups = getHighId() > RELATIONSHIP_GROUPS_RECORD &&
+            getRecord( RELATIONSHIP_GROUPS_RECORD ) != 0;
+        if ( denseNodeThreshold > 0 && !relationshipGroups && !isReadOnly() )
+        {
+            setRelationshipGroupsInUse();
+        }
         lastCommittedTxIdSetter = (LastCommittedTxIdSetter)
                 config.get( LastCommittedTxIdSetter.class );
         idGeneratorFactory = (IdGeneratorFactory) config.get( IdGeneratorFactory.class );
@@ -160,6 +174,8 @@ public class NeoStore extends AbstractStore
         + ".relationshipstore.db", getConfig() );
         nodeStore = new NodeStore( getStorageFileName() + ".nodestore.db",
         getConfig() );
+        countsStore = new CountsStore( getStorageFileName() + ".counts.db",
+            !isReadOnly() || isBackupSlave() );
     }
 
     private void tryToUpgradeStores()
@@ -176,6 +192,11 @@ public class NeoStore extends AbstractStore
     protected void closeStorage()
     {
         if ( lastCommittedTxIdSetter != null ) lastCommittedTxIdSetter.close();
+        if ( countsStore != null )
+        {
+            countsStore.close( getLastCommittedTx() );
+            countsStore = null;
+        }
         if ( relTypeStore != null )
         {
             relTypeStore.close();
@@ -281,20 +302,37 @@ public class NeoStore extends AbstractStore
      * @return the previous version before writing.
      */
     public static long setVersion( String storeDir, long version )
+    {
+        return setRecord( storeDir, 2, version );
+    }
+
+    /**
+     * Sets the store version for the given neostore file in {@code storeDir}.
+     * @param storeDir the store dir to locate the neostore file in.
+     * @param storeVersion the store version to set, see
+     * {@link #versionStringToLong(String)}.
+     * @return the previous store version before writing.
+     */
+    public static long setStoreVersion( String storeDir, long storeVersion )
+    {
+        return setRecord( storeDir, 4, storeVersion );
+    }
+
+    private static long setRecord( String storeDir, long id, long value )
     {
         RandomAccessFile file = null;
         try
         {
             file = new RandomAccessFile( new File( storeDir, NeoStore.DEFAULT_NAME ), "rw" );
             FileChannel channel = file.getChannel();
-            channel.position( RECORD_SIZE*2+1/*inUse*/ );
+            channel.position( RECORD_SIZE*id+1/*inUse*/ );
             ByteBuffer buffer = ByteBuffer.allocate( 8 );
             channel.read( buffer );
             buffer.flip();
             long previous = buffer.getLong();
-            channel.position( RECORD_SIZE*2+1/*inUse*/ );
+            channel.position( RECORD_SIZE*id+1/*inUse*/ );
             buffer.clear();
-            buffer.putLong( version ).flip();
+            buffer.putLong( value ).flip();
             channel.write( buffer );
             return previous;
         }
@@ -516,6 +554,16 @@ public class NeoStore extends AbstractStore
         return relTypeStore;
     }
 
+    /**
+     * Returns the counts of nodes and relationships in the store.
+     *
+     * @return The counts store
+     */
+    public CountsStore getCountsStore()
+    {
+        return countsStore;
+    }
+
     /**
      * Returns the property store.
      *
@@ -529,21 +577,66 @@ public class NeoStore extends AbstractStore
     @Override
     public void makeStoreOk()
     {
-        relTypeStore.makeStoreOk();
-        propStore.makeStoreOk();
-        relStore.makeStoreOk();
-        nodeStore.makeStoreOk();
+        // the id generators and counts are rebuilt from the store files
+        flushAll();
+        inParallel( new Runnable()
+        {
+            public void run()
+            {
+                relTypeStore.makeStoreOk();
+            }
+        }, new Runnable()
+        {
+            public void run()
+            {
+                propStore.makeStoreOk();
+            }
+        }, new Runnable()
+        {
+            public void run()
+            {
+                relStore.makeStoreOk();
+            }
+        }, new Runnable()
+        {
+            public void run()
+            {
+                nodeStore.makeStoreOk();
+            }
+        } );
         super.makeStoreOk();
+        countsStore.makeOk( getLastCommittedTx(), nodeStore, relStore );
         isStarted = true;
     }
 
     @Override
     public void rebuildIdGenerators()
     {
-        relTypeStore.rebuildIdGenerators();
-        propStore.rebuildIdGenerators();
-        relStore.rebuildIdGenerators();
-        nodeStore.rebuildIdGenerators();
+        inParallel( new Runnable()
+        {
+            public void run()
+            {
+                relTypeStore.rebuildIdGenerators();
+            }
+        }, new Runnable()
+        {
+            public void run()
+            {
+                propStore.rebuildIdGenerators();
+            }
+        }, new Runnable()
+        {
+            public void run()
+            {
+                relStore.rebuildIdGenerators();
+            }
+        }, new Runnable()
+        {
+            public void run()
+            {
+                nodeStore.rebuildIdGenerators();
+            }
+        } );
         super.rebuildIdGenerators();
     }
 
@@ -561,6 +654,65 @@ public class NeoStore extends AbstractStore
         return REL_GRAB_SIZE;
     }
 
+    /**
+     * @return the number of relationships at which a node gets its
+     *         relationships grouped by type and direction, or 0 if nodes are
+     *         never grouped
+     */
+    public int getDenseNodeThreshold()
+    {
+        return denseNodeThreshold;
+    }
+
+    /**
+     * @return <CODE>true</CODE> if nodes of this store may have their
+     *         relationships grouped, because the store has been used with a
+     *         {@link #getDenseNodeThreshold() dense node threshold}. Until
+     *         then no relationship group records are looked for.
+     */
+    public boolean hasRelationshipGroups()
+    {
+        return relationshipGroups;
+    }
+
+    /**
+     * Marks the store as having relationship groups, f.ex. for a copy of a
+     * store that has them. Once set it stays set, whatever the
+     * {@link #getDenseNodeThreshold() dense node threshold} of the store is.
+     */
+    public void setRelationshipGroupsInUse()
+    {
+        if ( relationshipGroups )
+        {
+            return;
+        }
+        while ( getHighId() <= RELATIONSHIP_GROUPS_RECORD )
+        {
+            setRecord( nextId(), 0 );
+        }
+        setRecord( RELATIONSHIP_GROUPS_RECORD, 1 );
+        // written before any group is, so that it survives a crash
+        super.flushAll();
+        relationshipGroups = true;
+    }
+
+    public static int getDenseNodeThreshold( Map<?,?> config )
+    {
+        String threshold = config != null ?
+            (String) config.get( Config.DENSE_NODE_THRESHOLD ) : null;
+        if ( threshold == null )
+        {
+            return 0;
+        }
+        int value = Integer.parseInt( threshold );
+        if ( value < 0 )
+        {
+            throw new IllegalArgumentException( Config.DENSE_NODE_THRESHOLD +
+                " must not be negative, was " + value );
+        }
+        return value;
+    }
+
     @Override
     public List<WindowPoolStats> getAllWindowPoolStats()
     {
@@ -0,0 +1,502 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.neo4j.kernel.Config;
+
+/**
+ * A page cache shared by all the stores of a {@link NeoStore}. Instead of
+ * giving each store a fixed amount of memory for its
+ * {@link PersistenceWindowPool} the page cache has one memory budget split up
+ * into fixed size off-heap frames. Any store can have its pages loaded into
+ * any frame so the pages that are used the most get to stay in memory
+ * regardless of which store file they belong to.
+ * <p>
+ * Frames are recycled using CLOCK (second chance) eviction. A page that is
+ * in use is pinned and will never be evicted, a page that has been used since
+ * the clock hand last passed it gets a second chance.
+ * <p>
+ * The page cache is enabled by setting {@link Config#PAGE_CACHE_MEMORY} and
+ * is passed to the stores in the configuration map (keyed by this class).
+ */
+public class PageCache
+{
+    public static final int DEFAULT_PAGE_SIZE = 64 * 1024;
+    private static final int MIN_PAGE_COUNT = 16;
+
+    private static Logger log = Logger.getLogger( PageCache.class.getName() );
+
+    private final long availableMem;
+    private final int pageSize;
+    private final ByteBuffer[] frameBuffers;
+    private final CachedPage[] frames;
+    private final LinkedList<Integer> freeFrames = new LinkedList<Integer>();
+    private final byte[] zeroes;
+    private int allocatedFrames = 0;
+    private int frameLimit;
+    private int clockHand = 0;
+    // threads waiting in claimFrame for a page to be unpinned
+    private volatile int waitingForFrame = 0;
+    private int evictions = 0;
+    private int ooe = 0;
+
+    /**
+     * Creates a new page cache.
+     *
+     * @param availableMem
+     *            The total number of bytes the page cache may use
+     * @param pageSize
+     *            The size of each page in bytes
+     */
+    public PageCache( long availableMem, int pageSize )
+    {
+        if ( pageSize <= 0 )
+        {
+            throw new IllegalArgumentException( "Illegal page size "
+                + pageSize );
+        }
+        long pageCount = availableMem / pageSize;
+        if ( pageCount < MIN_PAGE_COUNT )
+        {
+            throw new IllegalArgumentException( "Unable to use "
+                + availableMem + "b as page cache, need at least "
+                + ((long) pageSize * MIN_PAGE_COUNT) + "b (page size * "
+                + MIN_PAGE_COUNT + ")" );
+        }
+        if ( pageCount > Integer.MAX_VALUE )
+        {
+            pageCount = Integer.MAX_VALUE;
+        }
+        this.availableMem = availableMem;
+        this.pageSize = pageSize;
+        this.frameBuffers = new ByteBuffer[(int) pageCount];
+        this.frames = new CachedPage[(int) pageCount];
+        this.frameLimit = frames.length;
+        this.zeroes = new byte[pageSize];
+    }
+
+    /**
+     * Creates the page cache described by <CODE>config</CODE>.
+     *
+     * @param config
+     *            Map of configuration parameters
+     * @return a new page cache or <CODE>null</CODE> if no (or not enough)
+     *         memory has been configured for the page cache
+     */
+    public static PageCache fromConfig( Map<?,?> config )
+    {
+        long mem = CommonAbstractStore.parseMemorySize(
+            (String) config.get( Config.PAGE_CACHE_MEMORY ),
+            Config.PAGE_CACHE_MEMORY );
+        if ( mem <= 0 )
+        {
+            return null;
+        }
+        int pageSize = (int) CommonAbstractStore.parseMemorySize(
+            (String) config.get( Config.PAGE_CACHE_PAGE_SIZE ),
+            Config.PAGE_CACHE_PAGE_SIZE );
+        if ( pageSize <= 0 )
+        {
+            pageSize = DEFAULT_PAGE_SIZE;
+        }
+        try
+        {
+            PageCache pageCache = new PageCache( mem, pageSize );
+            log.fine( "Page cache using " + mem + "b in "
+                + pageCache.frames.length + " pages of " + pageSize + "b" );
+            return pageCache;
+        }
+        catch ( IllegalArgumentException e )
+        {
+            log.warning( e.getMessage() );
+            log.warning( "Page cache has been turned off" );
+            return null;
+        }
+    }
+
+    public int getPageSize()
+    {
+        return pageSize;
+    }
+
+    public int getPageCount()
+    {
+        return frames.length;
+    }
+
+    public long getAvailableMem()
+    {
+        return availableMem;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if a store with records of
+     * <CODE>recordSize</CODE> bytes can be cached by this page cache.
+     *
+     * @param recordSize
+     *            The size of each record/block in the store
+     * @return <CODE>true</CODE> if at least one record fits in a page
+     */
+    public boolean canCache( int recordSize )
+    {
+        return recordSize > 0 && recordSize <= pageSize;
+    }
+
+    /**
+     * Creates a window pool for a store that keeps its pages in this cache.
+     *
+     * @param storeName
+     *            Name of store that use this pool
+     * @param recordSize
+     *            The size of each record/block in the store
+     * @param fileChannel
+     *            A fileChannel to the store
+     * @param readOnly
+     *            If the store is opened read only
+     * @return a window pool for the store
+     */
+    public WindowPool newWindowPool( String storeName, int recordSize,
+        FileChannel fileChannel, boolean readOnly )
+    {
+        if ( !canCache( recordSize ) )
+        {
+            throw new IllegalArgumentException( "Record size " + recordSize
+                + " of " + storeName + " does not fit in page size "
+                + pageSize );
+        }
+        return new PagedWindowPool( this, storeName, recordSize,
+            pageSize / recordSize, fileChannel, readOnly );
+    }
+
+    /**
+     * Returns the page for <CODE>pageId</CODE> of <CODE>pool</CODE> pinned
+     * and marked, loading it into a frame if needed. The caller must lock the
+     * page (and load it if not yet loaded) before using it and unpin it after.
+     * A hit on a page that is in the cache doesn't take the lock of the page
+     * cache.
+     */
+    CachedPage pin( PagedWindowPool pool, long pageId )
+    {
+        CachedPage page = pool.getPage( pageId );
+        if ( page != null && page.pin() )
+        {
+            pool.hit();
+        }
+        else
+        {
+            page = pinOnMiss( pool, pageId );
+        }
+        page.referenced = true;
+        if ( page.hits < Integer.MAX_VALUE )
+        {
+            page.hits++;
+        }
+        page.mark();
+        return page;
+    }
+
+    /**
+     * Pins the page after a miss, claiming a frame and clearing it without
+     * holding the lock of the page cache and then adding the page, unless
+     * another thread added it meanwhile.
+     */
+    private CachedPage pinOnMiss( PagedWindowPool pool, long pageId )
+    {
+        CachedPage page = null;
+        while ( true )
+        {
+            synchronized ( this )
+            {
+                CachedPage cached = pinOrAwaitEviction( pool, pageId );
+                if ( cached != null )
+                {
+                    if ( page != null )
+                    {
+                        freeFrames.add( page.getFrame() );
+                        notifyAll();
+                    }
+                    pool.hit();
+                    return cached;
+                }
+                if ( page != null )
+                {
+                    frames[page.getFrame()] = page;
+                    pool.putPage( page );
+                    pool.miss();
+                    return page;
+                }
+            }
+            int frame = claimFrame();
+            page = new CachedPage( pool, pageId, frame, pool.getRecordSize(),
+                pool.getRecordsPerPage(), pool.getFileChannel(),
+                clearedFrameBuffer( frame, pool ) );
+            page.pin();
+        }
+    }
+
+    /**
+     * Pins the cached page for <CODE>pageId</CODE>, waiting for it to be
+     * written out and removed if it's being evicted. Called holding the lock
+     * of the page cache.
+     *
+     * @return the pinned page or <CODE>null</CODE> if it isn't cached
+     */
+    private CachedPage pinOrAwaitEviction( PagedWindowPool pool, long pageId )
+    {
+        boolean interrupted = false;
+        try
+        {
+            CachedPage page = pool.getPage( pageId );
+            while ( page != null && !page.pin() )
+            {
+                try
+                {
+                    wait();
+                }
+                catch ( InterruptedException e )
+                {
+                    interrupted = true;
+                }
+                page = pool.getPage( pageId );
+            }
+            return page;
+        }
+        finally
+        {
+            if ( interrupted )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    void unpin( CachedPage page )
+    {
+        if ( page.unpin() && waitingForFrame > 0 )
+        {
+            synchronized ( this )
+            {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Pins at most <CODE>maxPages</CODE> dirty pages of <CODE>pool</CODE> so
+     * they can be written out by the caller.
+     */
+    List<CachedPage> pinDirtyPages( PagedWindowPool pool, int maxPages )
+    {
+        List<CachedPage> dirtyPages = new ArrayList<CachedPage>();
+        for ( CachedPage page : pool.getPages() )
+        {
+            if ( dirtyPages.size() >= maxPages )
+            {
+                break;
+            }
+            if ( page.isDirty() && page.pin() )
+            {
+                page.mark();
+                dirtyPages.add( page );
+            }
+        }
+        return dirtyPages;
+    }
+
+    /**
+     * Gives back all frames used by <CODE>pool</CODE>, pages must have been
+     * flushed before.
+     */
+    synchronized void evictAll( PagedWindowPool pool )
+    {
+        for ( CachedPage page : new ArrayList<CachedPage>( pool.getPages() ) )
+        {
+            page.evictIfUnpinned();
+            pool.removePage( page );
+            frames[page.getFrame()] = null;
+            freeFrames.add( page.getFrame() );
+        }
+        notifyAll();
+    }
+
+    synchronized int getEvictions()
+    {
+        return evictions;
+    }
+
+    synchronized int getOomCount()
+    {
+        return ooe;
+    }
+
+    /**
+     * Claims a free frame, allocating or evicting one if needed. The page
+     * of an evicted frame is written out after the lock of the page cache
+     * has been released.
+     */
+    private int claimFrame()
+    {
+        CachedPage victim;
+        synchronized ( this )
+        {
+            boolean interrupted = false;
+            waitingForFrame++;
+            try
+            {
+                while ( true )
+                {
+                    if ( !freeFrames.isEmpty() )
+                    {
+                        return freeFrames.removeFirst();
+                    }
+                    if ( allocatedFrames < frameLimit )
+                    {
+                        try
+                        {
+                            frameBuffers[allocatedFrames] =
+                                ByteBuffer.allocateDirect( pageSize );
+                            return allocatedFrames++;
+                        }
+                        catch ( OutOfMemoryError e )
+                        {
+                            ooe++;
+                            if ( allocatedFrames == 0 )
+                            {
+                                throw new UnderlyingStorageException(
+                                    "Unable to allocate direct buffer for page cache", e );
+                            }
+                            log.warning( "Unable to allocate direct buffer for page "
+                                + "cache, continuing with " + allocatedFrames
+                                + " pages" );
+                            frameLimit = allocatedFrames;
+                        }
+                    }
+                    victim = sweep();
+                    if ( victim != null )
+                    {
+                        break;
+                    }
+                    // every page is pinned, wait for one to be unpinned
+                    try
+                    {
+                        wait();
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        interrupted = true;
+                    }
+                }
+            }
+            finally
+            {
+                waitingForFrame--;
+                if ( interrupted )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        evict( victim );
+        return victim.getFrame();
+    }
+
+    /**
+     * @return a page that has been evicted, but not yet written out and
+     *         removed, or <CODE>null</CODE> if all pages are pinned
+     */
+    private CachedPage sweep()
+    {
+        int frameCount = allocatedFrames;
+        for ( int i = 0; i < frameCount * 2; i++ )
+        {
+            int frame = clockHand;
+            clockHand = (clockHand + 1) % frameCount;
+            CachedPage page = frames[frame];
+            if ( page == null || page.isPinned() )
+            {
+                continue;
+            }
+            if ( page.referenced )
+            {
+                page.referenced = false;
+                continue;
+            }
+            if ( page.evictIfUnpinned() )
+            {
+                return page;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes out the evicted page if it's dirty and then removes it, or
+     * cancels the eviction if it can't be written out. Threads waiting to
+     * pin the page load it again once it has been removed.
+     */
+    private void evict( CachedPage page )
+    {
+        boolean written = false;
+        try
+        {
+            if ( page.isDirty() )
+            {
+                page.getPool().writeOut( page );
+                page.setClean();
+            }
+            written = true;
+        }
+        finally
+        {
+            synchronized ( this )
+            {
+                if ( written )
+                {
+                    page.getPool().removePage( page );
+                    frames[page.getFrame()] = null;
+                    evictions++;
+                }
+                else
+                {
+                    page.cancelEviction();
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    private ByteBuffer clearedFrameBuffer( int frame, PagedWindowPool pool )
+    {
+        ByteBuffer buffer = frameBuffers[frame].duplicate();
+        buffer.clear();
+        buffer.put( zeroes );
+        buffer.clear();
+        buffer.limit( pool.getRecordsPerPage() * pool.getRecordSize() );
+        return buffer.slice();
+    }
+}
@@ -0,0 +1,306 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.neo4j.helpers.Counter;
+
+/**
+ * The {@link WindowPool} of a store that keeps its pages in a shared
+ * {@link PageCache}. The page cache adds and removes the pages of this pool
+ * holding its lock, but looks them up without it, this class only knows how
+ * to map record positions to pages and how to read and write pages of its
+ * store file.
+ */
+class PagedWindowPool implements WindowPool
+{
+    private final PageCache pageCache;
+    private final String storeName;
+    private final int recordSize;
+    private final int recordsPerPage;
+    private final boolean readOnly;
+    private FileChannel fileChannel;
+
+    // changed holding the lock of pageCache
+    private final ConcurrentMap<Long,CachedPage> pages =
+        new ConcurrentHashMap<Long,CachedPage>();
+    private final Counter hit = Counter.striped();
+    private final Counter miss = Counter.atomic();
+
+    PagedWindowPool( PageCache pageCache, String storeName, int recordSize,
+        int recordsPerPage, FileChannel fileChannel, boolean readOnly )
+    {
+        this.pageCache = pageCache;
+        this.storeName = storeName;
+        this.recordSize = recordSize;
+        this.recordsPerPage = recordsPerPage;
+        this.fileChannel = fileChannel;
+        this.readOnly = readOnly;
+    }
+
+    public PersistenceWindow acquire( long position, OperationType operationType )
+    {
+        CachedPage page = pageCache.pin( this, position / recordsPerPage );
+        page.lock();
+        if ( !page.loaded )
+        {
+            try
+            {
+                page.readPosition();
+            }
+            catch ( UnderlyingStorageException e )
+            {
+                release( page );
+                throw e;
+            }
+            page.loaded = true;
+        }
+        page.setOperationType( operationType );
+        return page;
+    }
+
+    public void release( PersistenceWindow window )
+    {
+        CachedPage page = (CachedPage) window;
+        if ( page.getOperationType() == OperationType.WRITE )
+        {
+            page.setDirty();
+        }
+        page.unLock();
+        pageCache.unpin( page );
+    }
+
+    public void flushAll()
+    {
+        if ( readOnly )
+        {
+            return;
+        }
+        writeBack( pageCache.pinDirtyPages( this, Integer.MAX_VALUE ) );
+        try
+        {
+            fileChannel.force( false );
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException(
+                "Failed to flush file channel " + storeName, e );
+        }
+    }
+
+    public long writeBehind( long maxBytes )
+    {
+        if ( readOnly || maxBytes <= 0 )
+        {
+            return 0;
+        }
+        int pageSize = pageCache.getPageSize();
+        int maxPages = (int) Math.min( Integer.MAX_VALUE,
+            (maxBytes + pageSize - 1) / pageSize );
+        List<CachedPage> dirtyPages = pageCache.pinDirtyPages( this, maxPages );
+        writeBack( dirtyPages );
+        return (long) dirtyPages.size() * pageSize;
+    }
+
+    public void readAhead( long position, int records )
+    {
+        // don't let a scan push out more than a quarter of the cache
+        long pages = Math.min( (records + recordsPerPage - 1) / recordsPerPage,
+            pageCache.getPageCount() / 4 );
+        long firstPage = position / recordsPerPage;
+        for ( long pageId = firstPage; pageId < firstPage + pages; pageId++ )
+        {
+            release( acquire( pageId * recordsPerPage, OperationType.READ ) );
+        }
+    }
+
+    public void fileGrown( long fileSize )
+    {
+        // pages are read as they are accessed, nothing to set up
+    }
+
+    public HeatMap getHeatMap()
+    {
+        List<CachedPage> cached = new ArrayList<CachedPage>( pages.values() );
+        long maxPageId = -1;
+        for ( CachedPage page : cached )
+        {
+            maxPageId = Math.max( maxPageId, page.getPageId() );
+        }
+        int[] heat = new int[(int) (maxPageId + 1)];
+        for ( CachedPage page : cached )
+        {
+            // the page is in the cache so it has been used at least once
+            heat[(int) page.getPageId()] = Math.max( 1, page.hits );
+        }
+        return new HeatMap( pageCache.getPageSize(), heat );
+    }
+
+    public void warmUp( HeatMap heatMap )
+    {
+        long fileSize;
+        try
+        {
+            fileSize = fileChannel.size();
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException(
+                "Unable to get file size for " + storeName, e );
+        }
+        int pageSize = pageCache.getPageSize();
+        final int[] heat = heatMap.toRegions( pageSize,
+            (int) ((fileSize + pageSize - 1) / pageSize) );
+        List<Integer> hotPages = new ArrayList<Integer>();
+        for ( int pageId = 0; pageId < heat.length; pageId++ )
+        {
+            if ( heat[pageId] > 0 )
+            {
+                hotPages.add( pageId );
+            }
+        }
+        Collections.sort( hotPages, new Comparator<Integer>()
+        {
+            public int compare( Integer o1, Integer o2 )
+            {
+                return heat[o2] - heat[o1];
+            }
+        } );
+        // loading more pages than the cache holds would only evict the
+        // hottest ones again
+        int pages = Math.min( hotPages.size(), pageCache.getPageCount() );
+        for ( int i = 0; i < pages; i++ )
+        {
+            release( acquire( (long) hotPages.get( i ) * recordsPerPage,
+                OperationType.READ ) );
+        }
+    }
+
+    private void writeBack( List<CachedPage> dirtyPages )
+    {
+        for ( CachedPage page : dirtyPages )
+        {
+            page.lock();
+            try
+            {
+                page.setClean();
+                writeOut( page );
+            }
+            finally
+            {
+                page.unLock();
+                pageCache.unpin( page );
+            }
+        }
+    }
+
+    public void close()
+    {
+        flushAll();
+        pageCache.evictAll( this );
+        fileChannel = null;
+    }
+
+    public WindowPoolStats getStats()
+    {
+        int pageCount = 0;
+        int dirty = 0;
+        for ( CachedPage page : pages.values() )
+        {
+            pageCount++;
+            if ( page.isDirty() )
+            {
+                dirty++;
+            }
+        }
+        return new WindowPoolStats( storeName,
+            pageCache.getAvailableMem(),
+            (long) pageCount * pageCache.getPageSize(), pageCount,
+            pageCache.getPageSize(), (int) hit.count(), (int) miss.count(),
+            pageCache.getOomCount(), dirty );
+    }
+
+    void writeOut( CachedPage page )
+    {
+        if ( !readOnly && page.loaded )
+        {
+            page.writeOut();
+        }
+    }
+
+    String getStoreName()
+    {
+        return storeName;
+    }
+
+    int getRecordSize()
+    {
+        return recordSize;
+    }
+
+    int getRecordsPerPage()
+    {
+        return recordsPerPage;
+    }
+
+    FileChannel getFileChannel()
+    {
+        return fileChannel;
+    }
+
+    CachedPage getPage( long pageId )
+    {
+        return pages.get( pageId );
+    }
+
+    void putPage( CachedPage page )
+    {
+        pages.put( page.getPageId(), page );
+    }
+
+    void removePage( CachedPage page )
+    {
+        pages.remove( page.getPageId(), page );
+    }
+
+    Collection<CachedPage> getPages()
+    {
+        return pages.values();
+    }
+
+    void hit()
+    {
+        hit.inc();
+    }
+
+    void miss()
+    {
+        miss.inc();
+    }
+}
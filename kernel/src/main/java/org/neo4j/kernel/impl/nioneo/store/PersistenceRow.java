@@ -36,6 +36,13 @@ class PersistenceRow extends LockableWindow
     private final Buffer buffer;
 
     PersistenceRow( long position, int recordSize, FileChannel channel )
+    {
+        this( position, recordSize, channel,
+            ByteBuffer.allocate( recordSize ) );
+    }
+
+    PersistenceRow( long position, int recordSize, FileChannel channel,
+        ByteBuffer byteBuffer )
     {
         super( channel );
         assert position >= 0 : "Illegal position[" + position + "]";
@@ -44,7 +51,7 @@ class PersistenceRow extends LockableWindow
 
         this.position = position;
         this.recordSize = recordSize;
-        this.buffer = new Buffer( this, ByteBuffer.allocate( recordSize ) );
+        this.buffer = new Buffer( this, byteBuffer );
         // this.buffer.setByteBuffer( ByteBuffer.allocate( recordSize ) );
     }
 
@@ -21,12 +21,15 @@ package org.neo4j.kernel.impl.nioneo.store;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,7 +41,7 @@ import java.util.logging.Logger;
  * that the most frequently used records/blocks (be it for read or write
  * operations) are encapsulated by a memory mapped persistence window.
  */
-public class PersistenceWindowPool
+public class PersistenceWindowPool implements WindowPool
 {
     private static final int MAX_BRICK_COUNT = 100000;
 
@@ -48,16 +51,20 @@ public class PersistenceWindowPool
     private FileChannel fileChannel;
     private final Map<Integer,PersistenceRow> activeRowWindows =
         new HashMap<Integer,PersistenceRow>();
+    private final RowBufferPool rowBuffers;
     private long availableMem = 0;
     private long memUsed = 0;
     private int brickCount = 0;
     private int brickSize = 0;
-    private BrickElement brickArray[] = new BrickElement[0];
-    private int brickMiss = 0;
+    // written holding the pool lock, read without it when acquiring
+    private volatile BrickElement brickArray[] = new BrickElement[0];
+    private volatile int brickMiss = 0;
+    private int writeBehindIndex = 0;
 
     private static Logger log = Logger.getLogger( PersistenceWindowPool.class
         .getName() );
     private static final int REFRESH_BRICK_COUNT = 50000;
+    private static final int READ_AHEAD_BUFFER_SIZE = 64 * 1024;
     private final FileChannel.MapMode mapMode;
 
     private int hit = 0;
@@ -100,6 +107,7 @@ public class PersistenceWindowPool
         {
             mapMode = FileChannel.MapMode.READ_WRITE;
         }
+        this.rowBuffers = new RowBufferPool( blockSize, fileChannel );
         setupBricks();
         dumpStatus();
     }
@@ -118,78 +126,86 @@ public class PersistenceWindowPool
      */
     public PersistenceWindow acquire( long position, OperationType operationType )
     {
+        if ( brickMiss >= REFRESH_BRICK_COUNT )
+        {
+            refreshBricks();
+        }
         LockableWindow window = null;
-        boolean readPos = false;
-//        synchronized ( activeRowWindows )
-//        {
-            if ( brickMiss >= REFRESH_BRICK_COUNT )
-            {
-//                brickMiss = 0;
-                refreshBricks();
-            }
-            if ( brickSize > 0 )
+        if ( brickSize > 0 )
+        {
+            int brickIndex = (int) (position * blockSize / brickSize);
+            BrickElement[] bricks = brickArray;
+            if ( brickIndex < bricks.length )
             {
-                int brickIndex = (int) (position * blockSize / brickSize);
-                if ( brickIndex < brickArray.length )
-                {
-                    synchronized ( this )
-                    {
-                        window = brickArray[brickIndex].getWindow();
-                        if ( window != null )
-                        {
-                            window.mark();
-                        }
-                    }
-                    // assert window == null || window.encapsulates( position );
-                    brickArray[brickIndex].setHit();
-                }
-                else
+                // fast path, a hit on a mapped brick doesn't take the pool lock
+                window = bricks[brickIndex].getWindow();
+                if ( window != null && !window.markIfNotEvicted() )
                 {
-                    expandBricks( brickIndex + 1 );
-                    window = brickArray[brickIndex].getWindow();
+                    window = null;
                 }
+                // assert window == null || window.encapsulates( position );
+                bricks[brickIndex].setHit();
             }
-            if ( window == null )
-            {
-                synchronized ( this )
-                {
-                    miss++;
-                    brickMiss++;
-
-                    PersistenceRow dpw = activeRowWindows.get( (int) position );
+        }
+        if ( window == null )
+        {
+            window = acquireOnMiss( position );
+        }
+        else
+        {
+            hit++;
+        }
+        window.lock();
+        if ( operationType == OperationType.READ
+            && window instanceof PersistenceRow )
+        {
+            rowBuffers.read( position, window.getBuffer().getBuffer() );
+        }
+        window.setOperationType( operationType );
+        return window;
+    }
 
-                    if ( dpw == null )
-                    {
-                        dpw = new PersistenceRow( position, blockSize,
-                            fileChannel );
-                    }
-                    if ( operationType == OperationType.READ )
-                    {
-                        readPos = true;
-                    }
-                    window = dpw;
-                    activeRowWindows.put( (int) position, dpw );
-                    window.mark();
-                }
+    /**
+     * Looks up the window for <CODE>position</CODE> holding the pool lock,
+     * expanding the bricks if needed and falling back to a
+     * {@link PersistenceRow} if the position isn't mapped. The returned window
+     * is marked.
+     */
+    private synchronized LockableWindow acquireOnMiss( long position )
+    {
+        if ( brickSize > 0 )
+        {
+            int brickIndex = (int) (position * blockSize / brickSize);
+            if ( brickIndex >= brickArray.length )
+            {
+                expandBricks( brickIndex + 1 );
             }
-            else
+            LockableWindow window = brickArray[brickIndex].getWindow();
+            if ( window != null && window.markIfNotEvicted() )
             {
                 hit++;
+                return window;
             }
-//        }
-        window.lock();
-        if ( readPos )
+        }
+        miss++;
+        brickMiss++;
+
+        PersistenceRow dpw = activeRowWindows.get( (int) position );
+        if ( dpw == null )
         {
-            ((PersistenceRow) window).readPosition();
+            dpw = new PersistenceRow( position, blockSize, fileChannel,
+                rowBuffers.allocate() );
+            activeRowWindows.put( (int) position, dpw );
         }
-        window.setOperationType( operationType );
-        return window;
+        dpw.mark();
+        return dpw;
     }
 
     void dumpStatistics()
     {
         log.finest( storeName + " hit=" + hit + " miss=" + miss + " switches="
-            + switches + " ooe=" + ooe );
+            + switches + " ooe=" + ooe + " rowBlockHits="
+            + rowBuffers.getReadBlockHits() );
     }
 
     /**
@@ -207,23 +223,37 @@ public class PersistenceWindowPool
         {
             PersistenceRow dpw = (PersistenceRow) window;
             dpw.writeOut();
+            if ( dpw.getOperationType() == OperationType.WRITE )
+            {
+                rowBuffers.written( dpw.position(), dpw.getBuffer().getBuffer() );
+            }
+            boolean removed = false;
             synchronized ( this )
             {
                 if ( dpw.getWaitingThreadsCount() == 0 && !dpw.isMarked() )
                 {
                     int key = (int) dpw.position();
-                    activeRowWindows.remove( key );
+                    removed = activeRowWindows.remove( key ) != null;
                 }
             }
             dpw.unLock();
+            if ( removed && dpw.evictIfUnused() )
+            {
+                rowBuffers.recycle( dpw.getBuffer().getBuffer() );
+            }
         }
         else
         {
-            ((LockableWindow) window).unLock();
+            LockableWindow lockableWindow = (LockableWindow) window;
+            if ( lockableWindow.getOperationType() == OperationType.WRITE )
+            {
+                lockableWindow.setDirty();
+            }
+            lockableWindow.unLock();
         }
     }
 
-    synchronized void close()
+    public synchronized void close()
     {
         flushAll();
 //        synchronized ( activeRowWindows )
@@ -243,21 +273,19 @@ public class PersistenceWindowPool
         dumpStatistics();
     }
 
-    void flushAll()
+    public void flushAll()
     {
         if ( readOnly ) return;
 
-        //        synchronized ( activeRowWindows )
-//        {
-            for ( BrickElement element : brickArray )
+        for ( BrickElement element : brickArray )
+        {
+            LockableWindow window = element.getWindow();
+            if ( window != null && window.isDirty() )
             {
-                PersistenceWindow window = element.getWindow();
-                if ( window != null )
-                {
-                    window.force();
-                }
+                window.setClean();
+                window.force();
             }
-//        }
+        }
         try
         {
             fileChannel.force( false );
@@ -269,11 +297,268 @@ public class PersistenceWindowPool
         }
     }
 
+    public long writeBehind( long maxBytes )
+    {
+        if ( readOnly ) return 0;
+
+        long written = 0;
+        while ( written < maxBytes )
+        {
+            LockableWindow window = nextDirtyWindow();
+            if ( window == null )
+            {
+                break;
+            }
+            window.lock();
+            try
+            {
+                window.setClean();
+                window.force();
+            }
+            finally
+            {
+                window.unLock();
+            }
+            written += brickSize;
+        }
+        return written;
+    }
+
+    public void readAhead( long position, int records )
+    {
+        long end = position + records;
+        while ( position < end )
+        {
+            LockableWindow window = null;
+            long nextPosition = end;
+            if ( brickSize > 0 )
+            {
+                int brickIndex = (int) (position * blockSize / brickSize);
+                BrickElement[] bricks = brickArray;
+                if ( brickIndex < bricks.length )
+                {
+                    window = bricks[brickIndex].getWindow();
+                    if ( window != null && !window.markIfNotEvicted() )
+                    {
+                        window = null;
+                    }
+                }
+                nextPosition = Math.min( end,
+                    (brickIndex + 1L) * brickSize / blockSize );
+            }
+            if ( window != null )
+            {
+                window.lock();
+                try
+                {
+                    if ( window instanceof MappedPersistenceWindow )
+                    {
+                        ((MappedPersistenceWindow) window).load();
+                    }
+                }
+                finally
+                {
+                    window.unLock();
+                }
+            }
+            else if ( !readFileAhead( position, nextPosition ) )
+            {
+                return;
+            }
+            position = nextPosition;
+        }
+    }
+
+    /**
+     * Reads the records that will be read through rows so that they are in
+     * the file system cache when needed.
+     *
+     * @return <CODE>false</CODE> if the end of the file was reached
+     */
+    private boolean readFileAhead( long from, long to )
+    {
+        long bytes = (to - from) * blockSize;
+        ByteBuffer buffer = ByteBuffer.allocate( (int) Math.min( bytes,
+            READ_AHEAD_BUFFER_SIZE ) );
+        long filePosition = from * blockSize;
+        long endPosition = filePosition + bytes;
+        try
+        {
+            while ( filePosition < endPosition )
+            {
+                buffer.clear();
+                if ( endPosition - filePosition < buffer.capacity() )
+                {
+                    buffer.limit( (int) (endPosition - filePosition) );
+                }
+                int count = fileChannel.read( buffer, filePosition );
+                if ( count <= 0 )
+                {
+                    return false;
+                }
+                filePosition += count;
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException( "Unable to read ahead "
+                + storeName + " @[" + filePosition + "]", e );
+        }
+        return true;
+    }
+
+    public synchronized void fileGrown( long fileSize )
+    {
+        if ( brickSize <= 0 )
+        {
+            // memory mapped turned off
+            return;
+        }
+        // only whole bricks, mapping one that reaches past the end of the
+        // file would grow the file again
+        expandBricks( (int) Math.min( MAX_BRICK_COUNT, fileSize / brickSize ) );
+    }
+
+    public HeatMap getHeatMap()
+    {
+        if ( brickSize <= 0 )
+        {
+            return null;
+        }
+        BrickElement[] bricks = brickArray;
+        int[] heat = new int[bricks.length];
+        for ( int i = 0; i < bricks.length; i++ )
+        {
+            heat[i] = bricks[i].getHit();
+        }
+        return new HeatMap( brickSize, heat );
+    }
+
+    public void warmUp( HeatMap heatMap )
+    {
+        for ( LockableWindow window : mapHottestBricks( heatMap ) )
+        {
+            window.lock();
+            try
+            {
+                if ( window instanceof MappedPersistenceWindow )
+                {
+                    ((MappedPersistenceWindow) window).load();
+                }
+            }
+            finally
+            {
+                window.unLock();
+            }
+        }
+    }
+
+    /**
+     * Adds the heat of <CODE>heatMap</CODE> to the bricks and maps the
+     * hottest of the bricks that aren't mapped as long as there's memory
+     * left. The new windows are marked so that they can't be evicted before
+     * they have been loaded.
+     */
+    private synchronized List<LockableWindow> mapHottestBricks( HeatMap heatMap )
+    {
+        List<LockableWindow> windows = new ArrayList<LockableWindow>();
+        if ( brickSize <= 0 || fileChannel == null )
+        {
+            return windows;
+        }
+        long fileSize;
+        try
+        {
+            fileSize = fileChannel.size();
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException(
+                "Unable to get file size for " + storeName, e );
+        }
+        // the bricks are normally added as the file is accessed, but the
+        // hot ones may well be past the current bricks
+        int fileBrickCount = (int) Math.min( MAX_BRICK_COUNT,
+            fileSize / brickSize );
+        if ( fileBrickCount > brickCount )
+        {
+            BrickElement tmpArray[] = new BrickElement[fileBrickCount];
+            System.arraycopy( brickArray, 0, tmpArray, 0, brickArray.length );
+            for ( int i = brickArray.length; i < tmpArray.length; i++ )
+            {
+                tmpArray[i] = new BrickElement( i );
+            }
+            brickArray = tmpArray;
+            brickCount = tmpArray.length;
+        }
+        int[] heat = heatMap.toRegions( brickSize, brickCount );
+        ArrayList<BrickElement> nonMappedBricks = new ArrayList<BrickElement>();
+        for ( int i = 0; i < brickCount; i++ )
+        {
+            BrickElement be = brickArray[i];
+            be.addHit( heat[i] );
+            if ( be.getWindow() == null && heat[i] > 0 )
+            {
+                nonMappedBricks.add( be );
+            }
+        }
+        Collections.sort( nonMappedBricks, new BrickSorter() );
+        for ( int i = nonMappedBricks.size() - 1; i >= 0 &&
+            memUsed + brickSize <= availableMem; i-- )
+        {
+            BrickElement nonMappedBrick = nonMappedBricks.get( i );
+            try
+            {
+                LockableWindow window = allocateNewWindow(
+                    nonMappedBrick.index() );
+                window.mark();
+                nonMappedBrick.setWindow( window );
+                memUsed += brickSize;
+                windows.add( window );
+            }
+            catch ( MappedMemException e )
+            {
+                ooe++;
+                logWarn( "Unable to memory map", e );
+                break;
+            }
+            catch ( OutOfMemoryError e )
+            {
+                ooe++;
+                logWarn( "Unable to allocate direct buffer", e );
+                break;
+            }
+        }
+        return windows;
+    }
+
+    /**
+     * Finds the next dirty window after the one last written back, marking it
+     * so it can't be evicted before it has been locked.
+     */
+    private synchronized LockableWindow nextDirtyWindow()
+    {
+        for ( int i = 0; i < brickCount; i++ )
+        {
+            if ( writeBehindIndex >= brickCount )
+            {
+                writeBehindIndex = 0;
+            }
+            LockableWindow window = brickArray[writeBehindIndex++].getWindow();
+            if ( window != null && window.isDirty()
+                && window.markIfNotEvicted() )
+            {
+                return window;
+            }
+        }
+        return null;
+    }
+
     private static class BrickElement
     {
         private final int index;
-        private int hitCount;
-        private LockableWindow window = null;
+        private final AtomicInteger hitCount = new AtomicInteger();
+        private volatile LockableWindow window = null;
 
         BrickElement( int index )
         {
@@ -297,27 +582,34 @@ public class PersistenceWindowPool
 
         void setHit()
         {
-            hitCount += 10;
-            if ( hitCount < 0 )
+            if ( hitCount.addAndGet( 10 ) < 0 )
             {
-                hitCount -= 10;
+                hitCount.addAndGet( -10 );
+            }
+        }
+
+        void addHit( int heat )
+        {
+            if ( hitCount.addAndGet( heat ) < 0 )
+            {
+                hitCount.set( Integer.MAX_VALUE );
             }
         }
 
         int getHit()
         {
-            return hitCount;
+            return hitCount.get();
         }
 
         void refresh()
         {
             if ( window == null )
             {
-                hitCount /= 1.25;
+                hitCount.set( (int) (hitCount.get() / 1.25) );
             }
             else
             {
-                hitCount /= 1.15;
+                hitCount.set( (int) (hitCount.get() / 1.15) );
             }
         }
 
@@ -440,7 +732,7 @@ public class PersistenceWindowPool
         {
             BrickElement mappedBrick = mappedBricks.get( i );
             LockableWindow window = mappedBrick.getWindow();
-            if ( window.getWaitingThreadsCount() == 0 && !window.isMarked() )
+            if ( window.evictIfUnused() )
             {
                 if ( window instanceof MappedPersistenceWindow )
                 {
@@ -451,6 +743,7 @@ public class PersistenceWindowPool
                     ((PlainPersistenceWindow) window).writeOut();
                 }
                 mappedBrick.setWindow( null );
+                rowBuffers.invalidate();
                 memUsed -= brickSize;
             }
         }
@@ -525,7 +818,7 @@ public class PersistenceWindowPool
                 break;
             }
             LockableWindow window = mappedBrick.getWindow();
-            if ( window.getWaitingThreadsCount() == 0 && !window.isMarked() )
+            if ( window.evictIfUnused() )
             {
                 if ( window instanceof MappedPersistenceWindow )
                 {
@@ -536,6 +829,7 @@ public class PersistenceWindowPool
                     ((PlainPersistenceWindow) window).writeOut();
                 }
                 mappedBrick.setWindow( null );
+                rowBuffers.invalidate();
                 memUsed -= brickSize;
                 try
                 {
@@ -598,6 +892,8 @@ public class PersistenceWindowPool
 
     private LockableWindow allocateNewWindow( long brick )
     {
+        // records in the window are no longer read through rows
+        rowBuffers.invalidate();
         if ( useMemoryMapped )
         {
              return new MappedPersistenceWindow(
@@ -661,9 +957,18 @@ public class PersistenceWindowPool
         log.log( Level.WARNING, "[" + storeName + "] " + logMessage, cause );
     }
 
-    WindowPoolStats getStats()
+    public WindowPoolStats getStats()
     {
+        int dirty = 0;
+        for ( BrickElement element : brickArray )
+        {
+            LockableWindow window = element.getWindow();
+            if ( window != null && window.isDirty() )
+            {
+                dirty++;
+            }
+        }
         return new WindowPoolStats( storeName, availableMem, memUsed, brickCount,
-                brickSize, hit, miss, ooe );
+                brickSize, hit, miss, ooe, dirty );
     }
 }
\ No newline at end of file
@@ -37,6 +37,31 @@ public interface PropertyData
      */
     Object getValue();
 
+    /**
+     * @return the value of a byte, short, int or long property, without
+     * boxing it.
+     * @throws ClassCastException if the property is of any other type.
+     */
+    long getLongValue();
+
+    /**
+     * @return the value of a number property, without boxing it.
+     * @throws ClassCastException if the property is of any other type.
+     */
+    double getDoubleValue();
+
+    /**
+     * @return the value of a boolean property, without boxing it.
+     * @throws ClassCastException if the property is of any other type.
+     */
+    boolean getBooleanValue();
+
+    /**
+     * @return the estimated number of bytes this property takes up on the
+     * heap, including its value if loaded.
+     */
+    int size();
+
     /**
      * Sets the value of this {@link PropertyData} if it hasn't been set
      * before (light loading of the node). The instance containing the
@@ -19,10 +19,15 @@
  */
 package org.neo4j.kernel.impl.nioneo.store;
 
+import org.neo4j.kernel.impl.cache.SizeOf;
+
 public class PropertyDatas
 {
     private static abstract class PrimitivePropertyData implements PropertyData
     {
+        // index, id and a value of at most 8 bytes
+        private static final int SIZE = SizeOf.withObjectOverhead( 4 + 8 + 8 );
+
         private final int index;
         private final long id;
         
@@ -50,6 +55,30 @@ public class PropertyDatas
             throw new IllegalStateException( "This shouldn't be called, " +
             		"only valid on String/array types" );
         }
+
+        @Override
+        public long getLongValue()
+        {
+            throw notA( getValue(), "long" );
+        }
+
+        @Override
+        public double getDoubleValue()
+        {
+            throw notA( getValue(), "double" );
+        }
+
+        @Override
+        public boolean getBooleanValue()
+        {
+            throw notA( getValue(), "boolean" );
+        }
+
+        @Override
+        public int size()
+        {
+            return SIZE;
+        }
     }
     
     private static class BooleanPropertyData extends PrimitivePropertyData
@@ -68,6 +97,12 @@ public class PropertyDatas
         {
             return value;
         }
+
+        @Override
+        public boolean getBooleanValue()
+        {
+            return value;
+        }
     }
     
 //    private static class LowBooleanPropertyData extends PrimitivePropertyData
@@ -110,6 +145,18 @@ public class PropertyDatas
         {
             return value;
         }
+
+        @Override
+        public long getLongValue()
+        {
+            return value;
+        }
+
+        @Override
+        public double getDoubleValue()
+        {
+            return value;
+        }
     }
     
 //    private static class LowBytePropertyData extends PrimitivePropertyData
@@ -152,6 +199,18 @@ public class PropertyDatas
         {
             return value;
         }
+
+        @Override
+        public long getLongValue()
+        {
+            return value;
+        }
+
+        @Override
+        public double getDoubleValue()
+        {
+            return value;
+        }
     }
     
 //    private static class LowShortPropertyData extends PrimitivePropertyData
@@ -265,6 +324,18 @@ public class PropertyDatas
         {
             return value;
         }
+
+        @Override
+        public long getLongValue()
+        {
+            return value;
+        }
+
+        @Override
+        public double getDoubleValue()
+        {
+            return value;
+        }
     }
     
 //    private static class LowLongPropertyData extends PrimitivePropertyData
@@ -309,6 +380,18 @@ public class PropertyDatas
         {
             return value;
         }
+
+        @Override
+        public long getLongValue()
+        {
+            return value;
+        }
+
+        @Override
+        public double getDoubleValue()
+        {
+            return value;
+        }
     }
     
     private static class FloatPropertyData extends PrimitivePropertyData
@@ -326,6 +409,12 @@ public class PropertyDatas
         {
             return value;
         }
+
+        @Override
+        public double getDoubleValue()
+        {
+            return value;
+        }
     }
 
     private static class DoublePropertyData extends PrimitivePropertyData
@@ -344,6 +433,12 @@ public class PropertyDatas
         {
             return value;
         }
+
+        @Override
+        public double getDoubleValue()
+        {
+            return value;
+        }
     }
     
     private static class ObjectPropertyData implements PropertyData
@@ -381,6 +476,39 @@ public class PropertyDatas
         {
             this.value = newValue;
         }
+
+        @Override
+        public long getLongValue()
+        {
+            throw notA( value, "long" );
+        }
+
+        @Override
+        public double getDoubleValue()
+        {
+            throw notA( value, "double" );
+        }
+
+        @Override
+        public boolean getBooleanValue()
+        {
+            throw notA( value, "boolean" );
+        }
+
+        @Override
+        public int size()
+        {
+            return SizeOf.withObjectOverhead( 8 + 4 + SizeOf.REFERENCE )
+                + SizeOf.sizeOfValue( value );
+        }
+    }
+
+    private static ClassCastException notA( Object value, String type )
+    {
+        // The value of a string or array property is null until it's loaded
+        String valueType = value != null ? value.getClass().getSimpleName()
+                : "String or array";
+        return new ClassCastException( valueType + " property value can't be read as a " + type );
     }
     
     public static PropertyData forBoolean( int index, long id, boolean value )
@@ -32,9 +32,11 @@ import java.util.logging.Level;
 import org.neo4j.helpers.UTF8;
 import org.neo4j.kernel.IdGeneratorFactory;
 import org.neo4j.kernel.IdType;
+import org.neo4j.kernel.impl.util.LzfCodec;
 import org.neo4j.kernel.impl.util.StringLogger;
 
 import static org.neo4j.kernel.Config.ARRAY_BLOCK_SIZE;
+import static org.neo4j.kernel.Config.COMPRESS_PROPERTY_VALUES_OVER;
 import static org.neo4j.kernel.Config.STRING_BLOCK_SIZE;
 
 /**
@@ -57,10 +59,23 @@ public class PropertyStore extends AbstractStore implements Store
     private DynamicStringStore stringPropertyStore;
     private PropertyIndexStore propertyIndexStore;
     private DynamicArrayStore arrayPropertyStore;
+    // strings and arrays encoded to more bytes than this are compressed
+    private int compressValuesOver = -1;
 
     public PropertyStore( String fileName, Map<?,?> config )
     {
         super( fileName, config, IdType.PROPERTY );
+        String compressOver = config != null ?
+            (String) config.get( COMPRESS_PROPERTY_VALUES_OVER ) : null;
+        if ( compressOver != null )
+        {
+            compressValuesOver = Integer.parseInt( compressOver.trim() );
+            if ( compressValuesOver < 0 )
+            {
+                throw new IllegalArgumentException( COMPRESS_PROPERTY_VALUES_OVER +
+                    " must not be negative, was " + compressValuesOver );
+            }
+        }
     }
 
     @Override
@@ -342,7 +357,8 @@ public class PropertyStore extends AbstractStore implements Store
      */
     public void makeHeavy( PropertyBlock record )
     {
-        if ( record.getType() == PropertyType.STRING )
+        PropertyType type = record.getType();
+        if ( type == PropertyType.STRING || type == PropertyType.COMPRESSED_STRING )
         {
             Collection<DynamicRecord> stringRecords = stringPropertyStore.getLightRecords( record.getSingleValueLong() );
             for ( DynamicRecord stringRecord : stringRecords )
@@ -351,7 +367,7 @@ public class PropertyStore extends AbstractStore implements Store
                 record.addValueRecord( stringRecord );
             }
         }
-        else if ( record.getType() == PropertyType.ARRAY )
+        else if ( type == PropertyType.ARRAY || type == PropertyType.COMPRESSED_ARRAY )
         {
             Collection<DynamicRecord> arrayRecords = arrayPropertyStore.getLightRecords( record.getSingleValueLong() );
             for ( DynamicRecord arrayRecord : arrayRecords )
@@ -377,24 +393,7 @@ public class PropertyStore extends AbstractStore implements Store
         for ( PropertyBlock block : record.getPropertyBlocks() )
         {
             // assert block.inUse();
-            if ( block.getType() == PropertyType.STRING )
-            {
-                Collection<DynamicRecord> stringRecords = stringPropertyStore.getLightRecords( block.getSingleValueLong() );
-                for ( DynamicRecord stringRecord : stringRecords )
-                {
-                    stringRecord.setType( PropertyType.STRING.intValue() );
-                    block.addValueRecord( stringRecord );
-                }
-            }
-            else if ( block.getType() == PropertyType.ARRAY )
-            {
-                Collection<DynamicRecord> arrayRecords = arrayPropertyStore.getLightRecords( block.getSingleValueLong() );
-                for ( DynamicRecord arrayRecord : arrayRecords )
-                {
-                    arrayRecord.setType( PropertyType.ARRAY.intValue() );
-                    block.addValueRecord( arrayRecord );
-                }
-            }
+            makeHeavy( block );
         }
         return record;
     }
@@ -479,19 +478,61 @@ public class PropertyStore extends AbstractStore implements Store
     @Override
     public void makeStoreOk()
     {
-        propertyIndexStore.makeStoreOk();
-        stringPropertyStore.makeStoreOk();
-        arrayPropertyStore.makeStoreOk();
-        super.makeStoreOk();
+        inParallel( new Runnable()
+        {
+            public void run()
+            {
+                propertyIndexStore.makeStoreOk();
+            }
+        }, new Runnable()
+        {
+            public void run()
+            {
+                stringPropertyStore.makeStoreOk();
+            }
+        }, new Runnable()
+        {
+            public void run()
+            {
+                arrayPropertyStore.makeStoreOk();
+            }
+        }, new Runnable()
+        {
+            public void run()
+            {
+                PropertyStore.super.makeStoreOk();
+            }
+        } );
     }
 
     @Override
     public void rebuildIdGenerators()
     {
-        propertyIndexStore.rebuildIdGenerators();
-        stringPropertyStore.rebuildIdGenerators();
-        arrayPropertyStore.rebuildIdGenerators();
-        super.rebuildIdGenerators();
+        inParallel( new Runnable()
+        {
+            public void run()
+            {
+                propertyIndexStore.rebuildIdGenerators();
+            }
+        }, new Runnable()
+        {
+            public void run()
+            {
+                stringPropertyStore.rebuildIdGenerators();
+            }
+        }, new Runnable()
+        {
+            public void run()
+            {
+                arrayPropertyStore.rebuildIdGenerators();
+            }
+        }, new Runnable()
+        {
+            public void run()
+            {
+                PropertyStore.super.rebuildIdGenerators();
+            }
+        } );
     }
 
     public void updateIdGenerators()
@@ -507,12 +548,6 @@ public class PropertyStore extends AbstractStore implements Store
         return stringPropertyStore.allocateRecords( valueBlockId, chars );
     }
 
-    private Collection<DynamicRecord> allocateArrayRecords( long valueBlockId,
-        Object array )
-    {
-        return arrayPropertyStore.allocateRecords( valueBlockId, array );
-    }
-
     public void encodeValue( PropertyBlock block, int keyId, Object value )
     {
         if ( value instanceof String )
@@ -523,8 +558,17 @@ public class PropertyStore extends AbstractStore implements Store
 
             // Fall back to dynamic string store
             long stringBlockId = nextStringBlockId();
-            setSingleBlockValue( block, keyId, PropertyType.STRING, stringBlockId );
             byte[] encodedString = encodeString( string );
+            byte[] compressed = compress( encodedString, stringPropertyStore );
+            if ( compressed != null )
+            {
+                setSingleBlockValue( block, keyId, PropertyType.COMPRESSED_STRING, stringBlockId );
+                encodedString = compressed;
+            }
+            else
+            {
+                setSingleBlockValue( block, keyId, PropertyType.STRING, stringBlockId );
+            }
             Collection<DynamicRecord> valueRecords = allocateStringRecords( stringBlockId, encodedString );
             for ( DynamicRecord valueRecord : valueRecords )
             {
@@ -557,8 +601,18 @@ public class PropertyStore extends AbstractStore implements Store
 
             // Fall back to dynamic array store
             long arrayBlockId = nextArrayBlockId();
-            setSingleBlockValue( block, keyId, PropertyType.ARRAY, arrayBlockId );
-            Collection<DynamicRecord> arrayRecords = allocateArrayRecords( arrayBlockId, value );
+            byte[] encodedArray = arrayPropertyStore.encodeArray( value );
+            byte[] compressed = compress( encodedArray, arrayPropertyStore );
+            if ( compressed != null )
+            {
+                setSingleBlockValue( block, keyId, PropertyType.COMPRESSED_ARRAY, arrayBlockId );
+                encodedArray = compressed;
+            }
+            else
+            {
+                setSingleBlockValue( block, keyId, PropertyType.ARRAY, arrayBlockId );
+            }
+            Collection<DynamicRecord> arrayRecords = arrayPropertyStore.allocateRecords( arrayBlockId, encodedArray );
             for ( DynamicRecord valueRecord : arrayRecords )
             {
                 valueRecord.setType( PropertyType.ARRAY.intValue() );
@@ -572,6 +626,26 @@ public class PropertyStore extends AbstractStore implements Store
         }
     }
 
+    /**
+     * @return <CODE>bytes</CODE> compressed if compression is turned on,
+     *         <CODE>bytes</CODE> are big enough and compressing them saves
+     *         blocks in <CODE>store</CODE>, otherwise <CODE>null</CODE>
+     */
+    private byte[] compress( byte[] bytes, AbstractDynamicStore store )
+    {
+        if ( compressValuesOver < 0 || bytes.length <= compressValuesOver )
+        {
+            return null;
+        }
+        byte[] compressed = LzfCodec.compress( bytes );
+        int dataSize = store.getBlockSize() - AbstractDynamicStore.BLOCK_HEADER_SIZE;
+        if ( (compressed.length - 1) / dataSize >= (bytes.length - 1) / dataSize )
+        {
+            return null;
+        }
+        return compressed;
+    }
+
     private void setSingleBlockValue( PropertyBlock block, int keyId, PropertyType type, long longValue )
     {
         block.setSingleBlock( keyId | (((long) type.intValue()) << 24)
@@ -590,6 +664,11 @@ public class PropertyStore extends AbstractStore implements Store
 
     public static Object getStringFor( AbstractDynamicStore store, PropertyBlock propertyBlock )
     {
+        if ( propertyBlock.getType() == PropertyType.COMPRESSED_STRING )
+        {
+            return getStringFor( LzfCodec.decompress( readFullByteArray(
+                propertyBlock.getSingleValueLong(), propertyBlock.getValueRecords(), store ) ) );
+        }
         return getStringFor( store, propertyBlock.getSingleValueLong(), propertyBlock.getValueRecords() );
     }
 
@@ -607,6 +686,11 @@ public class PropertyStore extends AbstractStore implements Store
     public Object getArrayFor( PropertyBlock propertyBlock )
     {
         assert !propertyBlock.isLight();
+        if ( propertyBlock.getType() == PropertyType.COMPRESSED_ARRAY )
+        {
+            return arrayPropertyStore.getRightArray( LzfCodec.decompress( readFullByteArray(
+                propertyBlock.getSingleValueLong(), propertyBlock.getValueRecords(), arrayPropertyStore ) ) );
+        }
         return getArrayFor( propertyBlock.getSingleValueLong(), propertyBlock.getValueRecords(), arrayPropertyStore );
     }
 
@@ -684,9 +768,9 @@ public class PropertyStore extends AbstractStore implements Store
     @Override
     protected boolean isRecordInUse( ByteBuffer buffer )
     {
-        // TODO: The next line is an ugly hack, but works.
-        Buffer fromByteBuffer = new Buffer( null, buffer );
-        return getRecordFromBuffer( 0, fromByteBuffer ).inUse();
+        // a record is in use if its first block is, see getRecordFromBuffer
+        long header = buffer.getLong( buffer.position() + 9 );
+        return PropertyType.getPropertyType( header, true ) != null;
     }
 
     @Override
@@ -275,6 +275,40 @@ public enum PropertyType
         {
             return ShortArray.calculateNumberOfBlocksUsed( firstBlock );
         }
+    },
+    COMPRESSED_STRING( 13 )
+    {
+        @Override
+        public Object getValue( PropertyBlock block, PropertyStore store )
+        {
+            if ( store == null ) return null;
+            return store.getStringFor( block );
+        }
+
+        @Override
+        public PropertyData newPropertyData( PropertyBlock block,
+                long propertyId, Object extractedValue )
+        {
+            return PropertyDatas.forStringOrArray( block.getKeyIndexId(),
+                    propertyId, extractedValue );
+        }
+    },
+    COMPRESSED_ARRAY( 14 )
+    {
+        @Override
+        public Object getValue( PropertyBlock block, PropertyStore store )
+        {
+            if ( store == null ) return null;
+            return store.getArrayFor( block );
+        }
+
+        @Override
+        public PropertyData newPropertyData( PropertyBlock block,
+                long propertyId, Object extractedValue )
+        {
+            return PropertyDatas.forStringOrArray( block.getKeyIndexId(),
+                    propertyId, extractedValue );
+        }
     };
 
     private final int type;
@@ -344,6 +378,10 @@ public enum PropertyType
             return SHORT_STRING;
         case 12:
             return SHORT_ARRAY;
+        case 13:
+            return COMPRESSED_STRING;
+        case 14:
+            return COMPRESSED_ARRAY;
         default: if (nullOnIllegal) return null;
             throw new InvalidRecordException( "Unknown property type for type "
                                               + type );
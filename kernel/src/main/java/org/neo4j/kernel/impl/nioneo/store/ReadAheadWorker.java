@@ -0,0 +1,256 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.neo4j.kernel.Config;
+
+/**
+ * Reads records ahead of sequential scans in the background. Stores that
+ * detect a scan (see {@link SequentialScanDetector}) submit a request to read
+ * ahead and this worker has the {@link WindowPool} of the store bring the
+ * records into memory so the scan doesn't have to wait for them one read at
+ * a time.
+ * <p>
+ * Enabled by setting {@link Config#READ_AHEAD_SIZE}, the worker is passed to
+ * the stores in the configuration map (keyed by this class).
+ */
+public class ReadAheadWorker
+{
+    private static final Logger log = Logger.getLogger(
+        ReadAheadWorker.class.getName() );
+
+    private static final int MAX_PENDING_REQUESTS = 32;
+
+    private final int readAheadSize;
+    // guarded by this
+    private final LinkedList<Request> requests = new LinkedList<Request>();
+    // held while a request is being performed
+    private final Object performing = new Object();
+    private WorkerThread workerThread;
+    private int requestCount = 0;
+    private int droppedCount = 0;
+
+    private static class Request
+    {
+        private final WindowPool pool;
+        private final long position;
+        private final int records;
+
+        Request( WindowPool pool, long position, int records )
+        {
+            this.pool = pool;
+            this.position = position;
+            this.records = records;
+        }
+    }
+
+    /**
+     * @param readAheadSize
+     *            The number of bytes to read ahead of a scan at a time
+     */
+    public ReadAheadWorker( int readAheadSize )
+    {
+        if ( readAheadSize <= 0 )
+        {
+            throw new IllegalArgumentException( "Illegal read ahead size "
+                + readAheadSize );
+        }
+        this.readAheadSize = readAheadSize;
+    }
+
+    /**
+     * Creates the read ahead worker described by <CODE>config</CODE>.
+     *
+     * @param config
+     *            Map of configuration parameters
+     * @return a new, not yet started, worker or <CODE>null</CODE> if read
+     *         ahead hasn't been configured
+     */
+    public static ReadAheadWorker fromConfig( Map<?,?> config )
+    {
+        long readAheadSize = CommonAbstractStore.parseMemorySize(
+            (String) config.get( Config.READ_AHEAD_SIZE ),
+            Config.READ_AHEAD_SIZE );
+        if ( readAheadSize <= 0 )
+        {
+            return null;
+        }
+        return new ReadAheadWorker( (int) Math.min( Integer.MAX_VALUE,
+            readAheadSize ) );
+    }
+
+    /**
+     * @return the number of bytes to read ahead of a scan at a time
+     */
+    public int getReadAheadSize()
+    {
+        return readAheadSize;
+    }
+
+    /**
+     * Asks for <CODE>records</CODE> records from <CODE>position</CODE> of
+     * <CODE>pool</CODE> to be read ahead. The request is dropped if too many
+     * requests are already waiting.
+     */
+    public synchronized void submit( WindowPool pool, long position, int records )
+    {
+        if ( records <= 0 )
+        {
+            return;
+        }
+        if ( requests.size() >= MAX_PENDING_REQUESTS )
+        {
+            droppedCount++;
+            return;
+        }
+        requests.add( new Request( pool, position, records ) );
+        requestCount++;
+        notify();
+    }
+
+    /**
+     * Drops any pending requests for <CODE>pool</CODE> and waits for an
+     * ongoing one to complete. Must be called before the pool is closed.
+     */
+    public void cancel( WindowPool pool )
+    {
+        synchronized ( this )
+        {
+            Iterator<Request> itr = requests.iterator();
+            while ( itr.hasNext() )
+            {
+                if ( itr.next().pool == pool )
+                {
+                    itr.remove();
+                }
+            }
+        }
+        synchronized ( performing )
+        {
+            // nothing to do, just wait for the current request
+        }
+    }
+
+    public synchronized int getRequestCount()
+    {
+        return requestCount;
+    }
+
+    public synchronized int getDroppedCount()
+    {
+        return droppedCount;
+    }
+
+    public void start()
+    {
+        workerThread = new WorkerThread();
+        workerThread.start();
+    }
+
+    public void stop()
+    {
+        if ( workerThread != null )
+        {
+            workerThread.markDone();
+            workerThread = null;
+        }
+    }
+
+    /**
+     * Performs the next pending request, if any.
+     *
+     * @return <CODE>false</CODE> if there was no pending request
+     */
+    boolean performNext()
+    {
+        synchronized ( performing )
+        {
+            Request request;
+            synchronized ( this )
+            {
+                if ( requests.isEmpty() )
+                {
+                    return false;
+                }
+                request = requests.removeFirst();
+            }
+            try
+            {
+                request.pool.readAhead( request.position, request.records );
+            }
+            catch ( RuntimeException e )
+            {
+                log.log( Level.FINE, "Unable to read ahead", e );
+            }
+            return true;
+        }
+    }
+
+    private class WorkerThread extends Thread
+    {
+        private volatile boolean done = false;
+
+        WorkerThread()
+        {
+            super( "ReadAheadWorker" );
+            setDaemon( true );
+        }
+
+        @Override
+        public void run()
+        {
+            while ( !done )
+            {
+                if ( !performNext() )
+                {
+                    synchronized ( ReadAheadWorker.this )
+                    {
+                        try
+                        {
+                            if ( !done && requests.isEmpty() )
+                            {
+                                ReadAheadWorker.this.wait( 1000 );
+                            }
+                        }
+                        catch ( InterruptedException e )
+                        {
+                            Thread.interrupted();
+                        }
+                    }
+                }
+            }
+        }
+
+        void markDone()
+        {
+            done = true;
+            synchronized ( ReadAheadWorker.this )
+            {
+                ReadAheadWorker.this.notifyAll();
+            }
+        }
+    }
+}
@@ -36,6 +36,11 @@ public class ReadOnlyIdGenerator implements IdGenerator
     {
         throw new ReadOnlyDbException();
     }
+
+    public long nextIdNear( long near, int idsPerPage )
+    {
+        throw new ReadOnlyDbException();
+    }
     
     public IdRange nextIdBatch( int size )
     {
@@ -0,0 +1,285 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
+
+/**
+ * Utility methods for following and relinking the relationship chains of a
+ * node, where each relationship record holds the pointers of both its
+ * chains, the one of its first node and the one of its second node.
+ */
+public class RelationshipChains
+{
+    private RelationshipChains()
+    {
+    }
+
+    public static long getNext( RelationshipRecord rel, long nodeId )
+    {
+        if ( rel.getFirstNode() == nodeId )
+        {
+            return rel.getFirstNextRel();
+        }
+        if ( rel.getSecondNode() == nodeId )
+        {
+            return rel.getSecondNextRel();
+        }
+        throw notInChain( rel, nodeId );
+    }
+
+    public static long getPrev( RelationshipRecord rel, long nodeId )
+    {
+        if ( rel.getFirstNode() == nodeId )
+        {
+            return rel.getFirstPrevRel();
+        }
+        if ( rel.getSecondNode() == nodeId )
+        {
+            return rel.getSecondPrevRel();
+        }
+        throw notInChain( rel, nodeId );
+    }
+
+    public static void setNext( RelationshipRecord rel, long nodeId, long next )
+    {
+        boolean changed = false;
+        if ( rel.getFirstNode() == nodeId )
+        {
+            rel.setFirstNextRel( next );
+            changed = true;
+        }
+        if ( rel.getSecondNode() == nodeId )
+        {
+            rel.setSecondNextRel( next );
+            changed = true;
+        }
+        if ( !changed )
+        {
+            throw notInChain( rel, nodeId );
+        }
+    }
+
+    public static void setPrev( RelationshipRecord rel, long nodeId, long prev )
+    {
+        boolean changed = false;
+        if ( rel.getFirstNode() == nodeId )
+        {
+            rel.setFirstPrevRel( prev );
+            changed = true;
+        }
+        if ( rel.getSecondNode() == nodeId )
+        {
+            rel.setSecondPrevRel( prev );
+            changed = true;
+        }
+        if ( !changed )
+        {
+            throw notInChain( rel, nodeId );
+        }
+    }
+
+    /**
+     * @return the direction of <CODE>rel</CODE> as seen from
+     *         <CODE>nodeId</CODE>, {@link DirectionWrapper#BOTH} for loops
+     */
+    public static DirectionWrapper direction( RelationshipRecord rel, long nodeId )
+    {
+        if ( rel.getFirstNode() == rel.getSecondNode() )
+        {
+            return DirectionWrapper.BOTH;
+        }
+        if ( rel.getFirstNode() == nodeId )
+        {
+            return DirectionWrapper.OUTGOING;
+        }
+        if ( rel.getSecondNode() == nodeId )
+        {
+            return DirectionWrapper.INCOMING;
+        }
+        throw notInChain( rel, nodeId );
+    }
+
+    /**
+     * Relinks the single relationship chain <CODE>chain</CODE> of a node into
+     * one chain per relationship type and direction, keeping the order of the
+     * relationships within each of the new chains. The records are changed in
+     * place and the ids of the new groups are taken from
+     * <CODE>relStore</CODE>.
+     *
+     * @param nodeId
+     *            The node owning the chain
+     * @param chain
+     *            All relationships of the node, in chain order
+     * @param relStore
+     *            The store to allocate group ids from
+     * @return the groups linked together, the node should point to the first
+     *         one
+     */
+    public static List<RelationshipGroupRecord> groupChain( long nodeId,
+            List<RelationshipRecord> chain, RelationshipStore relStore )
+    {
+        Map<Integer,RelationshipGroupRecord> groups =
+            new LinkedHashMap<Integer,RelationshipGroupRecord>();
+        // the last relationship of each chain, indexed by direction ordinal
+        Map<Integer,RelationshipRecord[]> tails =
+            new HashMap<Integer,RelationshipRecord[]>();
+        for ( RelationshipRecord rel : chain )
+        {
+            RelationshipGroupRecord group = groups.get( rel.getType() );
+            if ( group == null )
+            {
+                group = new RelationshipGroupRecord( relStore.nextId(),
+                    rel.getType(), nodeId );
+                group.setInUse( true );
+                group.setCreated();
+                groups.put( rel.getType(), group );
+                tails.put( rel.getType(), new RelationshipRecord[3] );
+            }
+            DirectionWrapper direction = direction( rel, nodeId );
+            RelationshipRecord[] groupTails = tails.get( rel.getType() );
+            RelationshipRecord tail = groupTails[direction.ordinal()];
+            if ( tail == null )
+            {
+                group.setFirst( direction, rel.getId() );
+                setPrev( rel, nodeId, Record.NO_PREV_RELATIONSHIP.intValue() );
+            }
+            else
+            {
+                setNext( tail, nodeId, rel.getId() );
+                setPrev( rel, nodeId, tail.getId() );
+            }
+            setNext( rel, nodeId, Record.NO_NEXT_RELATIONSHIP.intValue() );
+            groupTails[direction.ordinal()] = rel;
+            group.addToCount( direction, 1 );
+        }
+        List<RelationshipGroupRecord> result =
+            new ArrayList<RelationshipGroupRecord>( groups.values() );
+        for ( int i = 0; i < result.size() - 1; i++ )
+        {
+            result.get( i ).setNext( result.get( i + 1 ).getId() );
+        }
+        return result;
+    }
+
+    /**
+     * Counts the relationships of a node as they are in the store. The counts
+     * kept by the groups of a dense node are summed up, the single chain of
+     * any other node is walked.
+     *
+     * @param nodeId
+     *            The node to count the relationships of
+     * @param nextRel
+     *            The first relationship or group of the node
+     * @param direction
+     *            The direction to count, loops are counted for all of them
+     * @param types
+     *            The relationship type ids to count, <CODE>null</CODE> for all
+     *            types
+     * @param relStore
+     *            The store to read the chains from
+     * @return the number of relationships matching direction and types
+     */
+    public static long degree( long nodeId, long nextRel,
+            DirectionWrapper direction, int[] types, RelationshipStore relStore )
+    {
+        if ( !relStore.isGroup( nextRel ) )
+        {
+            return countChain( nodeId, nextRel, direction, types, relStore );
+        }
+        long degree = 0;
+        for ( long groupId = nextRel; groupId != Record.NO_NEXT_RELATIONSHIP.intValue(); )
+        {
+            RelationshipGroupRecord group = relStore.getGroupRecord( groupId );
+            if ( types == null || contains( types, group.getType() ) )
+            {
+                for ( DirectionWrapper chain : DirectionWrapper.values() )
+                {
+                    if ( chain != DirectionWrapper.BOTH &&
+                        direction != DirectionWrapper.BOTH && chain != direction )
+                    {
+                        continue;
+                    }
+                    long count = group.getCount( chain );
+                    if ( count == RelationshipGroupRecord.UNKNOWN_COUNT )
+                    {
+                        count = countChain( nodeId, group.getFirst( chain ),
+                            DirectionWrapper.BOTH, null, relStore );
+                    }
+                    degree += count;
+                }
+            }
+            groupId = group.getNext();
+        }
+        return degree;
+    }
+
+    private static long countChain( long nodeId, long relId,
+            DirectionWrapper direction, int[] types, RelationshipStore relStore )
+    {
+        long count = 0;
+        while ( relId != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            RelationshipRecord rel = relStore.getChainRecord( relId );
+            if ( rel == null )
+            {
+                break;
+            }
+            if ( rel.inUse() && (types == null || contains( types, rel.getType() )) )
+            {
+                DirectionWrapper relDirection = direction( rel, nodeId );
+                if ( relDirection == DirectionWrapper.BOTH ||
+                    direction == DirectionWrapper.BOTH || relDirection == direction )
+                {
+                    count++;
+                }
+            }
+            relId = getNext( rel, nodeId );
+        }
+        return count;
+    }
+
+    private static boolean contains( int[] types, int type )
+    {
+        for ( int candidate : types )
+        {
+            if ( candidate == type )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static InvalidRecordException notInChain( RelationshipRecord rel,
+            long nodeId )
+    {
+        return new InvalidRecordException( "Node[" + nodeId +
+            "] is neither firstNode[" + rel.getFirstNode() +
+            "] nor secondNode[" + rel.getSecondNode() + "] for Relationship[" +
+            rel.getId() + "]" );
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
+
+/**
+ * The relationships of one type of a dense node. Instead of a single chain
+ * with all its relationships a dense node points to a chain of groups, one per
+ * relationship type, and every group holds the heads of three chains: the
+ * outgoing relationships, the incoming relationships and the loops of its
+ * type. Group records are kept in the {@link RelationshipStore}.
+ * <p>
+ * A group also keeps the number of relationships in each of its chains so
+ * that the degree of a dense node can be looked up without walking them. A
+ * count that isn't known is {@link #UNKNOWN_COUNT}, the chain then has to be
+ * walked to count it.
+ */
+public class RelationshipGroupRecord extends Abstract64BitRecord
+{
+    public static final long UNKNOWN_COUNT = -1;
+
+    private final int type;
+    private final long owningNode;
+    private long next = Record.NO_NEXT_RELATIONSHIP.intValue();
+    private long firstOut = Record.NO_NEXT_RELATIONSHIP.intValue();
+    private long firstIn = Record.NO_NEXT_RELATIONSHIP.intValue();
+    private long firstLoop = Record.NO_NEXT_RELATIONSHIP.intValue();
+    private long outCount;
+    private long inCount;
+    private long loopCount;
+
+    public RelationshipGroupRecord( long id, int type, long owningNode )
+    {
+        super( id );
+        this.type = type;
+        this.owningNode = owningNode;
+    }
+
+    public int getType()
+    {
+        return type;
+    }
+
+    public long getOwningNode()
+    {
+        return owningNode;
+    }
+
+    /**
+     * @return the id of the next group of the owning node
+     */
+    public long getNext()
+    {
+        return next;
+    }
+
+    public void setNext( long next )
+    {
+        this.next = next;
+    }
+
+    /**
+     * @param direction
+     *            {@link DirectionWrapper#BOTH} for the loops
+     * @return the first relationship of the chain for <CODE>direction</CODE>
+     */
+    public long getFirst( DirectionWrapper direction )
+    {
+        switch ( direction )
+        {
+        case OUTGOING:
+            return firstOut;
+        case INCOMING:
+            return firstIn;
+        default:
+            return firstLoop;
+        }
+    }
+
+    public void setFirst( DirectionWrapper direction, long relId )
+    {
+        switch ( direction )
+        {
+        case OUTGOING:
+            firstOut = relId;
+            break;
+        case INCOMING:
+            firstIn = relId;
+            break;
+        default:
+            firstLoop = relId;
+        }
+    }
+
+    /**
+     * @param direction
+     *            {@link DirectionWrapper#BOTH} for the loops
+     * @return the number of relationships in the chain for
+     *         <CODE>direction</CODE> or {@link #UNKNOWN_COUNT}
+     */
+    public long getCount( DirectionWrapper direction )
+    {
+        switch ( direction )
+        {
+        case OUTGOING:
+            return outCount;
+        case INCOMING:
+            return inCount;
+        default:
+            return loopCount;
+        }
+    }
+
+    public void setCount( DirectionWrapper direction, long count )
+    {
+        switch ( direction )
+        {
+        case OUTGOING:
+            outCount = count;
+            break;
+        case INCOMING:
+            inCount = count;
+            break;
+        default:
+            loopCount = count;
+        }
+    }
+
+    /**
+     * Adds <CODE>delta</CODE> to the count of the chain for
+     * <CODE>direction</CODE>, an unknown count stays unknown.
+     */
+    public void addToCount( DirectionWrapper direction, int delta )
+    {
+        long count = getCount( direction );
+        if ( count != UNKNOWN_COUNT )
+        {
+            setCount( direction, count + delta );
+        }
+    }
+
+    /**
+     * @return <CODE>true</CODE> if all chains of this group are empty
+     */
+    public boolean isEmpty()
+    {
+        return firstOut == Record.NO_NEXT_RELATIONSHIP.intValue()
+            && firstIn == Record.NO_NEXT_RELATIONSHIP.intValue()
+            && firstLoop == Record.NO_NEXT_RELATIONSHIP.intValue();
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuffer buf = new StringBuffer();
+        buf.append( "RelationshipGroupRecord[" ).append( getId() ).append( "," ).append(
+                inUse() ).append( "," ).append( type ).append( "," ).append(
+                owningNode ).append( "," ).append( next ).append( "," ).append(
+                firstOut ).append( "," ).append( firstIn ).append( "," ).append(
+                firstLoop ).append( "," ).append( outCount ).append( "," ).append(
+                inCount ).append( "," ).append( loopCount ).append( "]" );
+        return buf.toString();
+    }
+}
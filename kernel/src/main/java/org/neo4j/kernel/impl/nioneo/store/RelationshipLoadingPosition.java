@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
+
+/**
+ * Keeps track of how far the relationships of a node have been loaded, so
+ * that they can be loaded in batches. A node with a single relationship chain
+ * has a single position, whereas a dense node has one position per
+ * relationship type and direction so that only the chains asked for are
+ * read. Positions are not thread safe, the caller is expected to synchronize
+ * on the node being loaded.
+ */
+public interface RelationshipLoadingPosition
+{
+    /**
+     * @param direction
+     *            The direction of the relationships to load
+     * @param types
+     *            The ids of the types of the relationships to load,
+     *            <CODE>null</CODE> for all types
+     * @return the id of the next relationship to load, or
+     *         {@link Record#NO_NEXT_RELATIONSHIP} if there are no more
+     */
+    public long position( DirectionWrapper direction, int[] types );
+
+    /**
+     * Moves the position of the chain last returned from
+     * {@link #position(DirectionWrapper, int[])} forward.
+     *
+     * @param position
+     *            The id of the relationship following the one just loaded
+     * @param direction
+     *            The direction of the relationships to load
+     * @param types
+     *            The ids of the types of the relationships to load,
+     *            <CODE>null</CODE> for all types
+     * @return the id of the next relationship to load, which may be in
+     *         another chain if the current one was exhausted, or
+     *         {@link Record#NO_NEXT_RELATIONSHIP} if there are no more
+     */
+    public long nextPosition( long position, DirectionWrapper direction, int[] types );
+
+    /**
+     * @param direction
+     *            The direction of the relationships
+     * @param types
+     *            The ids of the types of the relationships,
+     *            <CODE>null</CODE> for all types
+     * @return <CODE>true</CODE> if there are relationships matching
+     *         <CODE>direction</CODE> and <CODE>types</CODE> left to load
+     */
+    public boolean hasMore( DirectionWrapper direction, int[] types );
+}
@@ -20,12 +20,14 @@
 package org.neo4j.kernel.impl.nioneo.store;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
 import org.neo4j.kernel.IdGeneratorFactory;
 import org.neo4j.kernel.IdType;
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
 import org.neo4j.kernel.impl.util.StringLogger;
 
 /**
@@ -41,6 +43,15 @@ public class RelationshipStore extends AbstractStore implements Store
     // second_next_rel_id+next_prop_id(int)
     public static final int RECORD_SIZE = 33;
 
+    // the largest relationship counts that can be stored in a group record
+    private static final long MAX_GROUP_COUNT = 0xFFFFFFFFL;
+    private static final long MAX_GROUP_LOOP_COUNT = 0x7FL;
+
+    // the highest bit of the type int tells a relationship group record from
+    // a relationship record, see RelationshipGroupRecord for how the fields
+    // of a relationship record are used by a group
+    private static final long GROUP_FLAG = 0x80000000L;
+
     /**
      * See {@link AbstractStore#AbstractStore(String, Map)}
      */
@@ -96,6 +107,62 @@ public class RelationshipStore extends AbstractStore implements Store
         }
     }
 
+    public RelationshipGroupRecord getGroupRecord( long id )
+    {
+        PersistenceWindow window = acquireWindow( id, OperationType.READ );
+        try
+        {
+            return getGroupRecord( id, window );
+        }
+        finally
+        {
+            releaseWindow( window );
+        }
+    }
+
+    /**
+     * @return <CODE>true</CODE> if <CODE>id</CODE> is an in use relationship
+     *         group record, as pointed to by the node record of a dense node
+     */
+    public boolean isGroup( long id )
+    {
+        if ( id == Record.NO_NEXT_RELATIONSHIP.intValue() || id >= getHighId() )
+        {
+            return false;
+        }
+        PersistenceWindow window = acquireWindow( id, OperationType.READ );
+        try
+        {
+            Buffer buffer = window.getOffsettedBuffer( id );
+            boolean inUse = (buffer.get() & 0x1) == Record.IN_USE.intValue();
+            buffer.getInt();
+            buffer.getInt();
+            return inUse && (buffer.getInt() & GROUP_FLAG) != 0;
+        }
+        finally
+        {
+            releaseWindow( window );
+        }
+    }
+
+    /**
+     * @param record Holds a record, from its current position.
+     * @return the type of the relationship in <CODE>record</CODE>, or
+     *         <CODE>-1</CODE> if it isn't in use or is a relationship group
+     */
+    int getRelationshipType( ByteBuffer record )
+    {
+        boolean inUse = (record.get() & 0x1) == Record.IN_USE.intValue();
+        record.getInt();
+        record.getInt();
+        long typeInt = record.getInt() & 0xFFFFFFFFL;
+        if ( !inUse || (typeInt & GROUP_FLAG) != 0 )
+        {
+            return -1;
+        }
+        return (int) (typeInt & 0xFFFF);
+    }
+
     public RelationshipRecord getLightRel( long id )
     {
         PersistenceWindow window = null;
@@ -119,6 +186,35 @@ public class RelationshipStore extends AbstractStore implements Store
         }
     }
 
+    public void updateRecord( RelationshipGroupRecord record, boolean recovered )
+    {
+        assert recovered;
+        setRecovered();
+        try
+        {
+            updateRecord( record );
+            registerIdFromUpdateRecord( record.getId() );
+        }
+        finally
+        {
+            unsetRecovered();
+        }
+    }
+
+    public void updateRecord( RelationshipGroupRecord record )
+    {
+        PersistenceWindow window = acquireWindow( record.getId(),
+            OperationType.WRITE );
+        try
+        {
+            updateRecord( record, window );
+        }
+        finally
+        {
+            releaseWindow( window );
+        }
+    }
+
     public void updateRecord( RelationshipRecord record, boolean recovered )
     {
         assert recovered;
@@ -203,6 +299,116 @@ public class RelationshipStore extends AbstractStore implements Store
         }
     }
 
+    private void updateRecord( RelationshipGroupRecord record,
+        PersistenceWindow window )
+    {
+        long id = record.getId();
+        Buffer buffer = window.getOffsettedBuffer( id );
+        if ( record.inUse() )
+        {
+            // the group is stored as a relationship record with the owning
+            // node as first node, the next group as first prev rel and the
+            // heads of the outgoing, incoming and loop chains in the
+            // remaining relationship pointers. The outgoing and incoming
+            // counts take the place of the second node and next prop and the
+            // loop count the spare bits of the in use byte and type.
+            long owningNode = record.getOwningNode();
+            short owningNodeMod = (short)((owningNode & 0x700000000L) >> 31);
+
+            long next = record.getNext();
+            long nextMod = next == Record.NO_NEXT_RELATIONSHIP.intValue() ? 0 : (next & 0x700000000L) >> 7;
+
+            long firstOut = record.getFirst( DirectionWrapper.OUTGOING );
+            long firstOutMod = firstOut == Record.NO_NEXT_RELATIONSHIP.intValue() ? 0 : (firstOut & 0x700000000L) >> 10;
+
+            long firstIn = record.getFirst( DirectionWrapper.INCOMING );
+            long firstInMod = firstIn == Record.NO_NEXT_RELATIONSHIP.intValue() ? 0 : (firstIn & 0x700000000L) >> 13;
+
+            long firstLoop = record.getFirst( DirectionWrapper.BOTH );
+            long firstLoopMod = firstLoop == Record.NO_NEXT_RELATIONSHIP.intValue() ? 0 : (firstLoop & 0x700000000L) >> 16;
+
+            long loopCount = toStoredCount( record.getCount( DirectionWrapper.BOTH ),
+                MAX_GROUP_LOOP_COUNT );
+            short loopCountHigh = (short)((loopCount & 0x78) << 1);
+            long loopCountLow = (loopCount & 0x7) << 28;
+
+            short inUseUnsignedByte = (short)(Record.IN_USE.byteValue() | owningNodeMod | loopCountHigh);
+            int typeInt = (int)(record.getType() | GROUP_FLAG | loopCountLow | nextMod | firstOutMod | firstInMod | firstLoopMod);
+
+            buffer.put( (byte)inUseUnsignedByte ).putInt( (int) owningNode )
+                .putInt( (int) toStoredCount( record.getCount( DirectionWrapper.OUTGOING ),
+                    MAX_GROUP_COUNT ) )
+                .putInt( typeInt ).putInt( (int) next ).putInt( (int) firstOut )
+                .putInt( (int) firstIn ).putInt( (int) firstLoop )
+                .putInt( (int) toStoredCount( record.getCount( DirectionWrapper.INCOMING ),
+                    MAX_GROUP_COUNT ) );
+        }
+        else
+        {
+            buffer.put( Record.NOT_IN_USE.byteValue() );
+            if ( !isInRecoveryMode() )
+            {
+                freeId( id );
+            }
+        }
+    }
+
+    private RelationshipGroupRecord getGroupRecord( long id,
+        PersistenceWindow window )
+    {
+        Buffer buffer = window.getOffsettedBuffer( id );
+        long inUseByte = buffer.get();
+        if ( (inUseByte & 0x1) != Record.IN_USE.intValue() )
+        {
+            throw new InvalidRecordException( "Record[" + id + "] not in use" );
+        }
+        long owningNode = buffer.getUnsignedInt();
+        long owningNodeMod = (inUseByte & 0xEL) << 31;
+        long outCount = buffer.getUnsignedInt();
+        long typeInt = buffer.getInt();
+        if ( (typeInt & GROUP_FLAG) == 0 )
+        {
+            throw new InvalidRecordException( "Record[" + id +
+                "] is not a relationship group" );
+        }
+        RelationshipGroupRecord record = new RelationshipGroupRecord( id,
+            (int)(typeInt & 0xFFFF), longFromIntAndMod( owningNode, owningNodeMod ) );
+        record.setInUse( true );
+        record.setNext( longFromIntAndMod( buffer.getUnsignedInt(),
+            (typeInt & 0xE000000L) << 7 ) );
+        record.setFirst( DirectionWrapper.OUTGOING, longFromIntAndMod(
+            buffer.getUnsignedInt(), (typeInt & 0x1C00000L) << 10 ) );
+        record.setFirst( DirectionWrapper.INCOMING, longFromIntAndMod(
+            buffer.getUnsignedInt(), (typeInt & 0x380000L) << 13 ) );
+        record.setFirst( DirectionWrapper.BOTH, longFromIntAndMod(
+            buffer.getUnsignedInt(), (typeInt & 0x70000L) << 16 ) );
+        long inCount = buffer.getUnsignedInt();
+        long loopCount = ((inUseByte & 0xF0L) >> 1) | ((typeInt & 0x70000000L) >> 28);
+        record.setCount( DirectionWrapper.OUTGOING,
+            fromStoredCount( outCount, MAX_GROUP_COUNT ) );
+        record.setCount( DirectionWrapper.INCOMING,
+            fromStoredCount( inCount, MAX_GROUP_COUNT ) );
+        record.setCount( DirectionWrapper.BOTH,
+            fromStoredCount( loopCount, MAX_GROUP_LOOP_COUNT ) );
+        return record;
+    }
+
+    /*
+     * Counts that don't fit are stored as max, meaning that they have to be
+     * counted by walking the chain once read back.
+     */
+    private static long toStoredCount( long count, long max )
+    {
+        return count == RelationshipGroupRecord.UNKNOWN_COUNT || count > max ?
+            max : count;
+    }
+
+    private static long fromStoredCount( long storedCount, long max )
+    {
+        return storedCount == max ? RelationshipGroupRecord.UNKNOWN_COUNT :
+            storedCount;
+    }
+
     private RelationshipRecord getRecord( long id, PersistenceWindow window,
         boolean checkInUse )
     {
@@ -235,6 +441,15 @@ public class RelationshipStore extends AbstractStore implements Store
         // [    ,    ][    , xxx][    ,    ][    ,    ] second next rel high order bits, 0x70000
         // [    ,    ][    ,    ][xxxx,xxxx][xxxx,xxxx] type
         long typeInt = buffer.getInt();
+        if ( (typeInt & GROUP_FLAG) != 0 )
+        {
+            if ( checkInUse )
+            {
+                return null;
+            }
+            throw new InvalidRecordException( "Record[" + id +
+                "] is a relationship group" );
+        }
         long secondNodeMod = (typeInt & 0x70000000L) << 4;
         int type = (int)(typeInt & 0xFFFF);
 
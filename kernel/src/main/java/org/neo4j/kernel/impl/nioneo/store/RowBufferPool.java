@@ -0,0 +1,286 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+
+/**
+ * Buffers for the {@link PersistenceRow rows} a {@link PersistenceWindowPool}
+ * hands out for records that aren't covered by a mapped window.
+ * <p>
+ * Row buffers are sliced out of larger direct buffers and recycled when a
+ * row is released instead of each row allocating a buffer of its own.
+ * Reading a row reads a whole block of adjacent records into a read block
+ * so that a miss on the next record can be served without another read
+ * from the file channel. There are a few read blocks, each caching the
+ * blocks of positions that map to it, so that threads reading different
+ * parts of the file don't keep replacing each other's block. Writes
+ * through rows are copied into the read block and the read blocks are
+ * invalidated whenever the pool maps or unmaps a window, since records
+ * covered by windows aren't written through rows.
+ * <p>
+ * The file channel is read without holding the lock of a read block, into
+ * a buffer of the reading thread. The block read is only kept if no record
+ * of it has been written or invalidated meanwhile.
+ */
+class RowBufferPool
+{
+    private static final int ROWS_PER_CHUNK = 64;
+    private static final int MAX_FREE_BUFFERS = 1024;
+    private static final int READ_BLOCK_SIZE = 4096;
+    private static final int READ_BLOCKS = 8;
+
+    private final int recordSize;
+    private final FileChannel fileChannel;
+
+    // guarded by this
+    private final LinkedList<ByteBuffer> freeBuffers = new LinkedList<ByteBuffer>();
+
+    private final int recordsPerReadBlock;
+    private final ReadBlock[] readBlocks = new ReadBlock[READ_BLOCKS];
+    private final ThreadLocal<ByteBuffer> fillBuffer = new ThreadLocal<ByteBuffer>()
+    {
+        @Override
+        protected ByteBuffer initialValue()
+        {
+            return ByteBuffer.allocateDirect( recordsPerReadBlock * recordSize );
+        }
+    };
+
+    RowBufferPool( int recordSize, FileChannel fileChannel )
+    {
+        this.recordSize = recordSize;
+        this.fileChannel = fileChannel;
+        this.recordsPerReadBlock = recordSize > 0 ?
+            Math.max( 1, READ_BLOCK_SIZE / recordSize ) : 1;
+        for ( int i = 0; i < READ_BLOCKS; i++ )
+        {
+            readBlocks[i] = new ReadBlock( ByteBuffer.allocateDirect(
+                recordsPerReadBlock * recordSize ) );
+        }
+    }
+
+    /**
+     * @return a cleared buffer, filled with zeros, for a row
+     */
+    ByteBuffer allocate()
+    {
+        ByteBuffer buffer;
+        synchronized ( this )
+        {
+            buffer = freeBuffers.poll();
+        }
+        if ( buffer == null )
+        {
+            // a new chunk is already filled with zeros
+            return newChunk();
+        }
+        buffer.clear();
+        while ( buffer.hasRemaining() )
+        {
+            buffer.put( (byte) 0 );
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Allocates a chunk of row buffers, without holding the lock of the
+     * pool, and adds all but the first one to the free buffers.
+     *
+     * @return the first buffer of the chunk
+     */
+    private ByteBuffer newChunk()
+    {
+        ByteBuffer chunk = ByteBuffer.allocateDirect( recordSize
+            * ROWS_PER_CHUNK );
+        ByteBuffer[] buffers = new ByteBuffer[ROWS_PER_CHUNK];
+        for ( int i = 0; i < ROWS_PER_CHUNK; i++ )
+        {
+            chunk.limit( (i + 1) * recordSize );
+            chunk.position( i * recordSize );
+            buffers[i] = chunk.slice();
+        }
+        synchronized ( this )
+        {
+            for ( int i = 1; i < ROWS_PER_CHUNK; i++ )
+            {
+                freeBuffers.add( buffers[i] );
+            }
+        }
+        return buffers[0];
+    }
+
+    synchronized void recycle( ByteBuffer buffer )
+    {
+        if ( freeBuffers.size() < MAX_FREE_BUFFERS )
+        {
+            freeBuffers.addFirst( buffer );
+        }
+    }
+
+    /**
+     * Reads the record at <CODE>position</CODE> into <CODE>target</CODE>,
+     * from a read block if it covers the position or else by reading the
+     * block of records around it.
+     */
+    void read( long position, ByteBuffer target )
+    {
+        long blockPosition = position / recordsPerReadBlock
+            * recordsPerReadBlock;
+        int offset = (int) (position - blockPosition) * recordSize;
+        ReadBlock readBlock = readBlockFor( blockPosition );
+        long version;
+        synchronized ( readBlock )
+        {
+            if ( readBlock.position == blockPosition )
+            {
+                readBlock.hits++;
+                copyRecord( readBlock.buffer, offset, target );
+                return;
+            }
+            version = readBlock.version;
+        }
+        ByteBuffer block = fillBuffer.get();
+        fill( block, blockPosition );
+        copyRecord( block, offset, target );
+        synchronized ( readBlock )
+        {
+            if ( readBlock.version == version )
+            {
+                block.clear();
+                readBlock.buffer.clear();
+                readBlock.buffer.put( block );
+                readBlock.position = blockPosition;
+            }
+        }
+    }
+
+    /**
+     * Keeps the read blocks up to date with a record that has been written
+     * to the file channel.
+     */
+    void written( long position, ByteBuffer source )
+    {
+        long blockPosition = position / recordsPerReadBlock
+            * recordsPerReadBlock;
+        ReadBlock readBlock = readBlockFor( blockPosition );
+        synchronized ( readBlock )
+        {
+            // a block being read meanwhile may be missing this record
+            readBlock.version++;
+            if ( readBlock.position == blockPosition )
+            {
+                ByteBuffer target = readBlock.buffer.duplicate();
+                target.clear();
+                target.position( (int) (position - blockPosition)
+                    * recordSize );
+                ByteBuffer record = source.duplicate();
+                record.clear();
+                target.put( record );
+            }
+        }
+    }
+
+    void invalidate()
+    {
+        for ( ReadBlock readBlock : readBlocks )
+        {
+            synchronized ( readBlock )
+            {
+                readBlock.version++;
+                readBlock.position = -1;
+            }
+        }
+    }
+
+    int getReadBlockHits()
+    {
+        int hits = 0;
+        for ( ReadBlock readBlock : readBlocks )
+        {
+            synchronized ( readBlock )
+            {
+                hits += readBlock.hits;
+            }
+        }
+        return hits;
+    }
+
+    private ReadBlock readBlockFor( long blockPosition )
+    {
+        return readBlocks[(int) ((blockPosition / recordsPerReadBlock)
+            % READ_BLOCKS)];
+    }
+
+    private void copyRecord( ByteBuffer block, int offset, ByteBuffer target )
+    {
+        ByteBuffer source = block.duplicate();
+        source.limit( offset + recordSize );
+        source.position( offset );
+        target.clear();
+        target.put( source );
+        target.clear();
+    }
+
+    private void fill( ByteBuffer block, long blockPosition )
+    {
+        block.clear();
+        try
+        {
+            while ( block.hasRemaining() )
+            {
+                int count = fileChannel.read( block,
+                    blockPosition * recordSize + block.position() );
+                if ( count <= 0 )
+                {
+                    break;
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException( "Unable to load position["
+                + blockPosition + "] @[" + blockPosition * recordSize + "]", e );
+        }
+        // past the end of the file records are all zeros
+        while ( block.hasRemaining() )
+        {
+            block.put( (byte) 0 );
+        }
+    }
+
+    private static class ReadBlock
+    {
+        // all guarded by this
+        private final ByteBuffer buffer;
+        private long position = -1;
+        private long version;
+        private int hits;
+
+        ReadBlock( ByteBuffer buffer )
+        {
+            this.buffer = buffer;
+        }
+    }
+}
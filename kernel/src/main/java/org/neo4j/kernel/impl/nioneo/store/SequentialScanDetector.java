@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+/**
+ * Detects threads that read the records of a store in ascending order, like
+ * a scan of all nodes by id or a rebuild of the id generator does, and tells
+ * the store when it's time to read ahead of such a scan.
+ * <p>
+ * Every thread has its own cursor. A read of a record at most
+ * {@link #MAX_GAP} records after the previous one read by the same thread
+ * continues a scan, any other read ends it. Once a scan is
+ * {@link #SCAN_THRESHOLD} reads long the records ahead of it are read ahead
+ * in batches, the next batch being requested when the scan has consumed half
+ * of the previous one.
+ */
+class SequentialScanDetector
+{
+    static final int SCAN_THRESHOLD = 16;
+    static final int MAX_GAP = 8;
+
+    private final int readAheadRecords;
+    private final ThreadLocal<Cursor> cursors = new ThreadLocal<Cursor>()
+    {
+        @Override
+        protected Cursor initialValue()
+        {
+            return new Cursor();
+        }
+    };
+
+    private static class Cursor
+    {
+        private long lastPosition = -1;
+        private int scanLength = 0;
+        private long readAheadUntil = -1;
+    }
+
+    /**
+     * @param readAheadRecords
+     *            The number of records to read ahead of a scan at a time
+     */
+    SequentialScanDetector( int readAheadRecords )
+    {
+        this.readAheadRecords = readAheadRecords;
+    }
+
+    int getReadAheadRecords()
+    {
+        return readAheadRecords;
+    }
+
+    /**
+     * Registers a read of the record at <CODE>position</CODE> by the current
+     * thread.
+     *
+     * @return the position to start reading ahead from, or <CODE>-1</CODE> if
+     *         no read ahead should be done
+     */
+    long read( long position )
+    {
+        Cursor cursor = cursors.get();
+        long last = cursor.lastPosition;
+        if ( position == last )
+        {
+            return -1;
+        }
+        cursor.lastPosition = position;
+        if ( position < last || position > last + MAX_GAP )
+        {
+            cursor.scanLength = 0;
+            cursor.readAheadUntil = -1;
+            return -1;
+        }
+        if ( ++cursor.scanLength < SCAN_THRESHOLD )
+        {
+            return -1;
+        }
+        if ( cursor.readAheadUntil == -1 )
+        {
+            cursor.readAheadUntil = position + 1;
+        }
+        else if ( position + readAheadRecords / 2 < cursor.readAheadUntil )
+        {
+            return -1;
+        }
+        long from = Math.max( position + 1, cursor.readAheadUntil );
+        cursor.readAheadUntil = from + readAheadRecords;
+        return from;
+    }
+}
@@ -38,6 +38,15 @@ public interface Store
      */
     public long nextId();
 
+    /**
+     * Returns the id of a free record, preferring one stored close to the
+     * record with id <CODE>near</CODE>.
+     *
+     * @param near The id of a record, <CODE>-1</CODE> for no preference
+     * @return The id of the next free record
+     */
+    public long nextId( long near );
+
     public String getTypeDescriptor();
 
     public long getHighestPossibleIdInUse();
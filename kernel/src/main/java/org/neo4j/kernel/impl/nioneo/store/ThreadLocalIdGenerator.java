@@ -0,0 +1,280 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An {@link IdGenerator} handing each thread a range of ids of its own,
+ * taken from another id generator with {@link IdGenerator#nextIdBatch(int)},
+ * so that threads creating records concurrently don't contend for the
+ * (synchronized) generator for every id.
+ * <p>
+ * The ids left in the range of a thread that has died are freed when the
+ * next range is handed out, and the ids left in all ranges when the
+ * generator is closed, so that they are reused like any other freed id. The
+ * ids left in the ranges aren't counted as in use by
+ * {@link #getNumberOfIdsInUse()}.
+ */
+public class ThreadLocalIdGenerator implements IdGenerator
+{
+    private final IdGenerator delegate;
+    private final int rangeSize;
+    private final ThreadLocal<Range> currentRange = new ThreadLocal<Range>();
+    // guarded by this, the ranges handed out that may still have ids left
+    private final List<Range> ranges = new ArrayList<Range>();
+    // ranges of older generations are abandoned, see setHighId
+    private volatile int generation = 0;
+
+    private static class Range
+    {
+        private final WeakReference<Thread> owner;
+        private final int generation;
+        private final long[] defragIds;
+        private final long end;
+        // only changed by the owner, read by others to count the ids left
+        private volatile int defragPos = 0;
+        private volatile long next;
+
+        Range( Thread owner, int generation, IdRange idRange )
+        {
+            this.owner = new WeakReference<Thread>( owner );
+            this.generation = generation;
+            this.defragIds = idRange.getDefragIds();
+            this.next = idRange.getRangeStart();
+            this.end = idRange.getRangeStart() + idRange.getRangeLength();
+        }
+
+        /**
+         * @return the next id of this range, -1 if there are no more
+         */
+        long nextId()
+        {
+            if ( defragPos < defragIds.length )
+            {
+                return defragIds[defragPos++];
+            }
+            long id = next;
+            if ( id == IdGeneratorImpl.INTEGER_MINUS_ONE )
+            {
+                // reserved, see IdGeneratorImpl#nextId
+                id++;
+            }
+            if ( id >= end )
+            {
+                next = end;
+                return -1;
+            }
+            next = id + 1;
+            return id;
+        }
+
+        boolean nextIsIn( long pageStart, int idsPerPage )
+        {
+            if ( defragPos < defragIds.length )
+            {
+                long id = defragIds[defragPos];
+                return id >= pageStart && id < pageStart + idsPerPage;
+            }
+            return next >= pageStart && next < pageStart + idsPerPage;
+        }
+
+        long idsLeft()
+        {
+            return (defragIds.length - defragPos) + (end - next);
+        }
+
+        boolean ownerIsDead()
+        {
+            Thread thread = owner.get();
+            return thread == null || !thread.isAlive();
+        }
+    }
+
+    /**
+     * @param delegate
+     *            The generator to take the ranges from
+     * @param rangeSize
+     *            The number of ids to give each thread at a time
+     */
+    public ThreadLocalIdGenerator( IdGenerator delegate, int rangeSize )
+    {
+        if ( rangeSize < 1 )
+        {
+            throw new IllegalArgumentException( "Illegal range size "
+                + rangeSize );
+        }
+        this.delegate = delegate;
+        this.rangeSize = rangeSize;
+    }
+
+    public long nextId()
+    {
+        Range range = currentRange.get();
+        if ( range != null && range.generation == generation )
+        {
+            long id = range.nextId();
+            if ( id != -1 )
+            {
+                return id;
+            }
+        }
+        while ( true )
+        {
+            range = nextRange( range );
+            currentRange.set( range );
+            long id = range.nextId();
+            if ( id != -1 )
+            {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Takes the next id of the calling thread's range if it is in the page
+     * of <CODE>near</CODE>, otherwise asks the underlying generator.
+     */
+    public long nextIdNear( long near, int idsPerPage )
+    {
+        Range range = currentRange.get();
+        if ( range != null && range.generation == generation &&
+            range.nextIsIn( near - near % idsPerPage, idsPerPage ) )
+        {
+            long id = range.nextId();
+            if ( id != -1 )
+            {
+                return id;
+            }
+        }
+        synchronized ( this )
+        {
+            return delegate.nextIdNear( near, idsPerPage );
+        }
+    }
+
+    private synchronized Range nextRange( Range previous )
+    {
+        if ( previous != null )
+        {
+            // used up or abandoned
+            ranges.remove( previous );
+        }
+        List<Range> deadRanges = new ArrayList<Range>();
+        for ( Iterator<Range> itr = ranges.iterator(); itr.hasNext(); )
+        {
+            Range range = itr.next();
+            if ( range.ownerIsDead() )
+            {
+                itr.remove();
+                deadRanges.add( range );
+            }
+        }
+        giveBack( deadRanges );
+        Range range = new Range( Thread.currentThread(), generation,
+            delegate.nextIdBatch( rangeSize ) );
+        ranges.add( range );
+        return range;
+    }
+
+    /**
+     * Frees the ids left in <CODE>toGiveBack</CODE> in the underlying
+     * generator, must be called with the ranges removed from
+     * {@link #ranges}.
+     */
+    private void giveBack( List<Range> toGiveBack )
+    {
+        for ( Range range : toGiveBack )
+        {
+            for ( int i = range.defragPos; i < range.defragIds.length; i++ )
+            {
+                delegate.freeId( range.defragIds[i] );
+            }
+            for ( long id = range.next; id < range.end; id++ )
+            {
+                delegate.freeId( id );
+            }
+        }
+    }
+
+    public synchronized IdRange nextIdBatch( int size )
+    {
+        return delegate.nextIdBatch( size );
+    }
+
+    /**
+     * Sets the high id of the underlying generator, the ranges handed out
+     * are abandoned since they may not be valid anymore.
+     */
+    public synchronized void setHighId( long id )
+    {
+        generation++;
+        ranges.clear();
+        delegate.setHighId( id );
+    }
+
+    public long getHighId()
+    {
+        return delegate.getHighId();
+    }
+
+    public void freeId( long id )
+    {
+        delegate.freeId( id );
+    }
+
+    public synchronized void close()
+    {
+        generation++;
+        giveBack( new ArrayList<Range>( ranges ) );
+        ranges.clear();
+        delegate.close();
+    }
+
+    public synchronized long getNumberOfIdsInUse()
+    {
+        long idsLeft = 0;
+        for ( Range range : ranges )
+        {
+            idsLeft += range.idsLeft();
+        }
+        return delegate.getNumberOfIdsInUse() - idsLeft;
+    }
+
+    public long getDefragCount()
+    {
+        return delegate.getDefragCount();
+    }
+
+    public void clearFreeIds()
+    {
+        delegate.clearFreeIds();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ThreadLocalIdGenerator[" + delegate + ", range size " +
+            rangeSize + "]";
+    }
+}
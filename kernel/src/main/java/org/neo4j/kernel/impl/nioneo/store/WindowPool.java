@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+/**
+ * Hands out {@link PersistenceWindow persistence windows} for the records of
+ * a single store file. A window acquired through
+ * {@link #acquire(long, OperationType)} is locked for the calling thread and
+ * must be given back via {@link #release(PersistenceWindow)} once the
+ * operation has been performed.
+ */
+public interface WindowPool
+{
+    /**
+     * Acquires a window for <CODE>position</CODE> and
+     * <CODE>operationType</CODE>, locking the window preventing other threads
+     * from using it.
+     *
+     * @param position
+     *            The position the needs to be encapsulated by the window
+     * @param operationType
+     *            The type of operation (READ or WRITE)
+     * @return A locked window encapsulating the position
+     */
+    public PersistenceWindow acquire( long position, OperationType operationType );
+
+    /**
+     * Releases a window used for an operation back to the pool and unlocks it
+     * so other threads may use it.
+     *
+     * @param window
+     *            The window to be released
+     */
+    public void release( PersistenceWindow window );
+
+    /**
+     * Writes all changes made through this pool to the underlying file.
+     */
+    public void flushAll();
+
+    /**
+     * Writes back some of the windows that have been changed since they were
+     * last written, used to spread out the writes of {@link #flushAll()}.
+     *
+     * @param maxBytes
+     *            The approximate number of bytes to write back
+     * @return The number of bytes written back
+     */
+    public long writeBehind( long maxBytes );
+
+    /**
+     * Brings <CODE>records</CODE> records starting at <CODE>position</CODE>
+     * into memory ahead of them being acquired, used when a store is read
+     * sequentially. The records may or may not still be in memory once they
+     * are acquired.
+     *
+     * @param position
+     *            The position of the first record to read ahead
+     * @param records
+     *            The number of records to read ahead
+     */
+    public void readAhead( long position, int records );
+
+    /**
+     * Tells the pool that the store file has been grown to
+     * <CODE>fileSize</CODE> bytes ahead of records being written there, so
+     * that the pool can set itself up for the new part of the file at once
+     * rather than as it is accessed.
+     *
+     * @param fileSize
+     *            The new size of the file
+     */
+    public void fileGrown( long fileSize );
+
+    /**
+     * @return how hot the regions of the store file are at the moment, or
+     *         <CODE>null</CODE> if this pool has nothing to keep in memory
+     */
+    public HeatMap getHeatMap();
+
+    /**
+     * Brings the regions that were hot according to <CODE>heatMap</CODE>,
+     * typically saved before the database was last shut down, into memory,
+     * hottest first, as far as the memory of the pool allows. Called in the
+     * background while the pool is already in use.
+     *
+     * @param heatMap
+     *            The heat map to warm up according to
+     */
+    public void warmUp( HeatMap heatMap );
+
+    /**
+     * Flushes and releases all resources held by this pool. The pool may not
+     * be used after it has been closed.
+     */
+    public void close();
+
+    public WindowPoolStats getStats();
+}
@@ -32,9 +32,17 @@ public class WindowPoolStats
     private final int hitCount;
     private final int missCount;
     private final int oomCount;
+    private final int dirtyCount;
     
     public WindowPoolStats( String name, long memAvail, long memUsed, int windowCount,
             int windowSize, int hitCount, int missCount, int oomCount )
+    {
+        this( name, memAvail, memUsed, windowCount, windowSize, hitCount,
+                missCount, oomCount, 0 );
+    }
+    
+    public WindowPoolStats( String name, long memAvail, long memUsed, int windowCount,
+            int windowSize, int hitCount, int missCount, int oomCount, int dirtyCount )
     {
         this.name = name;
         this.memAvail = memAvail;
@@ -44,6 +52,7 @@ public class WindowPoolStats
         this.hitCount = hitCount;
         this.missCount = missCount;
         this.oomCount = oomCount;
+        this.dirtyCount = dirtyCount;
     }
     
     public String getName()
@@ -85,4 +94,9 @@ public class WindowPoolStats
     {
         return oomCount;
     }
+
+    public int getDirtyCount()
+    {
+        return dirtyCount;
+    }
 }
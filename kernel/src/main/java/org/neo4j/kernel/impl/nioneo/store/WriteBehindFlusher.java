@@ -0,0 +1,201 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.neo4j.kernel.Config;
+
+/**
+ * Writes back dirty windows of the stores in the background so that a
+ * {@link CommonAbstractStore#flushAll() flush} at log rotation or shutdown
+ * only has a small remainder left to write. Every tick the flusher hands an
+ * I/O budget to the registered {@link WindowPool window pools} in turn,
+ * starting with the pool after the one that got to write last time.
+ * <p>
+ * Enabled by setting {@link Config#WRITE_BEHIND_BYTES_PER_SECOND}, the
+ * flusher is passed to the stores in the configuration map (keyed by this
+ * class).
+ */
+public class WriteBehindFlusher
+{
+    private static final Logger log = Logger.getLogger(
+        WriteBehindFlusher.class.getName() );
+
+    static final int TICK_MILLIS = 100;
+
+    private final long bytesPerTick;
+    private final List<WindowPool> pools = new ArrayList<WindowPool>();
+    private int nextPool = 0;
+    private long bytesWritten = 0;
+    private FlusherThread workerThread;
+
+    /**
+     * @param bytesPerSecond
+     *            The number of bytes the flusher may write per second
+     */
+    public WriteBehindFlusher( long bytesPerSecond )
+    {
+        if ( bytesPerSecond <= 0 )
+        {
+            throw new IllegalArgumentException( "Illegal I/O budget "
+                + bytesPerSecond );
+        }
+        this.bytesPerTick = Math.max( 1, bytesPerSecond * TICK_MILLIS / 1000 );
+    }
+
+    /**
+     * Creates the flusher described by <CODE>config</CODE>.
+     *
+     * @param config
+     *            Map of configuration parameters
+     * @return a new, not yet started, flusher or <CODE>null</CODE> if write
+     *         behind hasn't been configured
+     */
+    public static WriteBehindFlusher fromConfig( Map<?,?> config )
+    {
+        long bytesPerSecond = CommonAbstractStore.parseMemorySize(
+            (String) config.get( Config.WRITE_BEHIND_BYTES_PER_SECOND ),
+            Config.WRITE_BEHIND_BYTES_PER_SECOND );
+        if ( bytesPerSecond <= 0 )
+        {
+            return null;
+        }
+        return new WriteBehindFlusher( bytesPerSecond );
+    }
+
+    public synchronized void register( WindowPool pool )
+    {
+        pools.add( pool );
+    }
+
+    /**
+     * Removes <CODE>pool</CODE> from this flusher, waiting for any ongoing
+     * write back of it to complete. Must be called before the pool is closed.
+     */
+    public synchronized void unregister( WindowPool pool )
+    {
+        pools.remove( pool );
+    }
+
+    public void start()
+    {
+        workerThread = new FlusherThread();
+        workerThread.start();
+    }
+
+    public void stop()
+    {
+        if ( workerThread != null )
+        {
+            workerThread.markDone();
+            workerThread = null;
+        }
+    }
+
+    /**
+     * Writes back dirty windows within the budget of one tick.
+     *
+     * @return the number of bytes written back
+     */
+    synchronized long flushTick()
+    {
+        long written = 0;
+        for ( int i = 0; i < pools.size() && written < bytesPerTick; i++ )
+        {
+            if ( nextPool >= pools.size() )
+            {
+                nextPool = 0;
+            }
+            written += pools.get( nextPool++ ).writeBehind(
+                bytesPerTick - written );
+        }
+        bytesWritten += written;
+        return written;
+    }
+
+    /**
+     * @return the number of windows, in all registered pools, that hold
+     *         changes not yet written to their store file
+     */
+    public synchronized int getDirtyWindowCount()
+    {
+        int dirty = 0;
+        for ( WindowPool pool : pools )
+        {
+            dirty += pool.getStats().getDirtyCount();
+        }
+        return dirty;
+    }
+
+    /**
+     * @return the total number of bytes written back by this flusher
+     */
+    public synchronized long getBytesWritten()
+    {
+        return bytesWritten;
+    }
+
+    private class FlusherThread extends Thread
+    {
+        private boolean done = false;
+
+        FlusherThread()
+        {
+            super( "WriteBehindFlusher" );
+            setDaemon( true );
+        }
+
+        @Override
+        public synchronized void run()
+        {
+            while ( !done )
+            {
+                try
+                {
+                    flushTick();
+                }
+                catch ( RuntimeException e )
+                {
+                    log.log( Level.WARNING, "Unable to write back dirty "
+                        + "windows", e );
+                }
+                try
+                {
+                    this.wait( TICK_MILLIS );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.interrupted();
+                }
+            }
+        }
+
+        synchronized void markDone()
+        {
+            done = true;
+            notify();
+        }
+    }
+}
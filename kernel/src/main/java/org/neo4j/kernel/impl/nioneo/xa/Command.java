@@ -36,12 +36,14 @@ import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyType;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeStore;
 import org.neo4j.kernel.impl.transaction.xaframework.LogBuffer;
 import org.neo4j.kernel.impl.transaction.xaframework.XaCommand;
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
 
 /**
  * Command implementations for all the commands that can be performed on a Neo
@@ -282,6 +284,7 @@ public abstract class Command extends XaCommand
     private static final byte REL_COMMAND = (byte) 3;
     private static final byte REL_TYPE_COMMAND = (byte) 4;
     private static final byte PROP_INDEX_COMMAND = (byte) 5;
+    private static final byte REL_GROUP_COMMAND = (byte) 6;
 
     static class NodeCommand extends Command
     {
@@ -426,6 +429,11 @@ public abstract class Command extends XaCommand
             return record.getSecondNode();
         }
 
+        int getType()
+        {
+            return record.getType();
+        }
+
         boolean isRemove()
         {
             return !record.inUse();
@@ -534,6 +542,136 @@ public abstract class Command extends XaCommand
         }
     }
 
+    static class RelationshipGroupCommand extends Command
+    {
+        private final RelationshipGroupRecord record;
+        private final RelationshipStore store;
+
+        RelationshipGroupCommand( RelationshipStore store,
+            RelationshipGroupRecord record )
+        {
+            super( record.getId() );
+            this.record = record;
+            this.store = store;
+        }
+
+        @Override
+        boolean isCreated()
+        {
+            return record.isCreated();
+        }
+
+        @Override
+        boolean isDeleted()
+        {
+            return !record.inUse();
+        }
+
+        long getOwningNode()
+        {
+            return record.getOwningNode();
+        }
+
+        @Override
+        public void execute()
+        {
+            if ( isRecovered() )
+            {
+                logger.fine( this.toString() );
+                store.updateRecord( record, true );
+            }
+            else
+            {
+                store.updateRecord( record );
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return "RelationshipGroupCommand[" + record + "]";
+        }
+
+        @Override
+        public void writeToFile( LogBuffer buffer ) throws IOException
+        {
+            byte inUse = record.inUse() ? Record.IN_USE.byteValue()
+                : Record.NOT_IN_USE.byteValue();
+            buffer.put( REL_GROUP_COMMAND );
+            buffer.putLong( record.getId() );
+            buffer.put( inUse );
+            // owning node and type are written for deleted groups too so that
+            // the node can be evicted from the cache when applying the command
+            buffer.putInt( record.getType() ).putLong( record.getOwningNode() );
+            if ( record.inUse() )
+            {
+                buffer.putLong( record.getNext() ).putLong(
+                    record.getFirst( DirectionWrapper.OUTGOING ) ).putLong(
+                    record.getFirst( DirectionWrapper.INCOMING ) ).putLong(
+                    record.getFirst( DirectionWrapper.BOTH ) ).putLong(
+                    record.getCount( DirectionWrapper.OUTGOING ) ).putLong(
+                    record.getCount( DirectionWrapper.INCOMING ) ).putLong(
+                    record.getCount( DirectionWrapper.BOTH ) );
+            }
+        }
+
+        public static Command readCommand( NeoStore neoStore,
+            ReadableByteChannel byteChannel, ByteBuffer buffer )
+            throws IOException
+        {
+            buffer.clear();
+            buffer.limit( 21 );
+            if ( byteChannel.read( buffer ) != buffer.limit() )
+            {
+                return null;
+            }
+            buffer.flip();
+            long id = buffer.getLong();
+            byte inUseFlag = buffer.get();
+            boolean inUse = false;
+            if ( inUseFlag == Record.IN_USE.byteValue() )
+            {
+                inUse = true;
+            }
+            else if ( inUseFlag != Record.NOT_IN_USE.byteValue() )
+            {
+                throw new IOException( "Illegal in use flag: " + inUseFlag );
+            }
+            RelationshipGroupRecord record = new RelationshipGroupRecord( id,
+                buffer.getInt(), buffer.getLong() );
+            record.setInUse( inUse );
+            if ( inUse )
+            {
+                buffer.clear();
+                buffer.limit( 56 );
+                if ( byteChannel.read( buffer ) != buffer.limit() )
+                {
+                    return null;
+                }
+                buffer.flip();
+                record.setNext( buffer.getLong() );
+                record.setFirst( DirectionWrapper.OUTGOING, buffer.getLong() );
+                record.setFirst( DirectionWrapper.INCOMING, buffer.getLong() );
+                record.setFirst( DirectionWrapper.BOTH, buffer.getLong() );
+                record.setCount( DirectionWrapper.OUTGOING, buffer.getLong() );
+                record.setCount( DirectionWrapper.INCOMING, buffer.getLong() );
+                record.setCount( DirectionWrapper.BOTH, buffer.getLong() );
+            }
+            return new RelationshipGroupCommand( neoStore == null ? null :
+                neoStore.getRelationshipStore(), record );
+        }
+
+        @Override
+        public boolean equals( Object o )
+        {
+            if ( !(o instanceof RelationshipGroupCommand) )
+            {
+                return false;
+            }
+            return getKey() == ((Command) o).getKey();
+        }
+    }
+
     static class PropertyIndexCommand extends Command
     {
         private final PropertyIndexRecord record;
@@ -1003,6 +1141,9 @@ public abstract class Command extends XaCommand
             case REL_TYPE_COMMAND:
                 return RelationshipTypeCommand.readCommand( neoStore,
                     byteChannel, buffer );
+            case REL_GROUP_COMMAND:
+                return RelationshipGroupCommand.readCommand( neoStore,
+                    byteChannel, buffer );
             case NONE: return null;
             default:
                 throw new IOException( "Unknown command type[" + commandType
@@ -42,11 +42,15 @@ import org.neo4j.kernel.Config;
 import org.neo4j.kernel.impl.core.LockReleaser;
 import org.neo4j.kernel.impl.core.PropertyIndex;
 import org.neo4j.kernel.impl.index.IndexStore;
+import org.neo4j.kernel.impl.nioneo.store.HeatMapKeeper;
 import org.neo4j.kernel.impl.nioneo.store.NeoStore;
+import org.neo4j.kernel.impl.nioneo.store.PageCache;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
+import org.neo4j.kernel.impl.nioneo.store.ReadAheadWorker;
 import org.neo4j.kernel.impl.nioneo.store.Store;
 import org.neo4j.kernel.impl.nioneo.store.StoreId;
 import org.neo4j.kernel.impl.nioneo.store.WindowPoolStats;
+import org.neo4j.kernel.impl.nioneo.store.WriteBehindFlusher;
 import org.neo4j.kernel.impl.persistence.IdGenerationFailedException;
 import org.neo4j.kernel.impl.transaction.LockManager;
 import org.neo4j.kernel.impl.transaction.xaframework.LogBackedXaDataSource;
@@ -90,6 +94,9 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
     private boolean logApplied = false;
 
     private final StringLogger msgLog;
+    private final WriteBehindFlusher writeBehindFlusher;
+    private final ReadAheadWorker readAheadWorker;
+    private final HeatMapKeeper heatMapKeeper;
 
     /**
      * Creates a <CODE>NeoStoreXaDataSource</CODE> using configuration from
@@ -121,10 +128,48 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
         storeDir = (String) config.get( "store_dir" );
         msgLog = StringLogger.getLogger( storeDir );
         String store = (String) config.get( "neo_store" );
+        // the id generators are rebuilt from a full scan of the store files
+        // only if the fast rebuild has been turned off
         if ( !config.containsKey( REBUILD_IDGENERATORS_FAST ) )
         {
             config.put( REBUILD_IDGENERATORS_FAST, "true" );
         }
+        if ( !config.containsKey( PageCache.class ) )
+        {
+            PageCache pageCache = PageCache.fromConfig( config );
+            if ( pageCache != null )
+            {
+                config.put( PageCache.class, pageCache );
+            }
+        }
+        writeBehindFlusher = readOnly ? null : WriteBehindFlusher.fromConfig( config );
+        if ( writeBehindFlusher != null )
+        {
+            config.put( WriteBehindFlusher.class, writeBehindFlusher );
+        }
+        else
+        {
+            config.remove( WriteBehindFlusher.class );
+        }
+        readAheadWorker = ReadAheadWorker.fromConfig( config );
+        if ( readAheadWorker != null )
+        {
+            config.put( ReadAheadWorker.class, readAheadWorker );
+            readAheadWorker.start();
+        }
+        else
+        {
+            config.remove( ReadAheadWorker.class );
+        }
+        heatMapKeeper = HeatMapKeeper.fromConfig( config );
+        if ( heatMapKeeper != null )
+        {
+            config.put( HeatMapKeeper.class, heatMapKeeper );
+        }
+        else
+        {
+            config.remove( HeatMapKeeper.class );
+        }
         File file = new File( store );
         String create = "" + config.get( "create" );
         if ( !readOnly && !file.exists() && "true".equals( create ) )
@@ -172,6 +217,14 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
                 neoStore.getPropertyStore().getIndexStore() );
             setKeepLogicalLogsIfSpecified( (String) config.get( Config.KEEP_LOGICAL_LOGS ), Config.DEFAULT_DATA_SOURCE_NAME );
             setLogicalLogAtCreationTime( xaContainer.getLogicalLog() );
+            if ( writeBehindFlusher != null )
+            {
+                writeBehindFlusher.start();
+            }
+            if ( heatMapKeeper != null )
+            {
+                heatMapKeeper.start();
+            }
         }
         catch ( Throwable e )
         {   // Something unexpected happened during startup
@@ -183,6 +236,10 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
             {
                 msgLog.logMessage( "Couldn't close neostore after startup failure" );
             }
+            if ( readAheadWorker != null )
+            {
+                readAheadWorker.stop();
+            }
             throw Exceptions.launderedException( e );
         }
     }
@@ -259,6 +316,14 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
     @Override
     public void close()
     {
+        if ( writeBehindFlusher != null )
+        {
+            writeBehindFlusher.stop();
+        }
+        if ( heatMapKeeper != null )
+        {
+            heatMapKeeper.stop();
+        }
         if ( !readOnly )
         {
             neoStore.flushAll();
@@ -270,6 +335,10 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
             logApplied = false;
         }
         neoStore.close();
+        if ( readAheadWorker != null )
+        {
+            readAheadWorker.stop();
+        }
         logger.fine( "NeoStore closed" );
         msgLog.logMessage( "NeoStore closed", true );
     }
@@ -384,6 +453,18 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
         return store.nextId();
     }
 
+    public long nextId( Class<?> clazz, long near )
+    {
+        Store store = idGenerators.get( clazz );
+
+        if ( store == null )
+        {
+            throw new IdGenerationFailedException( "No IdGenerator for: "
+                + clazz );
+        }
+        return store.nextId( near );
+    }
+
     public long getHighestPossibleIdInUse( Class<?> clazz )
     {
         Store store = idGenerators.get( clazz );
@@ -507,7 +588,8 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
                     neostoreFile = dbFile;
                 }
                 else if ( (name.startsWith( NeoStore.DEFAULT_NAME ) ||
-                        name.equals( IndexStore.INDEX_DB_FILE_NAME )) && !name.endsWith( ".id" ) )
+                        name.equals( IndexStore.INDEX_DB_FILE_NAME )) && !name.endsWith( ".id" ) &&
+                        !name.contains( HeatMapKeeper.HEAT_MAP_SUFFIX ) )
                 {   // Store files
                     files.add( dbFile );
                 }
@@ -111,6 +111,11 @@ public class NioNeoDbPersistenceSource implements PersistenceSource
         return xaDs.nextId( clazz );
     }
 
+    public long nextId( Class<?> clazz, long near )
+    {
+        return xaDs.nextId( clazz, near );
+    }
+
     // for recovery, returns a xa
     public XAResource getXaResource()
     {
@@ -22,14 +22,16 @@ package org.neo4j.kernel.impl.nioneo.xa;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
 import javax.transaction.xa.XAResource;
 
-import org.neo4j.helpers.Pair;
 import org.neo4j.kernel.impl.core.PropertyIndex;
+import org.neo4j.kernel.impl.nioneo.store.CountsStore;
+import org.neo4j.kernel.impl.nioneo.store.DenseNodeChainPosition;
 import org.neo4j.kernel.impl.nioneo.store.InvalidRecordException;
 import org.neo4j.kernel.impl.nioneo.store.NeoStore;
 import org.neo4j.kernel.impl.nioneo.store.NodeStore;
@@ -41,9 +43,13 @@ import org.neo4j.kernel.impl.nioneo.store.PropertyIndexStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipChains;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipLoadingPosition;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeData;
+import org.neo4j.kernel.impl.nioneo.store.SingleChainPosition;
 import org.neo4j.kernel.impl.persistence.NeoStoreTransaction;
 import org.neo4j.kernel.impl.transaction.xaframework.XaConnection;
 import org.neo4j.kernel.impl.util.ArrayMap;
@@ -92,20 +98,70 @@ class ReadTransaction implements NeoStoreTransaction
     }
 
     @Override
-    public long getRelationshipChainPosition( long nodeId )
+    public RelationshipLoadingPosition getRelationshipChainPosition( long nodeId )
     {
-        return getNodeStore().getRecord( nodeId ).getNextRel();
+        return getRelationshipChainPosition(
+            getNodeStore().getRecord( nodeId ).getNextRel(), getRelationshipStore() );
+    }
+
+    static RelationshipLoadingPosition getRelationshipChainPosition( long nextRel,
+            RelationshipStore relStore )
+    {
+        if ( !relStore.isGroup( nextRel ) )
+        {
+            return new SingleChainPosition( nextRel );
+        }
+        List<RelationshipGroupRecord> groups = new ArrayList<RelationshipGroupRecord>();
+        for ( long groupId = nextRel; groupId != Record.NO_NEXT_RELATIONSHIP.intValue(); )
+        {
+            RelationshipGroupRecord group = relStore.getGroupRecord( groupId );
+            groups.add( group );
+            groupId = group.getNext();
+        }
+        return new DenseNodeChainPosition( groups );
+    }
+
+    @Override
+    public Map<DirectionWrapper, Iterable<RelationshipRecord>> getMoreRelationships(
+            long nodeId, RelationshipLoadingPosition position, DirectionWrapper direction,
+            int[] types )
+    {
+        return getMoreRelationships( nodeId, position, direction, types, getRelGrabSize(),
+            getRelationshipStore() );
     }
 
     @Override
-    public Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> getMoreRelationships(
-            long nodeId, long position )
+    public long getDegree( long nodeId, DirectionWrapper direction, int[] types )
     {
-        return getMoreRelationships( nodeId, position, getRelGrabSize(), getRelationshipStore() );
+        return RelationshipChains.degree( nodeId,
+            getNodeStore().getRecord( nodeId ).getNextRel(), direction, types,
+            getRelationshipStore() );
     }
 
-    static Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> getMoreRelationships(
-            long nodeId, long position, int grabSize, RelationshipStore relStore )
+    @Override
+    public long getRelationshipChainHead( long nodeId )
+    {
+        // holds no records
+        return -1;
+    }
+
+    @Override
+    public long getNodeCount()
+    {
+        return neoStore.getCountsStore().getNodeCount();
+    }
+
+    @Override
+    public long getRelationshipCount( int type )
+    {
+        CountsStore counts = neoStore.getCountsStore();
+        return type == -1 ? counts.getRelationshipCount() :
+            counts.getRelationshipCount( type );
+    }
+
+    static Map<DirectionWrapper, Iterable<RelationshipRecord>> getMoreRelationships(
+            long nodeId, RelationshipLoadingPosition loadingPosition, DirectionWrapper direction,
+            int[] types, int grabSize, RelationshipStore relStore )
     {
         // initialCapacity=grabSize saves the lists the trouble of resizing
         List<RelationshipRecord> out = new ArrayList<RelationshipRecord>();
@@ -115,6 +171,7 @@ class ReadTransaction implements NeoStoreTransaction
             new EnumMap<DirectionWrapper, Iterable<RelationshipRecord>>( DirectionWrapper.class );
         result.put( DirectionWrapper.OUTGOING, out );
         result.put( DirectionWrapper.INCOMING, in );
+        long position = loadingPosition.position( direction, types );
         for ( int i = 0; i < grabSize &&
             position != Record.NO_NEXT_RELATIONSHIP.intValue(); i++ )
         {
@@ -122,7 +179,7 @@ class ReadTransaction implements NeoStoreTransaction
             if ( relRecord == null )
             {
                 // return what we got so far
-                return Pair.of( result, position );
+                return result;
             }
             long firstNode = relRecord.getFirstNode();
             long secondNode = relRecord.getSecondNode();
@@ -153,22 +210,10 @@ class ReadTransaction implements NeoStoreTransaction
                 i--;
             }
 
-            if ( firstNode == nodeId )
-            {
-                position = relRecord.getFirstNextRel();
-            }
-            else if ( secondNode == nodeId )
-            {
-                position = relRecord.getSecondNextRel();
-            }
-            else
-            {
-                throw new InvalidRecordException( "Node[" + nodeId +
-                    "] is neither firstNode[" + firstNode +
-                    "] nor secondNode[" + secondNode + "] for Relationship[" + relRecord.getId() + "]" );
-            }
+            position = loadingPosition.nextPosition(
+                RelationshipChains.getNext( relRecord, nodeId ), direction, types );
         }
-        return Pair.of( result, position );
+        return result;
     }
 
     static List<PropertyRecord> getPropertyRecordChain(
@@ -247,15 +292,46 @@ class ReadTransaction implements NeoStoreTransaction
     @Override
     public Object loadPropertyValue( PropertyData property )
     {
-        PropertyRecord propertyRecord = getPropertyStore().getRecord(
+        PropertyRecord propertyRecord = getPropertyStore().getLightRecord(
                 property.getId() );
+        return loadValue( getPropertyStore(), propertyRecord, property );
+    }
+
+    @Override
+    public Object[] loadPropertyValues( PropertyData[] properties )
+    {
+        Object[] values = new Object[properties.length];
+        Map<Long,PropertyRecord> records = new HashMap<Long,PropertyRecord>();
+        for ( int i = 0; i < properties.length; i++ )
+        {
+            PropertyRecord propertyRecord = records.get( properties[i].getId() );
+            if ( propertyRecord == null )
+            {
+                propertyRecord = getPropertyStore().getLightRecord(
+                        properties[i].getId() );
+                records.put( propertyRecord.getId(), propertyRecord );
+            }
+            values[i] = loadValue( getPropertyStore(), propertyRecord, properties[i] );
+        }
+        return values;
+    }
+
+    static Object loadValue( PropertyStore propertyStore,
+            PropertyRecord propertyRecord, PropertyData property )
+    {
         PropertyBlock propertyBlock = propertyRecord.getPropertyBlock( property.getIndex() );
+        if ( propertyBlock == null )
+        {
+            throw new IllegalStateException( "Property with index["
+                                             + property.getIndex()
+                                             + "] is not present in property["
+                                             + property.getId() + "]" );
+        }
         if ( propertyBlock.isLight() )
         {
-            getPropertyStore().makeHeavy( propertyBlock );
+            propertyStore.makeHeavy( propertyBlock );
         }
-        return propertyBlock.getType().getValue( propertyBlock,
-                getPropertyStore() );
+        return propertyBlock.getType().getValue( propertyBlock, propertyStore );
     }
 
     @Override
@@ -27,9 +27,11 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.transaction.xa.XAException;
 import javax.transaction.xa.XAResource;
@@ -38,9 +40,9 @@ import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
-import org.neo4j.helpers.Pair;
 import org.neo4j.kernel.impl.core.LockReleaser;
 import org.neo4j.kernel.impl.core.PropertyIndex;
+import org.neo4j.kernel.impl.nioneo.store.CountsStore;
 import org.neo4j.kernel.impl.nioneo.store.DynamicRecord;
 import org.neo4j.kernel.impl.nioneo.store.InvalidRecordException;
 import org.neo4j.kernel.impl.nioneo.store.NeoStore;
@@ -56,11 +58,15 @@ import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyType;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipChains;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipLoadingPosition;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeData;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeStore;
+import org.neo4j.kernel.impl.nioneo.store.SingleChainPosition;
 import org.neo4j.kernel.impl.nioneo.xa.Command.PropertyCommand;
 import org.neo4j.kernel.impl.persistence.NeoStoreTransaction;
 import org.neo4j.kernel.impl.transaction.LockManager;
@@ -88,6 +94,8 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         new HashMap<Integer,RelationshipTypeRecord>();
     private final Map<Integer,PropertyIndexRecord> propIndexRecords =
         new HashMap<Integer,PropertyIndexRecord>();
+    private final Map<Long,RelationshipGroupRecord> relGroupRecords =
+        new HashMap<Long,RelationshipGroupRecord>();
 
     private final ArrayList<Command.NodeCommand> nodeCommands =
         new ArrayList<Command.NodeCommand>();
@@ -99,6 +107,15 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         new ArrayList<Command.RelationshipCommand>();
     private final ArrayList<Command.RelationshipTypeCommand> relTypeCommands =
         new ArrayList<Command.RelationshipTypeCommand>();
+    private final ArrayList<Command.RelationshipGroupCommand> relGroupCommands =
+        new ArrayList<Command.RelationshipGroupCommand>();
+
+    // number of relationships of nodes with a single chain that got
+    // relationships added in this tx, only kept if there is a dense node
+    // threshold and never counted past it
+    private final Map<Long,Integer> nodeDegrees = new HashMap<Long,Integer>();
+    // nodes that got their relationships grouped in this tx
+    private final Set<Long> groupedNodes = new HashSet<Long>();
 
     private final NeoStore neoStore;
     private boolean committed = false;
@@ -124,7 +141,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         {
             if ( nodeCommands.size() == 0 && propCommands.size() == 0 &&
                 relCommands.size() == 0 && relTypeCommands.size() == 0 &&
-                propIndexCommands.size() == 0 )
+                propIndexCommands.size() == 0 && relGroupCommands.size() == 0 )
             {
                 return true;
             }
@@ -132,7 +149,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         }
         if ( nodeRecords.size() == 0 && relRecords.size() == 0 &&
             relTypeRecords.size() == 0 && propertyRecords.size() == 0 &&
-            propIndexRecords.size() == 0 )
+            propIndexRecords.size() == 0 && relGroupRecords.size() == 0 )
         {
             return true;
         }
@@ -197,6 +214,14 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             }
             addCommand( command );
         }
+        for ( RelationshipGroupRecord record : relGroupRecords.values() )
+        {
+            Command.RelationshipGroupCommand command =
+                new Command.RelationshipGroupCommand(
+                    neoStore.getRelationshipStore(), record );
+            relGroupCommands.add( command );
+            addCommand( command );
+        }
         for ( PropertyIndexRecord record : propIndexRecords.values() )
         {
             Command.PropertyIndexCommand command =
@@ -237,6 +262,10 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         {
             relTypeCommands.add( (Command.RelationshipTypeCommand) xaCommand );
         }
+        else if ( xaCommand instanceof Command.RelationshipGroupCommand )
+        {
+            relGroupCommands.add( (Command.RelationshipGroupCommand) xaCommand );
+        }
         else
         {
             throw new IllegalArgumentException( "Unknown command " + xaCommand );
@@ -286,6 +315,13 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
                 }
                 removeRelationshipFromCache( record.getId() );
             }
+            for ( RelationshipGroupRecord record : relGroupRecords.values() )
+            {
+                if ( record.isCreated() )
+                {
+                    getRelationshipStore().freeId( record.getId() );
+                }
+            }
             for ( PropertyIndexRecord record : propIndexRecords.values() )
             {
                 if ( record.isCreated() )
@@ -348,12 +384,16 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             relRecords.clear();
             relTypeRecords.clear();
             propIndexRecords.clear();
+            relGroupRecords.clear();
+            nodeDegrees.clear();
+            groupedNodes.clear();
 
             nodeCommands.clear();
             propCommands.clear();
             propIndexCommands.clear();
             relCommands.clear();
             relTypeCommands.clear();
+            relGroupCommands.clear();
         }
     }
 
@@ -445,11 +485,19 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             // primitives
             java.util.Collections.sort( nodeCommands, sorter );
             java.util.Collections.sort( relCommands, sorter );
+            java.util.Collections.sort( relGroupCommands, sorter );
             java.util.Collections.sort( propCommands, sorter );
-            executeCreated( propCommands, relCommands, nodeCommands );
-            executeModified( propCommands, relCommands, nodeCommands );
-            executeDeleted( propCommands, relCommands, nodeCommands );
+            executeCreated( propCommands, relCommands, relGroupCommands, nodeCommands );
+            executeModified( propCommands, relCommands, relGroupCommands, nodeCommands );
+            executeDeleted( propCommands, relCommands, relGroupCommands, nodeCommands );
+            updateCounts();
             lockReleaser.commitCows();
+            // cached loading positions of these nodes refer to chains that
+            // don't exist anymore
+            for ( long nodeId : groupedNodes )
+            {
+                removeNodeFromCache( nodeId );
+            }
             neoStore.setLastCommittedTx( getCommitTxId() );
         }
         finally
@@ -459,12 +507,43 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             relRecords.clear();
             relTypeRecords.clear();
             propIndexRecords.clear();
+            relGroupRecords.clear();
+            nodeDegrees.clear();
+            groupedNodes.clear();
 
             nodeCommands.clear();
             propCommands.clear();
             propIndexCommands.clear();
             relCommands.clear();
             relTypeCommands.clear();
+            relGroupCommands.clear();
+        }
+    }
+
+    private void updateCounts()
+    {
+        CountsStore counts = neoStore.getCountsStore();
+        for ( NodeRecord record : nodeRecords.values() )
+        {
+            if ( record.isCreated() && record.inUse() )
+            {
+                counts.addToNodeCount( 1 );
+            }
+            else if ( !record.isCreated() && !record.inUse() )
+            {
+                counts.addToNodeCount( -1 );
+            }
+        }
+        for ( RelationshipRecord record : relRecords.values() )
+        {
+            if ( record.isCreated() && record.inUse() )
+            {
+                counts.addToRelationshipCount( record.getType(), 1 );
+            }
+            else if ( !record.isCreated() && !record.inUse() )
+            {
+                counts.addToRelationshipCount( record.getType(), -1 );
+            }
         }
     }
 
@@ -533,9 +612,23 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             }
             // relationships
             java.util.Collections.sort( relCommands, sorter );
+            CountsStore counts = neoStore.getCountsStore();
+            boolean updateCounts = counts.isValid();
             for ( Command.RelationshipCommand command : relCommands )
             {
+                // the log doesn't contain the type of deleted relationships
+                // so the counts are updated from what the store had before
+                RelationshipRecord before = updateCounts ?
+                    getRelationshipStore().getLightRel( command.getKey() ) : null;
                 command.execute();
+                if ( before != null )
+                {
+                    counts.addToRelationshipCount( before.getType(), -1 );
+                }
+                if ( updateCounts && !command.isDeleted() )
+                {
+                    counts.addToRelationshipCount( command.getType(), 1 );
+                }
                 removeRelationshipFromCache( command.getKey() );
                 if ( true /* doesn't work: command.isRemove(), the log doesn't contain the nodes */)
                 {
@@ -543,11 +636,25 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
                     removeNodeFromCache( command.getSecondNode() );
                 }
             }
+            // relationship groups
+            java.util.Collections.sort( relGroupCommands, sorter );
+            for ( Command.RelationshipGroupCommand command : relGroupCommands )
+            {
+                command.execute();
+                removeNodeFromCache( command.getOwningNode() );
+            }
             // nodes
             java.util.Collections.sort( nodeCommands, sorter );
             for ( Command.NodeCommand command : nodeCommands )
             {
+                boolean existed = updateCounts &&
+                    getNodeStore().loadLightNode( command.getKey() );
                 command.execute();
+                if ( updateCounts )
+                {
+                    counts.addToNodeCount( (command.isDeleted() ? 0 : 1) -
+                        (existed ? 1 : 0) );
+                }
                 removeNodeFromCache( command.getKey() );
             }
             neoStore.setRecoveredStatus( true );
@@ -568,12 +675,16 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             relRecords.clear();
             relTypeRecords.clear();
             propIndexRecords.clear();
+            relGroupRecords.clear();
+            nodeDegrees.clear();
+            groupedNodes.clear();
 
             nodeCommands.clear();
             propCommands.clear();
             propIndexCommands.clear();
             relCommands.clear();
             relTypeCommands.clear();
+            relGroupCommands.clear();
         }
     }
 
@@ -870,46 +981,276 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         lockReleaser.addLockToTransaction( lockableRel, LockType.WRITE );
     }
 
-    public long getRelationshipChainPosition( long nodeId )
+    public RelationshipLoadingPosition getRelationshipChainPosition( long nodeId )
+    {
+        NodeRecord nodeRecord = getNodeRecord( nodeId );
+        if ( nodeRecord != null && nodeRecord.isCreated() )
+        {
+            return new SingleChainPosition( Record.NO_NEXT_RELATIONSHIP.intValue() );
+        }
+        return ReadTransaction.getRelationshipChainPosition(
+            getNodeStore().getRecord( nodeId ).getNextRel(), getRelationshipStore() );
+    }
+
+    public Map<DirectionWrapper, Iterable<RelationshipRecord>> getMoreRelationships( long nodeId,
+        RelationshipLoadingPosition position, DirectionWrapper direction, int[] types )
+    {
+        return ReadTransaction.getMoreRelationships( nodeId, position, direction, types,
+            getRelGrabSize(), getRelationshipStore() );
+    }
+
+    public long getDegree( long nodeId, DirectionWrapper direction, int[] types )
     {
         NodeRecord nodeRecord = getNodeRecord( nodeId );
         if ( nodeRecord != null && nodeRecord.isCreated() )
         {
-            return Record.NO_NEXT_RELATIONSHIP.intValue();
+            return 0;
         }
-        return getNodeStore().getRecord( nodeId ).getNextRel();
+        return RelationshipChains.degree( nodeId,
+            getNodeStore().getRecord( nodeId ).getNextRel(), direction, types,
+            getRelationshipStore() );
     }
 
-    public Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> getMoreRelationships( long nodeId,
-        long position )
+    public long getRelationshipChainHead( long nodeId )
     {
-        return ReadTransaction.getMoreRelationships( nodeId, position, getRelGrabSize(), getRelationshipStore() );
+        NodeRecord nodeRecord = getNodeRecord( nodeId );
+        return nodeRecord != null ? relationshipChainHead( nodeRecord ) : -1;
+    }
+
+    public long getNodeCount()
+    {
+        return neoStore.getCountsStore().getNodeCount();
+    }
+
+    public long getRelationshipCount( int type )
+    {
+        CountsStore counts = neoStore.getCountsStore();
+        return type == -1 ? counts.getRelationshipCount() :
+            counts.getRelationshipCount( type );
     }
 
     private void updateNodes( RelationshipRecord rel )
     {
-        if ( rel.getFirstPrevRel() == Record.NO_PREV_RELATIONSHIP.intValue() )
+        disconnect( rel.getFirstNode(), rel, rel.getFirstPrevRel(),
+            rel.getFirstNextRel() );
+        if ( rel.getSecondNode() != rel.getFirstNode() )
         {
-            NodeRecord firstNode = getNodeRecord( rel.getFirstNode() );
-            if ( firstNode == null )
+            disconnect( rel.getSecondNode(), rel, rel.getSecondPrevRel(),
+                rel.getSecondNextRel() );
+        }
+    }
+
+    /*
+     * Called when rel is removed from the chain of the node, where prev and
+     * next are its neighbours in that chain. For a dense node the chain is
+     * one of its groups, which keeps count of its relationships and is
+     * removed when it no longer has any.
+     */
+    private void disconnect( long nodeId, RelationshipRecord rel, long prev,
+        long next )
+    {
+        boolean first = prev == Record.NO_PREV_RELATIONSHIP.intValue();
+        NodeRecord node = getNodeRecord( nodeId );
+        boolean inTransaction = node != null;
+        if ( !inTransaction )
+        {
+            node = getNodeStore().getRecord( nodeId );
+        }
+        if ( !isDense( node ) )
+        {
+            if ( first )
             {
-                firstNode = getNodeStore().getRecord( rel.getFirstNode() );
-                addNodeRecord( firstNode );
+                node.setNextRel( next );
+                if ( !inTransaction )
+                {
+                    addNodeRecord( node );
+                }
             }
-            firstNode.setNextRel( rel.getFirstNextRel() );
+            relationshipRemoved( nodeId );
+            return;
+        }
+        RelationshipGroupRecord group = getGroup( node, rel.getType() );
+        if ( group == null )
+        {
+            throw new InvalidRecordException( node + " has no group for " + rel );
         }
-        if ( rel.getSecondPrevRel() == Record.NO_PREV_RELATIONSHIP.intValue() )
+        DirectionWrapper direction = RelationshipChains.direction( rel, nodeId );
+        if ( first )
         {
-            NodeRecord secondNode = getNodeRecord( rel.getSecondNode() );
-            if ( secondNode == null )
+            group.setFirst( direction, next );
+        }
+        group.addToCount( direction, -1 );
+        addRelationshipGroupRecord( group );
+        if ( group.isEmpty() )
+        {
+            if ( !inTransaction )
             {
-                secondNode = getNodeStore().getRecord( rel.getSecondNode() );
-                addNodeRecord( secondNode );
+                addNodeRecord( node );
             }
-            secondNode.setNextRel( rel.getSecondNextRel() );
+            removeGroup( node, group );
         }
     }
 
+    private boolean isDense( NodeRecord node )
+    {
+        if ( !neoStore.hasRelationshipGroups() )
+        {
+            return false;
+        }
+        long nextRel = node.getNextRel();
+        if ( nextRel == Record.NO_NEXT_RELATIONSHIP.intValue() ||
+            relRecords.containsKey( nextRel ) )
+        {
+            return false;
+        }
+        return relGroupRecords.containsKey( nextRel ) ||
+            getRelationshipStore().isGroup( nextRel );
+    }
+
+    private RelationshipGroupRecord getGroupRecord( long id )
+    {
+        RelationshipGroupRecord group = relGroupRecords.get( id );
+        if ( group == null )
+        {
+            group = getRelationshipStore().getGroupRecord( id );
+        }
+        return group;
+    }
+
+    private RelationshipGroupRecord getGroup( NodeRecord node, int type )
+    {
+        long groupId = node.getNextRel();
+        while ( groupId != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            RelationshipGroupRecord group = getGroupRecord( groupId );
+            if ( group.getType() == type )
+            {
+                return group;
+            }
+            groupId = group.getNext();
+        }
+        return null;
+    }
+
+    private static long relationshipChainHead( NodeRecord node )
+    {
+        long nextRel = node.getNextRel();
+        return nextRel == Record.NO_NEXT_RELATIONSHIP.intValue() ? -1 : nextRel;
+    }
+
+    private RelationshipGroupRecord getOrCreateGroup( NodeRecord node, int type )
+    {
+        RelationshipGroupRecord group = getGroup( node, type );
+        if ( group == null )
+        {
+            group = new RelationshipGroupRecord( getRelationshipStore().nextId(
+                relationshipChainHead( node ) ), type, node.getId() );
+            group.setInUse( true );
+            group.setCreated();
+            group.setNext( node.getNextRel() );
+            node.setNextRel( group.getId() );
+            addRelationshipGroupRecord( group );
+        }
+        return group;
+    }
+
+    private void removeGroup( NodeRecord node, RelationshipGroupRecord group )
+    {
+        if ( node.getNextRel() == group.getId() )
+        {
+            node.setNextRel( group.getNext() );
+        }
+        else
+        {
+            RelationshipGroupRecord prev = getGroupRecord( node.getNextRel() );
+            while ( prev.getNext() != group.getId() )
+            {
+                prev = getGroupRecord( prev.getNext() );
+            }
+            prev.setNext( group.getNext() );
+            addRelationshipGroupRecord( prev );
+        }
+        group.setInUse( false );
+    }
+
+    private void relationshipAdded( NodeRecord node )
+    {
+        int threshold = neoStore.getDenseNodeThreshold();
+        if ( threshold == 0 )
+        {
+            return;
+        }
+        Integer degree = nodeDegrees.get( node.getId() );
+        int newDegree = degree != null ? degree + 1 :
+            countRelationships( node, threshold );
+        if ( newDegree >= threshold )
+        {
+            nodeDegrees.remove( node.getId() );
+            groupRelationships( node );
+        }
+        else
+        {
+            nodeDegrees.put( node.getId(), newDegree );
+        }
+    }
+
+    private void relationshipRemoved( long nodeId )
+    {
+        Integer degree = nodeDegrees.get( nodeId );
+        if ( degree != null )
+        {
+            nodeDegrees.put( nodeId, degree - 1 );
+        }
+    }
+
+    private int countRelationships( NodeRecord node, int max )
+    {
+        int count = 0;
+        long relId = node.getNextRel();
+        while ( relId != Record.NO_NEXT_RELATIONSHIP.intValue() && count < max )
+        {
+            RelationshipRecord rel = getRelationshipRecord( relId );
+            if ( rel == null )
+            {
+                rel = getRelationshipStore().getChainRecord( relId );
+            }
+            count++;
+            relId = RelationshipChains.getNext( rel, node.getId() );
+        }
+        return count;
+    }
+
+    /*
+     * Splits the single relationship chain of the node up into one chain per
+     * relationship type and direction. Every relationship in the chain is
+     * changed so they all get write locked, like when disconnecting.
+     */
+    private void groupRelationships( NodeRecord node )
+    {
+        List<RelationshipRecord> chain = new ArrayList<RelationshipRecord>();
+        long relId = node.getNextRel();
+        while ( relId != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            getWriteLock( new LockableRelationship( relId ) );
+            RelationshipRecord rel = getRelationshipRecord( relId );
+            if ( rel == null )
+            {
+                rel = getRelationshipStore().getRecord( relId );
+                addRelationshipRecord( rel );
+            }
+            chain.add( rel );
+            relId = RelationshipChains.getNext( rel, node.getId() );
+        }
+        List<RelationshipGroupRecord> groups = RelationshipChains.groupChain(
+            node.getId(), chain, getRelationshipStore() );
+        for ( RelationshipGroupRecord group : groups )
+        {
+            addRelationshipGroupRecord( group );
+        }
+        node.setNextRel( groups.get( 0 ).getId() );
+        groupedNodes.add( node.getId() );
+    }
+
     @Override
     public void relRemoveProperty( long relId, PropertyData propertyData )
     {
@@ -951,7 +1292,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         for ( DynamicRecord valueRecord : block.getValueRecords() )
         {
             assert valueRecord.inUse();
-            valueRecord.setInUse( false, block.getType().intValue() );
+            valueRecord.setInUse( false, valueRecord.getType() );
             propRecord.addDeletedRecord( valueRecord );
         }
         if ( propRecord.size() > 0 )
@@ -1031,24 +1372,37 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
     @Override
     public Object loadPropertyValue( PropertyData propertyData )
     {
-        PropertyRecord propertyRecord = propertyRecords.get( propertyData.getId() );
-        if ( propertyRecord == null )
-        {
-            propertyRecord = getPropertyStore().getRecord( propertyData.getId() );
-        }
-        PropertyBlock block = propertyRecord.getPropertyBlock( propertyData.getIndex() );
-        if ( block == null )
+        return ReadTransaction.loadValue( getPropertyStore(),
+                getPropertyRecordForLoad( propertyData.getId() ), propertyData );
+    }
+
+    @Override
+    public Object[] loadPropertyValues( PropertyData[] properties )
+    {
+        Object[] values = new Object[properties.length];
+        Map<Long,PropertyRecord> records = new HashMap<Long,PropertyRecord>();
+        for ( int i = 0; i < properties.length; i++ )
         {
-            throw new IllegalStateException( "Property with index["
-                                             + propertyData.getIndex()
-                                             + "] is not present in property["
-                                             + propertyData.getId() + "]" );
+            PropertyRecord propertyRecord = records.get( properties[i].getId() );
+            if ( propertyRecord == null )
+            {
+                propertyRecord = getPropertyRecordForLoad( properties[i].getId() );
+                records.put( propertyRecord.getId(), propertyRecord );
+            }
+            values[i] = ReadTransaction.loadValue( getPropertyStore(),
+                    propertyRecord, properties[i] );
         }
-        if ( block.isLight() )
+        return values;
+    }
+
+    private PropertyRecord getPropertyRecordForLoad( long propertyId )
+    {
+        PropertyRecord propertyRecord = propertyRecords.get( propertyId );
+        if ( propertyRecord == null )
         {
-            getPropertyStore().makeHeavy( block );
+            propertyRecord = getPropertyStore().getLightRecord( propertyId );
         }
-        return block.getType().getValue( block, getPropertyStore() );
+        return propertyRecord;
     }
 
     @Override
@@ -1091,7 +1445,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         for ( DynamicRecord valueRecord : block.getValueRecords() )
         {
             assert valueRecord.inUse();
-            valueRecord.setInUse( false, block.getType().intValue() );
+            valueRecord.setInUse( false, valueRecord.getType() );
             propRecord.addDeletedRecord( valueRecord );
         }
         // propRecord.removeBlock( propertyData.getIndex() );
@@ -1231,7 +1585,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         for ( DynamicRecord record : block.getValueRecords() )
         {
             assert record.inUse();
-            record.setInUse( false, block.getType().intValue() );
+            record.setInUse( false, record.getType() );
             propertyRecord.addDeletedRecord( record );
         }
         getPropertyStore().encodeValue( block, propertyData.getIndex(),
@@ -1344,8 +1698,9 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         }
         if ( host == null )
         {
-            // First record in chain didn't fit, make new one
-            host = new PropertyRecord( getPropertyStore().nextId() );
+            // First record in chain didn't fit, make new one, close to it
+            host = new PropertyRecord( getPropertyStore().nextId(
+                firstProp == Record.NO_NEXT_PROPERTY.intValue() ? -1 : firstProp ) );
             host.setCreated();
             if ( primitive.getNextProp() != Record.NO_NEXT_PROPERTY.intValue() )
             {
@@ -1420,41 +1775,51 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
     {
         assert firstNode.getNextRel() != rel.getId();
         assert secondNode.getNextRel() != rel.getId();
-        rel.setFirstNextRel( firstNode.getNextRel() );
-        rel.setSecondNextRel( secondNode.getNextRel() );
         connect( firstNode, rel );
-        connect( secondNode, rel );
-        firstNode.setNextRel( rel.getId() );
-        secondNode.setNextRel( rel.getId() );
+        if ( secondNode.getId() != firstNode.getId() )
+        {
+            connect( secondNode, rel );
+        }
     }
 
     private void connect( NodeRecord node, RelationshipRecord rel )
     {
-        if ( node.getNextRel() != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        RelationshipGroupRecord group = null;
+        DirectionWrapper direction = null;
+        long next;
+        if ( isDense( node ) )
+        {
+            group = getOrCreateGroup( node, rel.getType() );
+            direction = RelationshipChains.direction( rel, node.getId() );
+            next = group.getFirst( direction );
+        }
+        else
+        {
+            next = node.getNextRel();
+        }
+        RelationshipChains.setNext( rel, node.getId(), next );
+        if ( next != Record.NO_NEXT_RELATIONSHIP.intValue() )
         {
-            Relationship lockableRel = new LockableRelationship( node.getNextRel() );
+            Relationship lockableRel = new LockableRelationship( next );
             getWriteLock( lockableRel );
-            RelationshipRecord nextRel = getRelationshipRecord( node.getNextRel() );
+            RelationshipRecord nextRel = getRelationshipRecord( next );
             if ( nextRel == null )
             {
-                nextRel = getRelationshipStore().getRecord( node.getNextRel() );
+                nextRel = getRelationshipStore().getRecord( next );
                 addRelationshipRecord( nextRel );
             }
-            boolean changed = false;
-            if ( nextRel.getFirstNode() == node.getId() )
-            {
-                nextRel.setFirstPrevRel( rel.getId() );
-                changed = true;
-            }
-            if ( nextRel.getSecondNode() == node.getId() )
-            {
-                nextRel.setSecondPrevRel( rel.getId() );
-                changed = true;
-            }
-            if ( !changed )
-            {
-                throw new InvalidRecordException( node + " dont match " + nextRel );
-            }
+            RelationshipChains.setPrev( nextRel, node.getId(), rel.getId() );
+        }
+        if ( group != null )
+        {
+            group.setFirst( direction, rel.getId() );
+            group.addToCount( direction, 1 );
+            addRelationshipGroupRecord( group );
+        }
+        else
+        {
+            node.setNextRel( rel.getId() );
+            relationshipAdded( node );
         }
     }
 
@@ -1628,6 +1993,11 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         return propIndexRecords.get( id );
     }
 
+    void addRelationshipGroupRecord( RelationshipGroupRecord record )
+    {
+        relGroupRecords.put( record.getId(), record );
+    }
+
     private static class LockableRelationship implements Relationship
     {
         private final long id;
@@ -1685,6 +2055,12 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             throw new UnsupportedOperationException( "Lockable rel" );
         }
 
+        @Override
+        public Object[] getProperties( String... keys )
+        {
+            throw new UnsupportedOperationException( "Lockable rel" );
+        }
+
         @Override
         public Iterable<String> getPropertyKeys()
         {
@@ -1759,7 +2135,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
     @Override
     public RelIdArray getCreatedNodes()
     {
-        RelIdArray createdNodes = new RelIdArray( null );
+        RelIdArray createdNodes = new RelIdArray( -1 );
         for ( NodeRecord record : nodeRecords.values() )
         {
             if ( record.isCreated() )
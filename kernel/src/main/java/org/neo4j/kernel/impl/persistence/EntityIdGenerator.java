@@ -23,6 +23,8 @@ public interface EntityIdGenerator
 {
     long nextId( Class<?> clazz );
 
+    long nextId( Class<?> clazz, long near );
+
     long getHighestPossibleIdInUse( Class<?> clazz );
 
     long getNumberOfIdsInUse( Class<?> clazz );
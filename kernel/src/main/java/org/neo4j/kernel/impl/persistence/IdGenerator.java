@@ -43,6 +43,17 @@ public class IdGenerator implements EntityIdGenerator
         return getPersistenceSource().nextId( clazz );
     }
 
+    /**
+     * Returns the next unique ID for the entity type represented by
+     * <CODE>clazz</CODE>, preferring one stored close to the entity with id
+     * <CODE>near</CODE>.
+     * @return the next ID for <CODE>clazz</CODE>'s entity type
+     */
+    public long nextId( Class<?> clazz, long near )
+    {
+        return getPersistenceSource().nextId( clazz, near );
+    }
+
     public long getHighestPossibleIdInUse( Class<?> clazz )
     {
         return getPersistenceSource().getHighestPossibleIdInUse( clazz );
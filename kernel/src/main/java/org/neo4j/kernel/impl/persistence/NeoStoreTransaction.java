@@ -23,10 +23,10 @@ import java.util.Map;
 
 import javax.transaction.xa.XAResource;
 
-import org.neo4j.helpers.Pair;
 import org.neo4j.kernel.impl.core.PropertyIndex;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexData;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipLoadingPosition;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeData;
 import org.neo4j.kernel.impl.transaction.xaframework.XaConnection;
@@ -178,6 +178,16 @@ public interface NeoStoreTransaction
      */
     public Object loadPropertyValue( PropertyData property );
 
+    /**
+     * Loads the values of several properties, reading each property record
+     * only once. Only the blocks of the given properties are loaded, other
+     * string and array values in the same records are left alone.
+     *
+     * @param properties the properties to load the values for
+     * @return the values, in the same order as {@code properties}
+     */
+    public Object[] loadPropertyValues( PropertyData[] properties );
+
     /**
      * Loads the value object for the given property index record id if the
      * record is light.
@@ -254,19 +264,63 @@ public interface NeoStoreTransaction
      */
     public void createRelationshipType( int id, String name );
 
-    public long getRelationshipChainPosition( long nodeId );
+    public RelationshipLoadingPosition getRelationshipChainPosition( long nodeId );
 
     /*
-     * List<Iterable<RelationshipRecord>> is a list with three items:
-     * 0: outgoing relationships
-     * 1: incoming relationships
-     * 2: loop relationships
+     * The map has up to three entries:
+     * OUTGOING: outgoing relationships
+     * INCOMING: incoming relationships
+     * BOTH: loop relationships
+     *
+     * Only relationships of the given direction and types are guaranteed to
+     * be loaded, for a dense node only their chains are read. The position
+     * is moved past the relationships in this batch.
+     */
+    public Map<DirectionWrapper, Iterable<RelationshipRecord>> getMoreRelationships(
+            long nodeId, RelationshipLoadingPosition position, DirectionWrapper direction,
+            int[] types );
+
+    /**
+     * Returns the number of relationships of the node with the given
+     * direction and types as they were when this transaction started, the
+     * changes made in it are not included.
+     *
+     * @param nodeId The id of the node.
+     * @param direction The direction, loops are counted for all directions.
+     * @param types The relationship type ids, <CODE>null</CODE> for all types.
+     * @return The number of relationships.
+     */
+    public long getDegree( long nodeId, DirectionWrapper direction, int[] types );
+
+    /**
+     * Returns the id of the first record of the relationship chain of the
+     * node, if this transaction already holds the record of the node. That
+     * is a relationship or, for a dense node, a relationship group, both
+     * stored in the relationship store. The store isn't read.
+     *
+     * @param nodeId The id of the node.
+     * @return The id of the first record or -1 if the node has no
+     * relationships or this transaction doesn't hold its record.
+     */
+    public long getRelationshipChainHead( long nodeId );
+
+    /**
+     * Returns the number of nodes in the store as of the last committed
+     * transaction, the changes made in this transaction are not included.
+     *
+     * @return The number of nodes.
+     */
+    public long getNodeCount();
+
+    /**
+     * Returns the number of relationships in the store as of the last
+     * committed transaction, the changes made in this transaction are not
+     * included.
      *
-     * Long is the relationship chain position as it stands after this
-     * batch of relationships has been loaded.
+     * @param type The relationship type id, -1 for all types.
+     * @return The number of relationships.
      */
-    public Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> getMoreRelationships(
-            long nodeId, long position );
+    public long getRelationshipCount( int type );
 
     /**
      * Returns an array view of the ids of the nodes that have been created in
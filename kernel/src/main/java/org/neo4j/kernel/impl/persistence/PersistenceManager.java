@@ -33,13 +33,13 @@ import javax.transaction.xa.XAResource;
 
 import org.neo4j.graphdb.NotInTransactionException;
 import org.neo4j.graphdb.TransactionFailureException;
-import org.neo4j.helpers.Pair;
 import org.neo4j.kernel.impl.core.LockReleaser;
 import org.neo4j.kernel.impl.core.PropertyIndex;
 import org.neo4j.kernel.impl.core.TransactionEventsSyncHook;
 import org.neo4j.kernel.impl.core.TxEventSyncHookFactory;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexData;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipLoadingPosition;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeData;
 import org.neo4j.kernel.impl.nioneo.xa.NioNeoDbPersistenceSource;
@@ -87,6 +87,11 @@ public class PersistenceManager
         return getReadOnlyResource().loadPropertyValue( property );
     }
 
+    public Object[] loadPropertyValues( PropertyData[] properties )
+    {
+        return getReadOnlyResource().loadPropertyValues( properties );
+    }
+
     public String loadIndex( int id )
     {
         return getReadOnlyResourceIfPossible().loadIndex( id );
@@ -97,15 +102,36 @@ public class PersistenceManager
         return getReadOnlyResourceIfPossible().loadPropertyIndexes( maxCount );
     }
 
-    public long getRelationshipChainPosition( long nodeId )
+    public RelationshipLoadingPosition getRelationshipChainPosition( long nodeId )
     {
         return getReadOnlyResourceIfPossible().getRelationshipChainPosition( nodeId );
     }
 
-    public Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> getMoreRelationships(
-            long nodeId, long position )
+    public Map<DirectionWrapper, Iterable<RelationshipRecord>> getMoreRelationships(
+            long nodeId, RelationshipLoadingPosition position, DirectionWrapper direction,
+            int[] types )
+    {
+        return getReadOnlyResource().getMoreRelationships( nodeId, position, direction, types );
+    }
+
+    public long getDegree( long nodeId, DirectionWrapper direction, int[] types )
     {
-        return getReadOnlyResource().getMoreRelationships( nodeId, position );
+        return getReadOnlyResourceIfPossible().getDegree( nodeId, direction, types );
+    }
+
+    public long getRelationshipChainHead( long nodeId )
+    {
+        return getReadOnlyResourceIfPossible().getRelationshipChainHead( nodeId );
+    }
+
+    public long getNodeCount()
+    {
+        return getReadOnlyResourceIfPossible().getNodeCount();
+    }
+
+    public long getRelationshipCount( int type )
+    {
+        return getReadOnlyResourceIfPossible().getRelationshipCount( type );
     }
 
     public ArrayMap<Integer,PropertyData> loadNodeProperties( long nodeId,
@@ -126,6 +152,25 @@ public class PersistenceManager
         return getReadOnlyResourceIfPossible().relLoadLight( id );
     }
 
+    /**
+     * Like {@link #loadLightNode(long)}, but reads the committed state even
+     * if the calling thread has a transaction, for scans that read the same
+     * store from other threads too.
+     */
+    public boolean loadCommittedLightNode( long id )
+    {
+        return getReadOnlyResource().nodeLoadLight( id );
+    }
+
+    /**
+     * Like {@link #loadLightRelationship(long)}, but reads the committed
+     * state even if the calling thread has a transaction.
+     */
+    public RelationshipRecord loadCommittedLightRelationship( long id )
+    {
+        return getReadOnlyResource().relLoadLight( id );
+    }
+
     public RelationshipTypeData[] loadAllRelationshipTypes()
     {
         return getReadOnlyResourceIfPossible().loadRelationshipTypes();
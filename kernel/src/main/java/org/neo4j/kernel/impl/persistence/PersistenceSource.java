@@ -47,6 +47,19 @@ public interface PersistenceSource
      */
     public long nextId( Class<?> clazz );
 
+    /**
+     * Like {@link #nextId(Class)} but prefers an id whose data is stored
+     * close to the data of <CODE>near</CODE>, if supported.
+     *
+     * @param clazz
+     *            the data structure to get next free unique id for
+     * @param near
+     *            an id of the same data structure, <CODE>-1</CODE> for no
+     *            preference
+     * @return the next free unique id for <CODE>clazz</CODE>
+     */
+    public long nextId( Class<?> clazz, long near );
+
     public long getHighestPossibleIdInUse( Class<?> clazz );
 
     public long getNumberOfIdsInUse( Class<?> clazz );
@@ -0,0 +1,159 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.storemigration;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.neo4j.kernel.impl.nioneo.store.NeoStore;
+import org.neo4j.kernel.impl.nioneo.store.NodeStore;
+import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
+import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
+import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipChains;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
+
+/**
+ * How spread out the chains of the nodes in a store are. Every node's
+ * relationship chain and property chain is walked, counting the distinct
+ * pages of the store files it touches. That is the number of page faults it
+ * takes to traverse from the node when nothing is cached, so it tells how
+ * well the store performs cold without depending on what the OS happens to
+ * have cached.
+ */
+public class ChainLocality
+{
+    public static final int PAGE_SIZE = 4096;
+
+    private final long nodes;
+    private final long pages;
+    private final long walkMillis;
+
+    private ChainLocality( long nodes, long pages, long walkMillis )
+    {
+        this.nodes = nodes;
+        this.pages = pages;
+        this.walkMillis = walkMillis;
+    }
+
+    public static ChainLocality measure( NeoStore neoStore )
+    {
+        NodeStore nodeStore = neoStore.getNodeStore();
+        RelationshipStore relationshipStore = neoStore.getRelationshipStore();
+        PropertyStore propertyStore = neoStore.getPropertyStore();
+        Set<Long> relationshipPages = new HashSet<Long>();
+        Set<Long> propertyPages = new HashSet<Long>();
+        long nodes = 0;
+        long pages = 0;
+        long startTime = System.currentTimeMillis();
+        for ( long nodeId = 0; nodeId < nodeStore.getHighId(); nodeId++ )
+        {
+            if ( !nodeStore.loadLightNode( nodeId ) )
+            {
+                continue;
+            }
+            nodes++;
+            relationshipPages.clear();
+            propertyPages.clear();
+            long nextRel = nodeStore.getRecord( nodeId ).getNextRel();
+            if ( relationshipStore.isGroup( nextRel ) )
+            {
+                for ( long groupId = nextRel; groupId != Record.NO_NEXT_RELATIONSHIP.intValue(); )
+                {
+                    relationshipPages.add( page( groupId, relationshipStore.getRecordSize() ) );
+                    RelationshipGroupRecord group = relationshipStore.getGroupRecord( groupId );
+                    for ( DirectionWrapper direction : DirectionWrapper.values() )
+                    {
+                        walkChain( nodeId, group.getFirst( direction ), relationshipStore,
+                                relationshipPages );
+                    }
+                    groupId = group.getNext();
+                }
+            }
+            else
+            {
+                walkChain( nodeId, nextRel, relationshipStore, relationshipPages );
+            }
+            long nextProp = nodeStore.getRecord( nodeId ).getNextProp();
+            while ( nextProp != Record.NO_NEXT_PROPERTY.intValue() )
+            {
+                propertyPages.add( page( nextProp, propertyStore.getRecordSize() ) );
+                PropertyRecord record = propertyStore.getLightRecord( nextProp );
+                nextProp = record.getNextProp();
+            }
+            pages += relationshipPages.size() + propertyPages.size();
+        }
+        return new ChainLocality( nodes, pages, System.currentTimeMillis() - startTime );
+    }
+
+    private static void walkChain( long nodeId, long relId, RelationshipStore relationshipStore,
+            Set<Long> pages )
+    {
+        while ( relId != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            RelationshipRecord rel = relationshipStore.getChainRecord( relId );
+            if ( rel == null )
+            {
+                break;
+            }
+            pages.add( page( relId, relationshipStore.getRecordSize() ) );
+            relId = RelationshipChains.getNext( rel, nodeId );
+        }
+    }
+
+    private static long page( long id, int recordSize )
+    {
+        return id * recordSize / PAGE_SIZE;
+    }
+
+    public long getNodes()
+    {
+        return nodes;
+    }
+
+    /**
+     * @return the number of pages touched walking the chains of all nodes,
+     *         a page touched by the chains of two nodes is counted twice.
+     */
+    public long getPages()
+    {
+        return pages;
+    }
+
+    public double getPagesPerNode()
+    {
+        return nodes == 0 ? 0 : (double) pages / nodes;
+    }
+
+    public long getWalkMillis()
+    {
+        return walkMillis;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format( "%d nodes, %.2f pages per node, walked in %d ms", nodes,
+                getPagesPerNode(), walkMillis );
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.storemigration;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.neo4j.helpers.Service;
+
+/**
+ * Copies the indexes of a store that has been defragmented by the
+ * {@link StoreDefragmenter}, for an index implementation kept next to the
+ * store. Node ids are kept by the defragmenter so node indexes can be copied
+ * as they are while relationship indexes need their ids remapped.
+ */
+public abstract class IndexRemapper extends Service
+{
+    protected IndexRemapper( String key, String... altKeys )
+    {
+        super( key, altKeys );
+    }
+
+    /**
+     * @param fromStoreDir The store directory of the store that was
+     *            defragmented.
+     * @param toStoreDir The store directory of the defragmented store.
+     * @param newRelationshipIds The new id of each relationship, indexed by
+     *            its old id, as returned by
+     *            {@link StoreDefragmenter#defragment(org.neo4j.kernel.impl.nioneo.store.NeoStore, org.neo4j.kernel.impl.nioneo.store.NeoStore)}
+     * @throws IOException if the indexes couldn't be read or written.
+     */
+    public abstract void remap( File fromStoreDir, File toStoreDir, int[] newRelationshipIds )
+            throws IOException;
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.storemigration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.neo4j.helpers.Service;
+import org.neo4j.kernel.CommonFactories;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.IdGeneratorFactory;
+import org.neo4j.kernel.impl.index.IndexStore;
+import org.neo4j.kernel.impl.nioneo.store.FileSystemAbstraction;
+import org.neo4j.kernel.impl.nioneo.store.NeoStore;
+import org.neo4j.kernel.impl.storemigration.monitoring.VisibleMigrationProgressMonitor;
+import org.neo4j.kernel.impl.util.FileUtils;
+
+/**
+ * Writes a defragmented copy of a cleanly shut down store to a new
+ * directory, see {@link StoreDefragmenter}, and reports how the locality of
+ * the chains of the nodes changed, see {@link ChainLocality}. Indexes are
+ * copied by the {@link IndexRemapper}s found on the classpath.
+ */
+public class StoreDefragmentationTool
+{
+    public static void main( String[] args ) throws IOException
+    {
+        String storeDirectory = args[0];
+        String targetStoreDirectory = args[1];
+
+        new StoreDefragmentationTool().run( storeDirectory, targetStoreDirectory );
+    }
+
+    private void run( String storeDirectory, String targetStoreDirectory ) throws IOException
+    {
+        File storeDirectoryFile = new File( storeDirectory );
+        File targetStoreDirectoryFile = new File( targetStoreDirectory );
+        if ( targetStoreDirectoryFile.exists() )
+        {
+            throw new IllegalStateException( "Cannot defragment to a directory that already exists, please delete first and re-run" );
+        }
+        boolean success = targetStoreDirectoryFile.mkdirs();
+        if ( !success )
+        {
+            throw new IllegalStateException( "Failed to create directory" );
+        }
+
+        NeoStore neoStore = new NeoStore( config( storeDirectoryFile, true ) );
+        ChainLocality before = ChainLocality.measure( neoStore );
+
+        Map<Object,Object> targetConfig = config( targetStoreDirectoryFile, false );
+        NeoStore.createStore( (String) targetConfig.get( "neo_store" ), targetConfig );
+        NeoStore targetNeoStore = new NeoStore( targetConfig );
+
+        long startTime = System.currentTimeMillis();
+
+        int[] newRelationshipIds = new StoreDefragmenter( new VisibleMigrationProgressMonitor(
+                System.out, "defragmentation" ) ).defragment( neoStore, targetNeoStore );
+        targetNeoStore.close();
+        neoStore.close();
+
+        File indexStore = new File( storeDirectoryFile, IndexStore.INDEX_DB_FILE_NAME );
+        if ( indexStore.exists() )
+        {
+            FileUtils.copyFile( indexStore, new File( targetStoreDirectoryFile,
+                    IndexStore.INDEX_DB_FILE_NAME ) );
+        }
+        boolean indexesRemapped = false;
+        for ( IndexRemapper remapper : Service.load( IndexRemapper.class ) )
+        {
+            remapper.remap( storeDirectoryFile, targetStoreDirectoryFile, newRelationshipIds );
+            indexesRemapped = true;
+        }
+        if ( !indexesRemapped && new File( storeDirectoryFile, "index" ).exists() )
+        {
+            System.out.println( "No index remapper found, indexes have not been copied" );
+        }
+
+        long duration = System.currentTimeMillis() - startTime;
+        System.out.printf( "Defragmentation completed in %d s%n", duration / 1000 );
+
+        EmbeddedGraphDatabase database = new EmbeddedGraphDatabase( targetStoreDirectoryFile.getPath() );
+        database.shutdown();
+
+        targetNeoStore = new NeoStore( config( targetStoreDirectoryFile, true ) );
+        ChainLocality after = ChainLocality.measure( targetNeoStore );
+        targetNeoStore.close();
+        System.out.println( "Before: " + before );
+        System.out.println( "After:  " + after );
+    }
+
+    private Map<Object,Object> config( File storeDirectory, boolean readOnly )
+    {
+        Map<Object,Object> config = new HashMap<Object,Object>();
+        config.put( IdGeneratorFactory.class, CommonFactories.defaultIdGeneratorFactory() );
+        config.put( FileSystemAbstraction.class, CommonFactories.defaultFileSystemAbstraction() );
+        config.put( "neo_store", new File( storeDirectory, NeoStore.DEFAULT_NAME ).getPath() );
+        if ( readOnly )
+        {
+            config.put( Config.READ_ONLY, "true" );
+        }
+        return config;
+    }
+}
@@ -0,0 +1,313 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.storemigration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.neo4j.helpers.Pair;
+import org.neo4j.kernel.impl.nioneo.store.NeoStore;
+import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
+import org.neo4j.kernel.impl.nioneo.store.NodeStore;
+import org.neo4j.kernel.impl.nioneo.store.PropertyBlock;
+import org.neo4j.kernel.impl.nioneo.store.PropertyIndexData;
+import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
+import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
+import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipChains;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeData;
+import org.neo4j.kernel.impl.storemigration.monitoring.MigrationProgressMonitor;
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
+
+/**
+ * Copies a store into a new, empty, one so that the relationship chain and
+ * property chain of every node are stored contiguously and in the order they
+ * are traversed. Years of deletes and id reuse otherwise leave them spread
+ * out over the whole store files.
+ * <p>
+ * Node ids are kept. Relationships, and the relationship groups of dense
+ * nodes, get new ids in the order they are reached when walking the chains of
+ * the nodes in node id order. The mapping from old to new relationship ids is
+ * returned so that anything referring to relationships by id, like
+ * relationship indexes, can be remapped. Property records aren't referred to
+ * from outside of the store, they are just rewritten.
+ */
+public class StoreDefragmenter
+{
+    private MigrationProgressMonitor progressMonitor;
+
+    public StoreDefragmenter( MigrationProgressMonitor progressMonitor )
+    {
+        this.progressMonitor = progressMonitor;
+    }
+
+    /**
+     * @param from The store to defragment, only read from.
+     * @param to A newly created and empty store to write to.
+     * @return the new id of each relationship, indexed by its old id. Ids not
+     *         in use in <CODE>from</CODE> map to <CODE>-1</CODE>.
+     */
+    public int[] defragment( NeoStore from, NeoStore to )
+    {
+        progressMonitor.started();
+        int[] newRelationshipIds = new Defragmentation( from, to ).defragment();
+        progressMonitor.finished();
+        return newRelationshipIds;
+    }
+
+    protected class Defragmentation
+    {
+        private final NeoStore from;
+        private final NeoStore to;
+        // relationship ids are checked to fit in an int, which halves the
+        // heap needed for the mapping in both directions
+        private final int[] newIds;
+        private final int[] oldIds;
+        private int relationshipCount;
+        private PropertyWriter propertyWriter;
+        private long totalEntities;
+        private long entitiesDone;
+        private int percentComplete = 0;
+
+        public Defragmentation( NeoStore from, NeoStore to )
+        {
+            this.from = from;
+            this.to = to;
+            long relationshipHighId = from.getRelationshipStore().getHighId();
+            if ( relationshipHighId > Integer.MAX_VALUE )
+            {
+                throw new IllegalStateException( "Too many relationships to defragment: "
+                        + relationshipHighId );
+            }
+            newIds = new int[(int) relationshipHighId];
+            oldIds = new int[(int) relationshipHighId];
+            Arrays.fill( newIds, -1 );
+            totalEntities = from.getNodeStore().getHighId() * 2 + relationshipHighId;
+        }
+
+        private int[] defragment()
+        {
+            copyNeoStore();
+            assignRelationshipIds( from.getNodeStore(), from.getRelationshipStore() );
+            copyTokens();
+            propertyWriter = new PropertyWriter( to.getPropertyStore() );
+            copyNodes( from.getNodeStore(), to.getNodeStore() );
+            copyRelationships( from.getRelationshipStore(), to.getRelationshipStore() );
+            return newIds;
+        }
+
+        private void copyNeoStore()
+        {
+            to.setCreationTime( from.getCreationTime() );
+            to.setRandomNumber( from.getRandomNumber() );
+            to.setVersion( from.getVersion() );
+            to.setRecoveredStatus( true );
+            to.setLastCommittedTx( from.getLastCommittedTx() );
+            to.setRecoveredStatus( false );
+            // the group records are copied as they are, the target store has
+            // to look for them whatever its dense node threshold
+            if ( from.hasRelationshipGroups() )
+            {
+                to.setRelationshipGroupsInUse();
+            }
+        }
+
+        /*
+         * Walks the chains of all nodes, in node id order, and hands out new
+         * ids to the relationships and groups in the order they are reached.
+         * The groups of a dense node go first, then their chains.
+         */
+        private void assignRelationshipIds( NodeStore nodeStore, RelationshipStore relationshipStore )
+        {
+            for ( long nodeId = 0; nodeId < nodeStore.getHighId(); nodeId++ )
+            {
+                reportProgress();
+                if ( !nodeStore.loadLightNode( nodeId ) )
+                {
+                    continue;
+                }
+                long nextRel = nodeStore.getRecord( nodeId ).getNextRel();
+                if ( !relationshipStore.isGroup( nextRel ) )
+                {
+                    assignChain( nodeId, nextRel, relationshipStore );
+                    continue;
+                }
+                List<RelationshipGroupRecord> groups = new ArrayList<RelationshipGroupRecord>();
+                for ( long groupId = nextRel; groupId != Record.NO_NEXT_RELATIONSHIP.intValue(); )
+                {
+                    RelationshipGroupRecord group = relationshipStore.getGroupRecord( groupId );
+                    assign( groupId );
+                    groups.add( group );
+                    groupId = group.getNext();
+                }
+                for ( RelationshipGroupRecord group : groups )
+                {
+                    for ( DirectionWrapper direction : DirectionWrapper.values() )
+                    {
+                        assignChain( nodeId, group.getFirst( direction ), relationshipStore );
+                    }
+                }
+            }
+            // whatever isn't in any chain is kept as well, at the end
+            for ( long relId = 0; relId < newIds.length; relId++ )
+            {
+                if ( newIds[(int) relId] == -1 && relationshipStore.getLightRel( relId ) != null )
+                {
+                    assign( relId );
+                }
+            }
+        }
+
+        private void assignChain( long nodeId, long relId, RelationshipStore relationshipStore )
+        {
+            while ( relId != Record.NO_NEXT_RELATIONSHIP.intValue() )
+            {
+                RelationshipRecord rel = relationshipStore.getChainRecord( relId );
+                if ( rel == null )
+                {
+                    break;
+                }
+                assign( relId );
+                relId = RelationshipChains.getNext( rel, nodeId );
+            }
+        }
+
+        private void assign( long oldId )
+        {
+            if ( newIds[(int) oldId] == -1 )
+            {
+                newIds[(int) oldId] = relationshipCount;
+                oldIds[relationshipCount++] = (int) oldId;
+            }
+        }
+
+        private long newId( long oldId )
+        {
+            if ( oldId == Record.NO_NEXT_RELATIONSHIP.intValue() )
+            {
+                return oldId;
+            }
+            return newIds[(int) oldId];
+        }
+
+        private void copyTokens()
+        {
+            for ( RelationshipTypeData type : from.getRelationshipTypeStore().getRelationshipTypes() )
+            {
+                StoreMigrator.createRelationshipType( to.getRelationshipTypeStore(), type.getName(), type.getId() );
+            }
+            for ( PropertyIndexData index : from.getPropertyStore().getIndexStore().getPropertyIndexes(
+                    Integer.MAX_VALUE ) )
+            {
+                StoreMigrator.createPropertyIndex( to.getPropertyStore().getIndexStore(), index.getValue(),
+                        index.getKeyId() );
+            }
+        }
+
+        private void copyNodes( NodeStore fromStore, NodeStore toStore )
+        {
+            long highId = fromStore.getHighId();
+            toStore.setHighId( highId );
+            for ( long nodeId = 0; nodeId < highId; nodeId++ )
+            {
+                reportProgress();
+                if ( !fromStore.loadLightNode( nodeId ) )
+                {
+                    toStore.freeId( nodeId );
+                    continue;
+                }
+                NodeRecord record = fromStore.getRecord( nodeId );
+                NodeRecord copy = new NodeRecord( nodeId );
+                copy.setInUse( true );
+                copy.setCreated();
+                copy.setNextRel( newId( record.getNextRel() ) );
+                copy.setNextProp( copyProperties( record.getNextProp() ) );
+                toStore.updateRecord( copy );
+            }
+        }
+
+        private void copyRelationships( RelationshipStore fromStore, RelationshipStore toStore )
+        {
+            toStore.setHighId( relationshipCount );
+            for ( int newId = 0; newId < relationshipCount; newId++ )
+            {
+                reportProgress();
+                long oldId = oldIds[newId];
+                if ( fromStore.isGroup( oldId ) )
+                {
+                    RelationshipGroupRecord group = fromStore.getGroupRecord( oldId );
+                    RelationshipGroupRecord copy = new RelationshipGroupRecord( newId,
+                            group.getType(), group.getOwningNode() );
+                    copy.setInUse( true );
+                    copy.setCreated();
+                    copy.setNext( newId( group.getNext() ) );
+                    for ( DirectionWrapper direction : DirectionWrapper.values() )
+                    {
+                        copy.setFirst( direction, newId( group.getFirst( direction ) ) );
+                        copy.setCount( direction, group.getCount( direction ) );
+                    }
+                    toStore.updateRecord( copy );
+                    continue;
+                }
+                RelationshipRecord rel = fromStore.getRecord( oldId );
+                RelationshipRecord copy = new RelationshipRecord( newId, rel.getFirstNode(),
+                        rel.getSecondNode(), rel.getType() );
+                copy.setInUse( true );
+                copy.setCreated();
+                copy.setFirstPrevRel( newId( rel.getFirstPrevRel() ) );
+                copy.setFirstNextRel( newId( rel.getFirstNextRel() ) );
+                copy.setSecondPrevRel( newId( rel.getSecondPrevRel() ) );
+                copy.setSecondNextRel( newId( rel.getSecondNextRel() ) );
+                copy.setNextProp( copyProperties( rel.getNextProp() ) );
+                toStore.updateRecord( copy );
+            }
+        }
+
+        private long copyProperties( long firstProp )
+        {
+            PropertyStore propertyStore = from.getPropertyStore();
+            List<Pair<Integer, Object>> properties = new ArrayList<Pair<Integer, Object>>();
+            for ( long propId = firstProp; propId != Record.NO_NEXT_PROPERTY.intValue(); )
+            {
+                PropertyRecord record = propertyStore.getRecord( propId );
+                for ( PropertyBlock block : record.getPropertyBlocks() )
+                {
+                    properties.add( Pair.of( block.getKeyIndexId(), propertyStore.getValue( block ) ) );
+                }
+                propId = record.getNextProp();
+            }
+            return propertyWriter.writeProperties( properties );
+        }
+
+        private void reportProgress()
+        {
+            int newPercent = (int) (++entitiesDone * 100 / totalEntities);
+            if ( newPercent > percentComplete )
+            {
+                percentComplete = newPercent;
+                progressMonitor.percentComplete( percentComplete );
+            }
+        }
+    }
+}
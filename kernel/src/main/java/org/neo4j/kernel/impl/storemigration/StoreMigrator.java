@@ -34,6 +34,8 @@ import org.neo4j.kernel.impl.nioneo.store.NodeStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexStore;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipChains;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeRecord;
@@ -83,6 +85,11 @@ public class StoreMigrator
             migrateNeoStore( neoStore );
             migrateNodes( neoStore.getNodeStore(), new PropertyWriter( neoStore.getPropertyStore() ) );
             migrateRelationships( neoStore.getRelationshipStore(), new PropertyWriter( neoStore.getPropertyStore() ) );
+            if ( neoStore.getDenseNodeThreshold() > 0 )
+            {
+                groupDenseNodes( neoStore.getNodeStore(), neoStore.getRelationshipStore(),
+                        neoStore.getDenseNodeThreshold() );
+            }
             migratePropertyIndexes( neoStore.getPropertyStore().getIndexStore() );
             legacyStore.getPropertyStoreReader().close();
             migrateRelationshipTypes( neoStore.getRelationshipTypeStore() );
@@ -157,6 +164,48 @@ public class StoreMigrator
             legacyStore.getRelationshipStoreReader().close();
         }
 
+        /*
+         * Legacy stores have a single relationship chain per node, nodes with
+         * at least denseNodeThreshold relationships get their chains split up
+         * into one per relationship type and direction.
+         */
+        private void groupDenseNodes( NodeStore nodeStore, RelationshipStore relationshipStore,
+                int denseNodeThreshold )
+        {
+            for ( long nodeId = 0; nodeId < nodeStore.getHighId(); nodeId++ )
+            {
+                if ( !nodeStore.loadLightNode( nodeId ) )
+                {
+                    continue;
+                }
+                NodeRecord nodeRecord = nodeStore.getRecord( nodeId );
+                List<RelationshipRecord> chain = new ArrayList<RelationshipRecord>();
+                long nextRel = nodeRecord.getNextRel();
+                while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
+                {
+                    RelationshipRecord relationshipRecord = relationshipStore.getRecord( nextRel );
+                    chain.add( relationshipRecord );
+                    nextRel = RelationshipChains.getNext( relationshipRecord, nodeId );
+                }
+                if ( chain.size() < denseNodeThreshold )
+                {
+                    continue;
+                }
+                List<RelationshipGroupRecord> groups = RelationshipChains.groupChain( nodeId, chain,
+                        relationshipStore );
+                for ( RelationshipRecord relationshipRecord : chain )
+                {
+                    relationshipStore.updateRecord( relationshipRecord );
+                }
+                for ( RelationshipGroupRecord group : groups )
+                {
+                    relationshipStore.updateRecord( group );
+                }
+                nodeRecord.setNextRel( groups.get( 0 ).getId() );
+                nodeStore.updateRecord( nodeRecord );
+            }
+        }
+
         private void reportProgress( long id )
         {
             int newPercent = (int) (id * 100 / totalEntities);
@@ -200,29 +249,6 @@ public class StoreMigrator
             relationshipTypeNameStoreReader.close();
         }
 
-        public void createRelationshipType( RelationshipTypeStore relationshipTypeStore, String name, int id )
-        {
-            long nextIdFromStore = relationshipTypeStore.nextId();
-            while ( nextIdFromStore < id )
-            {
-                nextIdFromStore = relationshipTypeStore.nextId();
-            }
-
-            RelationshipTypeRecord record = new RelationshipTypeRecord( id );
-
-            record.setInUse( true );
-            record.setCreated();
-            int keyBlockId = (int) relationshipTypeStore.nextBlockId();
-            record.setTypeBlock( keyBlockId );
-            Collection<DynamicRecord> keyRecords = relationshipTypeStore.allocateTypeNameRecords(
-                    keyBlockId, encodeString( name ) );
-            for ( DynamicRecord keyRecord : keyRecords )
-            {
-                record.addTypeRecord( keyRecord );
-            }
-            relationshipTypeStore.updateRecord( record );
-        }
-
         public void migratePropertyIndexes( PropertyIndexStore propIndexStore ) throws IOException
         {
             LegacyPropertyIndexStoreReader indexStoreReader = legacyStore.getPropertyIndexStoreReader();
@@ -236,28 +262,51 @@ public class StoreMigrator
             }
             propertyIndexKeyStoreReader.close();
         }
+    }
 
-        public void createPropertyIndex( PropertyIndexStore propIndexStore, String key, int id )
+    static void createRelationshipType( RelationshipTypeStore relationshipTypeStore, String name, int id )
+    {
+        long nextIdFromStore = relationshipTypeStore.nextId();
+        while ( nextIdFromStore < id )
         {
-            long nextIdFromStore = propIndexStore.nextId();
-            while ( nextIdFromStore < id )
-            {
-                nextIdFromStore = propIndexStore.nextId();
-            }
+            nextIdFromStore = relationshipTypeStore.nextId();
+        }
 
-            PropertyIndexRecord record = new PropertyIndexRecord( id );
+        RelationshipTypeRecord record = new RelationshipTypeRecord( id );
 
-            record.setInUse( true );
-            record.setCreated();
-            int keyBlockId = propIndexStore.nextKeyBlockId();
-            record.setKeyBlockId( keyBlockId );
-            Collection<DynamicRecord> keyRecords = propIndexStore.allocateKeyRecords(
-                    keyBlockId, encodeString( key ) );
-            for ( DynamicRecord keyRecord : keyRecords )
-            {
-                record.addKeyRecord( keyRecord );
-            }
-            propIndexStore.updateRecord( record );
+        record.setInUse( true );
+        record.setCreated();
+        int keyBlockId = (int) relationshipTypeStore.nextBlockId();
+        record.setTypeBlock( keyBlockId );
+        Collection<DynamicRecord> keyRecords = relationshipTypeStore.allocateTypeNameRecords(
+                keyBlockId, encodeString( name ) );
+        for ( DynamicRecord keyRecord : keyRecords )
+        {
+            record.addTypeRecord( keyRecord );
+        }
+        relationshipTypeStore.updateRecord( record );
+    }
+
+    static void createPropertyIndex( PropertyIndexStore propIndexStore, String key, int id )
+    {
+        long nextIdFromStore = propIndexStore.nextId();
+        while ( nextIdFromStore < id )
+        {
+            nextIdFromStore = propIndexStore.nextId();
+        }
+
+        PropertyIndexRecord record = new PropertyIndexRecord( id );
+
+        record.setInUse( true );
+        record.setCreated();
+        int keyBlockId = propIndexStore.nextKeyBlockId();
+        record.setKeyBlockId( keyBlockId );
+        Collection<DynamicRecord> keyRecords = propIndexStore.allocateKeyRecords(
+                keyBlockId, encodeString( key ) );
+        for ( DynamicRecord keyRecord : keyRecords )
+        {
+            record.addKeyRecord( keyRecord );
         }
+        propIndexStore.updateRecord( record );
     }
 }
@@ -21,9 +21,13 @@ package org.neo4j.kernel.impl.storemigration;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.neo4j.helpers.UTF8;
+import org.neo4j.kernel.impl.nioneo.store.CommonAbstractStore;
 import org.neo4j.kernel.impl.nioneo.store.NeoStore;
 import org.neo4j.kernel.impl.storemigration.legacystore.LegacyStore;
 import org.neo4j.kernel.impl.util.FileUtils;
@@ -48,6 +52,14 @@ public class StoreUpgrader
     public void attemptUpgrade( String storageFileName )
     {
         upgradeConfiguration.checkConfigurationAllowsAutomaticUpgrade();
+        String compatibleVersion = upgradableDatabase.findCompatibleVersion(
+                new File( storageFileName ) );
+        if ( compatibleVersion != null )
+        {
+            upgradeVersionInPlace( new File( storageFileName ).getParentFile(),
+                    compatibleVersion );
+            return;
+        }
         upgradableDatabase.checkUpgradeable( new File( storageFileName ) );
 
         File workingDirectory = new File( storageFileName ).getParentFile();
@@ -61,6 +73,61 @@ public class StoreUpgrader
         databaseFiles.moveToWorkingDirectory( upgradeDirectory, workingDirectory );
     }
 
+    /**
+     * Upgrades a cleanly shut down store of a compatible version by
+     * replacing the version at the end of each store file and the store
+     * version kept in the neostore file. The neostore file is done last, so
+     * an interrupted upgrade is finished when the store is opened again.
+     */
+    private void upgradeVersionInPlace( File storeDirectory, String fromVersion )
+    {
+        for ( String fileName : UpgradableDatabase.fileNamesToTypeDescriptors.keySet() )
+        {
+            if ( !fileName.equals( NeoStore.DEFAULT_NAME ) )
+            {
+                replaceVersion( new File( storeDirectory, fileName ), fromVersion );
+            }
+        }
+        NeoStore.setStoreVersion( storeDirectory.getPath(), NeoStore.versionStringToLong(
+                CommonAbstractStore.ALL_STORES_VERSION ) );
+        replaceVersion( new File( storeDirectory, NeoStore.DEFAULT_NAME ), fromVersion );
+    }
+
+    private void replaceVersion( File storeFile, String fromVersion )
+    {
+        String typeDescriptor = UpgradableDatabase.fileNamesToTypeDescriptors.get(
+                storeFile.getName() );
+        String oldVersion = typeDescriptor + " " + fromVersion;
+        if ( !UpgradableDatabase.storeFileHasVersion( storeFile, oldVersion ) )
+        {
+            // already upgraded
+            return;
+        }
+        try
+        {
+            RandomAccessFile file = new RandomAccessFile( storeFile, "rw" );
+            try
+            {
+                // overwritten rather than truncated first, the file always
+                // ends with a version
+                long end = file.length() - UTF8.encode( oldVersion ).length;
+                byte[] newVersion = UTF8.encode( typeDescriptor + " "
+                        + CommonAbstractStore.ALL_STORES_VERSION );
+                file.getChannel().write( ByteBuffer.wrap( newVersion ), end );
+                file.getChannel().truncate( end + newVersion.length );
+                file.getChannel().force( false );
+            }
+            finally
+            {
+                file.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new UnableToUpgradeException( e );
+        }
+    }
+
     private void backupMessagesLogLeavingInPlaceForNewDatabaseMessages( File workingDirectory, File backupDirectory )
     {
         try
@@ -29,7 +29,15 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.neo4j.helpers.UTF8;
+import org.neo4j.kernel.impl.nioneo.store.CommonAbstractStore;
+import org.neo4j.kernel.impl.nioneo.store.DynamicArrayStore;
+import org.neo4j.kernel.impl.nioneo.store.DynamicStringStore;
 import org.neo4j.kernel.impl.nioneo.store.NeoStore;
+import org.neo4j.kernel.impl.nioneo.store.NodeStore;
+import org.neo4j.kernel.impl.nioneo.store.PropertyIndexStore;
+import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeStore;
 import org.neo4j.kernel.impl.storemigration.legacystore.LegacyDynamicStoreReader;
 import org.neo4j.kernel.impl.storemigration.legacystore.LegacyNodeStoreReader;
 import org.neo4j.kernel.impl.storemigration.legacystore.LegacyPropertyIndexStoreReader;
@@ -67,8 +75,42 @@ public class UpgradableDatabase
         before.put( "neostore.relationshiptypestore.db.names",
                 LegacyDynamicStoreReader.FROM_VERSION_STRING );
         fileNamesToExpectedVersions = Collections.unmodifiableMap( before );
+
+        Map<String, String> current = new HashMap<String, String>();
+        current.put( NeoStore.DEFAULT_NAME, NeoStore.TYPE_DESCRIPTOR );
+        current.put( "neostore.nodestore.db", NodeStore.TYPE_DESCRIPTOR );
+        current.put( "neostore.propertystore.db", PropertyStore.TYPE_DESCRIPTOR );
+        current.put( "neostore.propertystore.db.arrays",
+                DynamicArrayStore.TYPE_DESCRIPTOR );
+        current.put( "neostore.propertystore.db.index",
+                PropertyIndexStore.TYPE_DESCRIPTOR );
+        current.put( "neostore.propertystore.db.index.keys",
+                DynamicStringStore.TYPE_DESCRIPTOR );
+        current.put( "neostore.propertystore.db.strings",
+                DynamicStringStore.TYPE_DESCRIPTOR );
+        current.put( "neostore.relationshipstore.db",
+                RelationshipStore.TYPE_DESCRIPTOR );
+        current.put( "neostore.relationshiptypestore.db",
+                RelationshipTypeStore.TYPE_DESCRIPTOR );
+        current.put( "neostore.relationshiptypestore.db.names",
+                DynamicStringStore.TYPE_DESCRIPTOR );
+        fileNamesToTypeDescriptors = Collections.unmodifiableMap( current );
     }
 
+    /**
+     * Earlier versions of the current store format. Their records are read
+     * as they are by the current stores, they only lack the record and
+     * property types added since (relationship groups in v0.A.1, compressed
+     * strings and arrays in v0.A.2), so upgrading them only changes the
+     * version of each store file, see {@link StoreUpgrader}.
+     */
+    public static final String[] COMPATIBLE_VERSIONS = { "v0.A.1", "v0.A.0" };
+
+    /*
+     * Initialized by the static block above.
+     */
+    public static final Map<String, String> fileNamesToTypeDescriptors;
+
     public void checkUpgradeable( File neoStoreFile )
     {
         if (!storeFilesUpgradeable( neoStoreFile ))
@@ -82,40 +124,83 @@ public class UpgradableDatabase
         File storeDirectory = neoStoreFile.getParentFile();
         for ( String fileName : fileNamesToExpectedVersions.keySet() )
         {
-            String expectedVersion = fileNamesToExpectedVersions.get( fileName );
-            FileChannel fileChannel = null;
-            byte[] expectedVersionBytes = UTF8.encode( expectedVersion );
-            try
+            if ( !storeFileHasVersion( new File( storeDirectory, fileName ),
+                    fileNamesToExpectedVersions.get( fileName ) ) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the compatible version the store in the directory of
+     * <CODE>neoStoreFile</CODE> has, if any. Store files already upgraded
+     * to the current version by an upgrade that didn't finish are accepted
+     * too.
+     *
+     * @return one of {@link #COMPATIBLE_VERSIONS} or <CODE>null</CODE> if
+     *         the store doesn't have a compatible version
+     */
+    public String findCompatibleVersion( File neoStoreFile )
+    {
+        File storeDirectory = neoStoreFile.getParentFile();
+        for ( String version : COMPATIBLE_VERSIONS )
+        {
+            boolean compatible = true;
+            for ( String fileName : fileNamesToTypeDescriptors.keySet() )
             {
                 File storeFile = new File( storeDirectory, fileName );
-                if (!storeFile.exists()) {
-                    return false;
-                }
-                fileChannel = new RandomAccessFile( storeFile, "r" ).getChannel();
-                fileChannel.position( fileChannel.size() - expectedVersionBytes.length );
-                byte[] foundVersionBytes = new byte[expectedVersionBytes.length];
-                fileChannel.read( ByteBuffer.wrap( foundVersionBytes ) );
-                if ( !expectedVersion.equals( UTF8.decode( foundVersionBytes ) ) )
+                String typeDescriptor = fileNamesToTypeDescriptors.get( fileName );
+                if ( !storeFileHasVersion( storeFile, typeDescriptor + " " + version ) &&
+                        !storeFileHasVersion( storeFile, typeDescriptor + " " +
+                                CommonAbstractStore.ALL_STORES_VERSION ) )
                 {
-                    return false;
+                    compatible = false;
+                    break;
                 }
-            } catch ( IOException e )
+            }
+            if ( compatible )
             {
-                throw new RuntimeException( e );
-            } finally
+                return version;
+            }
+        }
+        return null;
+    }
+
+    static boolean storeFileHasVersion( File storeFile, String expectedVersion )
+    {
+        FileChannel fileChannel = null;
+        byte[] expectedVersionBytes = UTF8.encode( expectedVersion );
+        try
+        {
+            if (!storeFile.exists()) {
+                return false;
+            }
+            fileChannel = new RandomAccessFile( storeFile, "r" ).getChannel();
+            if ( fileChannel.size() < expectedVersionBytes.length )
             {
-                if ( fileChannel != null )
+                return false;
+            }
+            fileChannel.position( fileChannel.size() - expectedVersionBytes.length );
+            byte[] foundVersionBytes = new byte[expectedVersionBytes.length];
+            fileChannel.read( ByteBuffer.wrap( foundVersionBytes ) );
+            return expectedVersion.equals( UTF8.decode( foundVersionBytes ) );
+        } catch ( IOException e )
+        {
+            throw new RuntimeException( e );
+        } finally
+        {
+            if ( fileChannel != null )
+            {
+                try
+                {
+                    fileChannel.close();
+                } catch ( IOException e )
                 {
-                    try
-                    {
-                        fileChannel.close();
-                    } catch ( IOException e )
-                    {
-                        // Ignore exception on close
-                    }
+                    // Ignore exception on close
                 }
             }
         }
-        return true;
     }
 }
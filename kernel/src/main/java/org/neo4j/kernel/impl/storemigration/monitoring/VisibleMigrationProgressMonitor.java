@@ -28,15 +28,22 @@ public class VisibleMigrationProgressMonitor implements MigrationProgressMonitor
     protected static final Logger logger = Logger
             .getLogger( MigrationProgressMonitor.class.getName() );
     private final PrintStream out;
+    private final String operation;
 
     public VisibleMigrationProgressMonitor( PrintStream out )
+    {
+        this( out, "upgrade" );
+    }
+
+    public VisibleMigrationProgressMonitor( PrintStream out, String operation )
     {
         this.out = out;
+        this.operation = operation;
     }
 
     public void started()
     {
-        String message = "Starting upgrade of database store files";
+        String message = "Starting " + operation + " of database store files";
         out.println( message );
         logger.log( Level.INFO, message );
     }
@@ -47,13 +54,13 @@ public class VisibleMigrationProgressMonitor implements MigrationProgressMonitor
         out.flush();
         if (percent % 10 == 0)
         {
-            logger.log( Level.INFO, String.format("Store upgrade %d%% complete", percent) );
+            logger.log( Level.INFO, String.format("Store %s %d%% complete", operation, percent) );
         }
     }
 
     public void finished()
     {
-        String message = "Finished upgrade of database store files";
+        String message = "Finished " + operation + " of database store files";
         out.println();
         out.println( message );
         logger.log( Level.INFO, message );
@@ -30,12 +30,12 @@ public class CombinedRelIdIterator implements RelIdIterator
     private final RelIdIterator addIterator;
     private RelIdIterator currentIterator;
     private final Collection<Long> removed;
-    private final String type;
+    private final int type;
     private final DirectionWrapper direction;
     private boolean nextElementDetermined;
     private long nextElement;
     
-    public CombinedRelIdIterator( String type, DirectionWrapper direction, RelIdArray src,
+    public CombinedRelIdIterator( int type, DirectionWrapper direction, RelIdArray src,
             RelIdArray add, Collection<Long> remove )
     {
         this.type = type;
@@ -47,7 +47,7 @@ public class CombinedRelIdIterator implements RelIdIterator
     }
     
     @Override
-    public String getType()
+    public int getType()
     {
         return type;
     }
@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import java.util.Arrays;
+
+/**
+ * A small LZF style compressor for property values, pure Java and with a
+ * decompression that is little more than copying bytes around.
+ * <p>
+ * The compressed form starts with the length of the uncompressed data as a
+ * 4 byte int, followed by a sequence of:
+ * <ul>
+ * <li>a literal run, a control byte <CODE>000lllll</CODE> followed by
+ * <CODE>l + 1</CODE> bytes copied as they are</li>
+ * <li>a back reference, a control byte <CODE>LLLooooo</CODE>, an extra
+ * length byte if <CODE>LLL</CODE> is 7, and a byte with the low bits of the
+ * offset. <CODE>L + 2</CODE> bytes are copied from <CODE>o + 1</CODE> bytes
+ * back in the uncompressed data.</li>
+ * </ul>
+ */
+public class LzfCodec
+{
+    private static final int HASH_BITS = 14;
+    private static final int MAX_LITERAL = 32;
+    private static final int MAX_OFFSET = 1 << 13;
+    private static final int MAX_MATCH = 2 + 7 + 255;
+    private static final int HEADER_SIZE = 4;
+
+    private LzfCodec()
+    {
+    }
+
+    /**
+     * @return the compressed form of <CODE>data</CODE>, which may be bigger
+     *         than <CODE>data</CODE> itself if it doesn't compress
+     */
+    public static byte[] compress( byte[] data )
+    {
+        int length = data.length;
+        byte[] out = new byte[HEADER_SIZE + length + length / MAX_LITERAL + 1];
+        out[0] = (byte) (length >>> 24);
+        out[1] = (byte) (length >>> 16);
+        out[2] = (byte) (length >>> 8);
+        out[3] = (byte) length;
+        int[] table = new int[1 << HASH_BITS];
+        Arrays.fill( table, -1 );
+        int op = HEADER_SIZE;
+        int literalStart = 0;
+        int ip = 0;
+        while ( ip + 2 < length )
+        {
+            int hash = hash( data, ip );
+            int ref = table[hash];
+            table[hash] = ip;
+            int offset = ip - ref - 1;
+            if ( ref < 0 || offset >= MAX_OFFSET || data[ref] != data[ip]
+                || data[ref + 1] != data[ip + 1] || data[ref + 2] != data[ip + 2] )
+            {
+                ip++;
+                continue;
+            }
+            op = literals( data, literalStart, ip, out, op );
+            int matchLength = 3;
+            int maxLength = Math.min( MAX_MATCH, length - ip );
+            while ( matchLength < maxLength && data[ref + matchLength] == data[ip + matchLength] )
+            {
+                matchLength++;
+            }
+            int storedLength = matchLength - 2;
+            if ( storedLength < 7 )
+            {
+                out[op++] = (byte) ((storedLength << 5) | (offset >>> 8));
+            }
+            else
+            {
+                out[op++] = (byte) ((7 << 5) | (offset >>> 8));
+                out[op++] = (byte) (storedLength - 7);
+            }
+            out[op++] = (byte) offset;
+            ip += matchLength;
+            literalStart = ip;
+        }
+        op = literals( data, literalStart, length, out, op );
+        return Arrays.copyOf( out, op );
+    }
+
+    /**
+     * @return the data that was compressed into <CODE>compressed</CODE> by
+     *         {@link #compress(byte[])}
+     */
+    public static byte[] decompress( byte[] compressed )
+    {
+        int length = ((compressed[0] & 0xFF) << 24) | ((compressed[1] & 0xFF) << 16)
+            | ((compressed[2] & 0xFF) << 8) | (compressed[3] & 0xFF);
+        byte[] out = new byte[length];
+        int ip = HEADER_SIZE;
+        int op = 0;
+        while ( op < length )
+        {
+            int control = compressed[ip++] & 0xFF;
+            if ( control < MAX_LITERAL )
+            {
+                int count = control + 1;
+                System.arraycopy( compressed, ip, out, op, count );
+                ip += count;
+                op += count;
+            }
+            else
+            {
+                int matchLength = control >>> 5;
+                if ( matchLength == 7 )
+                {
+                    matchLength += compressed[ip++] & 0xFF;
+                }
+                matchLength += 2;
+                int ref = op - (((control & 0x1F) << 8) | (compressed[ip++] & 0xFF)) - 1;
+                // may overlap the bytes being written, so byte by byte
+                for ( int i = 0; i < matchLength; i++ )
+                {
+                    out[op++] = out[ref++];
+                }
+            }
+        }
+        return out;
+    }
+
+    private static int literals( byte[] data, int from, int to, byte[] out, int op )
+    {
+        while ( from < to )
+        {
+            int count = Math.min( MAX_LITERAL, to - from );
+            out[op++] = (byte) (count - 1);
+            System.arraycopy( data, from, out, op, count );
+            op += count;
+            from += count;
+        }
+        return op;
+    }
+
+    private static int hash( byte[] data, int position )
+    {
+        int value = ((data[position] & 0xFF) << 16) | ((data[position + 1] & 0xFF) << 8)
+            | (data[position + 2] & 0xFF);
+        return (value * 0x9E3779B1) >>> (32 - HASH_BITS);
+    }
+}
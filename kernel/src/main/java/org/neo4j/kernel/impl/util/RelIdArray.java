@@ -19,12 +19,15 @@
  */
 package org.neo4j.kernel.impl.util;
 
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.NoSuchElementException;
 
 import org.neo4j.graphdb.Direction;
+import org.neo4j.kernel.impl.cache.EntityWithSize;
+import org.neo4j.kernel.impl.cache.SizeOf;
 
-public class RelIdArray
+public class RelIdArray implements EntityWithSize
 {
     private static final DirectionWrapper[] DIRECTIONS_FOR_OUTGOING =
             new DirectionWrapper[] { DirectionWrapper.OUTGOING, DirectionWrapper.BOTH };
@@ -37,7 +40,7 @@ public class RelIdArray
     {
         private static final DirectionWrapper[] EMPTY_DIRECTION_ARRAY = new DirectionWrapper[0];
         
-        private EmptyRelIdArray( String type )
+        private EmptyRelIdArray( int type )
         {
             super( type );
         }
@@ -71,23 +74,23 @@ public class RelIdArray
         }
     };
     
-    public static RelIdArray empty( String type )
+    public static RelIdArray empty( int type )
     {
         return new EmptyRelIdArray( type );
     }
     
-    public static RelIdArray EMPTY = new EmptyRelIdArray( "" );
+    public static RelIdArray EMPTY = new EmptyRelIdArray( -1 );
     
-    private final String type;
+    private final int type;
     private IdBlock lastOutBlock;
     private IdBlock lastInBlock;
     
-    public RelIdArray( String type )
+    public RelIdArray( int type )
     {
         this.type = type;
     }
     
-    public String getType()
+    public int getType()
     {
         return type;
     }
@@ -99,7 +102,7 @@ public class RelIdArray
         this.lastInBlock = from.lastInBlock;
     }
     
-    protected RelIdArray( String type, IdBlock out, IdBlock in )
+    protected RelIdArray( int type, IdBlock out, IdBlock in )
     {
         this( type );
         this.lastOutBlock = out;
@@ -243,6 +246,100 @@ public class RelIdArray
         }
     }
     
+    /**
+     * The type is shared with other arrays and isn't included in the size.
+     */
+    public int size()
+    {
+        return SizeOf.withObjectOverhead( 4 * SizeOf.REFERENCE ) + sizeOf( lastOutBlock )
+            + sizeOf( lastInBlock ) + sizeOf( getLastLoopBlock() );
+    }
+
+    /**
+     * Writes the ids of this array, but not its type, to the buffer, to be
+     * read back with {@link #readFrom(int, ByteBuffer)}.
+     */
+    public void writeTo( ByteBuffer buffer )
+    {
+        writeBlocks( lastOutBlock, buffer );
+        writeBlocks( lastInBlock, buffer );
+        writeBlocks( getLastLoopBlock(), buffer );
+    }
+
+    private static void writeBlocks( IdBlock block, ByteBuffer buffer )
+    {
+        int count = 0;
+        for ( IdBlock counted = block; counted != null; counted = counted.getPrev() )
+        {
+            count++;
+        }
+        buffer.putInt( count );
+        for ( ; block != null; block = block.getPrev() )
+        {
+            int length = block.length();
+            int[] ids = block.unpacked();
+            buffer.putLong( block.getHighBits() );
+            buffer.putInt( length );
+            for ( int i = 1; i <= length; i++ )
+            {
+                buffer.putInt( ids[i] );
+            }
+        }
+    }
+
+    /**
+     * Reads an array written with {@link #writeTo(ByteBuffer)}.
+     */
+    public static RelIdArray readFrom( int type, ByteBuffer buffer )
+    {
+        IdBlock out = readBlocks( buffer );
+        IdBlock in = readBlocks( buffer );
+        IdBlock loop = readBlocks( buffer );
+        RelIdArray ids = loop == null ? new RelIdArray( type, out, in ) :
+                new RelIdArrayWithLoops( type, out, in, loop );
+        return ids.shrink();
+    }
+
+    private static IdBlock readBlocks( ByteBuffer buffer )
+    {
+        int count = buffer.getInt();
+        IdBlock last = null;
+        IdBlock next = null;
+        for ( int i = 0; i < count; i++ )
+        {
+            long highBits = buffer.getLong();
+            int length = buffer.getInt();
+            IdBlock block = count == 1 && highBits == 0 ? new LowIdBlock() :
+                    new HighIdBlock( highBits );
+            block.ids = new int[length + 1];
+            block.ids[0] = length;
+            for ( int j = 1; j <= length; j++ )
+            {
+                block.ids[j] = buffer.getInt();
+            }
+            if ( next == null )
+            {
+                last = block;
+            }
+            else
+            {
+                next.setPrev( block );
+            }
+            next = block;
+        }
+        return last;
+    }
+
+    private static int sizeOf( IdBlock block )
+    {
+        int size = 0;
+        for ( ; block != null; block = block.getPrev() )
+        {
+            size += block.size();
+        }
+        return size;
+    }
+    
     public boolean isEmpty()
     {
         return lastOutBlock == null && lastInBlock == null && getLastLoopBlock() == null ;
@@ -359,18 +456,40 @@ public class RelIdArray
         }
     }
     
+    /**
+     * Blocks of at least this many ids are packed when they are shrunk, if
+     * that makes them smaller, see {@link IdBlock#shrink()}.
+     */
+    static final int MIN_PACKED_LENGTH = 8;
+
+    /**
+     * The low bits of the ids of a block, or packed into a byte array: the
+     * difference from the id before, zigzag encoded so that small negative
+     * differences are small too, as a variable length int of seven bits per
+     * byte. The ids of a relationship chain are often close to each other,
+     * so most of them take one or two bytes instead of four.
+     */
     public static abstract class IdBlock
     {
         // First element is the actual length w/o the slack
         private int[] ids = new int[3];
+        // The ids packed instead, see shrink()
+        private byte[] packed;
+        private int packedLength;
         
         /**
          * @return a copy of itself. The copy is also shrunk so that there's no
-         * slack in the id array.
+         * slack in the id array, but not packed.
          */
         IdBlock copy()
         {
             IdBlock copy = copyInstance();
+            byte[] bytes = packed;
+            if ( bytes != null )
+            {
+                copy.ids = unpack( bytes, packedLength );
+                return copy;
+            }
             int length = length();
             copy.ids = new int[length+1];
             System.arraycopy( ids, 0, copy.ids, 0, length+1 );
@@ -378,12 +497,134 @@ public class RelIdArray
         }
         
         /**
-         * @return a shrunk version of itself. It returns itself if there is
-         * no need to shrink it or a {@link #copy()} if there is slack in the array.
+         * @return a shrunk version of itself, and of the blocks before it.
+         * Blocks with {@link #MIN_PACKED_LENGTH enough} ids are packed if that
+         * takes less memory than the int array. It returns itself if there is
+         * nothing to shrink, otherwise a copy.
          */
         IdBlock shrink()
         {
-            return length() == ids.length-1 ? this : copy();
+            IdBlock prev = getPrev();
+            IdBlock shrunkPrev = prev != null ? prev.shrink() : null;
+            byte[] bytes = packed;
+            int length = length();
+            byte[] newlyPacked = bytes == null ? pack( ids, length ) : null;
+            if ( shrunkPrev == prev && newlyPacked == null &&
+                    (bytes != null || length == ids.length-1) )
+            {
+                return this;
+            }
+            IdBlock shrunk;
+            if ( newlyPacked != null || bytes != null )
+            {
+                shrunk = copyInstance();
+                shrunk.ids = null;
+                shrunk.packed = newlyPacked != null ? newlyPacked : bytes;
+                shrunk.packedLength = length;
+            }
+            else
+            {
+                shrunk = copyInstance();
+                shrunk.ids = new int[length+1];
+                System.arraycopy( ids, 0, shrunk.ids, 0, length+1 );
+            }
+            if ( shrunkPrev != null )
+            {
+                shrunk.setPrev( shrunkPrev );
+            }
+            return shrunk;
+        }
+        
+        /**
+         * @return the ids packed, or <CODE>null</CODE> if there are too few
+         * of them or if packed they wouldn't be smaller.
+         */
+        private static byte[] pack( int[] ids, int length )
+        {
+            if ( length < MIN_PACKED_LENGTH )
+            {
+                return null;
+            }
+            int size = 0;
+            int previous = 0;
+            for ( int i = 1; i <= length; i++ )
+            {
+                size += varIntSize( zigzag( ids[i] - previous ) );
+                previous = ids[i];
+            }
+            if ( size >= length * 4 )
+            {
+                return null;
+            }
+            byte[] bytes = new byte[size];
+            int offset = 0;
+            previous = 0;
+            for ( int i = 1; i <= length; i++ )
+            {
+                int value = zigzag( ids[i] - previous );
+                while ( (value & ~0x7F) != 0 )
+                {
+                    bytes[offset++] = (byte) ((value & 0x7F) | 0x80);
+                    value >>>= 7;
+                }
+                bytes[offset++] = (byte) value;
+                previous = ids[i];
+            }
+            return bytes;
+        }
+        
+        private static int[] unpack( byte[] bytes, int length )
+        {
+            int[] ids = new int[length+1];
+            ids[0] = length;
+            PackedCursor cursor = new PackedCursor( bytes );
+            for ( int i = 1; i <= length; i++ )
+            {
+                ids[i] = cursor.next();
+            }
+            return ids;
+        }
+        
+        private static int zigzag( int value )
+        {
+            return (value << 1) ^ (value >> 31);
+        }
+        
+        private static int varIntSize( int value )
+        {
+            int size = 1;
+            while ( (value & ~0x7F) != 0 )
+            {
+                value >>>= 7;
+                size++;
+            }
+            return size;
+        }
+        
+        /**
+         * @return the ids of this block, the first element being the length,
+         * as an array that mustn't be modified.
+         */
+        int[] unpacked()
+        {
+            byte[] bytes = packed;
+            return bytes != null ? unpack( bytes, packedLength ) : ids;
+        }
+        
+        /**
+         * @return the ids of this block, the first element being the length,
+         * unpacking them first if they are packed, so that they can be
+         * modified.
+         */
+        private int[] ids()
+        {
+            byte[] bytes = packed;
+            if ( bytes != null )
+            {
+                ids = unpack( bytes, packedLength );
+                packed = null;
+            }
+            return ids;
         }
         
         /**
@@ -393,7 +634,7 @@ public class RelIdArray
         
         int length()
         {
-            return ids[0];
+            return packed != null ? packedLength : ids[0];
         }
 
         IdBlock getPrev()
@@ -415,7 +656,8 @@ public class RelIdArray
         
         int ensureSpace( int delta )
         {
-            int length = length();
+            int[] ids = ids();
+            int length = ids[0];
             int newLength = length+delta;
             if ( newLength >= ids.length-1 )
             {
@@ -426,7 +668,7 @@ public class RelIdArray
                 }
                 int[] newIds = new int[calculatedLength];
                 System.arraycopy( ids, 0, newIds, 0, length+1 );
-                ids = newIds;
+                this.ids = newIds;
             }
             return length;
         }
@@ -435,13 +677,23 @@ public class RelIdArray
         {
             int otherBlockLength = block.length();
             int length = ensureSpace( otherBlockLength+1 );
-            System.arraycopy( block.ids, 1, ids, length+1, otherBlockLength );
+            System.arraycopy( block.unpacked(), 1, ids, length+1, otherBlockLength );
             ids[0] = otherBlockLength+length;
         }
         
         long get( int index )
         {
             assert index >= 0 && index < length();
+            byte[] bytes = packed;
+            if ( bytes != null )
+            {
+                PackedCursor cursor = new PackedCursor( bytes );
+                for ( int i = 0; i < index; i++ )
+                {
+                    cursor.next();
+                }
+                return transform( cursor.next() );
+            }
             return transform( ids[index+1] );
         }
         
@@ -450,10 +702,59 @@ public class RelIdArray
         void set( long id, int index )
         {
             // Assume same high bits
-            ids[index+1] = (int) id;
+            ids()[index+1] = (int) id;
+        }
+        
+        void removeLast()
+        {
+            ids()[0]--;
         }
         
         abstract long getHighBits();
+
+        int size()
+        {
+            // the ids, packed and prev references, the packed length and the
+            // high bits
+            byte[] bytes = packed;
+            int[] ids = this.ids;
+            return SizeOf.withObjectOverhead( 3 * SizeOf.REFERENCE + 4 + 8 )
+                + (bytes != null ? SizeOf.withArrayOverhead( bytes.length ) : 0)
+                + (ids != null ? SizeOf.withArrayOverhead( ids.length * 4 ) : 0);
+        }
+    }
+    
+    /**
+     * Reads the ids of a packed block one after the other.
+     */
+    private static class PackedCursor
+    {
+        private final byte[] bytes;
+        private int offset;
+        private int index;
+        private int previous;
+        
+        PackedCursor( byte[] bytes )
+        {
+            this.bytes = bytes;
+        }
+        
+        int next()
+        {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do
+            {
+                b = bytes[offset++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            }
+            while ( b < 0 );
+            previous += (value >>> 1) ^ -(value & 1);
+            index++;
+            return previous;
+        }
     }
     
     private static class LowIdBlock extends IdBlock
@@ -469,6 +770,8 @@ public class RelIdArray
         {
             IdBlock highBlock = new HighIdBlock( 0 );
             highBlock.ids = ((IdBlock)this).ids;
+            highBlock.packed = ((IdBlock)this).packed;
+            highBlock.packedLength = ((IdBlock)this).packedLength;
             return highBlock;
         }
 
@@ -555,6 +858,8 @@ public class RelIdArray
         private IdBlock block;
         private int relativePosition;
         private int absolutePosition;
+        // where in the block the iteration is, if the block is packed
+        private PackedCursor cursor;
         
         public IteratorState( IdBlock block, int relativePosition )
         {
@@ -585,7 +890,22 @@ public class RelIdArray
         long next()
         {
             absolutePosition++;
-            return block.get( relativePosition++ );
+            byte[] bytes = block.packed;
+            if ( bytes == null )
+            {
+                return block.get( relativePosition++ );
+            }
+            if ( cursor == null || cursor.bytes != bytes || cursor.index != relativePosition )
+            {
+                // A new block, or the same ids in a shrunk copy of the block
+                cursor = new PackedCursor( bytes );
+                while ( cursor.index < relativePosition )
+                {
+                    cursor.next();
+                }
+            }
+            relativePosition++;
+            return block.transform( cursor.next() );
         }
 
         public void update( IdBlock lastBlock )
@@ -637,7 +957,7 @@ public class RelIdArray
          * @see org.neo4j.kernel.impl.util.RelIdIterator#getType()
          */
         @Override
-        public String getType()
+        public int getType()
         {
             return ids.getType();
         }
@@ -833,7 +1153,7 @@ public class RelIdArray
                 for ( int j = block.length() - 1; j >= state.relativePosition; j--)
                 {
                     long backValue = block.get( j );
-                    block.ids[0] = block.ids[0]-1;
+                    block.removeLast();
                     if ( !excluded.contains( backValue) )
                     {
                         block.set( backValue, state.relativePosition-1 );
@@ -843,7 +1163,7 @@ public class RelIdArray
                 }
                 if ( !swapSuccessful ) // all elements from pos in remove
                 {
-                    block.ids[0] = block.ids[0]-1;
+                    block.removeLast();
                 }
             }
         }
@@ -21,7 +21,7 @@ package org.neo4j.kernel.impl.util;
 
 public interface RelIdIterator
 {
-    String getType();
+    int getType();
 
     RelIdArray getIds();
 
@@ -0,0 +1,202 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded number of helper threads shared by the parallel scans of the
+ * store files, f.ex. the rebuilding of the id generators and counts.
+ * <p>
+ * A worker takes its work from state it shares with the other workers of
+ * the same call, such as a counter of ranges, until there is none left.
+ * The calling thread always runs a worker itself and helpers only join in
+ * while there are free helper threads. A scan started from within another
+ * one therefore never waits for a thread and all scans together never use
+ * more than the processors of the machine, plus the calling threads.
+ */
+public class SharedWorkers
+{
+    private static final SharedWorkers INSTANCE = new SharedWorkers(
+        Runtime.getRuntime().availableProcessors() - 1 );
+
+    private final Semaphore helpers;
+    private final ExecutorService executor;
+
+    SharedWorkers( int maxHelpers )
+    {
+        this.helpers = new Semaphore( Math.max( 0, maxHelpers ) );
+        final AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool( new ThreadFactory()
+        {
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, "Store scan worker " +
+                    threadNumber.incrementAndGet() );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+    }
+
+    /**
+     * @return the helper threads shared by all stores in this JVM
+     */
+    public static SharedWorkers instance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Runs <CODE>worker</CODE> on the calling thread and on as many free
+     * helper threads as there are, at most <CODE>parallelism - 1</CODE>,
+     * and returns once all of them are done. The first exception thrown by
+     * a worker is rethrown.
+     */
+    public void run( final Runnable worker, int parallelism )
+    {
+        final Throwable[] failure = new Throwable[1];
+        List<Helper> started = new ArrayList<Helper>();
+        for ( int i = 1; i < parallelism && helpers.tryAcquire(); i++ )
+        {
+            Helper helper = new Helper( worker, failure );
+            try
+            {
+                executor.execute( helper );
+            }
+            catch ( RuntimeException e )
+            {
+                helpers.release();
+                break;
+            }
+            started.add( helper );
+        }
+        try
+        {
+            worker.run();
+        }
+        catch ( RuntimeException e )
+        {
+            setFailure( failure, e );
+        }
+        catch ( Error e )
+        {
+            setFailure( failure, e );
+        }
+        boolean interrupted = false;
+        for ( Helper helper : started )
+        {
+            interrupted |= helper.awaitDone();
+        }
+        if ( interrupted )
+        {
+            Thread.currentThread().interrupt();
+        }
+        Throwable first;
+        synchronized ( failure )
+        {
+            first = failure[0];
+        }
+        if ( first instanceof RuntimeException )
+        {
+            throw (RuntimeException) first;
+        }
+        if ( first instanceof Error )
+        {
+            throw (Error) first;
+        }
+        if ( first != null )
+        {
+            throw new RuntimeException( first );
+        }
+    }
+
+    private static void setFailure( Throwable[] failure, Throwable t )
+    {
+        synchronized ( failure )
+        {
+            if ( failure[0] == null )
+            {
+                failure[0] = t;
+            }
+        }
+    }
+
+    private class Helper implements Runnable
+    {
+        private final Runnable worker;
+        private final Throwable[] failure;
+        private boolean done;
+
+        Helper( Runnable worker, Throwable[] failure )
+        {
+            this.worker = worker;
+            this.failure = failure;
+        }
+
+        public void run()
+        {
+            try
+            {
+                worker.run();
+            }
+            catch ( Throwable t )
+            {
+                setFailure( failure, t );
+            }
+            finally
+            {
+                helpers.release();
+                synchronized ( this )
+                {
+                    done = true;
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * @return <CODE>true</CODE> if the calling thread was interrupted
+         *         while waiting
+         */
+        synchronized boolean awaitDone()
+        {
+            boolean interrupted = false;
+            while ( !done )
+            {
+                try
+                {
+                    wait();
+                }
+                catch ( InterruptedException e )
+                {
+                    interrupted = true;
+                }
+            }
+            return interrupted;
+        }
+    }
+}
@@ -79,7 +79,7 @@ public class StringLogger
         return getLogger( storeDir, DEFAULT_THRESHOLD_FOR_ROTATION_MB );
     }
 
-    public static StringLogger getLogger( String storeDir, int rotationThresholdMb )
+    public synchronized static StringLogger getLogger( String storeDir, int rotationThresholdMb )
     {
         if ( storeDir == null )
         {
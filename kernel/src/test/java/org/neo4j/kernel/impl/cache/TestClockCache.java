@@ -0,0 +1,330 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestClockCache
+{
+    @Test
+    public void testCreate()
+    {
+        try
+        {
+            new ClockCache<Object,Object>( "TestCache", 0 );
+            fail( "Illegal maxSize should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        ClockCache<Object,Object> cache = new ClockCache<Object,Object>( "TestCache", 70 );
+        try
+        {
+            cache.put( null, new Object() );
+            fail( "Null key should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        try
+        {
+            cache.put( new Object(), null );
+            fail( "Null element should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        try
+        {
+            cache.get( null );
+            fail( "Null key should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        cache.put( new Object(), new Object() );
+        assertEquals( 1, cache.size() );
+        cache.clear();
+        assertEquals( 0, cache.size() );
+    }
+
+    @Test
+    public void testPutGetRemove()
+    {
+        ClockCache<Long,String> cache = new ClockCache<Long,String>( "TestCache", 10, 1 );
+        cache.put( 1L, "one" );
+        cache.put( 1L, "uno" );
+        assertEquals( "uno", cache.get( 1L ) );
+        assertNull( cache.get( 2L ) );
+        assertEquals( 1, cache.hitCount() );
+        assertEquals( 1, cache.missCount() );
+        assertEquals( "uno", cache.remove( 1L ) );
+        assertNull( cache.remove( 1L ) );
+        assertEquals( 0, cache.size() );
+    }
+
+    @Test
+    public void testEvictsUnreferencedElementsFirst()
+    {
+        CleanedElements cache = new CleanedElements( 4 );
+        for ( long i = 0; i < 4; i++ )
+        {
+            cache.put( i, i );
+        }
+        cache.get( 0L );
+        cache.get( 2L );
+        cache.put( 4L, 4L );
+        cache.put( 5L, 5L );
+        assertEquals( 4, cache.size() );
+        assertEquals( 1L, cache.cleaned.get( 0 ).longValue() );
+        assertEquals( 3L, cache.cleaned.get( 1 ).longValue() );
+        assertEquals( 0L, cache.get( 0L ).longValue() );
+        assertEquals( 2L, cache.get( 2L ).longValue() );
+
+        // all referenced now, so the sweep clears them and starts over
+        cache.get( 4L );
+        cache.get( 5L );
+        cache.put( 6L, 6L );
+        assertEquals( 4, cache.size() );
+        assertEquals( 3, cache.cleaned.size() );
+    }
+
+    @Test
+    public void testEvictsOldElementsWhenNewOnesArePut()
+    {
+        CleanedElements cache = new CleanedElements( 4 );
+        for ( long i = 0; i < 20; i++ )
+        {
+            cache.put( i, i );
+        }
+        assertEquals( 4, cache.size() );
+        for ( long i = 0; i < 16; i++ )
+        {
+            assertNull( cache.get( i ) );
+        }
+        for ( long i = 16; i < 20; i++ )
+        {
+            assertEquals( i, cache.get( i ).longValue() );
+        }
+    }
+
+    @Test
+    public void testResize()
+    {
+        CleanedElements cache = new CleanedElements( 10 );
+        for ( long i = 0; i < 10; i++ )
+        {
+            cache.put( i, i );
+        }
+        cache.resize( 4 );
+        assertEquals( 4, cache.maxSize() );
+        assertEquals( 4, cache.size() );
+        assertEquals( 6, cache.cleaned.size() );
+        cache.resize( 8 );
+        for ( long i = 10; i < 20; i++ )
+        {
+            cache.put( i, i );
+        }
+        assertEquals( 8, cache.size() );
+    }
+
+    @Test
+    public void testSizeIsBoundedUnderConcurrentUse() throws Exception
+    {
+        final ClockCache<Long,Long> cache = new ClockCache<Long,Long>( "TestCache", 1000 );
+        ExecutorService executor = Executors.newFixedThreadPool( 8 );
+        try
+        {
+            List<Future<Object>> workers = new ArrayList<Future<Object>>();
+            for ( int t = 0; t < 8; t++ )
+            {
+                final long offset = t * 500;
+                workers.add( executor.submit( new Callable<Object>()
+                {
+                    public Object call()
+                    {
+                        for ( long i = 0; i < 20000; i++ )
+                        {
+                            long key = (offset + i) % 5000;
+                            Long value = cache.get( key );
+                            if ( value == null )
+                            {
+                                cache.put( key, key );
+                            }
+                            else
+                            {
+                                assertEquals( key, value.longValue() );
+                            }
+                            if ( i % 7 == 0 )
+                            {
+                                cache.remove( (key + 1) % 5000 );
+                            }
+                            assertTrue( cache.size() <= 1000 );
+                        }
+                        return null;
+                    }
+                } ) );
+            }
+            for ( Future<Object> worker : workers )
+            {
+                worker.get( 60, TimeUnit.SECONDS );
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        assertTrue( cache.size() <= 1000 );
+        assertEquals( 8 * 20000, cache.hitCount() + cache.missCount() );
+    }
+
+    @Test
+    public void evictedValueShouldBeFoundUntilTheListenerIsDone() throws Exception
+    {
+        final ClockCache<Long,String> cache = new ClockCache<Long,String>( "TestCache", 1, 1 );
+        final CountDownLatch listening = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final List<String> evicted = new CopyOnWriteArrayList<String>();
+        cache.setEvictionListener( new ClockCache.EvictionListener<String>()
+        {
+            public void evicted( String value )
+            {
+                evicted.add( value );
+                listening.countDown();
+                await( release );
+            }
+        } );
+        cache.put( 1L, "one" );
+        Thread evictor = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                cache.put( 2L, "two" );
+            }
+        };
+        evictor.start();
+        assertTrue( listening.await( 10, TimeUnit.SECONDS ) );
+        assertEquals( "one", cache.get( 1L ) );
+        assertEquals( 1, cache.size() );
+
+        Thread remover = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                cache.remove( 1L );
+            }
+        };
+        remover.start();
+        remover.join( 100 );
+        assertTrue( "Removed while the listener had the value", remover.isAlive() );
+        release.countDown();
+        evictor.join();
+        remover.join();
+        assertNull( cache.get( 1L ) );
+        assertEquals( "two", cache.get( 2L ) );
+        assertEquals( 1, evicted.size() );
+    }
+
+    @Test
+    public void listenerShouldNotGetValuesRemovedBeforeItIsCalled() throws Exception
+    {
+        final CountDownLatch cleaning = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final ClockCache<Long,String> cache = new ClockCache<Long,String>( "TestCache", 1, 1 )
+        {
+            @Override
+            public void elementCleaned( String value )
+            {
+                cleaning.countDown();
+                await( release );
+            }
+        };
+        final List<String> evicted = new CopyOnWriteArrayList<String>();
+        cache.setEvictionListener( new ClockCache.EvictionListener<String>()
+        {
+            public void evicted( String value )
+            {
+                evicted.add( value );
+            }
+        } );
+        cache.put( 1L, "one" );
+        Thread evictor = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                cache.put( 2L, "two" );
+            }
+        };
+        evictor.start();
+        assertTrue( cleaning.await( 10, TimeUnit.SECONDS ) );
+        assertEquals( "one", cache.remove( 1L ) );
+        assertNull( cache.get( 1L ) );
+        release.countDown();
+        evictor.join();
+        assertTrue( evicted.isEmpty() );
+        assertEquals( "two", cache.get( 2L ) );
+    }
+
+    private static void await( CountDownLatch latch )
+    {
+        try
+        {
+            latch.await();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class CleanedElements extends ClockCache<Long,Long>
+    {
+        final List<Long> cleaned = new ArrayList<Long>();
+
+        CleanedElements( int maxSize )
+        {
+            super( "TestCache", maxSize, 1 );
+        }
+
+        @Override
+        public void elementCleaned( Long value )
+        {
+            cleaned.add( value );
+        }
+    }
+}
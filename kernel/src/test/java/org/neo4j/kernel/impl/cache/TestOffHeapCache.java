@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TestOffHeapCache
+{
+    @Test
+    public void shouldGetWhatWasPut()
+    {
+        OffHeapCache cache = new OffHeapCache( "TestCache", 1024, 256 );
+        assertTrue( cache.put( 1, bytes( 1, 10 ) ) );
+        assertTrue( cache.put( 2, bytes( 2, 20 ) ) );
+        assertEquals( 2, cache.size() );
+        assertBytes( 1, 10, cache.get( 1 ) );
+        assertBytes( 2, 20, cache.get( 2 ) );
+        assertNull( cache.get( 3 ) );
+        assertEquals( 2, cache.hitCount() );
+        assertEquals( 1, cache.missCount() );
+
+        cache.remove( 1 );
+        assertNull( cache.get( 1 ) );
+        assertBytes( 2, 20, cache.get( 2 ) );
+        cache.clear();
+        assertNull( cache.get( 2 ) );
+        assertEquals( 0, cache.size() );
+    }
+
+    @Test
+    public void shouldReplaceValues()
+    {
+        OffHeapCache cache = new OffHeapCache( "TestCache", 1024, 256 );
+        cache.put( 1, bytes( 1, 10 ) );
+        cache.put( 1, bytes( 3, 30 ) );
+        assertEquals( 1, cache.size() );
+        assertBytes( 3, 30, cache.get( 1 ) );
+    }
+
+    @Test
+    public void shouldEvictTheOldestSegmentWhenFull()
+    {
+        // two segments, each with room for two values
+        OffHeapCache cache = new OffHeapCache( "TestCache", 200, 100 );
+        assertEquals( 200, cache.maxSizeInBytes() );
+        for ( long key = 0; key < 4; key++ )
+        {
+            cache.put( key, bytes( (byte) key, 30 ) );
+        }
+        assertEquals( 4, cache.size() );
+
+        cache.put( 4, bytes( 4, 30 ) );
+        assertNull( cache.get( 0 ) );
+        assertNull( cache.get( 1 ) );
+        for ( long key = 2; key < 5; key++ )
+        {
+            assertBytes( (byte) key, 30, cache.get( key ) );
+        }
+        assertEquals( 3, cache.size() );
+    }
+
+    @Test
+    public void shouldNotLetEvictionRemoveNewerValues()
+    {
+        OffHeapCache cache = new OffHeapCache( "TestCache", 200, 100 );
+        cache.put( 0, bytes( 0, 30 ) );
+        cache.put( 1, bytes( 1, 30 ) );
+        cache.put( 2, bytes( 2, 30 ) );
+        // the new value of 0 is in the second segment
+        cache.put( 0, bytes( 5, 30 ) );
+        cache.put( 3, bytes( 3, 30 ) );
+        assertBytes( 5, 30, cache.get( 0 ) );
+        assertNull( cache.get( 1 ) );
+    }
+
+    @Test
+    public void shouldNotStoreValuesBiggerThanASegment()
+    {
+        OffHeapCache cache = new OffHeapCache( "TestCache", 1024, 256 );
+        cache.put( 1, bytes( 1, 10 ) );
+        assertFalse( cache.put( 1, bytes( 1, 256 ) ) );
+        assertNull( cache.get( 1 ) );
+    }
+
+    private static ByteBuffer bytes( int value, int length )
+    {
+        byte[] bytes = new byte[length];
+        Arrays.fill( bytes, (byte) value );
+        return ByteBuffer.wrap( bytes );
+    }
+
+    private static void assertBytes( int value, int length, ByteBuffer buffer )
+    {
+        assertEquals( bytes( value, length ), buffer );
+    }
+}
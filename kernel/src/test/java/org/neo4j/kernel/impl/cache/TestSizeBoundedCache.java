@@ -0,0 +1,217 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestSizeBoundedCache
+{
+    @Test
+    public void shouldBoundTheCacheByTheSizeOfTheValues()
+    {
+        SizeBoundedCache<Long,Sized> cache = new SizeBoundedCache<Long,Sized>( "TestCache", 1000, 1 );
+        for ( long i = 0; i < 10; i++ )
+        {
+            cache.put( i, new Sized( 100 ) );
+        }
+        assertEquals( 10, cache.size() );
+        assertEquals( 1000, cache.sizeInBytes() );
+
+        cache.put( 10L, new Sized( 350 ) );
+        assertEquals( 7, cache.size() );
+        assertEquals( 950, cache.sizeInBytes() );
+        assertNotNull( cache.get( 10L ) );
+    }
+
+    @Test
+    public void shouldWeighValuesAgainWhenTheyChange()
+    {
+        SizeBoundedCache<Long,Sized> cache = new SizeBoundedCache<Long,Sized>( "TestCache", 1000, 1 );
+        Sized growing = new Sized( 100 );
+        cache.put( 1L, growing );
+        cache.put( 2L, new Sized( 100 ) );
+        cache.get( 1L );
+
+        growing.size = 900;
+        assertEquals( 200, cache.sizeInBytes() );
+        cache.updateSize( 1L );
+        assertEquals( 1000, cache.sizeInBytes() );
+
+        growing.size = 950;
+        cache.updateSize( 1L );
+        assertNull( cache.get( 2L ) );
+        assertEquals( 950, cache.sizeInBytes() );
+
+        // updating something that isn't cached does nothing
+        cache.updateSize( 3L );
+        assertEquals( 1, cache.size() );
+    }
+
+    @Test
+    public void shouldNotCacheValuesBiggerThanTheCache()
+    {
+        SizeBoundedCache<Long,Sized> cache = new SizeBoundedCache<Long,Sized>( "TestCache", 1000, 1 );
+        cache.put( 1L, new Sized( 100 ) );
+        cache.put( 2L, new Sized( 1001 ) );
+        assertNull( cache.get( 2L ) );
+        assertNotNull( cache.get( 1L ) );
+    }
+
+    @Test
+    public void shouldEvictWhenResizedInBytes()
+    {
+        SizeBoundedCache<Long,Sized> cache = new SizeBoundedCache<Long,Sized>( "TestCache", 1000 );
+        for ( long i = 0; i < 1000; i++ )
+        {
+            cache.put( i, new Sized( 1 ) );
+        }
+        cache.resizeInBytes( 100 );
+        assertEquals( 100, cache.maxSizeInBytes() );
+        assertTrue( cache.sizeInBytes() <= 100 );
+        assertEquals( cache.sizeInBytes(), cache.size() );
+    }
+
+    @Test
+    public void shouldCacheValuesBiggerThanTheShareOfASegment()
+    {
+        // four segments of 250 bytes each
+        SizeBoundedCache<Long,Sized> cache = new SizeBoundedCache<Long,Sized>( "TestCache", 1000, 4 );
+        for ( long i = 0; i < 10; i++ )
+        {
+            cache.put( i, new Sized( 50 ) );
+        }
+        cache.put( 100L, new Sized( 600 ) );
+        assertNotNull( cache.get( 100L ) );
+        assertTrue( cache.sizeInBytes() <= 1000 );
+
+        // and the capacity it borrowed is given back once it's gone
+        cache.remove( 100L );
+        for ( long i = 1000; i < 2000; i++ )
+        {
+            cache.put( i, new Sized( 10 ) );
+        }
+        assertEquals( 1000, cache.sizeInBytes() );
+    }
+
+    @Test
+    public void valuesThatGrowBiggerThanTheShareOfASegmentShouldStayCached()
+    {
+        SizeBoundedCache<Long,Sized> cache = new SizeBoundedCache<Long,Sized>( "TestCache", 1000, 4 );
+        for ( long i = 2; i < 100; i++ )
+        {
+            cache.put( i, new Sized( 10 ) );
+        }
+        Sized node = new Sized( 100 );
+        cache.put( 1L, node );
+        node.size = 800;
+        cache.updateSize( 1L );
+        assertNotNull( cache.get( 1L ) );
+        assertTrue( cache.sizeInBytes() <= 1000 );
+
+        node.size = 1001;
+        cache.updateSize( 1L );
+        assertNull( cache.get( 1L ) );
+        assertTrue( cache.sizeInBytes() <= 1000 );
+    }
+
+    @Test
+    public void sizeShouldBeBoundedWhenBigValuesArePutConcurrently() throws Exception
+    {
+        final SizeBoundedCache<Long,Sized> cache =
+            new SizeBoundedCache<Long,Sized>( "TestCache", 1000, 8 );
+        ExecutorService executor = Executors.newFixedThreadPool( 8 );
+        try
+        {
+            List<Future<Object>> workers = new ArrayList<Future<Object>>();
+            for ( int t = 0; t < 8; t++ )
+            {
+                final long offset = t * 100;
+                workers.add( executor.submit( new Callable<Object>()
+                {
+                    public Object call()
+                    {
+                        for ( long i = 0; i < 20000; i++ )
+                        {
+                            long key = (offset + i) % 1000;
+                            Sized value = cache.get( key );
+                            if ( value == null )
+                            {
+                                cache.put( key, new Sized( key % 50 == 0 ? 400 : 10 ) );
+                            }
+                            else if ( i % 5 == 0 )
+                            {
+                                cache.updateSize( key );
+                            }
+                            if ( i % 7 == 0 )
+                            {
+                                cache.remove( (key + 1) % 1000 );
+                            }
+                        }
+                        return null;
+                    }
+                } ) );
+            }
+            for ( Future<Object> worker : workers )
+            {
+                worker.get( 60, TimeUnit.SECONDS );
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        assertTrue( cache.sizeInBytes() + " bytes cached", cache.sizeInBytes() <= 1000 );
+        long size = 0;
+        for ( long key = 0; key < 1000; key++ )
+        {
+            Sized value = cache.get( key );
+            size += value != null ? value.size : 0;
+        }
+        assertEquals( cache.sizeInBytes(), size );
+    }
+
+    private static class Sized implements EntityWithSize
+    {
+        int size;
+
+        Sized( int size )
+        {
+            this.size = size;
+        }
+
+        public int size()
+        {
+            return size;
+        }
+    }
+}
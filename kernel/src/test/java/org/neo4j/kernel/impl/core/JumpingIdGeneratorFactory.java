@@ -82,6 +82,12 @@ public class JumpingIdGeneratorFactory implements IdGeneratorFactory
             return nextId.incrementAndGet();
         }
 
+        @Override
+        public long nextIdNear( long near, int idsPerPage )
+        {
+            return -1;
+        }
+
         @Override
         public IdRange nextIdBatch( int size )
         {
@@ -157,6 +163,12 @@ public class JumpingIdGeneratorFactory implements IdGeneratorFactory
             return result;
         }
 
+        @Override
+        public long nextIdNear( long near, int idsPerPage )
+        {
+            return -1;
+        }
+
         @Override
         public IdRange nextIdBatch( int size )
         {
@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.neo4j.kernel.impl.MyRelTypes.TEST;
+
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+
+public class TestBulkPropertyReads extends AbstractNeo4jTestCase
+{
+    private static final String LONG_STRING = "A string long enough to be " +
+            "stored in the dynamic string store instead of in the block itself";
+
+    @Test
+    public void shouldGetValuesInTheOrderOfTheKeys()
+    {
+        Node node = getGraphDb().createNode();
+        Relationship rel = node.createRelationshipTo( getGraphDb().createNode(), TEST );
+        for ( PropertyContainer entity : new PropertyContainer[] { node, rel } )
+        {
+            setProperties( entity );
+        }
+        for ( int i = 0; i < 2; i++ )
+        {
+            assertProperties( node );
+            assertProperties( rel );
+            newTransaction();
+            clearCache();
+        }
+    }
+
+    @Test
+    public void shouldSeeChangesOfTheTransaction()
+    {
+        Node node = getGraphDb().createNode();
+        node.setProperty( "kept", LONG_STRING );
+        node.setProperty( "changed", 1 );
+        node.setProperty( "removed", new int[] { 1, 2 } );
+        newTransaction();
+        clearCache();
+
+        node.setProperty( "changed", LONG_STRING + 2 );
+        node.removeProperty( "removed" );
+        node.setProperty( "added", 3L );
+        Object[] values = node.getProperties( "removed", "kept", "added", "changed" );
+        assertNull( values[0] );
+        assertEquals( LONG_STRING, values[1] );
+        assertEquals( 3L, values[2] );
+        assertEquals( LONG_STRING + 2, values[3] );
+        rollback();
+        setTransaction( getGraphDb().beginTx() );
+
+        values = node.getProperties( "removed", "added", "changed" );
+        assertArrayEquals( new int[] { 1, 2 }, (int[]) values[0] );
+        assertNull( values[1] );
+        assertEquals( 1, values[2] );
+    }
+
+    @Test
+    public void shouldGetNothingForNoKeys()
+    {
+        Node node = getGraphDb().createNode();
+        node.setProperty( "name", LONG_STRING );
+        assertEquals( 0, node.getProperties().length );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void shouldNotAcceptNullKeys()
+    {
+        getGraphDb().createNode().getProperties( "name", null );
+    }
+
+    private void setProperties( PropertyContainer entity )
+    {
+        entity.setProperty( "name", LONG_STRING );
+        entity.setProperty( "other", LONG_STRING + "!" );
+        entity.setProperty( "short", "short" );
+        entity.setProperty( "weight", 10 );
+        entity.setProperty( "tags", new String[] { "a", LONG_STRING } );
+        entity.setProperty( "unread", LONG_STRING + "?" );
+    }
+
+    private void assertProperties( PropertyContainer entity )
+    {
+        Object[] values = entity.getProperties( "weight", "missing", "other",
+                "tags", "name", "short", "weight" );
+        assertEquals( 7, values.length );
+        assertEquals( 10, values[0] );
+        assertNull( values[1] );
+        assertEquals( LONG_STRING + "!", values[2] );
+        assertArrayEquals( new String[] { "a", LONG_STRING }, (String[]) values[3] );
+        assertEquals( LONG_STRING, values[4] );
+        assertEquals( "short", values[5] );
+        assertEquals( 10, values[6] );
+        assertEquals( LONG_STRING + "?", entity.getProperty( "unread" ) );
+    }
+}
@@ -20,6 +20,7 @@
 package org.neo4j.kernel.impl.core;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
@@ -27,10 +28,15 @@ import java.io.File;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
 import org.neo4j.helpers.collection.MapUtil;
 import org.neo4j.kernel.Config;
 import org.neo4j.kernel.EmbeddedGraphDatabase;
 import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+import org.neo4j.kernel.impl.MyRelTypes;
+import org.neo4j.kernel.impl.cache.SizeBoundedCache;
 import org.neo4j.kernel.impl.core.NodeManager.CacheType;
 
 public class TestCacheTypes extends AbstractNeo4jTestCase
@@ -96,6 +102,45 @@ public class TestCacheTypes extends AbstractNeo4jTestCase
         db.shutdown();
     }
 
+    @Test
+    public void testClockCache()
+    {
+        GraphDatabaseService db = newDb( "clock" );
+        assertEquals( CacheType.clock, ((EmbeddedGraphDatabase) db).getConfig().getGraphDbModule().getNodeManager().getCacheType() );
+        db.shutdown();
+    }
+
+    @Test
+    public void testSizeCache()
+    {
+        GraphDatabaseService db = new EmbeddedGraphDatabase( PATH, MapUtil.stringMap(
+                Config.CACHE_TYPE, "size", Config.NODE_CACHE_SIZE, "10M" ) );
+        NodeManager nodeManager = ((EmbeddedGraphDatabase) db).getConfig().getGraphDbModule().getNodeManager();
+        assertEquals( CacheType.size, nodeManager.getCacheType() );
+        SizeBoundedCache<?,?> nodeCache = (SizeBoundedCache<?,?>) nodeManager.caches().iterator().next();
+        assertEquals( 10 * 1024 * 1024, nodeCache.maxSizeInBytes() );
+
+        Transaction tx = db.beginTx();
+        Node node = db.createNode();
+        for ( int i = 0; i < 5000; i++ )
+        {
+            node.createRelationshipTo( db.createNode(), MyRelTypes.TEST );
+        }
+        tx.success();
+        tx.finish();
+        nodeManager.clearCache();
+
+        int count = 0;
+        for ( Relationship rel : db.getNodeById( node.getId() ).getRelationships() )
+        {
+            count++;
+        }
+        assertEquals( 5000, count );
+        // at least a byte for each of the (packed) relationship ids
+        assertTrue( nodeCache.sizeInBytes() > 5000 );
+        db.shutdown();
+    }
+
     @Test
     public void testInvalidCache()
     {
@@ -0,0 +1,209 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.kernel.impl.AbstractNeo4jTestCase.deleteFileOrDirectory;
+import static org.neo4j.kernel.impl.AbstractNeo4jTestCase.getStorePath;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.MyRelTypes;
+import org.neo4j.kernel.impl.batchinsert.BatchInserter;
+import org.neo4j.kernel.impl.batchinsert.BatchInserterImpl;
+
+public class TestCounts
+{
+    private final String storePath = getStorePath( "counts" );
+    private final File countsFile = new File( storePath, "neostore.counts.db" );
+    private EmbeddedGraphDatabase graphDb;
+
+    @Before
+    public void startDb()
+    {
+        deleteFileOrDirectory( storePath );
+        graphDb = new EmbeddedGraphDatabase( storePath );
+    }
+
+    @After
+    public void stopDb()
+    {
+        if ( graphDb != null )
+        {
+            graphDb.shutdown();
+        }
+    }
+
+    private NodeManager nodeManager()
+    {
+        return graphDb.getConfig().getGraphDbModule().getNodeManager();
+    }
+
+    private void restart()
+    {
+        graphDb.shutdown();
+        graphDb = new EmbeddedGraphDatabase( storePath );
+    }
+
+    private void assertCounts( long nodes, long test, long test2 )
+    {
+        NodeManager nodeManager = nodeManager();
+        assertEquals( nodes, nodeManager.getNodeCount() );
+        assertEquals( test + test2, nodeManager.getRelationshipCount() );
+        assertEquals( test, nodeManager.getRelationshipCount( MyRelTypes.TEST ) );
+        assertEquals( test2, nodeManager.getRelationshipCount( MyRelTypes.TEST2 ) );
+        assertEquals( 0, nodeManager.getRelationshipCount( MyRelTypes.TEST_TRAVERSAL ) );
+    }
+
+    private void createGraph()
+    {
+        Transaction tx = graphDb.beginTx();
+        Node hub = graphDb.createNode();
+        for ( int i = 0; i < 10; i++ )
+        {
+            Node other = graphDb.createNode();
+            hub.createRelationshipTo( other, MyRelTypes.TEST );
+            if ( i % 2 == 0 )
+            {
+                other.createRelationshipTo( hub, MyRelTypes.TEST2 );
+            }
+        }
+        hub.createRelationshipTo( hub, MyRelTypes.TEST );
+        tx.success();
+        tx.finish();
+    }
+
+    @Test
+    public void countsShouldFollowCommittedTransactions()
+    {
+        // the reference node
+        assertCounts( 1, 0, 0 );
+        createGraph();
+        assertCounts( 12, 11, 5 );
+
+        Transaction tx = graphDb.beginTx();
+        Node node = graphDb.createNode();
+        Relationship rel = node.createRelationshipTo( node, MyRelTypes.TEST2 );
+        // changes are counted once committed
+        assertCounts( 12, 11, 5 );
+        tx.success();
+        tx.finish();
+        assertCounts( 13, 11, 6 );
+
+        tx = graphDb.beginTx();
+        rel.delete();
+        node.delete();
+        tx.failure();
+        tx.finish();
+        assertCounts( 13, 11, 6 );
+
+        tx = graphDb.beginTx();
+        rel.delete();
+        node.delete();
+        graphDb.createNode().delete();
+        tx.success();
+        tx.finish();
+        assertCounts( 12, 11, 5 );
+    }
+
+    @Test
+    public void countsShouldBeKeptAcrossRestarts()
+    {
+        createGraph();
+        restart();
+        assertCounts( 12, 11, 5 );
+        assertTrue( "counts should be read only once",
+            !countsFile.exists() );
+        graphDb.shutdown();
+        graphDb = null;
+        assertTrue( countsFile.exists() );
+    }
+
+    @Test
+    public void countsShouldBeRebuiltIfMissing()
+    {
+        createGraph();
+        graphDb.shutdown();
+        assertTrue( countsFile.delete() );
+        graphDb = new EmbeddedGraphDatabase( storePath );
+        assertCounts( 12, 11, 5 );
+    }
+
+    @Test
+    public void countsShouldBeRebuiltIfForAnotherTransaction() throws Exception
+    {
+        graphDb.shutdown();
+        File saved = new File( storePath, "counts.saved" );
+        copy( countsFile, saved );
+        graphDb = new EmbeddedGraphDatabase( storePath );
+        createGraph();
+        graphDb.shutdown();
+        copy( saved, countsFile );
+        graphDb = new EmbeddedGraphDatabase( storePath );
+        assertCounts( 12, 11, 5 );
+    }
+
+    @Test
+    public void countsShouldBeKeptByBatchInserter()
+    {
+        createGraph();
+        graphDb.shutdown();
+        graphDb = null;
+        BatchInserter inserter = new BatchInserterImpl( storePath );
+        long node = inserter.createNode( null );
+        inserter.createRelationship( node, node, MyRelTypes.TEST2, null );
+        inserter.shutdown();
+        graphDb = new EmbeddedGraphDatabase( storePath );
+        assertCounts( 13, 11, 6 );
+    }
+
+    private static void copy( File from, File to ) throws IOException
+    {
+        InputStream in = new FileInputStream( from );
+        OutputStream out = new FileOutputStream( to );
+        try
+        {
+            byte[] buffer = new byte[1024];
+            int read;
+            while ( (read = in.read( buffer )) != -1 )
+            {
+                out.write( buffer, 0, read );
+            }
+        }
+        finally
+        {
+            in.close();
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.neo4j.kernel.impl.MyRelTypes.TEST;
+import static org.neo4j.kernel.impl.MyRelTypes.TEST2;
+import static org.neo4j.kernel.impl.MyRelTypes.TEST_TRAVERSAL;
+
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+
+public class TestDegree extends AbstractNeo4jTestCase
+{
+    @Test
+    public void degreeShouldCountRelationshipsByTypeAndDirection()
+    {
+        Node node = getGraphDb().createNode();
+        Node other = getGraphDb().createNode();
+        node.createRelationshipTo( other, TEST );
+        node.createRelationshipTo( other, TEST );
+        other.createRelationshipTo( node, TEST );
+        other.createRelationshipTo( node, TEST2 );
+        node.createRelationshipTo( node, TEST );
+        newTransaction();
+
+        for ( int i = 0; i < 2; i++ )
+        {
+            assertDegrees( node, 5, 3, 3, 4, 3, 2, 0, 1, 1 );
+            clearCache();
+        }
+        // TEST_TRAVERSAL isn't used by any relationship
+        assertEquals( 0, node.getDegree( TEST_TRAVERSAL ) );
+        assertEquals( 4, other.getDegree() );
+    }
+
+    @Test
+    public void degreeShouldIncludeChangesOfTheTransaction()
+    {
+        Node node = getGraphDb().createNode();
+        Node other = getGraphDb().createNode();
+        Relationship out = node.createRelationshipTo( other, TEST );
+        Relationship in = other.createRelationshipTo( node, TEST2 );
+        Relationship loop = node.createRelationshipTo( node, TEST );
+        assertDegrees( node, 3, 2, 2, 2, 2, 1, 0, 1, 1 );
+        newTransaction();
+        clearCache();
+
+        node.createRelationshipTo( other, TEST2 );
+        out.delete();
+        assertDegrees( node, 3, 2, 2, 1, 1, 1, 1, 2, 1 );
+        in.delete();
+        loop.delete();
+        assertDegrees( node, 1, 1, 0, 0, 0, 0, 1, 1, 0 );
+        rollback();
+
+        assertDegrees( node, 3, 2, 2, 2, 2, 1, 0, 1, 1 );
+        setTransaction( getGraphDb().beginTx() );
+    }
+
+    private void assertDegrees( Node node, int all, int outgoing, int incoming,
+        int test, int outgoingTest, int incomingTest, int outgoingTest2,
+        int test2, int incomingTest2 )
+    {
+        assertEquals( all, node.getDegree() );
+        assertEquals( outgoing, node.getDegree( Direction.OUTGOING ) );
+        assertEquals( incoming, node.getDegree( Direction.INCOMING ) );
+        assertEquals( test, node.getDegree( TEST ) );
+        assertEquals( outgoingTest, node.getDegree( TEST, Direction.OUTGOING ) );
+        assertEquals( incomingTest, node.getDegree( TEST, Direction.INCOMING ) );
+        assertEquals( outgoingTest2, node.getDegree( TEST2, Direction.OUTGOING ) );
+        assertEquals( test2, node.getDegree( TEST2 ) );
+        assertEquals( incomingTest2, node.getDegree( TEST2, Direction.INCOMING ) );
+    }
+}
@@ -0,0 +1,285 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.kernel.impl.AbstractNeo4jTestCase.deleteFileOrDirectory;
+import static org.neo4j.kernel.impl.AbstractNeo4jTestCase.getStorePath;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.MyRelTypes;
+
+public class TestDenseNodes
+{
+    private static final int THRESHOLD = 5;
+
+    private final String storePath = getStorePath( "dense" );
+    private EmbeddedGraphDatabase graphDb;
+
+    @Before
+    public void startDb()
+    {
+        deleteFileOrDirectory( storePath );
+        graphDb = newGraphDb();
+    }
+
+    @After
+    public void stopDb()
+    {
+        graphDb.shutdown();
+    }
+
+    private EmbeddedGraphDatabase newGraphDb()
+    {
+        Map<String,String> config = new HashMap<String,String>();
+        config.put( Config.DENSE_NODE_THRESHOLD, "" + THRESHOLD );
+        config.put( "relationship_grab_size", "2" );
+        return new EmbeddedGraphDatabase( storePath, config );
+    }
+
+    private void restart()
+    {
+        graphDb.shutdown();
+        graphDb = newGraphDb();
+    }
+
+    private void clearCache()
+    {
+        graphDb.getConfig().getGraphDbModule().getNodeManager().clearCache();
+    }
+
+    @Test
+    public void relationshipsOfDenseNodeShouldBeFoundByTypeAndDirection()
+    {
+        Transaction tx = graphDb.beginTx();
+        Node hub = graphDb.createNode();
+        long hubId = hub.getId();
+        Set<Relationship> out = new HashSet<Relationship>();
+        Set<Relationship> in = new HashSet<Relationship>();
+        Set<Relationship> loops = new HashSet<Relationship>();
+        for ( int i = 0; i < 4 * THRESHOLD; i++ )
+        {
+            Node other = graphDb.createNode();
+            out.add( hub.createRelationshipTo( other, MyRelTypes.TEST ) );
+            in.add( other.createRelationshipTo( hub, MyRelTypes.TEST2 ) );
+        }
+        loops.add( hub.createRelationshipTo( hub, MyRelTypes.TEST ) );
+        tx.success();
+        tx.finish();
+
+        // crossing the threshold in a later transaction converts the node
+        tx = graphDb.beginTx();
+        for ( int i = 0; i < THRESHOLD; i++ )
+        {
+            out.add( hub.createRelationshipTo( graphDb.createNode(),
+                MyRelTypes.TEST_TRAVERSAL ) );
+        }
+        tx.success();
+        tx.finish();
+
+        for ( int round = 0; round < 2; round++ )
+        {
+            clearCache();
+            hub = graphDb.getNodeById( hubId );
+            assertRelationships( out, loops, hub.getRelationships( Direction.OUTGOING ) );
+            clearCache();
+            assertRelationships( in, loops, hub.getRelationships( Direction.INCOMING ) );
+            clearCache();
+            assertRelationships( in, null, hub.getRelationships( MyRelTypes.TEST2 ) );
+            clearCache();
+            Set<Relationship> all = new HashSet<Relationship>( out );
+            all.addAll( in );
+            assertRelationships( all, loops, hub.getRelationships() );
+            clearCache();
+            assertEquals( THRESHOLD, count( hub.getRelationships(
+                MyRelTypes.TEST_TRAVERSAL, Direction.OUTGOING ) ) );
+            assertEquals( 0, count( hub.getRelationships(
+                MyRelTypes.TEST_TRAVERSAL, Direction.INCOMING ) ) );
+            clearCache();
+            hub = graphDb.getNodeById( hubId );
+            assertEquals( out.size() + in.size() + loops.size(), hub.getDegree() );
+            assertEquals( out.size() + loops.size(), hub.getDegree( Direction.OUTGOING ) );
+            assertEquals( in.size() + loops.size(), hub.getDegree( Direction.INCOMING ) );
+            assertEquals( in.size(), hub.getDegree( MyRelTypes.TEST2 ) );
+            assertEquals( loops.size(), hub.getDegree( MyRelTypes.TEST,
+                Direction.INCOMING ) );
+            assertEquals( THRESHOLD, hub.getDegree( MyRelTypes.TEST_TRAVERSAL ) );
+            restart();
+        }
+    }
+
+    @Test
+    public void deletingAllRelationshipsOfDenseNodeShouldAllowDeletingIt()
+    {
+        Transaction tx = graphDb.beginTx();
+        Node hub = graphDb.createNode();
+        long hubId = hub.getId();
+        for ( int i = 0; i < 3 * THRESHOLD; i++ )
+        {
+            RelationshipType type = i % 2 == 0 ? MyRelTypes.TEST : MyRelTypes.TEST2;
+            hub.createRelationshipTo( graphDb.createNode(), type );
+            hub.createRelationshipTo( hub, type );
+        }
+        tx.success();
+        tx.finish();
+        restart();
+
+        tx = graphDb.beginTx();
+        hub = graphDb.getNodeById( hubId );
+        for ( Relationship rel : hub.getRelationships( MyRelTypes.TEST ) )
+        {
+            rel.delete();
+        }
+        tx.success();
+        tx.finish();
+        clearCache();
+        hub = graphDb.getNodeById( hubId );
+        assertEquals( 0, count( hub.getRelationships( MyRelTypes.TEST ) ) );
+        assertEquals( 3 * THRESHOLD - 1, count( hub.getRelationships() ) );
+        clearCache();
+        hub = graphDb.getNodeById( hubId );
+        assertEquals( 3 * THRESHOLD - 1, hub.getDegree() );
+        assertEquals( 0, hub.getDegree( MyRelTypes.TEST ) );
+
+        tx = graphDb.beginTx();
+        for ( Relationship rel : hub.getRelationships() )
+        {
+            Node other = rel.getOtherNode( hub );
+            rel.delete();
+            if ( !other.equals( hub ) )
+            {
+                other.delete();
+            }
+        }
+        hub.delete();
+        tx.success();
+        tx.finish();
+        restart();
+    }
+
+    @Test
+    public void degreeOfDenseNodeShouldBeKeptThroughManyLoops()
+    {
+        Transaction tx = graphDb.beginTx();
+        Node hub = graphDb.createNode();
+        long hubId = hub.getId();
+        for ( int i = 0; i < THRESHOLD; i++ )
+        {
+            hub.createRelationshipTo( graphDb.createNode(), MyRelTypes.TEST );
+        }
+        tx.success();
+        tx.finish();
+        // more loops than the group record has room to count
+        tx = graphDb.beginTx();
+        for ( int i = 0; i < 200; i++ )
+        {
+            hub.createRelationshipTo( hub, MyRelTypes.TEST );
+        }
+        tx.success();
+        tx.finish();
+        restart();
+
+        Node node = graphDb.getNodeById( hubId );
+        assertEquals( THRESHOLD + 200, node.getDegree( Direction.OUTGOING ) );
+        assertEquals( 200, node.getDegree( Direction.INCOMING ) );
+        tx = graphDb.beginTx();
+        int deleted = 0;
+        for ( Relationship rel : node.getRelationships( Direction.INCOMING ) )
+        {
+            if ( deleted++ < 150 )
+            {
+                rel.delete();
+            }
+        }
+        tx.success();
+        tx.finish();
+        restart();
+        node = graphDb.getNodeById( hubId );
+        assertEquals( THRESHOLD + 50, node.getDegree() );
+        assertEquals( 50, node.getDegree( MyRelTypes.TEST, Direction.INCOMING ) );
+    }
+
+    @Test
+    public void groupsShouldBeKeptWhenTheThresholdIsTurnedOff()
+    {
+        Transaction tx = graphDb.beginTx();
+        Node hub = graphDb.createNode();
+        long hubId = hub.getId();
+        for ( int i = 0; i < THRESHOLD; i++ )
+        {
+            hub.createRelationshipTo( graphDb.createNode(), MyRelTypes.TEST );
+        }
+        tx.success();
+        tx.finish();
+        graphDb.shutdown();
+        graphDb = new EmbeddedGraphDatabase( storePath );
+
+        tx = graphDb.beginTx();
+        Node node = graphDb.getNodeById( hubId );
+        graphDb.createNode().createRelationshipTo( node, MyRelTypes.TEST2 );
+        tx.success();
+        tx.finish();
+        clearCache();
+        assertEquals( THRESHOLD + 1, node.getDegree() );
+        assertEquals( 1, count( node.getRelationships( MyRelTypes.TEST2, Direction.INCOMING ) ) );
+        assertEquals( THRESHOLD, count( node.getRelationships( Direction.OUTGOING ) ) );
+    }
+
+    private void assertRelationships( Set<Relationship> expected,
+        Set<Relationship> loops, Iterable<Relationship> rels )
+    {
+        Set<Relationship> all = new HashSet<Relationship>( expected );
+        if ( loops != null )
+        {
+            all.addAll( loops );
+        }
+        Set<Relationship> found = new HashSet<Relationship>();
+        for ( Relationship rel : rels )
+        {
+            assertTrue( rel + " found twice", found.add( rel ) );
+        }
+        assertEquals( all, found );
+    }
+
+    private int count( Iterable<Relationship> rels )
+    {
+        int count = 0;
+        for ( Relationship rel : rels )
+        {
+            count++;
+        }
+        return count;
+    }
+}
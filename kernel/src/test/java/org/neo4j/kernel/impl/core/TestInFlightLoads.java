@@ -0,0 +1,222 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.neo4j.kernel.impl.cache.StrongReferenceCache;
+
+public class TestInFlightLoads
+{
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final StrongReferenceCache<Long,Object> cache =
+        new StrongReferenceCache<Long,Object>( "test" );
+    private final InFlightLoads<Object> loads = new InFlightLoads<Object>( cache );
+
+    @After
+    public void shutdownExecutor()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentMissesOnOneIdShouldLoadItOnce() throws Exception
+    {
+        BlockingLoader loader = new BlockingLoader( 1 );
+        List<Future<Object>> gets = new ArrayList<Future<Object>>();
+        for ( int i = 0; i < 8; i++ )
+        {
+            gets.add( executor.submit( get( 1, loader ) ) );
+        }
+        assertTrue( loader.started.await( 10, TimeUnit.SECONDS ) );
+        loader.release.countDown();
+        Object entity = gets.get( 0 ).get( 10, TimeUnit.SECONDS );
+        for ( Future<Object> get : gets )
+        {
+            assertSame( entity, get.get( 10, TimeUnit.SECONDS ) );
+        }
+        assertEquals( 1, loader.loads.get() );
+        assertSame( entity, cache.get( 1L ) );
+    }
+
+    @Test
+    public void missesOnDifferentIdsShouldNotWaitForEachOther() throws Exception
+    {
+        BlockingLoader loader = new BlockingLoader( 1 );
+        Future<Object> blocked = executor.submit( get( 1, loader ) );
+        assertTrue( loader.started.await( 10, TimeUnit.SECONDS ) );
+
+        assertEquals( "entity 2", executor.submit( get( 2, loader ) ).get( 10, TimeUnit.SECONDS ) );
+        assertFalse( blocked.isDone() );
+        loader.release.countDown();
+        assertEquals( "entity 1", blocked.get( 10, TimeUnit.SECONDS ) );
+    }
+
+    @Test
+    public void failedLoadShouldBeRetriedByTheWaitingThreads() throws Exception
+    {
+        final AtomicInteger attempts = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch( 1 );
+        InFlightLoads.Loader<Object> loader = new InFlightLoads.Loader<Object>()
+        {
+            public Object load( long id )
+            {
+                if ( attempts.incrementAndGet() == 1 )
+                {
+                    await( release );
+                    throw new IllegalStateException( "first load fails" );
+                }
+                return "entity " + id;
+            }
+        };
+        Future<Object> failing = executor.submit( get( 1, loader ) );
+        while ( attempts.get() == 0 )
+        {
+            Thread.sleep( 1 );
+        }
+        Future<Object> waiting = executor.submit( get( 1, loader ) );
+        release.countDown();
+        try
+        {
+            failing.get( 10, TimeUnit.SECONDS );
+            fail( "The first load should fail" );
+        }
+        catch ( java.util.concurrent.ExecutionException e )
+        {
+            assertTrue( e.getCause() instanceof IllegalStateException );
+        }
+        assertEquals( "entity 1", waiting.get( 10, TimeUnit.SECONDS ) );
+    }
+
+    @Test
+    public void entityNotFoundByTheLoadingThreadShouldBeLoadedByTheWaitingThreads()
+            throws Exception
+    {
+        final AtomicInteger attempts = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch( 1 );
+        InFlightLoads.Loader<Object> loader = new InFlightLoads.Loader<Object>()
+        {
+            public Object load( long id )
+            {
+                if ( attempts.incrementAndGet() == 1 )
+                {
+                    // like a transaction that deleted the entity
+                    await( release );
+                    return null;
+                }
+                return "entity " + id;
+            }
+        };
+        Future<Object> deleting = executor.submit( get( 1, loader ) );
+        while ( attempts.get() == 0 )
+        {
+            Thread.sleep( 1 );
+        }
+        Future<Object> waiting = executor.submit( get( 1, loader ) );
+        release.countDown();
+        assertNull( deleting.get( 10, TimeUnit.SECONDS ) );
+        assertEquals( "entity 1", waiting.get( 10, TimeUnit.SECONDS ) );
+    }
+
+    @Test
+    public void getAllShouldReturnTheEntitiesThatExist()
+    {
+        cache.put( 3L, "cached 3" );
+        BlockingLoader loader = new BlockingLoader( -1 );
+        Map<Long,Object> found = loads.getAll( new long[] { 1, 3, 4, 4, 7 }, loader );
+        assertEquals( "entity 1", found.get( 1L ) );
+        assertEquals( "cached 3", found.get( 3L ) );
+        assertEquals( "entity 4", found.get( 4L ) );
+        assertNull( found.get( 7L ) );
+        assertEquals( 3, found.size() );
+        // 7 doesn't exist, 4 is loaded once
+        assertEquals( 3, loader.loads.get() );
+        assertEquals( "entity 4", cache.get( 4L ) );
+    }
+
+    private Callable<Object> get( final long id, final InFlightLoads.Loader<Object> loader )
+    {
+        return new Callable<Object>()
+        {
+            public Object call()
+            {
+                return loads.get( id, loader );
+            }
+        };
+    }
+
+    private static void await( CountDownLatch latch )
+    {
+        try
+        {
+            latch.await();
+        }
+        catch ( InterruptedException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+
+    /**
+     * Loads "entity [id]" for ids below 7, blocking on the given id until
+     * released.
+     */
+    private static class BlockingLoader implements InFlightLoads.Loader<Object>
+    {
+        private final long blockingId;
+        final CountDownLatch started = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final AtomicInteger loads = new AtomicInteger();
+
+        BlockingLoader( long blockingId )
+        {
+            this.blockingId = blockingId;
+        }
+
+        public Object load( long id )
+        {
+            loads.incrementAndGet();
+            if ( id == blockingId )
+            {
+                started.countDown();
+                TestInFlightLoads.await( release );
+            }
+            return id < 7 ? "entity " + id : null;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.neo4j.kernel.impl.MyRelTypes.TEST;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.kernel.MultiGet;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+import org.neo4j.kernel.impl.cache.Cache;
+
+public class TestMultiGet extends AbstractNeo4jTestCase
+{
+    private MultiGet multiGet;
+
+    @Before
+    public void createMultiGet()
+    {
+        multiGet = new MultiGet( getEmbeddedGraphDb() );
+    }
+
+    @Test
+    public void shouldGetNodesInTheOrderOfTheIds()
+    {
+        // enough nodes to span two load lock stripes
+        long[] ids = new long[40000];
+        for ( int i = 0; i < ids.length; i++ )
+        {
+            ids[i] = getGraphDb().createNode().getId();
+        }
+        newTransaction();
+        clearCache();
+
+        long[] lookup = shuffledWithDuplicates( ids );
+        Node[] nodes = multiGet.nodes( lookup );
+        assertEquals( lookup.length, nodes.length );
+        for ( int i = 0; i < lookup.length; i++ )
+        {
+            assertEquals( lookup[i], nodes[i].getId() );
+        }
+        assertEquals( ids.length, cache( "NodeCache" ).size() );
+        // all of them are cached now
+        nodes = multiGet.nodes( lookup );
+        assertEquals( lookup[lookup.length - 1], nodes[lookup.length - 1].getId() );
+    }
+
+    @Test
+    public void shouldGetRelationshipsInTheOrderOfTheIds()
+    {
+        Node node = getGraphDb().createNode();
+        long[] ids = new long[100];
+        for ( int i = 0; i < ids.length; i++ )
+        {
+            ids[i] = node.createRelationshipTo( getGraphDb().createNode(), TEST ).getId();
+        }
+        newTransaction();
+        clearCache();
+
+        long[] lookup = shuffledWithDuplicates( ids );
+        Relationship[] relationships = multiGet.relationships( lookup );
+        for ( int i = 0; i < lookup.length; i++ )
+        {
+            assertEquals( lookup[i], relationships[i].getId() );
+            assertEquals( node, relationships[i].getStartNode() );
+        }
+        assertEquals( ids.length, cache( "RelationshipCache" ).size() );
+    }
+
+    @Test
+    public void shouldNotFindDeletedNodes()
+    {
+        Node kept = getGraphDb().createNode();
+        Node deleted = getGraphDb().createNode();
+        deleted.delete();
+        newTransaction();
+        clearCache();
+        try
+        {
+            multiGet.nodes( kept.getId(), deleted.getId() );
+            fail( "Shouldn't find a deleted node" );
+        }
+        catch ( NotFoundException e )
+        {   // Good
+        }
+        assertEquals( 0, multiGet.nodes().length );
+    }
+
+    private long[] shuffledWithDuplicates( long[] ids )
+    {
+        long[] result = new long[ids.length + ids.length / 10];
+        System.arraycopy( ids, 0, result, 0, ids.length );
+        System.arraycopy( ids, 0, result, ids.length, result.length - ids.length );
+        Random random = new Random( 1234 );
+        for ( int i = result.length - 1; i > 0; i-- )
+        {
+            int other = random.nextInt( i + 1 );
+            long id = result[i];
+            result[i] = result[other];
+            result[other] = id;
+        }
+        return result;
+    }
+
+    private Cache<?,?> cache( String name )
+    {
+        for ( Cache<?,?> cache : getNodeManager().caches() )
+        {
+            if ( cache.getName().equals( name ) )
+            {
+                return cache;
+            }
+        }
+        throw new IllegalArgumentException( name );
+    }
+}
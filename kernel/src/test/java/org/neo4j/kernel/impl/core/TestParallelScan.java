@@ -0,0 +1,193 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.neo4j.kernel.impl.AbstractNeo4jTestCase.deleteFileOrDirectory;
+import static org.neo4j.kernel.impl.AbstractNeo4jTestCase.getStorePath;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.ParallelScan;
+import org.neo4j.kernel.impl.MyRelTypes;
+
+public class TestParallelScan
+{
+    private static final int NODES = 3 * IdRangeScan.RANGE_SIZE + 17;
+
+    private final String storePath = getStorePath( "parallel-scan" );
+    private EmbeddedGraphDatabase graphDb;
+    private final Set<Long> nodes = new HashSet<Long>();
+    private final Set<Long> relationships = new HashSet<Long>();
+
+    @Before
+    public void createGraph()
+    {
+        deleteFileOrDirectory( storePath );
+        // dense nodes so that relationship group records are in the store
+        graphDb = new EmbeddedGraphDatabase( storePath,
+                MapUtil.stringMap( Config.DENSE_NODE_THRESHOLD, "5" ) );
+        Transaction tx = graphDb.beginTx();
+        try
+        {
+            nodes.add( graphDb.getReferenceNode().getId() );
+            Node hub = graphDb.createNode();
+            nodes.add( hub.getId() );
+            for ( int i = 0; i < NODES; i++ )
+            {
+                Node node = graphDb.createNode();
+                if ( i % 7 == 0 )
+                {
+                    node.delete();
+                    continue;
+                }
+                nodes.add( node.getId() );
+                if ( i % 100 == 0 )
+                {
+                    relationships.add( hub.createRelationshipTo( node, MyRelTypes.TEST ).getId() );
+                    Relationship deleted = node.createRelationshipTo( hub, MyRelTypes.TEST2 );
+                    deleted.delete();
+                }
+            }
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    @After
+    public void stopDb()
+    {
+        graphDb.shutdown();
+    }
+
+    @Test
+    public void shouldVisitEveryNodeInUseOnce()
+    {
+        final Set<Long> visited = Collections.newSetFromMap( new ConcurrentHashMap<Long,Boolean>() );
+        final AtomicInteger visits = new AtomicInteger();
+        new ParallelScan( graphDb, 4 ).nodes( new ParallelScan.Visitor<Node>()
+        {
+            public void visit( Node node )
+            {
+                visited.add( node.getId() );
+                visits.incrementAndGet();
+            }
+        } );
+        assertEquals( nodes, visited );
+        assertEquals( nodes.size(), visits.get() );
+    }
+
+    @Test
+    public void shouldVisitRelationshipsButNotGroups()
+    {
+        final Set<Long> visited = Collections.newSetFromMap( new ConcurrentHashMap<Long,Boolean>() );
+        new ParallelScan( graphDb, 4 ).relationships( new ParallelScan.Visitor<Relationship>()
+        {
+            public void visit( Relationship relationship )
+            {
+                assertEquals( MyRelTypes.TEST.name(), relationship.getType().name() );
+                visited.add( relationship.getId() );
+            }
+        } );
+        assertEquals( relationships, visited );
+    }
+
+    @Test
+    public void singleThreadedScanShouldVisitTheSameNodes()
+    {
+        final Set<Long> visited = new HashSet<Long>();
+        new ParallelScan( graphDb, 1 ).nodes( new ParallelScan.Visitor<Node>()
+        {
+            public void visit( Node node )
+            {
+                visited.add( node.getId() );
+            }
+        } );
+        assertEquals( nodes, visited );
+    }
+
+    @Test
+    public void shouldNotSeeChangesOfTheTransactionOfTheCallingThread()
+    {
+        final Set<Long> visited = new HashSet<Long>();
+        Transaction tx = graphDb.beginTx();
+        try
+        {
+            graphDb.createNode();
+            graphDb.createNode().createRelationshipTo( graphDb.getReferenceNode(),
+                    MyRelTypes.TEST );
+            // the calling thread scans all ranges itself
+            new ParallelScan( graphDb, 1 ).nodes( new ParallelScan.Visitor<Node>()
+            {
+                public void visit( Node node )
+                {
+                    visited.add( node.getId() );
+                }
+            } );
+        }
+        finally
+        {
+            tx.finish();
+        }
+        assertEquals( nodes, visited );
+    }
+
+    @Test
+    public void shouldRethrowExceptionOfVisitor()
+    {
+        final IllegalStateException failure = new IllegalStateException( "visitor failed" );
+        try
+        {
+            new ParallelScan( graphDb, 4 ).nodes( new ParallelScan.Visitor<Node>()
+            {
+                public void visit( Node node )
+                {
+                    if ( node.getId() >= IdRangeScan.RANGE_SIZE )
+                    {
+                        throw failure;
+                    }
+                }
+            } );
+            fail( "Should have rethrown the exception of the visitor" );
+        }
+        catch ( IllegalStateException e )
+        {
+            assertSame( failure, e );
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+
+public class TestPrimitivePropertyReads extends AbstractNeo4jTestCase
+{
+    private static final int READS = 10000;
+
+    @Test
+    public void shouldReadPrimitiveValues()
+    {
+        Node node = getGraphDb().createNode();
+        node.setProperty( "byte", (byte) 7 );
+        node.setProperty( "int", 123456 );
+        node.setProperty( "long", 1L << 40 );
+        node.setProperty( "float", 1.5f );
+        node.setProperty( "double", 2.25d );
+        node.setProperty( "boolean", true );
+        for ( int i = 0; i < 2; i++ )
+        {
+            assertEquals( 7, node.getLongProperty( "byte", -1 ) );
+            assertEquals( 123456, node.getLongProperty( "int", -1 ) );
+            assertEquals( 1L << 40, node.getLongProperty( "long", -1 ) );
+            assertEquals( 123456d, node.getDoubleProperty( "int", -1 ), 0d );
+            assertEquals( 1.5d, node.getDoubleProperty( "float", -1 ), 0d );
+            assertEquals( 2.25d, node.getDoubleProperty( "double", -1 ), 0d );
+            assertTrue( node.getBooleanProperty( "boolean", false ) );
+            assertEquals( -1, node.getLongProperty( "missing", -1 ) );
+            assertFalse( node.getBooleanProperty( "missing", false ) );
+            newTransaction();
+            clearCache();
+        }
+    }
+
+    @Test
+    public void shouldSeeChangesOfTheTransaction()
+    {
+        Node node = getGraphDb().createNode();
+        node.setProperty( "long", 1L );
+        node.setProperty( "removed", 2L );
+        newTransaction();
+        node.setProperty( "long", 10L );
+        node.removeProperty( "removed" );
+        node.setProperty( "added", 3L );
+        assertEquals( 10L, node.getLongProperty( "long", -1 ) );
+        assertEquals( -1L, node.getLongProperty( "removed", -1 ) );
+        assertEquals( 3L, node.getLongProperty( "added", -1 ) );
+    }
+
+    @Test
+    public void shouldNotReadOtherTypes()
+    {
+        Node node = getGraphDb().createNode();
+        node.setProperty( "string", "1" );
+        node.setProperty( "double", 1d );
+        newTransaction();
+        clearCache();
+        try
+        {
+            node.getLongProperty( "string", -1 );
+            fail( "Shouldn't read a string as a long" );
+        }
+        catch ( ClassCastException e )
+        {   // Good
+        }
+        try
+        {
+            node.getLongProperty( "double", -1 );
+            fail( "Shouldn't read a double as a long" );
+        }
+        catch ( ClassCastException e )
+        {   // Good
+        }
+        assertEquals( "1", node.getProperty( "string" ) );
+    }
+
+    @Test
+    public void cachedReadsShouldReadTheSameValues()
+    {
+        Node node = getGraphDb().createNode();
+        node.setProperty( "name", "not read" );
+        node.setProperty( "weight", 1234567890123L );
+        node.setProperty( "score", 0.5d );
+        node.setProperty( "visited", true );
+        newTransaction();
+        clearCache();
+        long sum = 0;
+        for ( int i = 0; i < READS; i++ )
+        {
+            sum += node.getLongProperty( "weight", 0 );
+            sum += (long) ( node.getDoubleProperty( "score", 0 ) * 2 );
+            sum += node.getBooleanProperty( "visited", false ) ? 1 : 0;
+        }
+        assertEquals( READS * ( 1234567890123L + 2 ), sum );
+        assertEquals( "not read", node.getProperty( "name" ) );
+    }
+
+    /*
+     * Only the reads from the cached node itself are free of garbage, going
+     * through the proxy boxes the node id to look the node up in the cache.
+     */
+    @Test
+    public void cachedReadsWithoutTransactionStateShouldNotAllocate() throws Exception
+    {
+        Method allocatedBytes = allocatedBytesMethod();
+        assumeTrue( allocatedBytes != null );
+        Node node = getGraphDb().createNode();
+        node.setProperty( "weight", 1234567890123L );
+        node.setProperty( "score", 0.5d );
+        node.setProperty( "visited", true );
+        newTransaction();
+        NodeImpl nodeImpl = getNodeManager().getNodeForProxy( node.getId() );
+        long sum = readPrimitives( nodeImpl );
+        long before = allocatedBytes( allocatedBytes );
+        sum += readPrimitives( nodeImpl );
+        long allocated = allocatedBytes( allocatedBytes ) - before;
+        assertEquals( 2 * READS * ( 1234567890123L + 2 ), sum );
+        assertTrue( allocated + " bytes allocated for " + READS + " reads", allocated < READS );
+    }
+
+    private long readPrimitives( NodeImpl node )
+    {
+        NodeManager nodeManager = getNodeManager();
+        long sum = 0;
+        for ( int i = 0; i < READS; i++ )
+        {
+            sum += node.getLongProperty( nodeManager, "weight", 0 );
+            sum += (long) ( node.getDoubleProperty( nodeManager, "score", 0 ) * 2 );
+            sum += node.getBooleanProperty( nodeManager, "visited", false ) ? 1 : 0;
+        }
+        return sum;
+    }
+
+    /*
+     * The allocation counters are specific to the Sun JVM, so they're only
+     * used if they're there.
+     */
+    private static Method allocatedBytesMethod()
+    {
+        try
+        {
+            Method method = Class.forName( "com.sun.management.ThreadMXBean" ).getMethod(
+                    "getThreadAllocatedBytes", long.class );
+            allocatedBytes( method );
+            return method;
+        }
+        catch ( Exception e )
+        {
+            return null;
+        }
+    }
+
+    private static long allocatedBytes( Method allocatedBytes ) throws Exception
+    {
+        long bytes = (Long) allocatedBytes.invoke( ManagementFactory.getThreadMXBean(),
+                Thread.currentThread().getId() );
+        if ( bytes < 0 )
+        {
+            throw new UnsupportedOperationException( "Thread allocation measurement disabled" );
+        }
+        return bytes;
+    }
+}
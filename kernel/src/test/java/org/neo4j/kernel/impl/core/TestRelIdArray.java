@@ -26,6 +26,7 @@ import static org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper.BOTH;
 import static org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper.INCOMING;
 import static org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper.OUTGOING;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -36,6 +37,7 @@ import java.util.List;
 import org.junit.Test;
 import org.neo4j.kernel.impl.util.RelIdArray;
 import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
+import org.neo4j.kernel.impl.util.RelIdArrayWithLoops;
 import org.neo4j.kernel.impl.util.RelIdIterator;
 
 // TODO Add some tests for loops, i.e. add with direction BOTH.
@@ -44,7 +46,7 @@ public class TestRelIdArray
     @Test
     public void testBasic() throws Exception
     {
-        RelIdArray array = new RelIdArray( null );
+        RelIdArray array = new RelIdArray( 0 );
         array.add( 1, OUTGOING );
         array.add( 2, OUTGOING );
         array.add( 3, INCOMING );
@@ -81,12 +83,12 @@ public class TestRelIdArray
     @Test
     public void testWithAddRemove() throws Exception
     {
-        RelIdArray source = new RelIdArray( null );
+        RelIdArray source = new RelIdArray( 0 );
         source.add( 1, OUTGOING );
         source.add( 2, OUTGOING );
         source.add( 3, INCOMING );
         source.add( 4, INCOMING );
-        RelIdArray add = new RelIdArray( null );
+        RelIdArray add = new RelIdArray( 0 );
         add.add( 5, OUTGOING );
         add.add( 6, OUTGOING );
         add.add( 7, OUTGOING );
@@ -101,7 +103,7 @@ public class TestRelIdArray
     @Test
     public void testDifferentBlocks() throws Exception
     {
-        RelIdArray array = new RelIdArray( null );
+        RelIdArray array = new RelIdArray( 0 );
         long justUnderIntMax = (long) Math.pow( 2, 32 )-3;
         array.add( justUnderIntMax, OUTGOING );
         array.add( justUnderIntMax+1, OUTGOING );
@@ -126,16 +128,16 @@ public class TestRelIdArray
     @Test
     public void testAddDifferentBlocks() throws Exception
     {
-        RelIdArray array1 = new RelIdArray( null );
+        RelIdArray array1 = new RelIdArray( 0 );
         array1.add( 0, OUTGOING );
         array1.add( 1, OUTGOING );
         
-        RelIdArray array2 = new RelIdArray( null );
+        RelIdArray array2 = new RelIdArray( 0 );
         long justOverIntMax = (long) Math.pow( 2, 32 )+3;
         array2.add( justOverIntMax, OUTGOING );
         array2.add( justOverIntMax+1, OUTGOING );
         
-        RelIdArray all = new RelIdArray( null );
+        RelIdArray all = new RelIdArray( 0 );
         all.addAll( array1 );
         all.addAll( array2 );
         
@@ -143,6 +145,139 @@ public class TestRelIdArray
                 0L, 1L, justOverIntMax, justOverIntMax+1 ) ), new HashSet<Long>( asList( all ) ) );
     }
     
+    @Test
+    public void testShrinkPacksCloseIds() throws Exception
+    {
+        RelIdArray array = new RelIdArray( 0 );
+        List<Long> ids = new ArrayList<Long>();
+        long id = 100000;
+        for ( int i = 0; i < 1000; i++ )
+        {
+            // mostly close together, now and then far apart
+            id = i % 100 == 0 ? id + 10000000 : id - 1 - i % 3;
+            array.add( id, i % 2 == 0 ? OUTGOING : INCOMING );
+            ids.add( id );
+        }
+        long justOverIntMax = (long) Math.pow( 2, 32 )+3;
+        for ( int i = 0; i < 10; i++ )
+        {
+            array.add( justOverIntMax+i, OUTGOING );
+        }
+        List<Long> before = asList( array );
+        
+        RelIdArray shrunk = array.shrink();
+        assertEquals( before, asList( shrunk ) );
+        assertTrue( shrunk.size() * 2 < array.size() );
+        
+        // and the packed ids can be changed
+        Collection<Long> remove = new HashSet<Long>( ids.subList( 0, 500 ) );
+        RelIdArray add = new RelIdArray( 0 );
+        add.add( 5, OUTGOING );
+        List<Long> expected = new ArrayList<Long>( before );
+        expected.removeAll( remove );
+        expected.add( 5L );
+        Collections.sort( expected );
+        List<Long> changed = asList( RelIdArray.from( shrunk, add, remove ) );
+        Collections.sort( changed );
+        assertEquals( expected, changed );
+    }
+    
+    @Test
+    public void testIterationContinuesInShrunkArray() throws Exception
+    {
+        RelIdArray array = new RelIdArray( 0 );
+        for ( int i = 0; i < 100; i++ )
+        {
+            array.add( 1000 - i * 7, i < 60 ? OUTGOING : INCOMING );
+        }
+        List<Long> all = asList( array );
+        
+        RelIdIterator iterator = array.iterator( BOTH );
+        List<Long> iterated = new ArrayList<Long>();
+        for ( int i = 0; i < 30; i++ )
+        {
+            iterated.add( iterator.next() );
+        }
+        iterator = iterator.updateSource( array.shrink() );
+        while ( iterator.hasNext() )
+        {
+            iterated.add( iterator.next() );
+        }
+        assertEquals( all, iterated );
+    }
+    
+    @Test
+    public void testIterationOfPackedBlocksContinuesWhenArrayIsSwapped() throws Exception
+    {
+        RelIdArray array = new RelIdArray( 0 );
+        long justOverIntMax = (long) Math.pow( 2, 32 )+3;
+        for ( int i = 0; i < 50; i++ )
+        {
+            array.add( 1000 - i * 7, OUTGOING );
+            array.add( 3000 + i * 3, INCOMING );
+        }
+        for ( int i = 0; i < 20; i++ )
+        {
+            array.add( justOverIntMax+i, OUTGOING );
+        }
+        RelIdArray shrunk = array.shrink();
+        assertTrue( shrunk.size() * 2 < array.size() );
+        
+        RelIdIterator iterator = shrunk.iterator( BOTH );
+        List<Long> iterated = new ArrayList<Long>();
+        for ( int i = 0; i < 30; i++ )
+        {
+            iterated.add( iterator.next() );
+        }
+        
+        // a loop is loaded, which upgrades the array while in the packed blocks
+        RelIdArray loops = new RelIdArrayWithLoops( 0 );
+        loops.add( 5, BOTH );
+        RelIdArray upgraded = shrunk.addAll( loops );
+        assertTrue( upgraded != shrunk );
+        iterator = iterator.updateSource( upgraded );
+        while ( iterator.hasNext() )
+        {
+            iterated.add( iterator.next() );
+        }
+        
+        // and then some more relationships, in the next round, which unpacks
+        // the blocks they're added to
+        RelIdArray more = new RelIdArray( 0 );
+        more.add( 6, OUTGOING );
+        more.add( 7, INCOMING );
+        RelIdArray loaded = upgraded.addAll( more );
+        iterator = iterator.updateSource( loaded );
+        iterator.doAnotherRound();
+        while ( iterator.hasNext() )
+        {
+            iterated.add( iterator.next() );
+        }
+        
+        List<Long> expected = asList( array );
+        expected.addAll( Arrays.asList( 5L, 6L, 7L ) );
+        Collections.sort( expected );
+        Collections.sort( iterated );
+        assertEquals( expected, iterated );
+    }
+    
+    @Test
+    public void testWriteAndReadPackedIds() throws Exception
+    {
+        RelIdArray array = new RelIdArray( 0 );
+        for ( int i = 0; i < 100; i++ )
+        {
+            array.add( 5000 + i, OUTGOING );
+        }
+        array.add( 1, INCOMING );
+        ByteBuffer buffer = ByteBuffer.allocate( 10000 );
+        array.shrink().writeTo( buffer );
+        buffer.flip();
+        RelIdArray read = RelIdArray.readFrom( 0, buffer );
+        assertEquals( asList( array ), asList( read ) );
+        assertEquals( array.shrink().size(), read.size() );
+    }
+    
     private List<Long> asList( RelIdArray ids )
     {
         List<Long> result = new ArrayList<Long>();
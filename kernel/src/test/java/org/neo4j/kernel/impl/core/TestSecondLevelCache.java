@@ -0,0 +1,214 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+import org.neo4j.kernel.impl.MyRelTypes;
+import org.neo4j.kernel.impl.cache.OffHeapCache;
+
+public class TestSecondLevelCache
+{
+    private static final String PATH = AbstractNeo4jTestCase.getStorePath( "second-level-cache" );
+    private static final String LONG_STRING = "A string long enough to be " +
+            "stored in the dynamic string store instead of in the block itself";
+    private static final int OTHER_NODES = 1000;
+
+    private EmbeddedGraphDatabase db;
+    private NodeManager nodeManager;
+    private long hubId;
+
+    @Before
+    public void createGraph()
+    {
+        AbstractNeo4jTestCase.deleteFileOrDirectory( new File( PATH ) );
+        db = new EmbeddedGraphDatabase( PATH, MapUtil.stringMap( Config.CACHE_TYPE, "clock",
+                "max_node_cache_size", "100", "max_relationship_cache_size", "100",
+                Config.OFFHEAP_CACHE_SIZE, "10M" ) );
+        nodeManager = db.getConfig().getGraphDbModule().getNodeManager();
+        Transaction tx = db.beginTx();
+        Node hub = db.createNode();
+        hub.setProperty( "name", LONG_STRING );
+        hub.setProperty( "short", "short" );
+        hub.setProperty( "weight", 10 );
+        hub.setProperty( "scores", new int[] { 1, 2, 3 } );
+        hub.setProperty( "tags", new String[] { "a", LONG_STRING } );
+        hub.setProperty( "ratio", 0.5d );
+        hub.setProperty( "unread", LONG_STRING + "?" );
+        for ( int i = 0; i < OTHER_NODES; i++ )
+        {
+            Relationship rel = hub.createRelationshipTo( db.createNode(), MyRelTypes.TEST );
+            rel.setProperty( "index", i );
+        }
+        hub.createRelationshipTo( hub, MyRelTypes.TEST2 );
+        hubId = hub.getId();
+        tx.success();
+        tx.finish();
+        nodeManager.clearCache();
+    }
+
+    @After
+    public void shutdownDb()
+    {
+        db.shutdown();
+    }
+
+    @Test
+    public void shouldRestoreEvictedNodesAndRelationships()
+    {
+        Node hub = db.getNodeById( hubId );
+        assertProperties( hub );
+        assertRelationships( hub );
+        evictEverything();
+        OffHeapCache cache = nodeManager.getSecondLevelCache();
+        assertTrue( cache.size() > OTHER_NODES );
+        long hits = cache.hitCount();
+
+        assertProperties( hub );
+        assertEquals( LONG_STRING + "?", hub.getProperty( "unread" ) );
+        assertRelationships( hub );
+        assertTrue( cache.hitCount() > hits + OTHER_NODES );
+    }
+
+    @Test
+    public void shouldNotRestoreNodesChangedSinceTheyWereEvicted()
+    {
+        Node hub = db.getNodeById( hubId );
+        assertProperties( hub );
+        evictEverything();
+
+        Transaction tx = db.beginTx();
+        hub.setProperty( "weight", 11 );
+        hub.removeProperty( "short" );
+        hub.createRelationshipTo( db.createNode(), MyRelTypes.TEST );
+        tx.success();
+        tx.finish();
+        evictEverything();
+
+        assertEquals( 11, hub.getProperty( "weight" ) );
+        assertNull( hub.getProperty( "short", null ) );
+        int count = 0;
+        for ( Relationship rel : hub.getRelationships( MyRelTypes.TEST ) )
+        {
+            count++;
+        }
+        assertEquals( OTHER_NODES + 1, count );
+    }
+
+    @Test
+    public void shouldNotRestoreNodesChangedWhileTheyWereEvicted() throws Exception
+    {
+        Transaction tx = db.beginTx();
+        Node counter = db.createNode();
+        counter.setProperty( "count", 0 );
+        tx.success();
+        tx.finish();
+
+        tx = db.beginTx();
+        counter.setProperty( "count", 1 );
+        NodeImpl node = nodeManager.getNodeIfCached( counter.getId() );
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread evictor = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    evictEverything();
+                }
+                catch ( Throwable t )
+                {
+                    failure.set( t );
+                }
+            }
+        };
+        // the monitor keeps the node from being moved to the second level
+        // cache until the transaction has committed
+        synchronized ( node )
+        {
+            evictor.start();
+            while ( evictor.isAlive() && evictor.getState() != Thread.State.BLOCKED )
+            {
+                Thread.sleep( 1 );
+            }
+            assertTrue( "The node wasn't evicted", evictor.isAlive() );
+            tx.success();
+            tx.finish();
+        }
+        evictor.join();
+        assertNull( failure.get() );
+        assertEquals( 1, counter.getProperty( "count" ) );
+    }
+
+    private void evictEverything()
+    {
+        for ( int round = 0; round < 3; round++ )
+        {
+            for ( Relationship rel : db.getNodeById( hubId ).getRelationships( MyRelTypes.TEST ) )
+            {
+                rel.getEndNode().hasProperty( "name" );
+            }
+        }
+    }
+
+    private void assertProperties( Node hub )
+    {
+        assertEquals( LONG_STRING, hub.getProperty( "name" ) );
+        assertEquals( "short", hub.getProperty( "short" ) );
+        assertEquals( 10, hub.getProperty( "weight" ) );
+        assertArrayEquals( new int[] { 1, 2, 3 }, (int[]) hub.getProperty( "scores" ) );
+        assertArrayEquals( new String[] { "a", LONG_STRING }, (String[]) hub.getProperty( "tags" ) );
+        assertEquals( 0.5d, hub.getProperty( "ratio" ) );
+    }
+
+    private void assertRelationships( Node hub )
+    {
+        boolean[] seen = new boolean[OTHER_NODES];
+        for ( Relationship rel : hub.getRelationships( MyRelTypes.TEST, Direction.OUTGOING ) )
+        {
+            assertEquals( hub, rel.getStartNode() );
+            seen[(Integer) rel.getProperty( "index" )] = true;
+        }
+        for ( boolean found : seen )
+        {
+            assertTrue( found );
+        }
+        Relationship loop = hub.getSingleRelationship( MyRelTypes.TEST2, Direction.OUTGOING );
+        assertEquals( hub, loop.getEndNode() );
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.kernel.impl.AbstractNeo4jTestCase.deleteFileOrDirectory;
+import static org.neo4j.kernel.impl.AbstractNeo4jTestCase.getStorePath;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+
+public class TestCompressedProperties
+{
+    private final String storePath = getStorePath( "compressed-properties" );
+    private EmbeddedGraphDatabase graphDb;
+
+    @Before
+    public void startDb()
+    {
+        deleteFileOrDirectory( storePath );
+        graphDb = newGraphDb( storePath, "100" );
+    }
+
+    @After
+    public void stopDb()
+    {
+        if ( graphDb != null )
+        {
+            graphDb.shutdown();
+        }
+    }
+
+    private static EmbeddedGraphDatabase newGraphDb( String path, String compressOver )
+    {
+        return new EmbeddedGraphDatabase( path, compressOver == null ?
+                MapUtil.stringMap() :
+                MapUtil.stringMap( Config.COMPRESS_PROPERTY_VALUES_OVER, compressOver ) );
+    }
+
+    private void restart()
+    {
+        graphDb.shutdown();
+        graphDb = newGraphDb( storePath, "100" );
+    }
+
+    private void clearCache()
+    {
+        graphDb.getConfig().getGraphDbModule().getNodeManager().clearCache();
+    }
+
+    private static String json( int items )
+    {
+        StringBuilder json = new StringBuilder( "[" );
+        for ( int i = 0; i < items; i++ )
+        {
+            json.append( "{\"id\":" ).append( i ).append( ",\"kind\":\"measurement\"," )
+                .append( "\"unit\":\"celsius\",\"valid\":true}," );
+        }
+        return json.append( "]" ).toString();
+    }
+
+    private long createNodeWith( EmbeddedGraphDatabase db, String key, Object value )
+    {
+        Transaction tx = db.beginTx();
+        try
+        {
+            Node node = db.createNode();
+            node.setProperty( key, value );
+            tx.success();
+            return node.getId();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    private void setProperty( long nodeId, String key, Object value )
+    {
+        Transaction tx = graphDb.beginTx();
+        try
+        {
+            graphDb.getNodeById( nodeId ).setProperty( key, value );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    @Test
+    public void compressedValuesShouldReadBackTheSame()
+    {
+        String string = json( 100 );
+        String[] strings = new String[50];
+        int[] ints = new int[1000];
+        for ( int i = 0; i < strings.length; i++ )
+        {
+            strings[i] = "measurement in celsius number " + (i % 5);
+        }
+        for ( int i = 0; i < ints.length; i++ )
+        {
+            ints[i] = i % 7;
+        }
+        long stringNode = createNodeWith( graphDb, "value", string );
+        long stringsNode = createNodeWith( graphDb, "value", strings );
+        long intsNode = createNodeWith( graphDb, "value", ints );
+
+        for ( int i = 0; i < 2; i++ )
+        {
+            clearCache();
+            assertEquals( string, graphDb.getNodeById( stringNode ).getProperty( "value" ) );
+            assertArrayEquals( strings, (String[]) graphDb.getNodeById( stringsNode ).getProperty( "value" ) );
+            assertArrayEquals( ints, (int[]) graphDb.getNodeById( intsNode ).getProperty( "value" ) );
+            restart();
+        }
+    }
+
+    @Test
+    public void compressedValuesShouldTakeLessSpace()
+    {
+        String uncompressedPath = getStorePath( "uncompressed-properties" );
+        deleteFileOrDirectory( uncompressedPath );
+        EmbeddedGraphDatabase uncompressedDb = newGraphDb( uncompressedPath, null );
+        try
+        {
+            for ( int i = 0; i < 10; i++ )
+            {
+                createNodeWith( graphDb, "value", json( 100 ) );
+                createNodeWith( uncompressedDb, "value", json( 100 ) );
+            }
+        }
+        finally
+        {
+            uncompressedDb.shutdown();
+        }
+        graphDb.shutdown();
+        graphDb = null;
+        String strings = NeoStore.DEFAULT_NAME + ".propertystore.db.strings";
+        long compressedSize = new File( storePath, strings ).length();
+        long uncompressedSize = new File( uncompressedPath, strings ).length();
+        assertTrue( compressedSize + " vs " + uncompressedSize, compressedSize * 4 < uncompressedSize );
+    }
+
+    @Test
+    public void shouldChangeAndRemoveCompressedValues()
+    {
+        long nodeId = createNodeWith( graphDb, "value", json( 100 ) );
+        setProperty( nodeId, "value", json( 200 ) );
+        clearCache();
+        assertEquals( json( 200 ), graphDb.getNodeById( nodeId ).getProperty( "value" ) );
+
+        Transaction tx = graphDb.beginTx();
+        try
+        {
+            graphDb.getNodeById( nodeId ).removeProperty( "value" );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        restart();
+        assertFalse( graphDb.getNodeById( nodeId ).hasProperty( "value" ) );
+    }
+
+    @Test
+    public void valuesThatDontCompressShouldBeStoredAsTheyAre()
+    {
+        Random random = new Random( 42 );
+        char[] chars = new char[500];
+        for ( int i = 0; i < chars.length; i++ )
+        {
+            chars[i] = (char) ('!' + random.nextInt( 90 ));
+        }
+        String string = new String( chars );
+        long nodeId = createNodeWith( graphDb, "value", string );
+        clearCache();
+        assertEquals( string, graphDb.getNodeById( nodeId ).getProperty( "value" ) );
+    }
+}
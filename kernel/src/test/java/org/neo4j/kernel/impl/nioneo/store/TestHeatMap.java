@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+
+public class TestHeatMap
+{
+    private File heatMapFile()
+    {
+        File path = new File( AbstractNeo4jTestCase.getStorePath( "heatmap" ) );
+        path.mkdirs();
+        File file = new File( path, "store.db" + HeatMapKeeper.HEAT_MAP_SUFFIX );
+        file.delete();
+        return file;
+    }
+
+    @Test
+    public void shouldReadBackWrittenHeatMap() throws IOException
+    {
+        File file = heatMapFile();
+        assertNull( HeatMap.read( file ) );
+        new HeatMap( 4096, new int[] { 3, 0, 7 } ).write( file );
+        HeatMap heatMap = HeatMap.read( file );
+        assertEquals( 4096, heatMap.getRegionSize() );
+        assertEquals( 3, heatMap.getRegionCount() );
+        assertEquals( 3, heatMap.getHeat( 0 ) );
+        assertEquals( 0, heatMap.getHeat( 1 ) );
+        assertEquals( 7, heatMap.getHeat( 2 ) );
+    }
+
+    @Test
+    public void shouldIgnoreTruncatedHeatMap() throws IOException
+    {
+        File file = heatMapFile();
+        new HeatMap( 4096, new int[] { 3, 0, 7 } ).write( file );
+        FileOutputStream out = new FileOutputStream( file, true );
+        out.write( 1 );
+        out.close();
+        assertNull( HeatMap.read( file ) );
+    }
+
+    @Test
+    public void shouldSpreadHeatOverOtherRegionSizes()
+    {
+        HeatMap heatMap = new HeatMap( 100, new int[] { 1, 2, 3, 4, 5 } );
+        int[] larger = heatMap.toRegions( 200, 3 );
+        assertEquals( 3, larger[0] );
+        assertEquals( 7, larger[1] );
+        assertEquals( 5, larger[2] );
+        int[] smaller = heatMap.toRegions( 50, 4 );
+        assertEquals( 1, smaller[0] );
+        assertEquals( 0, smaller[1] );
+        assertEquals( 2, smaller[2] );
+        assertEquals( 0, smaller[3] );
+    }
+}
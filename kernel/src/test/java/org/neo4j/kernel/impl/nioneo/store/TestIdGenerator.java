@@ -684,4 +684,34 @@ public class TestIdGenerator
         assertEquals( nextExpectedId++, generator.nextId() );
         generator.close();
     }
+
+    @Test
+    public void nextIdNearPrefersFreeIdsInTheSamePage()
+    {
+        IdGeneratorImpl.createGenerator( idGeneratorFile() );
+        IdGenerator generator = new IdGeneratorImpl( idGeneratorFile(), 100,
+                1000, false );
+        for ( int i = 0; i < 50; i++ )
+        {
+            generator.nextId();
+        }
+        generator.freeId( 3 );
+        generator.freeId( 25 );
+        generator.freeId( 27 );
+        generator.close();
+        generator = new IdGeneratorImpl( idGeneratorFile(), 100, 1000, false );
+
+        // a page of ten ids, 20-29, has free ids
+        assertEquals( 25, generator.nextIdNear( 22, 10 ) );
+        assertEquals( 27, generator.nextIdNear( 29, 10 ) );
+        // no free ids left in that page and the high id is elsewhere
+        assertEquals( -1, generator.nextIdNear( 22, 10 ) );
+        // the high id is in the page of 55, but 3 is reused first
+        assertEquals( -1, generator.nextIdNear( 55, 10 ) );
+        // other free ids are still handed out as usual
+        assertEquals( 3, generator.nextId() );
+        assertEquals( 50, generator.nextIdNear( 55, 10 ) );
+        assertEquals( 51, generator.nextId() );
+        generator.close();
+    }
 }
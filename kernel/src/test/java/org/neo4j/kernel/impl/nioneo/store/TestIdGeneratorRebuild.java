@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.kernel.CommonFactories;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.IdGeneratorFactory;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+import org.neo4j.kernel.impl.util.FileUtils;
+
+public class TestIdGeneratorRebuild
+{
+    private static final int NODES = 5000;
+
+    private String storeDir;
+    private final Set<Long> deletedNodes = new HashSet<Long>();
+
+    @Before
+    public void createStore() throws Exception
+    {
+        storeDir = AbstractNeo4jTestCase.getStorePath( "rebuild-idgenerators" );
+        FileUtils.deleteRecursively( new File( storeDir ) );
+        EmbeddedGraphDatabase db = new EmbeddedGraphDatabase( storeDir );
+        Transaction tx = db.beginTx();
+        try
+        {
+            Node[] nodes = new Node[NODES];
+            for ( int i = 0; i < NODES; i++ )
+            {
+                nodes[i] = db.createNode();
+                nodes[i].setProperty( "name", "node " + i );
+            }
+            for ( int i = 0; i < NODES; i += 3 )
+            {
+                deletedNodes.add( nodes[i].getId() );
+                nodes[i].removeProperty( "name" );
+                nodes[i].delete();
+            }
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        db.shutdown();
+    }
+
+    private NeoStore openNeoStore( String threads )
+    {
+        return new NeoStore( MapUtil.map(
+                "neo_store", new File( storeDir, NeoStore.DEFAULT_NAME ).getAbsolutePath(),
+                Config.REBUILD_IDGENERATORS_THREADS, threads,
+                FileSystemAbstraction.class, CommonFactories.defaultFileSystemAbstraction(),
+                IdGeneratorFactory.class, CommonFactories.defaultIdGeneratorFactory() ) );
+    }
+
+    @Test
+    public void parallelRebuildFreesExactlyTheUnusedRecords()
+    {
+        NeoStore neoStore = openNeoStore( "4" );
+        try
+        {
+            neoStore.rebuildIdGenerators();
+            NodeStore nodeStore = neoStore.getNodeStore();
+            long highId = nodeStore.getHighId();
+            Set<Long> reused = new HashSet<Long>();
+            for ( long id = nodeStore.nextId(); id < highId; id = nodeStore.nextId() )
+            {
+                assertFalse( nodeStore.loadLightNode( id ) );
+                reused.add( id );
+            }
+            // node 0 is the reference node, which was never deleted
+            assertTrue( reused.containsAll( deletedNodes ) );
+
+            PropertyStore propertyStore = neoStore.getPropertyStore();
+            assertEquals( NODES - deletedNodes.size(), propertyStore.getNumberOfIdsInUse() );
+            highId = propertyStore.getHighId();
+            for ( long id = propertyStore.nextId(); id < highId; id = propertyStore.nextId() )
+            {
+                try
+                {
+                    propertyStore.getLightRecord( id );
+                    fail( "Property record " + id + " is in use but was handed out" );
+                }
+                catch ( InvalidRecordException e )
+                { // good
+                }
+            }
+        }
+        finally
+        {
+            neoStore.close();
+        }
+    }
+
+    @Test
+    public void parallelAndSingleThreadedRebuildAgree()
+    {
+        long[] single = rebuildAndCountIdsInUse( "1" );
+        long[] parallel = rebuildAndCountIdsInUse( "8" );
+        assertEquals( single[0], parallel[0] );
+        assertEquals( single[1], parallel[1] );
+    }
+
+    private long[] rebuildAndCountIdsInUse( String threads )
+    {
+        NeoStore neoStore = openNeoStore( threads );
+        try
+        {
+            neoStore.rebuildIdGenerators();
+            return new long[] { neoStore.getNodeStore().getNumberOfIdsInUse(),
+                    neoStore.getPropertyStore().getNumberOfIdsInUse() };
+        }
+        finally
+        {
+            neoStore.close();
+        }
+    }
+}
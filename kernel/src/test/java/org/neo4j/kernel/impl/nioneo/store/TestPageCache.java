@@ -0,0 +1,325 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+
+public class TestPageCache
+{
+    private static final int RECORD_SIZE = 8;
+    private static final int PAGE_SIZE = 64;
+    private static final int PAGE_COUNT = 16;
+
+    private RandomAccessFile firstFile;
+    private RandomAccessFile secondFile;
+
+    private File file( String name )
+    {
+        File path = new File( AbstractNeo4jTestCase.getStorePath( "pagecache" ) );
+        path.mkdirs();
+        File file = new File( path, name );
+        file.delete();
+        return file;
+    }
+
+    @Before
+    public void openFiles() throws IOException
+    {
+        firstFile = new RandomAccessFile( file( "first.db" ), "rw" );
+        secondFile = new RandomAccessFile( file( "second.db" ), "rw" );
+    }
+
+    @After
+    public void closeFiles() throws IOException
+    {
+        firstFile.close();
+        secondFile.close();
+    }
+
+    @Test
+    public void shouldReadBackWrittenRecords()
+    {
+        PageCache pageCache = new PageCache( PAGE_SIZE * PAGE_COUNT, PAGE_SIZE );
+        WindowPool pool = pageCache.newWindowPool( "first", RECORD_SIZE,
+            firstFile.getChannel(), false );
+        for ( long id = 0; id < 100; id++ )
+        {
+            writeRecord( pool, id, id * 3 );
+        }
+        for ( long id = 0; id < 100; id++ )
+        {
+            assertEquals( id * 3, readRecord( pool, id ) );
+        }
+        pool.close();
+    }
+
+    @Test
+    public void shouldWriteBackEvictedPages() throws IOException
+    {
+        PageCache pageCache = new PageCache( PAGE_SIZE * PAGE_COUNT, PAGE_SIZE );
+        WindowPool first = pageCache.newWindowPool( "first", RECORD_SIZE,
+            firstFile.getChannel(), false );
+        WindowPool second = pageCache.newWindowPool( "second", RECORD_SIZE,
+            secondFile.getChannel(), false );
+        int records = PAGE_COUNT * (PAGE_SIZE / RECORD_SIZE) * 4;
+        for ( long id = 0; id < records; id++ )
+        {
+            writeRecord( first, id, id );
+            writeRecord( second, id, -id );
+        }
+        for ( long id = 0; id < records; id++ )
+        {
+            assertEquals( id, readRecord( first, id ) );
+            assertEquals( -id, readRecord( second, id ) );
+        }
+        assertTrue( pageCache.getEvictions() > 0 );
+        assertTrue( first.getStats().getWindowCount()
+            + second.getStats().getWindowCount() <= PAGE_COUNT );
+        first.flushAll();
+        assertEquals( records - 1, readFromFile( firstFile.getChannel(),
+            records - 1 ) );
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void hotPagesShouldStayCachedRegardlessOfStore()
+    {
+        PageCache pageCache = new PageCache( PAGE_SIZE * PAGE_COUNT, PAGE_SIZE );
+        WindowPool hot = pageCache.newWindowPool( "first", RECORD_SIZE,
+            firstFile.getChannel(), false );
+        WindowPool cold = pageCache.newWindowPool( "second", RECORD_SIZE,
+            secondFile.getChannel(), false );
+        writeRecord( hot, 0, 42 );
+        int recordsPerPage = PAGE_SIZE / RECORD_SIZE;
+        for ( long page = 0; page < PAGE_COUNT * 10; page++ )
+        {
+            readRecord( hot, 0 );
+            writeRecord( cold, page * recordsPerPage, page );
+        }
+        int missesBefore = hot.getStats().getMissCount();
+        assertEquals( 42, readRecord( hot, 0 ) );
+        assertEquals( missesBefore, hot.getStats().getMissCount() );
+        hot.close();
+        cold.close();
+    }
+
+    @Test
+    public void heatMapShouldCountHitsPerPage()
+    {
+        PageCache pageCache = new PageCache( PAGE_SIZE * PAGE_COUNT, PAGE_SIZE );
+        WindowPool pool = pageCache.newWindowPool( "first", RECORD_SIZE,
+            firstFile.getChannel(), false );
+        int recordsPerPage = PAGE_SIZE / RECORD_SIZE;
+        for ( long page = 0; page < 3; page++ )
+        {
+            writeRecord( pool, page * recordsPerPage, page );
+        }
+        for ( int i = 0; i < 10; i++ )
+        {
+            readRecord( pool, 2 * recordsPerPage );
+        }
+        readRecord( pool, 0 );
+        HeatMap heatMap = pool.getHeatMap();
+        assertEquals( 2, heatMap.getHeat( 0 ) );
+        assertEquals( 1, heatMap.getHeat( 1 ) );
+        assertEquals( 11, heatMap.getHeat( 2 ) );
+        pool.close();
+    }
+
+    @Test
+    public void cachedPagesShouldBePinnedWithoutTheLockOfThePageCache() throws Exception
+    {
+        PageCache pageCache = new PageCache( PAGE_SIZE * PAGE_COUNT, PAGE_SIZE );
+        final WindowPool pool = pageCache.newWindowPool( "first", RECORD_SIZE,
+            firstFile.getChannel(), false );
+        writeRecord( pool, 3, 42 );
+        final AtomicLong read = new AtomicLong();
+        Thread reader = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                read.set( readRecord( pool, 3 ) );
+            }
+        };
+        synchronized ( pageCache )
+        {
+            reader.start();
+            reader.join( 10000 );
+            assertFalse( reader.isAlive() );
+        }
+        assertEquals( 42, read.get() );
+        pool.close();
+    }
+
+    @Test
+    public void waitingForAFrameShouldKeepTheInterruptFlag() throws Exception
+    {
+        final PageCache pageCache = new PageCache( PAGE_SIZE * PAGE_COUNT, PAGE_SIZE );
+        final PagedWindowPool pool = (PagedWindowPool) pageCache.newWindowPool(
+            "first", RECORD_SIZE, firstFile.getChannel(), false );
+        List<CachedPage> pinned = new ArrayList<CachedPage>();
+        for ( long pageId = 0; pageId < PAGE_COUNT; pageId++ )
+        {
+            pinned.add( pageCache.pin( pool, pageId ) );
+        }
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        Thread waiter = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                interrupt();
+                CachedPage page = pageCache.pin( pool, PAGE_COUNT );
+                interrupted.set( isInterrupted() );
+                page.lock();
+                pool.release( page );
+            }
+        };
+        waiter.start();
+        while ( waiter.getState() != Thread.State.WAITING && waiter.isAlive() )
+        {
+            Thread.sleep( 10 );
+        }
+        CachedPage first = pinned.get( 0 );
+        first.lock();
+        pool.release( first );
+        waiter.join( 10000 );
+        assertFalse( waiter.isAlive() );
+        assertTrue( interrupted.get() );
+        assertEquals( 1, pageCache.getEvictions() );
+        for ( CachedPage page : pinned.subList( 1, PAGE_COUNT ) )
+        {
+            page.lock();
+            pool.release( page );
+        }
+        pool.close();
+    }
+
+    @Test
+    public void concurrentReadersAndWritersShouldSeeTheirRecordsThroughEvictions()
+        throws Exception
+    {
+        PageCache pageCache = new PageCache( PAGE_SIZE * PAGE_COUNT, PAGE_SIZE );
+        final WindowPool pool = pageCache.newWindowPool( "first", RECORD_SIZE,
+            firstFile.getChannel(), false );
+        final int records = PAGE_COUNT * (PAGE_SIZE / RECORD_SIZE) * 8;
+        final int threadCount = 8;
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for ( int t = 0; t < threadCount; t++ )
+        {
+            final int offset = t;
+            threads.add( new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for ( int round = 0; round < 10; round++ )
+                        {
+                            for ( long id = offset; id < records; id += threadCount )
+                            {
+                                writeRecord( pool, id, id * 7 + round );
+                                assertEquals( id * 7 + round, readRecord( pool, id ) );
+                            }
+                        }
+                    }
+                    catch ( Throwable e )
+                    {
+                        failure.compareAndSet( null, e );
+                    }
+                }
+            } );
+        }
+        for ( Thread thread : threads )
+        {
+            thread.start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        if ( failure.get() != null )
+        {
+            throw new AssertionError( failure.get() );
+        }
+        for ( long id = 0; id < records; id++ )
+        {
+            assertEquals( id * 7 + 9, readRecord( pool, id ) );
+        }
+        assertTrue( pageCache.getEvictions() > 0 );
+        pool.close();
+    }
+
+    private void writeRecord( WindowPool pool, long id, long value )
+    {
+        PersistenceWindow window = pool.acquire( id, OperationType.WRITE );
+        try
+        {
+            window.getOffsettedBuffer( id ).putLong( value );
+        }
+        finally
+        {
+            pool.release( window );
+        }
+    }
+
+    private long readRecord( WindowPool pool, long id )
+    {
+        PersistenceWindow window = pool.acquire( id, OperationType.READ );
+        try
+        {
+            return window.getOffsettedBuffer( id ).getLong();
+        }
+        finally
+        {
+            pool.release( window );
+        }
+    }
+
+    private long readFromFile( FileChannel channel, long id ) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate( RECORD_SIZE );
+        channel.read( buffer, id * RECORD_SIZE );
+        buffer.flip();
+        return buffer.getLong();
+    }
+}
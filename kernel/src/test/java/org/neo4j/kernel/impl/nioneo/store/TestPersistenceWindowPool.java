@@ -0,0 +1,314 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+
+public class TestPersistenceWindowPool
+{
+    private static final int RECORD_SIZE = 8;
+    private static final int RECORD_COUNT = 10000;
+
+    private RandomAccessFile file;
+
+    @Before
+    public void createStoreFile() throws IOException
+    {
+        File path = new File( AbstractNeo4jTestCase.getStorePath( "windowpool" ) );
+        path.mkdirs();
+        File storeFile = new File( path, "pool.db" );
+        storeFile.delete();
+        file = new RandomAccessFile( storeFile, "rw" );
+        file.setLength( (long) RECORD_SIZE * RECORD_COUNT );
+    }
+
+    @After
+    public void closeStoreFile() throws IOException
+    {
+        file.close();
+    }
+
+    private PersistenceWindowPool newPool( long mappedMem )
+    {
+        return new PersistenceWindowPool( "pool.db", RECORD_SIZE,
+            file.getChannel(), mappedMem, true, false );
+    }
+
+    @Test
+    public void concurrentReadersAndWritersSeeTheirOwnRecords() throws Exception
+    {
+        // only room for a part of the file so bricks are switched around
+        final PersistenceWindowPool pool = newPool( RECORD_SIZE * RECORD_COUNT / 4 );
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        final int threadCount = 8;
+        for ( int t = 0; t < threadCount; t++ )
+        {
+            final int offset = t;
+            threads.add( new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for ( int round = 0; round < 20; round++ )
+                        {
+                            for ( long id = offset; id < RECORD_COUNT; id += threadCount )
+                            {
+                                write( pool, id, id * 31 + round );
+                                assertEquals( id * 31 + round, read( pool, id ) );
+                            }
+                        }
+                    }
+                    catch ( Throwable e )
+                    {
+                        failure.compareAndSet( null, e );
+                    }
+                }
+            } );
+        }
+        for ( Thread thread : threads )
+        {
+            thread.start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        if ( failure.get() != null )
+        {
+            throw new AssertionError( failure.get() );
+        }
+        for ( long id = 0; id < RECORD_COUNT; id++ )
+        {
+            assertEquals( id * 31 + 19, read( pool, id ) );
+        }
+        WindowPoolStats stats = pool.getStats();
+        assertTrue( stats.getHitCount() + stats.getMissCount() > 0 );
+        pool.close();
+    }
+
+    @Test
+    public void writeBehindShouldStayWithinBudget() throws Exception
+    {
+        PersistenceWindowPool pool = newPool( RECORD_SIZE * RECORD_COUNT );
+        int brickSize = pool.getStats().getWindowSize();
+        // enough misses for the pool to map the bricks that have been hit
+        for ( long id = 0; id < RECORD_COUNT; id++ )
+        {
+            read( pool, id );
+        }
+        for ( int i = 0; i < 60000; i++ )
+        {
+            read( pool, 0 );
+        }
+        for ( long id = 0; id < RECORD_COUNT; id++ )
+        {
+            write( pool, id, id );
+        }
+        int dirty = pool.getStats().getDirtyCount();
+        assertTrue( dirty > 2 );
+        assertEquals( 2 * brickSize, pool.writeBehind( 2 * brickSize ) );
+        assertEquals( dirty - 2, pool.getStats().getDirtyCount() );
+
+        WriteBehindFlusher flusher = new WriteBehindFlusher( 1024 * 1024 * 1024 );
+        flusher.register( pool );
+        assertEquals( dirty - 2, flusher.getDirtyWindowCount() );
+        flusher.flushTick();
+        assertEquals( 0, flusher.getDirtyWindowCount() );
+        assertEquals( (dirty - 2) * brickSize, flusher.getBytesWritten() );
+        flusher.unregister( pool );
+        pool.close();
+    }
+
+    @Test
+    public void rowsShouldBeReadInBlocksAndSeeWrites()
+    {
+        // no mapped memory so every record goes through a row
+        PersistenceWindowPool pool = newPool( 0 );
+        for ( long id = 0; id < RECORD_COUNT; id++ )
+        {
+            write( pool, id, id + 1 );
+        }
+        for ( long id = 0; id < RECORD_COUNT; id++ )
+        {
+            assertEquals( id + 1, read( pool, id ) );
+        }
+        WindowPoolStats stats = pool.getStats();
+        assertEquals( 0, stats.getHitCount() );
+        assertEquals( RECORD_COUNT * 2, stats.getMissCount() );
+        pool.close();
+
+        RowBufferPool rowBuffers = new RowBufferPool( RECORD_SIZE,
+            file.getChannel() );
+        ByteBuffer buffer = rowBuffers.allocate();
+        for ( long id = 0; id < RECORD_COUNT; id++ )
+        {
+            rowBuffers.read( id, buffer );
+            assertEquals( id + 1, buffer.getLong() );
+        }
+        // one read from the file channel per block of 4k
+        assertEquals( RECORD_COUNT - RECORD_COUNT * RECORD_SIZE / 4096 - 1,
+            rowBuffers.getReadBlockHits() );
+        rowBuffers.recycle( buffer );
+        assertTrue( buffer == rowBuffers.allocate() );
+    }
+
+    @Test
+    public void rowsOfDifferentBlocksShouldBeReadFromTheirOwnReadBlocks()
+    {
+        PersistenceWindowPool pool = newPool( 0 );
+        for ( long id = 0; id < RECORD_COUNT; id++ )
+        {
+            write( pool, id, id + 1 );
+        }
+        pool.close();
+
+        RowBufferPool rowBuffers = new RowBufferPool( RECORD_SIZE,
+            file.getChannel() );
+        ByteBuffer buffer = rowBuffers.allocate();
+        long recordsPerBlock = 4096 / RECORD_SIZE;
+        for ( int i = 0; i < 10; i++ )
+        {
+            for ( long id = 0; id < 3 * recordsPerBlock; id += recordsPerBlock )
+            {
+                rowBuffers.read( id + i, buffer );
+                assertEquals( id + i + 1, buffer.getLong() );
+            }
+        }
+        // only the first read of each block reads from the file channel
+        assertEquals( 27, rowBuffers.getReadBlockHits() );
+
+        buffer.clear();
+        buffer.putLong( 100 );
+        rowBuffers.written( recordsPerBlock + 1, buffer );
+        rowBuffers.read( recordsPerBlock + 1, buffer );
+        assertEquals( 100, buffer.getLong() );
+        assertEquals( 28, rowBuffers.getReadBlockHits() );
+        rowBuffers.invalidate();
+        rowBuffers.read( 0, buffer );
+        assertEquals( 28, rowBuffers.getReadBlockHits() );
+    }
+
+    @Test
+    public void readAheadShouldBePerformedByTheWorker()
+    {
+        PersistenceWindowPool pool = newPool( RECORD_SIZE * RECORD_COUNT / 2 );
+        for ( long id = 0; id < RECORD_COUNT; id++ )
+        {
+            write( pool, id, id );
+        }
+        ReadAheadWorker readAhead = new ReadAheadWorker( 1024 );
+        readAhead.submit( pool, 0, RECORD_COUNT );
+        readAhead.submit( pool, RECORD_COUNT / 2, RECORD_COUNT );
+        assertEquals( 2, readAhead.getRequestCount() );
+        assertTrue( readAhead.performNext() );
+        assertTrue( readAhead.performNext() );
+        assertTrue( !readAhead.performNext() );
+        readAhead.submit( pool, 0, RECORD_COUNT );
+        readAhead.cancel( pool );
+        assertTrue( !readAhead.performNext() );
+        for ( long id = 0; id < RECORD_COUNT; id++ )
+        {
+            assertEquals( id, read( pool, id ) );
+        }
+        pool.close();
+    }
+
+    @Test
+    public void restartedPoolShouldBeWarmedUpFromSavedHeatMap() throws Exception
+    {
+        String storeFileName = new File( AbstractNeo4jTestCase.getStorePath(
+            "windowpool" ), "pool.db" ).getPath();
+        new File( storeFileName + HeatMapKeeper.HEAT_MAP_SUFFIX ).delete();
+        HeatMapKeeper keeper = new HeatMapKeeper( 60000 );
+        PersistenceWindowPool pool = newPool( RECORD_SIZE * RECORD_COUNT / 4 );
+        keeper.register( pool, storeFileName, false );
+        // the last tenth of the store is hot
+        for ( int i = 0; i < 10; i++ )
+        {
+            for ( long id = RECORD_COUNT * 9 / 10; id < RECORD_COUNT; id++ )
+            {
+                read( pool, id );
+            }
+        }
+        keeper.unregister( pool );
+        pool.close();
+        assertTrue( new File( storeFileName + HeatMapKeeper.HEAT_MAP_SUFFIX ).exists() );
+
+        pool = newPool( RECORD_SIZE * RECORD_COUNT / 4 );
+        assertEquals( 0, pool.getStats().getMemUsed() );
+        keeper.register( pool, storeFileName, false );
+        while ( keeper.getWarmedUpCount() == 0 )
+        {
+            Thread.sleep( 10 );
+        }
+        assertTrue( pool.getStats().getMemUsed() > 0 );
+        int misses = pool.getStats().getMissCount();
+        for ( long id = RECORD_COUNT * 9 / 10; id < RECORD_COUNT; id++ )
+        {
+            read( pool, id );
+        }
+        assertEquals( misses, pool.getStats().getMissCount() );
+        keeper.unregister( pool );
+        pool.close();
+    }
+
+    static void write( WindowPool pool, long id, long value )
+    {
+        PersistenceWindow window = pool.acquire( id, OperationType.WRITE );
+        try
+        {
+            window.getOffsettedBuffer( id ).putLong( value );
+        }
+        finally
+        {
+            pool.release( window );
+        }
+    }
+
+    static long read( WindowPool pool, long id )
+    {
+        PersistenceWindow window = pool.acquire( id, OperationType.READ );
+        try
+        {
+            return window.getOffsettedBuffer( id ).getLong();
+        }
+        finally
+        {
+            pool.release( window );
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestSequentialScanDetector
+{
+    @Test
+    public void shouldReadAheadOfAscendingReadsOnly()
+    {
+        SequentialScanDetector detector = new SequentialScanDetector( 100 );
+        List<Long> readAheads = new ArrayList<Long>();
+        for ( long position = 0; position < 1000; position++ )
+        {
+            long from = detector.read( position );
+            if ( from != -1 )
+            {
+                readAheads.add( from );
+            }
+        }
+        // first when the scan is detected, then whenever half the previous
+        // read ahead has been consumed
+        assertEquals( SequentialScanDetector.SCAN_THRESHOLD,
+            (long) readAheads.get( 0 ) );
+        for ( int i = 1; i < readAheads.size(); i++ )
+        {
+            assertEquals( readAheads.get( i - 1 ) + 100, (long) readAheads.get( i ) );
+        }
+        assertEquals( 11, readAheads.size() );
+
+        // a jump backwards ends the scan
+        assertEquals( -1, detector.read( 10 ) );
+        assertEquals( -1, detector.read( 11 ) );
+    }
+
+    @Test
+    public void scansShouldBeDetectedPerThread() throws Exception
+    {
+        final SequentialScanDetector detector = new SequentialScanDetector( 100 );
+        final long[] readAheadCount = new long[2];
+        Thread scanner = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                for ( long position = 0; position < 1000; position++ )
+                {
+                    if ( detector.read( position ) != -1 )
+                    {
+                        readAheadCount[0]++;
+                    }
+                }
+            }
+        };
+        Thread random = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                for ( long position = 0; position < 1000; position++ )
+                {
+                    if ( detector.read( (position * 7919) % 1000 ) != -1 )
+                    {
+                        readAheadCount[1]++;
+                    }
+                }
+            }
+        };
+        scanner.start();
+        random.start();
+        scanner.join();
+        random.join();
+        assertEquals( 11, readAheadCount[0] );
+        assertEquals( 0, readAheadCount[1] );
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.helpers.UTF8;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+
+public class TestStoreGrowth
+{
+    private static final int CHUNK = 64 * 1024;
+
+    private final String storeDir = AbstractNeo4jTestCase.getStorePath( "store-growth" );
+    private EmbeddedGraphDatabase graphDb;
+
+    @Before
+    public void startDb()
+    {
+        AbstractNeo4jTestCase.deleteFileOrDirectory( storeDir );
+        graphDb = newGraphDb();
+    }
+
+    @After
+    public void stopDb()
+    {
+        if ( graphDb != null )
+        {
+            graphDb.shutdown();
+        }
+    }
+
+    private EmbeddedGraphDatabase newGraphDb()
+    {
+        // no memory mapped windows for the node store, mapping one past the
+        // end of the file would grow it as well
+        return new EmbeddedGraphDatabase( storeDir, MapUtil.stringMap(
+                Config.STORE_GROWTH_CHUNK_SIZE, "64k",
+                "neostore.nodestore.db.mapped_memory", "0M" ) );
+    }
+
+    private File nodeStoreFile()
+    {
+        return new File( storeDir, NeoStore.DEFAULT_NAME + ".nodestore.db" );
+    }
+
+    private long createNodes( int count )
+    {
+        Transaction tx = graphDb.beginTx();
+        try
+        {
+            long lastId = -1;
+            for ( int i = 0; i < count; i++ )
+            {
+                Node node = graphDb.createNode();
+                node.setProperty( "number", i );
+                lastId = node.getId();
+            }
+            tx.success();
+            return lastId;
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    @Test
+    public void storeFileShouldGrowInChunks()
+    {
+        int recordsPerChunk = CHUNK / NodeStore.RECORD_SIZE;
+        long lastId = createNodes( recordsPerChunk + 10 );
+        long size = nodeStoreFile().length();
+        assertEquals( 0, size % (recordsPerChunk * NodeStore.RECORD_SIZE) );
+        assertTrue( size >= (lastId + 1) * NodeStore.RECORD_SIZE );
+
+        createNodes( 10 );
+        assertEquals( size, nodeStoreFile().length() );
+    }
+
+    @Test
+    public void storeFileShouldBeCutBackWhenClosed()
+    {
+        long lastId = createNodes( 1000 );
+        graphDb.shutdown();
+        graphDb = null;
+        int trailer = UTF8.encode( CommonAbstractStore.buildTypeDescriptorAndVersion(
+                NodeStore.TYPE_DESCRIPTOR ) ).length;
+        assertEquals( (lastId + 1) * NodeStore.RECORD_SIZE + trailer, nodeStoreFile().length() );
+
+        graphDb = newGraphDb();
+        assertEquals( 999, graphDb.getNodeById( lastId ).getProperty( "number" ) );
+        long highestId = graphDb.getConfig().getGraphDbModule().getNodeManager()
+                .getHighestPossibleIdInUse( Node.class );
+        assertEquals( lastId, highestId );
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+
+public class TestThreadLocalIdGenerator
+{
+    private final String file = AbstractNeo4jTestCase.getStorePath(
+        "xatest" ) + File.separator + "testThreadLocalIdGenerator.id";
+    private IdGenerator idGenerator;
+
+    @Before
+    public void createIdGenerator()
+    {
+        new File( file ).getParentFile().mkdirs();
+        new File( file ).delete();
+        IdGeneratorImpl.createGenerator( file );
+    }
+
+    @After
+    public void closeIdGenerator()
+    {
+        if ( idGenerator != null )
+        {
+            idGenerator.close();
+        }
+    }
+
+    private IdGenerator open( int rangeSize, boolean aggressiveReuse )
+    {
+        return new ThreadLocalIdGenerator( new IdGeneratorImpl( file, 100,
+            1000000, aggressiveReuse ), rangeSize );
+    }
+
+    private static long[] takeIdsInOtherThread( final IdGenerator idGenerator,
+        final int count ) throws InterruptedException
+    {
+        final long[] ids = new long[count];
+        Thread thread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                for ( int i = 0; i < count; i++ )
+                {
+                    ids[i] = idGenerator.nextId();
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+        return ids;
+    }
+
+    @Test
+    public void idsOfAThreadShouldBeSequentialAndCountedWhenTaken()
+    {
+        idGenerator = open( 10, false );
+        for ( int i = 0; i < 25; i++ )
+        {
+            assertEquals( i, idGenerator.nextId() );
+            assertEquals( i + 1, idGenerator.getNumberOfIdsInUse() );
+        }
+        assertEquals( 30, idGenerator.getHighId() );
+    }
+
+    @Test
+    public void concurrentThreadsShouldGetUniqueIds() throws Exception
+    {
+        idGenerator = open( 7, false );
+        final int threadCount = 8;
+        final int idsPerThread = 1000;
+        final List<Set<Long>> idsByThread = new ArrayList<Set<Long>>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for ( int t = 0; t < threadCount; t++ )
+        {
+            final Set<Long> ids = new HashSet<Long>();
+            idsByThread.add( ids );
+            threads.add( new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for ( int i = 0; i < idsPerThread; i++ )
+                    {
+                        ids.add( idGenerator.nextId() );
+                    }
+                }
+            } );
+        }
+        for ( Thread thread : threads )
+        {
+            thread.start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        Set<Long> allIds = new HashSet<Long>();
+        for ( Set<Long> ids : idsByThread )
+        {
+            assertEquals( idsPerThread, ids.size() );
+            allIds.addAll( ids );
+        }
+        assertEquals( threadCount * idsPerThread, allIds.size() );
+        assertEquals( threadCount * idsPerThread,
+            idGenerator.getNumberOfIdsInUse() );
+    }
+
+    @Test
+    public void idsLeftByDeadThreadShouldBeFreed() throws Exception
+    {
+        idGenerator = open( 5, true );
+        long[] ids = takeIdsInOtherThread( idGenerator, 2 );
+        assertEquals( 0, ids[0] );
+        assertEquals( 1, ids[1] );
+        // the dead thread's range is freed when the next one is handed out
+        assertEquals( 2, idGenerator.nextId() );
+        assertEquals( 3, idGenerator.nextId() );
+        assertEquals( 4, idGenerator.nextId() );
+        assertEquals( 5, idGenerator.nextId() );
+        assertEquals( 6, idGenerator.getNumberOfIdsInUse() );
+    }
+
+    @Test
+    public void idsLeftInRangesShouldBeFreedOnClose() throws Exception
+    {
+        idGenerator = open( 10, false );
+        takeIdsInOtherThread( idGenerator, 3 );
+        assertEquals( 10, idGenerator.nextId() );
+        assertEquals( 4, idGenerator.getNumberOfIdsInUse() );
+        idGenerator.close();
+
+        idGenerator = new IdGeneratorImpl( file, 100, 1000000, false );
+        assertEquals( 20, idGenerator.getHighId() );
+        assertEquals( 4, idGenerator.getNumberOfIdsInUse() );
+        Set<Long> reused = new HashSet<Long>();
+        for ( int i = 0; i < 16; i++ )
+        {
+            reused.add( idGenerator.nextId() );
+        }
+        for ( long id = 3; id < 20; id++ )
+        {
+            assertTrue( "" + id, id == 10 || reused.contains( id ) );
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.storemigration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.graphdb.DynamicRelationshipType.withName;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.nioneo.store.NeoStore;
+import org.neo4j.kernel.impl.storemigration.monitoring.SilentMigrationProgressMonitor;
+import org.neo4j.kernel.impl.util.FileUtils;
+
+public class StoreDefragmenterTest
+{
+    private static final int NODES = 50;
+    private static final int ROUNDS = 10;
+
+    @SuppressWarnings( { "unchecked" } )
+    @Test
+    public void shouldDefragmentChainsAndKeepContents() throws IOException
+    {
+        File fromDir = new File( "target/defragment/from" );
+        File toDir = new File( "target/defragment/to" );
+        FileUtils.deleteRecursively( fromDir.getParentFile() );
+        Map<String, String> config = stringMap( Config.DENSE_NODE_THRESHOLD, "25" );
+        createFragmentedGraph( fromDir, config );
+
+        HashMap fromConfig = MigrationTestUtils.defaultConfig();
+        fromConfig.put( "neo_store", new File( fromDir, NeoStore.DEFAULT_NAME ).getPath() );
+        fromConfig.put( Config.READ_ONLY, "true" );
+        NeoStore from = new NeoStore( fromConfig );
+        ChainLocality before = ChainLocality.measure( from );
+
+        assertTrue( toDir.mkdirs() );
+        // no dense node threshold, as with the defragmentation tool
+        HashMap toConfig = MigrationTestUtils.defaultConfig();
+        String toStoreFileName = new File( toDir, NeoStore.DEFAULT_NAME ).getPath();
+        toConfig.put( "neo_store", toStoreFileName );
+        NeoStore.createStore( toStoreFileName, toConfig );
+        NeoStore to = new NeoStore( toConfig );
+        long lastCommittedTx = from.getLastCommittedTx();
+
+        int[] newRelationshipIds = new StoreDefragmenter( new SilentMigrationProgressMonitor() ).defragment(
+                from, to );
+        from.close();
+        assertEquals( lastCommittedTx, to.getLastCommittedTx() );
+        assertTrue( to.hasRelationshipGroups() );
+        ChainLocality after = ChainLocality.measure( to );
+        to.close();
+
+        assertEquals( before.getNodes(), after.getNodes() );
+        assertTrue( "pages touched went from " + before.getPages() + " to " + after.getPages(),
+                after.getPages() < before.getPages() );
+
+        GraphDatabaseService db = new EmbeddedGraphDatabase( toDir.getPath() );
+        try
+        {
+            verifyGraph( db, newRelationshipIds );
+            changeHub( db );
+        }
+        finally
+        {
+            db.shutdown();
+        }
+        db = new EmbeddedGraphDatabase( toDir.getPath() );
+        try
+        {
+            verifyHub( db );
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    /*
+     * Adds and deletes relationships of the dense hub, which only keeps its
+     * chains intact if the store still knows that it has relationship
+     * groups.
+     */
+    private void changeHub( GraphDatabaseService db )
+    {
+        Transaction tx = db.beginTx();
+        try
+        {
+            Node hub = db.getReferenceNode();
+            for ( Relationship rel : hub.getRelationships( withName( "HUB" ) ) )
+            {
+                if ( rel.getEndNode().getId() == 1 )
+                {
+                    rel.delete();
+                }
+            }
+            for ( int i = 1; i <= 3; i++ )
+            {
+                hub.createRelationshipTo( db.getNodeById( i ), withName( "EXTRA" ) );
+            }
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        tx = db.beginTx();
+        try
+        {
+            for ( Relationship rel : db.getReferenceNode().getRelationships( withName( "EXTRA" ) ) )
+            {
+                if ( rel.getEndNode().getId() == 2 )
+                {
+                    rel.delete();
+                }
+            }
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    private void verifyHub( GraphDatabaseService db )
+    {
+        Node hub = db.getReferenceNode();
+        int hubRelationships = 0;
+        Set<Long> extraEnds = new HashSet<Long>();
+        for ( Relationship rel : hub.getRelationships() )
+        {
+            Node other = rel.getOtherNode( hub );
+            boolean foundFromOther = false;
+            for ( Relationship otherRel : other.getRelationships( rel.getType() ) )
+            {
+                foundFromOther |= otherRel.equals( rel );
+            }
+            assertTrue( foundFromOther );
+            if ( rel.getType().name().equals( "EXTRA" ) )
+            {
+                extraEnds.add( other.getId() );
+                continue;
+            }
+            assertEquals( "HUB", rel.getType().name() );
+            assertTrue( other.getId() != 1 );
+            hubRelationships++;
+        }
+        assertEquals( ROUNDS * NODES / 5 - ROUNDS, hubRelationships );
+        assertEquals( new HashSet<Long>( Arrays.asList( 1L, 3L ) ), extraEnds );
+    }
+
+    /*
+     * The relationships of the nodes in the ring are created one round at a
+     * time so that each chain is spread out over the whole store, some of
+     * them are deleted again to leave holes. The hub, the node with the most
+     * relationships, is dense.
+     */
+    private void createFragmentedGraph( File storeDir, Map<String, String> config )
+    {
+        GraphDatabaseService db = new EmbeddedGraphDatabase( storeDir.getPath(), config );
+        Transaction tx = db.beginTx();
+        try
+        {
+            Node hub = db.getReferenceNode();
+            Node[] nodes = new Node[NODES];
+            for ( int i = 0; i < NODES; i++ )
+            {
+                nodes[i] = db.createNode();
+                nodes[i].setProperty( "name", "node " + i );
+            }
+            for ( int round = 0; round < ROUNDS; round++ )
+            {
+                for ( int i = 0; i < NODES; i++ )
+                {
+                    Relationship rel = nodes[i].createRelationshipTo( nodes[(i + 1) % NODES],
+                            withName( round % 2 == 0 ? "EVEN" : "ODD" ) );
+                    rel.setProperty( "oldId", rel.getId() );
+                    rel.setProperty( "payload", longString( round ) );
+                    rel.setProperty( "array", new int[] { i, round } );
+                    if ( i % 7 == round )
+                    {
+                        rel.delete();
+                    }
+                    if ( i % 5 == 0 )
+                    {
+                        Relationship hubRel = hub.createRelationshipTo( nodes[i], withName( "HUB" ) );
+                        hubRel.setProperty( "oldId", hubRel.getId() );
+                    }
+                }
+            }
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        db.shutdown();
+    }
+
+    private void verifyGraph( GraphDatabaseService db, int[] newRelationshipIds )
+    {
+        int nodeCount = 0;
+        Set<Long> relationships = new HashSet<Long>();
+        for ( Node node : db.getAllNodes() )
+        {
+            nodeCount++;
+            if ( node.getId() > 0 )
+            {
+                assertEquals( "node " + (node.getId() - 1), node.getProperty( "name" ) );
+            }
+            for ( Relationship rel : node.getRelationships() )
+            {
+                relationships.add( rel.getId() );
+                long oldId = (Long) rel.getProperty( "oldId" );
+                assertEquals( rel.getId(), newRelationshipIds[(int) oldId] );
+                if ( rel.getType().name().equals( "HUB" ) )
+                {
+                    assertEquals( 0, rel.getStartNode().getId() );
+                    assertEquals( 0, (rel.getEndNode().getId() - 1) % 5 );
+                    continue;
+                }
+                int[] array = (int[]) rel.getProperty( "array" );
+                int round = array[1];
+                assertEquals( longString( round ), rel.getProperty( "payload" ) );
+                assertEquals( round % 2 == 0 ? "EVEN" : "ODD", rel.getType().name() );
+                assertEquals( array[0] + 1, rel.getStartNode().getId() );
+                assertEquals( (array[0] + 1) % NODES + 1, rel.getEndNode().getId() );
+            }
+        }
+        assertEquals( NODES + 1, nodeCount );
+        int deleted = 0;
+        for ( int round = 0; round < ROUNDS; round++ )
+        {
+            for ( int i = 0; i < NODES; i++ )
+            {
+                if ( i % 7 == round )
+                {
+                    deleted++;
+                }
+            }
+        }
+        assertEquals( NODES * ROUNDS - deleted + ROUNDS * NODES / 5, relationships.size() );
+    }
+
+    private static String longString( int round )
+    {
+        StringBuilder builder = new StringBuilder();
+        for ( int i = 0; i < 20; i++ )
+        {
+            builder.append( "a long string of round " ).append( round );
+        }
+        return builder.toString();
+    }
+}
@@ -19,10 +19,12 @@
  */
 package org.neo4j.kernel.impl.storemigration;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.neo4j.kernel.impl.nioneo.store.CommonAbstractStore.ALL_STORES_VERSION;
 import static org.neo4j.kernel.impl.storemigration.MigrationTestUtils.allStoreFilesHaveVersion;
+import static org.neo4j.kernel.impl.storemigration.MigrationTestUtils.changeVersionNumber;
 import static org.neo4j.kernel.impl.storemigration.MigrationTestUtils.prepareSampleLegacyDatabase;
 import static org.neo4j.kernel.impl.storemigration.MigrationTestUtils.truncateFile;
 
@@ -33,9 +35,13 @@ import java.util.Map;
 
 import org.junit.Test;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.TransactionFailureException;
 import org.neo4j.kernel.Config;
 import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.nioneo.store.NeoStore;
+import org.neo4j.kernel.impl.util.FileUtils;
 import org.neo4j.kernel.impl.storemigration.StoreUpgrader.UnableToUpgradeException;
 
 public class StoreUpgradeIntegrationTest
@@ -111,4 +117,63 @@ public class StoreUpgradeIntegrationTest
             assertTrue( UnableToUpgradeException.class.isAssignableFrom( e.getCause().getClass() ) );
         }
     }
+
+    @Test
+    public void shouldUpgradeCompatibleVersionsInPlace() throws IOException
+    {
+        for ( String version : UpgradableDatabase.COMPATIBLE_VERSIONS )
+        {
+            upgradeInPlace( version );
+        }
+    }
+
+    private void upgradeInPlace( String version ) throws IOException
+    {
+        File workingDirectory = new File(
+                "target/" + StoreUpgraderTest.class.getSimpleName()
+                        + "shouldUpgradeCompatibleVersionInPlace-" + version );
+        FileUtils.deleteRecursively( workingDirectory );
+        GraphDatabaseService database = new EmbeddedGraphDatabase( workingDirectory.getPath() );
+        Transaction tx = database.beginTx();
+        Node node = database.createNode();
+        node.setProperty( "name", "compatible" );
+        tx.success();
+        tx.finish();
+        database.shutdown();
+        setCompatibleVersion( workingDirectory, version );
+
+        try
+        {
+            new EmbeddedGraphDatabase( workingDirectory.getPath() );
+            fail( "Shouldn't upgrade without being allowed to" );
+        }
+        catch ( TransactionFailureException e )
+        {
+            assertTrue( UpgradeNotAllowedByConfigurationException.class.isAssignableFrom(
+                    e.getCause().getClass() ) );
+        }
+
+        Map<String, String> params = new HashMap<String, String>();
+        params.put( Config.ALLOW_STORE_UPGRADE, "true" );
+        database = new EmbeddedGraphDatabase( workingDirectory.getPath(), params );
+        assertEquals( "compatible", database.getNodeById( node.getId() ).getProperty( "name" ) );
+        database.shutdown();
+
+        assertTrue( allStoreFilesHaveVersion( workingDirectory, ALL_STORES_VERSION ) );
+        assertEquals( ALL_STORES_VERSION, NeoStore.versionLongToString( NeoStore.getStoreVersion(
+                new File( workingDirectory, NeoStore.DEFAULT_NAME ).getPath() ) ) );
+    }
+
+    private static void setCompatibleVersion( File workingDirectory, String version )
+            throws IOException
+    {
+        for ( Map.Entry<String, String> file :
+                UpgradableDatabase.fileNamesToTypeDescriptors.entrySet() )
+        {
+            changeVersionNumber( new File( workingDirectory, file.getKey() ),
+                    file.getValue() + " " + version );
+        }
+        NeoStore.setStoreVersion( workingDirectory.getPath(),
+                NeoStore.versionStringToLong( version ) );
+    }
 }
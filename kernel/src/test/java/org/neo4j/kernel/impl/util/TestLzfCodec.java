@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.neo4j.helpers.UTF8;
+
+public class TestLzfCodec
+{
+    private void assertRoundTrip( byte[] data )
+    {
+        assertArrayEquals( data, LzfCodec.decompress( LzfCodec.compress( data ) ) );
+    }
+
+    @Test
+    public void shouldRoundTripShortAndEmptyData()
+    {
+        assertRoundTrip( new byte[0] );
+        assertRoundTrip( new byte[] { 1 } );
+        assertRoundTrip( new byte[] { 1, 2 } );
+        assertRoundTrip( new byte[] { 1, 1, 1 } );
+    }
+
+    @Test
+    public void shouldCompressRepetitiveData()
+    {
+        StringBuilder json = new StringBuilder();
+        for ( int i = 0; i < 200; i++ )
+        {
+            json.append( "{\"name\":\"item\",\"value\":" ).append( i % 10 ).append( "}," );
+        }
+        byte[] data = UTF8.encode( json.toString() );
+        byte[] compressed = LzfCodec.compress( data );
+        assertTrue( compressed.length * 5 < data.length );
+        assertArrayEquals( data, LzfCodec.decompress( compressed ) );
+    }
+
+    @Test
+    public void shouldRoundTripLongRunsOfTheSameByte()
+    {
+        // back references overlapping the bytes they copy
+        assertRoundTrip( new byte[10000] );
+    }
+
+    @Test
+    public void shouldRoundTripRandomData()
+    {
+        Random random = new Random( 1234 );
+        for ( int i = 0; i < 100; i++ )
+        {
+            byte[] data = new byte[random.nextInt( 20000 )];
+            // few distinct values so that there are matches at all distances
+            for ( int j = 0; j < data.length; j++ )
+            {
+                data[j] = (byte) random.nextInt( i % 2 == 0 ? 4 : 256 );
+            }
+            assertRoundTrip( data );
+        }
+    }
+}
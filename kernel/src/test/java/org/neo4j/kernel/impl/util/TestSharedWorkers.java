@@ -0,0 +1,174 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TestSharedWorkers
+{
+    @Test
+    public void nestedRunsShouldNotUseMoreThanTheSharedThreads()
+    {
+        final SharedWorkers workers = new SharedWorkers( 3 );
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final AtomicInteger outerTasks = new AtomicInteger( 8 );
+        final AtomicInteger innerTasks = new AtomicInteger();
+        workers.run( new Runnable()
+        {
+            public void run()
+            {
+                while ( outerTasks.getAndDecrement() > 0 )
+                {
+                    final AtomicInteger ranges = new AtomicInteger( 20 );
+                    workers.run( new Runnable()
+                    {
+                        public void run()
+                        {
+                            int now = running.incrementAndGet();
+                            synchronized ( maxRunning )
+                            {
+                                maxRunning.set( Math.max( maxRunning.get(), now ) );
+                            }
+                            try
+                            {
+                                while ( ranges.getAndDecrement() > 0 )
+                                {
+                                    innerTasks.incrementAndGet();
+                                    sleep( 1 );
+                                }
+                            }
+                            finally
+                            {
+                                running.decrementAndGet();
+                            }
+                        }
+                    }, 8 );
+                }
+            }
+        }, 8 );
+        assertEquals( 8 * 20, innerTasks.get() );
+        assertTrue( "Ran " + maxRunning.get() + " workers at once",
+            maxRunning.get() <= 4 );
+    }
+
+    @Test
+    public void shouldRunOnCallingThreadWhenNoThreadIsFree() throws Exception
+    {
+        final SharedWorkers workers = new SharedWorkers( 1 );
+        final CountDownLatch helperStarted = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        Thread busy = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                workers.run( new Runnable()
+                {
+                    public void run()
+                    {
+                        if ( Thread.currentThread().getName().startsWith(
+                            "Store scan worker" ) )
+                        {
+                            helperStarted.countDown();
+                            await( release );
+                        }
+                    }
+                }, 2 );
+            }
+        };
+        busy.start();
+        assertTrue( helperStarted.await( 10, TimeUnit.SECONDS ) );
+        final Thread caller = Thread.currentThread();
+        final AtomicInteger calls = new AtomicInteger();
+        workers.run( new Runnable()
+        {
+            public void run()
+            {
+                assertSame( caller, Thread.currentThread() );
+                calls.incrementAndGet();
+            }
+        }, 4 );
+        assertEquals( 1, calls.get() );
+        release.countDown();
+        busy.join();
+    }
+
+    @Test
+    public void shouldRethrowFailureOfWorker()
+    {
+        SharedWorkers workers = new SharedWorkers( 2 );
+        final AtomicInteger started = new AtomicInteger();
+        try
+        {
+            workers.run( new Runnable()
+            {
+                public void run()
+                {
+                    if ( started.incrementAndGet() == 2 )
+                    {
+                        throw new IllegalStateException( "failed" );
+                    }
+                }
+            }, 2 );
+            if ( started.get() == 2 )
+            {
+                fail( "Should have rethrown the failure" );
+            }
+        }
+        catch ( IllegalStateException e )
+        {
+            assertEquals( "failed", e.getMessage() );
+        }
+    }
+
+    private static void sleep( long millis )
+    {
+        try
+        {
+            Thread.sleep( millis );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await( CountDownLatch latch )
+    {
+        try
+        {
+            latch.await();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.lucene;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.Field.Index;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.Fieldable;
+import org.apache.lucene.document.NumericField;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.NumericUtils;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.kernel.impl.index.IndexStore;
+import org.neo4j.kernel.impl.storemigration.IndexRemapper;
+import org.neo4j.kernel.impl.util.FileUtils;
+
+/**
+ * Copies the lucene indexes of a defragmented store. Node indexes are copied
+ * as they are, the documents of relationship indexes are added to new
+ * indexes with their relationship ids remapped.
+ * <p>
+ * Only the stored fields of a document can be read back, which is all of
+ * them for the documents written by {@link IndexType}. Lucene doesn't keep
+ * whether a field was numeric though, so a field is added as numeric again if
+ * its value is found in the index encoded as a number.
+ */
+public class LuceneIndexRemapper extends IndexRemapper
+{
+    public LuceneIndexRemapper()
+    {
+        super( LuceneIndexImplementation.SERVICE_NAME );
+    }
+
+    @Override
+    public void remap( File fromStoreDir, File toStoreDir, int[] newRelationshipIds )
+            throws IOException
+    {
+        File fromBase = new File( fromStoreDir, "index" );
+        if ( !fromBase.exists() )
+        {
+            return;
+        }
+        String toBase = LuceneDataSource.getStoreDir( toStoreDir.getPath() ).first();
+        File providerStore = new File( fromBase, "lucene-store.db" );
+        if ( providerStore.exists() )
+        {
+            FileUtils.copyFile( providerStore, new File( toBase, providerStore.getName() ) );
+        }
+
+        File fromNodeIndexes = LuceneDataSource.getFileDirectory( fromBase.getPath(), LuceneCommand.NODE );
+        if ( fromNodeIndexes.exists() )
+        {
+            File toNodeIndexes = LuceneDataSource.getFileDirectory( toBase, LuceneCommand.NODE );
+            toNodeIndexes.mkdirs();
+            FileUtils.copyRecursively( fromNodeIndexes, toNodeIndexes );
+        }
+
+        File fromRelationshipIndexes = LuceneDataSource.getFileDirectory( fromBase.getPath(),
+                LuceneCommand.RELATIONSHIP );
+        if ( !fromRelationshipIndexes.exists() )
+        {
+            return;
+        }
+        IndexStore indexStore = new IndexStore( fromStoreDir.getPath() );
+        for ( File fromIndex : fromRelationshipIndexes.listFiles() )
+        {
+            if ( !fromIndex.isDirectory() )
+            {
+                continue;
+            }
+            String name = fromIndex.getName();
+            IndexIdentifier identifier = new IndexIdentifier( LuceneCommand.RELATIONSHIP, null, name );
+            Map<String, String> config = indexStore.get( Relationship.class, name );
+            IndexType type = IndexType.getIndexType( identifier, config != null ? config :
+                    LuceneIndexImplementation.EXACT_CONFIG );
+            remapRelationshipIndex( FSDirectory.open( fromIndex ), FSDirectory.open(
+                    LuceneDataSource.getFileDirectory( toBase, identifier ) ), type, newRelationshipIds );
+        }
+    }
+
+    private void remapRelationshipIndex( Directory from, Directory to, IndexType type,
+            int[] newRelationshipIds ) throws IOException
+    {
+        IndexReader reader = IndexReader.open( from, true );
+        IndexWriterConfig writerConfig = new IndexWriterConfig( LuceneDataSource.LUCENE_VERSION,
+                type.analyzer );
+        Similarity similarity = type.getSimilarity();
+        if ( similarity != null )
+        {
+            writerConfig.setSimilarity( similarity );
+        }
+        IndexWriter writer = new IndexWriter( to, writerConfig );
+        try
+        {
+            for ( int i = 0; i < reader.maxDoc(); i++ )
+            {
+                if ( reader.isDeleted( i ) )
+                {
+                    continue;
+                }
+                Document document = reader.document( i );
+                long oldId = Long.parseLong( document.get( LuceneIndex.KEY_DOC_ID ) );
+                long newId = oldId < newRelationshipIds.length ? newRelationshipIds[(int) oldId] : -1;
+                if ( newId == -1 )
+                {
+                    // the relationship is gone, it won't be found in the new index either
+                    continue;
+                }
+                Document copy = IndexType.newBaseDocument( newId );
+                for ( Fieldable field : document.getFields() )
+                {
+                    if ( !field.name().equals( LuceneIndex.KEY_DOC_ID ) )
+                    {
+                        copy.add( copyField( reader, field ) );
+                    }
+                }
+                writer.addDocument( copy );
+            }
+        }
+        finally
+        {
+            writer.close();
+            reader.close();
+        }
+    }
+
+    private static Fieldable copyField( IndexReader reader, Fieldable field ) throws IOException
+    {
+        NumericField numericField = numericField( reader, field.name(), field.stringValue() );
+        if ( numericField != null )
+        {
+            return numericField;
+        }
+        return new Field( field.name(), field.stringValue(), Store.YES,
+                field.isTokenized() ? Index.ANALYZED : Index.NOT_ANALYZED );
+    }
+
+    private static NumericField numericField( IndexReader reader, String key, String value )
+            throws IOException
+    {
+        try
+        {
+            long longValue = Long.parseLong( value );
+            if ( hasTerm( reader, key, NumericUtils.longToPrefixCoded( longValue ) ) )
+            {
+                return new NumericField( key, Store.YES, true ).setLongValue( longValue );
+            }
+            if ( longValue >= Integer.MIN_VALUE && longValue <= Integer.MAX_VALUE &&
+                    hasTerm( reader, key, NumericUtils.intToPrefixCoded( (int) longValue ) ) )
+            {
+                return new NumericField( key, Store.YES, true ).setIntValue( (int) longValue );
+            }
+            return null;
+        }
+        catch ( NumberFormatException e )
+        {
+            // not an integer, could still be a floating point number
+        }
+        try
+        {
+            double doubleValue = Double.parseDouble( value );
+            if ( hasTerm( reader, key, NumericUtils.longToPrefixCoded(
+                    NumericUtils.doubleToSortableLong( doubleValue ) ) ) )
+            {
+                return new NumericField( key, Store.YES, true ).setDoubleValue( doubleValue );
+            }
+            float floatValue = Float.parseFloat( value );
+            if ( hasTerm( reader, key, NumericUtils.intToPrefixCoded(
+                    NumericUtils.floatToSortableInt( floatValue ) ) ) )
+            {
+                return new NumericField( key, Store.YES, true ).setFloatValue( floatValue );
+            }
+            return null;
+        }
+        catch ( NumberFormatException e )
+        {
+            return null;
+        }
+    }
+
+    private static boolean hasTerm( IndexReader reader, String key, String text ) throws IOException
+    {
+        return reader.docFreq( new Term( key, text ) ) > 0;
+    }
+}
@@ -19,7 +19,6 @@
  */
 package org.neo4j.server.rrd.sampler;
 
-import org.neo4j.graphdb.Node;
 import org.neo4j.kernel.AbstractGraphDatabase;
 
 public class NodeIdsInUseSampleable extends DatabasePrimitivesSampleableBase
@@ -37,6 +36,6 @@ public class NodeIdsInUseSampleable extends DatabasePrimitivesSampleableBase
 
     @Override public double getValue()
     {
-        return getNodeManager().getNumberOfIdsInUse( Node.class );
+        return getNodeManager().getNodeCount();
     }
 }
@@ -19,7 +19,6 @@
  */
 package org.neo4j.server.rrd.sampler;
 
-import org.neo4j.graphdb.Relationship;
 import org.neo4j.kernel.AbstractGraphDatabase;
 
 public class RelationshipCountSampleable extends DatabasePrimitivesSampleableBase
@@ -36,6 +35,6 @@ public class RelationshipCountSampleable extends DatabasePrimitivesSampleableBas
 
     @Override public double getValue()
     {
-        return getNodeManager().getNumberOfIdsInUse( Relationship.class );
+        return getNodeManager().getRelationshipCount();
     }
 }
@@ -234,6 +234,26 @@ public class ReadOnlyGraphDatabaseProxy implements GraphDatabaseService, IndexMa
             return new ReadOnlyRelationshipProxy( actual.getSingleRelationship( type, dir ) );
         }
 
+        public int getDegree()
+        {
+            return actual.getDegree();
+        }
+
+        public int getDegree( RelationshipType type )
+        {
+            return actual.getDegree( type );
+        }
+
+        public int getDegree( Direction direction )
+        {
+            return actual.getDegree( direction );
+        }
+
+        public int getDegree( RelationshipType type, Direction direction )
+        {
+            return actual.getDegree( type, direction );
+        }
+
         public boolean hasRelationship()
         {
             return actual.hasRelationship();
@@ -299,6 +319,26 @@ public class ReadOnlyGraphDatabaseProxy implements GraphDatabaseService, IndexMa
             return actual.getProperty( key, defaultValue );
         }
 
+        public Object[] getProperties( String... keys )
+        {
+            return actual.getProperties( keys );
+        }
+
+        public long getLongProperty( String key, long defaultValue )
+        {
+            return actual.getLongProperty( key, defaultValue );
+        }
+
+        public double getDoubleProperty( String key, double defaultValue )
+        {
+            return actual.getDoubleProperty( key, defaultValue );
+        }
+
+        public boolean getBooleanProperty( String key, boolean defaultValue )
+        {
+            return actual.getBooleanProperty( key, defaultValue );
+        }
+
         public Iterable<String> getPropertyKeys()
         {
             return actual.getPropertyKeys();
@@ -407,6 +447,11 @@ public class ReadOnlyGraphDatabaseProxy implements GraphDatabaseService, IndexMa
             return actual.getProperty( key, defaultValue );
         }
 
+        public Object[] getProperties( String... keys )
+        {
+            return actual.getProperties( keys );
+        }
+
         public Iterable<String> getPropertyKeys()
         {
             return actual.getPropertyKeys();